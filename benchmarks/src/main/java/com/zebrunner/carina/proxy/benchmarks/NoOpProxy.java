@@ -0,0 +1,33 @@
+package com.zebrunner.carina.proxy.benchmarks;
+
+import com.zebrunner.carina.proxy.IProxy;
+import com.zebrunner.carina.proxy.IProxyInfo;
+import com.zebrunner.carina.proxy.ProxyInfo;
+
+/**
+ * {@link IProxy} implementation that does not start anything, so benchmarks measure only the pool overhead
+ */
+class NoOpProxy implements IProxy {
+    private volatile IProxyInfo info;
+
+    @Override
+    public IProxyInfo start(int port) {
+        info = new ProxyInfo("127.0.0.1", port);
+        return info;
+    }
+
+    @Override
+    public void stop() {
+        info = null;
+    }
+
+    @Override
+    public IProxyInfo getInfo() {
+        return info;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return info != null;
+    }
+}
@@ -0,0 +1,77 @@
+package com.zebrunner.carina.proxy.benchmarks;
+
+import com.zebrunner.carina.proxy.PortAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PortAllocator} allocate/release pair with 1 to 64 threads.<br>
+ * Range contains twice as many ports as the max thread count, so allocation never runs out of ports.
+ * With {@code bindProbe=true} every allocation also binds the port, that is the cost paid by the
+ * {@link com.zebrunner.carina.proxy.ProxyPool} when {@code proxy_ports} is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortAllocatorBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean bindProbe;
+
+    private PortAllocator allocator;
+
+    @Setup
+    public void setup() {
+        allocator = new PortAllocator(PortAllocator.parsePorts("43000:43127"), bindProbe, Duration.ZERO);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int allocateRelease01Thread() {
+        return allocateRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int allocateRelease04Threads() {
+        return allocateRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int allocateRelease16Threads() {
+        return allocateRelease();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int allocateRelease64Threads() {
+        return allocateRelease();
+    }
+
+    private int allocateRelease() {
+        OptionalInt port = allocator.allocate();
+        if (port.isEmpty()) {
+            return -1;
+        }
+        allocator.release(port.getAsInt());
+        return port.getAsInt();
+    }
+}
@@ -0,0 +1,77 @@
+package com.zebrunner.carina.proxy.benchmarks;
+
+import com.zebrunner.carina.proxy.SystemProxy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SystemProxy#isProxyAlive(String, int, int)} against the local listener (alive) and closed port (dead).
+ * Local listener accepts and closes connections in the background, so its backlog is never full.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyAliveBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int TIMEOUT_MILLIS = 1000;
+
+    private ServerSocket listener;
+    private Thread acceptor;
+    private int alivePort;
+    private int deadPort;
+
+    @Setup
+    public void setup() throws IOException {
+        listener = new ServerSocket(0, 1024, InetAddress.getByName(HOST));
+        alivePort = listener.getLocalPort();
+        acceptor = new Thread(() -> {
+            while (!listener.isClosed()) {
+                try (Socket ignored = listener.accept()) {
+                    // close immediately
+                } catch (IOException e) {
+                    // listener is closed
+                }
+            }
+        }, "proxy-alive-benchmark-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getByName(HOST))) {
+            deadPort = closed.getLocalPort();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        listener.close();
+        acceptor.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    @Benchmark
+    public boolean alive() throws UnknownHostException {
+        return SystemProxy.isProxyAlive(HOST, alivePort, TIMEOUT_MILLIS);
+    }
+
+    @Benchmark
+    public boolean dead() throws UnknownHostException {
+        return SystemProxy.isProxyAlive(HOST, deadPort, TIMEOUT_MILLIS);
+    }
+}
@@ -0,0 +1,84 @@
+package com.zebrunner.carina.proxy.benchmarks;
+
+import com.zebrunner.carina.proxy.IProxyInfo;
+import com.zebrunner.carina.proxy.ProxyPool;
+import com.zebrunner.carina.utils.R;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProxyPool#startProxy(com.zebrunner.carina.proxy.IProxy)} / {@link ProxyPool#stopProxy()} churn
+ * under contention. Every JMH thread is a separate proxy owner, proxy itself does nothing, so only
+ * the pool bookkeeping (owner maps, port allocation, metrics) is measured.
+ * <p>
+ * {@code portMode}:<br>
+ * {@code dynamic} - {@code proxy_port=0}, port is not allocated by the pool<br>
+ * {@code range} - ports are allocated from {@code proxy_ports} (with bind probing)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyPoolChurnBenchmark {
+
+    @Param({ "dynamic", "range" })
+    public String portMode;
+
+    @Setup
+    public void setup() {
+        // not thread-local values: setup of the benchmark state is executed by one of the worker threads only
+        R.CONFIG.put("proxy_standby_size", "0");
+        R.CONFIG.put("proxy_reaper_interval", "0");
+        if ("range".equals(portMode)) {
+            R.CONFIG.put("proxy_port", "NULL");
+            R.CONFIG.put("proxy_ports", "42000:42255");
+        } else {
+            R.CONFIG.put("proxy_port", "0");
+            R.CONFIG.put("proxy_ports", "NULL");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ProxyPool.stopAllProxies();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public IProxyInfo churnSingleThread() {
+        return churn();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public IProxyInfo churn08Threads() {
+        return churn();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public IProxyInfo churn32Threads() {
+        return churn();
+    }
+
+    private static IProxyInfo churn() {
+        IProxyInfo info = ProxyPool.startProxy(new NoOpProxy());
+        ProxyPool.stopProxy();
+        return info;
+    }
+}
@@ -0,0 +1,116 @@
+package com.zebrunner.carina.proxy.benchmarks;
+
+import com.browserup.bup.util.HttpMessageContents;
+import com.browserup.bup.util.HttpMessageInfo;
+import com.zebrunner.carina.proxy.browserup.rewrite.CustomRqFilter;
+import com.zebrunner.carina.proxy.browserup.rewrite.CustomRsFilter;
+import com.zebrunner.carina.proxy.browserup.rewrite.HeaderItem;
+import com.zebrunner.carina.proxy.browserup.rewrite.HeaderMethod;
+import com.zebrunner.carina.proxy.browserup.rewrite.RewriteItem;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CustomRqFilter} / {@link CustomRsFilter} throughput on HTML payloads of different sizes.<br>
+ * All {@code rules} match the url, so each of them rewrites headers and body, that is the worst case
+ * of the current implementation. Every invocation filters a fresh message with a copy of the prepared payload,
+ * as the proxy aggregates the body into a growable buffer before filters are applied.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RewriteFilterBenchmark {
+    private static final String URL = "https://www.example.com/catalog/index.html";
+    private static final String CHUNK = "<div class=\"item\"><a href=\"https://cdn.example.com/img/1.png\">item</a>"
+            + "<span data-id=\"42\">Lorem ipsum dolor sit amet, consectetur adipiscing elit.</span></div>\n";
+
+    @Param({ "1024", "65536", "1048576" })
+    public int payloadSize;
+
+    @Param({ "1", "4" })
+    public int rules;
+
+    private byte[] payload;
+    private CustomRqFilter requestFilter;
+    private CustomRsFilter responseFilter;
+    private HttpMessageInfo messageInfo;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(payloadSize + CHUNK.length());
+        while (sb.length() < payloadSize) {
+            sb.append(CHUNK);
+        }
+        sb.setLength(payloadSize);
+        payload = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        List<RewriteItem> rewrites = new ArrayList<>();
+        for (int i = 0; i < rules; i++) {
+            List<HeaderItem> headers = new ArrayList<>();
+            headers.add(new HeaderItem(HeaderMethod.ADD, Pair.of("X-Rewrite-" + i, "true")));
+            headers.add(new HeaderItem(HeaderMethod.REMOVE, Pair.of("Cache-Control", "")));
+            rewrites.add(new RewriteItem(".*example\\.com.*", "cdn\\.example\\.com", "cdn" + i + ".example.org", headers));
+        }
+        requestFilter = new CustomRqFilter(rewrites);
+        responseFilter = new CustomRsFilter(rewrites);
+
+        FullHttpRequest originalRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, URL);
+        messageInfo = new HttpMessageInfo(originalRequest, null, true, URL, URL);
+    }
+
+    @Benchmark
+    public void filterRequest(Blackhole blackhole) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, URL,
+                Unpooled.buffer(payload.length).writeBytes(payload));
+        request.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
+        request.headers().set(HttpHeaderNames.CACHE_CONTROL, "no-cache");
+        try {
+            blackhole.consume(requestFilter.filterRequest(request, new HttpMessageContents(request), messageInfo));
+            blackhole.consume(request.content().readableBytes());
+        } finally {
+            request.release();
+        }
+    }
+
+    @Benchmark
+    public void filterResponse(Blackhole blackhole) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.buffer(payload.length).writeBytes(payload));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, "no-cache");
+        try {
+            responseFilter.filterResponse(response, new HttpMessageContents(response), messageInfo);
+            blackhole.consume(response.content().readableBytes());
+        } finally {
+            response.release();
+        }
+    }
+}
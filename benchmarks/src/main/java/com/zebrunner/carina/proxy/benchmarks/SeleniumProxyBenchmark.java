@@ -0,0 +1,69 @@
+package com.zebrunner.carina.proxy.benchmarks;
+
+import com.zebrunner.carina.proxy.ProxyPool;
+import com.zebrunner.carina.proxy.ProxyUtils;
+import com.zebrunner.carina.utils.R;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.Proxy;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProxyUtils#getSeleniumProxy()} for each {@code proxy_type}.<br>
+ * {@code DYNAMIC} mode starts {@link NoOpProxy} by the rule and stops it after every call, so the result
+ * includes pool churn. {@code LEGACY} mode is measured with {@code browserup_proxy=false},
+ * BrowserUp startup is out of the scope of this benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeleniumProxyBenchmark {
+
+    @Param({ "DIRECT", "MANUAL", "DYNAMIC", "PAC", "AUTODETECT", "SYSTEM", "UNSPECIFIED", "UNUSED", "LEGACY" })
+    public String proxyType;
+
+    @Setup
+    public void setup() {
+        // not thread-local values: setup of the benchmark state is executed by one of the worker threads only
+        R.CONFIG.put("proxy_type", proxyType);
+        R.CONFIG.put("proxy_host", "127.0.0.1");
+        R.CONFIG.put("proxy_port", "DYNAMIC".equals(proxyType) ? "0" : "3128");
+        R.CONFIG.put("proxy_protocols", "http,https,ftp");
+        R.CONFIG.put("no_proxy", "localhost, 127.0.0.1, *.internal");
+        R.CONFIG.put("proxy_set_to_system", "false");
+        R.CONFIG.put("proxy_autoconfig_url", "http://127.0.0.1/proxy.pac");
+        R.CONFIG.put("proxy_pac_local", "false");
+        R.CONFIG.put("proxy_standby_size", "0");
+        R.CONFIG.put("browserup_proxy", "false");
+        ProxyPool.setRule(() -> Optional.of(new NoOpProxy()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ProxyPool.stopAllProxies();
+    }
+
+    @Benchmark
+    public Optional<Proxy> getSeleniumProxy() {
+        Optional<Proxy> proxy = ProxyUtils.getSeleniumProxy();
+        if ("DYNAMIC".equals(proxyType)) {
+            ProxyPool.stopProxy();
+        }
+        return proxy;
+    }
+}
@@ -0,0 +1,160 @@
+package com.zebrunner.carina.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * {@link ProxySelector} that routes each connection to the proxy of the calling owner (thread by default)
+ * from the {@link ProxyPool}, so dynamic proxies could be used by the HTTP clients of parallel sessions
+ * without changing global System properties.
+ * <p>
+ * Connections to the hosts from {@code no_proxy} are direct. Connections of the owners without started proxy
+ * (including registered proxy, that is not started yet or is being restarted),
+ * and connections with protocols that are not in {@code proxy_protocols} or not supported by the proxy,
+ * are routed by the delegate (previous default {@link ProxySelector}, that uses System properties).<br>
+ * Configuration ({@code proxy_set_to_system}, {@code proxy_protocols} and {@code no_proxy}) is taken
+ * when the proxy of the owner is started or restarted, so lookup only checks that the proxy is not changed.
+ * <p>
+ * Could be installed by {@link #install()}, it is done automatically when {@code proxy_set_to_system=true}
+ * and the dynamic proxy is used.
+ */
+public final class CarinaProxySelector extends ProxySelector {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final List<Proxy> DIRECT = List.of(Proxy.NO_PROXY);
+
+    private final ProxySelector delegate;
+    // last routes of the calling thread, so lookup does not read configuration and does not allocate
+    // while proxy of the owner is not changed
+    private final ThreadLocal<Routes> routes = new ThreadLocal<>();
+
+    /**
+     * @param delegate {@link ProxySelector} for connections, that are not routed to the dynamic proxy.
+     *                 If null, all such connections will be direct
+     */
+    public CarinaProxySelector(ProxySelector delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Set {@link CarinaProxySelector} as default {@link ProxySelector}, if it is not set yet.
+     * Previous default selector will be used as delegate
+     */
+    public static synchronized void install() {
+        ProxySelector current = ProxySelector.getDefault();
+        if (current instanceof CarinaProxySelector) {
+            return;
+        }
+        LOGGER.info("Carina proxy selector is set as default, HTTP clients will use the proxy of the current session.");
+        ProxySelector.setDefault(new CarinaProxySelector(current));
+    }
+
+    /**
+     * Restore default {@link ProxySelector}, that was replaced by {@link #install()}
+     */
+    public static synchronized void uninstall() {
+        ProxySelector current = ProxySelector.getDefault();
+        if (current instanceof CarinaProxySelector) {
+            ProxySelector.setDefault(((CarinaProxySelector) current).delegate);
+        }
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        if (uri == null) {
+            throw new IllegalArgumentException("URI can't be null.");
+        }
+        Protocol protocol = toProtocol(uri.getScheme());
+        Optional<IProxy> proxy = ProxyPool.getProxy();
+        if (protocol == null || proxy.isEmpty() || !proxy.get().isStarted()) {
+            return delegate(uri);
+        }
+        IProxyInfo info;
+        try {
+            info = proxy.get().getInfo();
+        } catch (IllegalStateException e) {
+            // proxy is stopped after the check, for example it is restarted by the supervisor
+            return delegate(uri);
+        }
+        Routes current = routes.get();
+        if (current == null || current.info != info) {
+            current = new Routes(info, ProxyConfig.get(), proxy.get().getSupportedProtocols());
+            routes.set(current);
+        }
+        if (!current.protocols.contains(protocol)) {
+            return delegate(uri);
+        }
+        String host = uri.getHost();
+        if (host != null && current.noProxyMatcher.matches(host)) {
+            return DIRECT;
+        }
+        return protocol == Protocol.SOCKS ? current.socks : current.http;
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+        if (delegate != null) {
+            delegate.connectFailed(uri, sa, ioe);
+        }
+        LOGGER.debug("Connection to '{}' via '{}' failed: {}", uri, sa, ioe.getMessage());
+    }
+
+    private List<Proxy> delegate(URI uri) {
+        return delegate != null ? delegate.select(uri) : DIRECT;
+    }
+
+    private static Protocol toProtocol(String scheme) {
+        if (scheme == null) {
+            return null;
+        }
+        switch (scheme.toLowerCase(Locale.ROOT)) {
+        case "http":
+        case "ws":
+            return Protocol.HTTP;
+        case "https":
+        case "wss":
+            return Protocol.HTTPS;
+        case "ftp":
+            return Protocol.FTP;
+        case "socket":
+            return Protocol.SOCKS;
+        default:
+            return null;
+        }
+    }
+
+    private static final class Routes {
+        private final IProxyInfo info;
+        // protocols, that are routed to the proxy, empty if proxy should not be used by HTTP clients
+        private final Set<Protocol> protocols;
+        private final NoProxyMatcher noProxyMatcher;
+        private final List<Proxy> http;
+        private final List<Proxy> socks;
+
+        private Routes(IProxyInfo info, ProxyConfig config, List<Protocol> supportedProtocols) {
+            this.info = info;
+            EnumSet<Protocol> routed = EnumSet.noneOf(Protocol.class);
+            if (config.isSetToSystem()) {
+                routed.addAll(config.getProtocols());
+                routed.retainAll(supportedProtocols);
+            }
+            this.protocols = routed;
+            this.noProxyMatcher = config.getNoProxyMatcher();
+            InetSocketAddress address = InetSocketAddress.createUnresolved(info.getHost(), info.getPort());
+            this.http = List.of(new Proxy(Proxy.Type.HTTP, address));
+            this.socks = List.of(new Proxy(Proxy.Type.SOCKS, address));
+        }
+    }
+}
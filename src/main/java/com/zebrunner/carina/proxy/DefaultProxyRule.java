@@ -1,24 +1,40 @@
 package com.zebrunner.carina.proxy;
 
 import com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy;
+import com.zebrunner.carina.proxy.browserup.shared.SharedBrowserUpProxy;
 import com.zebrunner.carina.utils.Configuration;
+import com.zebrunner.carina.utils.R;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Default proxy rule implementation of {@link IProxyRule}
+ * Default proxy rule implementation of {@link IProxyRule}<br>
+ * Creates {@link CarinaBrowserUpProxy} if <b>browserup_proxy</b> is true, or {@link SharedBrowserUpProxy} session
+ * if <b>browserup_shared_server</b> is also true (it does not support all features of the {@link CarinaBrowserUpProxy},
+ * see {@link SharedBrowserUpProxy})
  */
 public class DefaultProxyRule implements IProxyRule {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final AtomicBoolean SHARED_SERVER_WARNED = new AtomicBoolean(false);
 
     @Override
     public Optional<IProxy> getProxyInstance() {
         IProxy proxy = null;
         if (Configuration.getBoolean(Configuration.Parameter.BROWSERUP_PROXY)) {
-            proxy = new CarinaBrowserUpProxy();
+            if (R.CONFIG.getBoolean("browserup_shared_server")) {
+                if (SHARED_SERVER_WARNED.compareAndSet(false, true)) {
+                    LOGGER.warn("'browserup_shared_server' is true, so proxies will be the sessions of the shared BrowserUp proxy server. "
+                            + "They do not support rewrite rules, streaming HAR capture, shared response cache, upstream proxies "
+                            + "and traffic archive of the CarinaBrowserUpProxy.");
+                }
+                proxy = new SharedBrowserUpProxy();
+            } else {
+                proxy = new CarinaBrowserUpProxy();
+            }
         } else {
             LOGGER.debug("Proxy is disabled.");
         }
@@ -0,0 +1,60 @@
+package com.zebrunner.carina.proxy;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Result of the {@link ProxyHealthChecker} check of one {@link HealthCheckTarget}
+ */
+public final class HealthCheckResult {
+    private final HealthCheckTarget target;
+    private final boolean alive;
+    private final Duration latency;
+    private final String error;
+    private final boolean timedOut;
+
+    HealthCheckResult(HealthCheckTarget target, boolean alive, Duration latency, String error, boolean timedOut) {
+        this.target = target;
+        this.alive = alive;
+        this.latency = latency;
+        this.error = error;
+        this.timedOut = timedOut;
+    }
+
+    public HealthCheckTarget getTarget() {
+        return target;
+    }
+
+    /**
+     * @return true if connection (and handshake with the proxy) succeeded
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * @return time from the start of the connection to the success or failure of the check
+     */
+    public Duration getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return true if check was not completed in time
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return {@link Optional} of failure description, {@link Optional#empty()} if target is alive
+     */
+    public Optional<String> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s in %d ms", target, alive ? "alive" : "failed (" + error + ")", latency.toMillis());
+    }
+}
@@ -0,0 +1,83 @@
+package com.zebrunner.carina.proxy;
+
+import java.net.Proxy;
+import java.util.Objects;
+
+/**
+ * Target of the {@link ProxyHealthChecker}: endpoint, that should accept TCP connection,
+ * or destination, that should be reachable through the HTTP (CONNECT) or SOCKS5 proxy
+ */
+public final class HealthCheckTarget {
+    private final String host;
+    private final int port;
+    private final Proxy.Type type;
+    private final String destinationHost;
+    private final int destinationPort;
+
+    private HealthCheckTarget(String host, int port, Proxy.Type type, String destinationHost, int destinationPort) {
+        this.host = Objects.requireNonNull(host);
+        this.port = port;
+        this.type = type;
+        this.destinationHost = destinationHost;
+        this.destinationPort = destinationPort;
+    }
+
+    /**
+     * Check that endpoint accepts TCP connection
+     *
+     * @param host host or ip address, for example proxy host
+     * @param port port
+     * @return {@link HealthCheckTarget}
+     */
+    public static HealthCheckTarget direct(String host, int port) {
+        return new HealthCheckTarget(host, port, Proxy.Type.DIRECT, null, 0);
+    }
+
+    /**
+     * Check that destination is reachable through the proxy
+     *
+     * @param proxyHost       proxy host or ip address
+     * @param proxyPort       proxy port
+     * @param type            {@link Proxy.Type#HTTP} (CONNECT method is used) or {@link Proxy.Type#SOCKS} (SOCKS5 without authentication)
+     * @param destinationHost destination host or ip address, resolved by the proxy
+     * @param destinationPort destination port
+     * @return {@link HealthCheckTarget}
+     * @throws IllegalArgumentException if type is {@link Proxy.Type#DIRECT}
+     */
+    public static HealthCheckTarget viaProxy(String proxyHost, int proxyPort, Proxy.Type type, String destinationHost, int destinationPort) {
+        if (type == Proxy.Type.DIRECT) {
+            throw new IllegalArgumentException("Proxy type should be HTTP or SOCKS.");
+        }
+        return new HealthCheckTarget(proxyHost, proxyPort, type, Objects.requireNonNull(destinationHost), destinationPort);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return {@link Proxy.Type#DIRECT} if only TCP connection is checked, type of the proxy handshake otherwise
+     */
+    public Proxy.Type getType() {
+        return type;
+    }
+
+    public String getDestinationHost() {
+        return destinationHost;
+    }
+
+    public int getDestinationPort() {
+        return destinationPort;
+    }
+
+    @Override
+    public String toString() {
+        return type == Proxy.Type.DIRECT
+                ? String.format("%s:%d", host, port)
+                : String.format("%s:%d via %s proxy %s:%d", destinationHost, destinationPort, type, host, port);
+    }
+}
@@ -23,6 +23,35 @@ public interface IProxy {
      */
     void stop();
 
+    /**
+     * Stop proxy immediately, without waiting for the completion of the active requests.<br>
+     * Used by {@link ProxyPool#stopAllProxies(java.time.Duration)} when graceful stop takes too long.
+     * By default, it is the same as {@link #stop()}
+     *
+     * @throws java.lang.IllegalStateException if the proxy has not been started.
+     */
+    default void abort() {
+        stop();
+    }
+
+    /**
+     * Restart unhealthy proxy on the same port, keeping its filters and rules.<br>
+     * Used by the {@link ProxyPool} health supervisor. By default, the proxy is aborted (if it is started) and started again
+     *
+     * @param port port to listen on
+     * @return see {@link IProxyInfo}
+     */
+    default IProxyInfo restart(int port) {
+        if (isStarted()) {
+            try {
+                abort();
+            } catch (RuntimeException e) {
+                // proxy is dead, so it could not be stopped correctly
+            }
+        }
+        return start(port);
+    }
+
     /**
      * Get information about started proxy
      *
@@ -0,0 +1,31 @@
+package com.zebrunner.carina.proxy;
+
+/**
+ * Describes how {@link ProxyPool} detects the owner of the proxy in the current context.<br>
+ * By default, the owner is the {@link ProxySession} attached to the current thread, or the current thread itself
+ * if there are no attached session.
+ * <p>
+ * Custom implementation could be set via {@link ProxyPool#setOwnerResolver(IProxyOwnerResolver)}, for example, to bind proxies
+ * to the test context of the async test runner.
+ */
+@FunctionalInterface
+public interface IProxyOwnerResolver {
+
+    /**
+     * Get id of the proxy owner in the current context
+     *
+     * @return owner id. Ids of the different owners should not be the same
+     */
+    long getOwnerId();
+
+    /**
+     * Get object, which lifetime is the lifetime of the proxy owner in the current context.<br>
+     * It is weakly referenced by {@link ProxyPool}: when it is garbage collected (or when it is the {@link Thread}
+     * that was terminated), the owner is treated as dead and its proxy, port and rule are reclaimed by the reaper.
+     *
+     * @return owner object, or null if owner liveness could not be tracked (only idle proxies will be reclaimed)
+     */
+    default Object getOwner() {
+        return null;
+    }
+}
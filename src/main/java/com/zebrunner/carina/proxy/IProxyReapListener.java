@@ -0,0 +1,16 @@
+package com.zebrunner.carina.proxy;
+
+/**
+ * Listener of the resources reclaimed by the {@link ProxyPool} reaper.<br>
+ * Could be added via {@link ProxyPool#addReapListener(IProxyReapListener)}. Called from the reaper thread.
+ */
+@FunctionalInterface
+public interface IProxyReapListener {
+
+    /**
+     * Called after the resources of the owner were reclaimed
+     *
+     * @param event see {@link ProxyReapEvent}
+     */
+    void onReap(ProxyReapEvent event);
+}
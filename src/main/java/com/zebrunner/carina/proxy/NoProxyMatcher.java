@@ -0,0 +1,441 @@
+package com.zebrunner.carina.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compiled matcher of the hosts, that should be reached directly, bypassing the proxy ({@code no_proxy} parameter).
+ * <p>
+ * Supported patterns (separated by ',' or '|'):<br>
+ * {@code host.example.com} - exact host<br>
+ * {@code *.example.com} or {@code .example.com} - domain and it's subdomains<br>
+ * {@code 10.0.0.0/8}, {@code fd00::/8} - CIDR range of the IP literals, {@code 192.168.1.10} - single IP<br>
+ * {@code 192.168.*} - IPv4 prefix (same as {@code 192.168.0.0/16})<br>
+ * {@code host*} - any other prefix<br>
+ * {@code <local>} - hosts without dots<br>
+ * {@code *} - all hosts
+ * <p>
+ * Domain patterns are kept in the suffix trie of the reversed host, flags are checked only on the label boundaries,
+ * so lookup takes O(host length) and does not allocate. CIDR ranges are kept in the binary trie of the address bits.
+ */
+public final class NoProxyMatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final NoProxyMatcher EMPTY = new NoProxyMatcher(List.of());
+
+    private final List<String> patterns;
+    private final DomainNode domains = new DomainNode();
+    private final BitNode ipv4 = new BitNode();
+    private final BitNode ipv6 = new BitNode();
+    private final List<String> prefixes = new ArrayList<>();
+    private boolean matchAll;
+    private boolean matchLocal;
+
+    private NoProxyMatcher(List<String> patterns) {
+        this.patterns = Collections.unmodifiableList(patterns);
+        for (String pattern : patterns) {
+            compile(pattern.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Compile matcher from the {@code no_proxy} value
+     *
+     * @param noProxy patterns separated by ',' (selenium style) or '|' (System properties style), could be null
+     * @return {@link NoProxyMatcher}
+     * @throws IllegalArgumentException if CIDR pattern is incorrect
+     */
+    public static NoProxyMatcher parse(String noProxy) {
+        if (noProxy == null || noProxy.isBlank()) {
+            return EMPTY;
+        }
+        List<String> patterns = new ArrayList<>();
+        for (String pattern : noProxy.split("[,|]")) {
+            if (!pattern.isBlank()) {
+                patterns.add(pattern.trim());
+            }
+        }
+        return new NoProxyMatcher(patterns);
+    }
+
+    private void compile(String pattern) {
+        if ("*".equals(pattern)) {
+            matchAll = true;
+        } else if ("<local>".equals(pattern)) {
+            matchLocal = true;
+        } else if (pattern.indexOf('/') > 0) {
+            addCidr(pattern);
+        } else if (isIpLiteral(pattern)) {
+            addCidr(pattern + (pattern.indexOf(':') >= 0 ? "/128" : "/32"));
+        } else if (pattern.startsWith("*.") || pattern.startsWith(".")) {
+            domains.add(pattern.substring(pattern.indexOf('.') + 1), true);
+        } else if (pattern.endsWith("*")) {
+            String prefix = pattern.substring(0, pattern.length() - 1);
+            String cidr = toIpv4Cidr(prefix);
+            if (cidr != null) {
+                addCidr(cidr);
+            } else {
+                prefixes.add(prefix);
+            }
+        } else {
+            domains.add(pattern, false);
+        }
+    }
+
+    /**
+     * Check if host should be reached directly
+     *
+     * @param host host name or IP literal (IPv6 literal could be in brackets)
+     * @return true if host matches one of the patterns
+     */
+    public boolean matches(String host) {
+        if (matchAll) {
+            return true;
+        }
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+        if (matchLocal && host.indexOf('.') < 0 && host.indexOf(':') < 0) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (host.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        int ipv4Address = parseIpv4(host);
+        if (ipv4Address != -1 || "255.255.255.255".equals(host)) {
+            return ipv4.matches(ipv4Address, 32);
+        }
+        if (host.indexOf(':') >= 0) {
+            byte[] address = parseIpv6(host);
+            return address != null && ipv6.matches(address);
+        }
+        return domains.matches(host);
+    }
+
+    /**
+     * @return unmodifiable {@link List} of the trimmed patterns
+     */
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * @return patterns separated by ',', as expected by {@link org.openqa.selenium.Proxy#setNoProxy(String)}
+     */
+    public String toSeleniumFormat() {
+        return String.join(",", patterns);
+    }
+
+    /**
+     * Get patterns in the format of the {@code http.nonProxyHosts} System property (separated by '|').<br>
+     * As System properties support only '*' wildcard, {@code .example.com} is converted to {@code *.example.com}
+     * and IPv4 CIDR ranges to prefixes, for example {@code 10.0.0.0/8} to {@code 10.*}. Range, that is not aligned
+     * to the octet, is expanded to the prefixes, that cover it: {@code 172.16.0.0/12} to {@code 172.16.*|...|172.31.*}.<br>
+     * IPv6 CIDR ranges could not be expressed by the wildcards, so they are skipped (with warning)
+     *
+     * @return patterns separated by '|'
+     */
+    public String toSystemFormat() {
+        List<String> systemPatterns = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            if (pattern.startsWith(".")) {
+                systemPatterns.add("*" + pattern);
+            } else if (pattern.indexOf('/') > 0 && pattern.indexOf(':') < 0) {
+                addIpv4Prefixes(pattern, systemPatterns);
+            } else if (pattern.indexOf('/') > 0) {
+                String address = pattern.substring(0, pattern.indexOf('/'));
+                if ("128".equals(pattern.substring(pattern.indexOf('/') + 1).trim())) {
+                    systemPatterns.add(address);
+                } else {
+                    LOGGER.warn("IPv6 range '{}' from no_proxy could not be set to 'http.nonProxyHosts' and will be skipped.", pattern);
+                }
+            } else {
+                systemPatterns.add(pattern);
+            }
+        }
+        return String.join("|", systemPatterns);
+    }
+
+    @Override
+    public String toString() {
+        return toSeleniumFormat();
+    }
+
+    private void addCidr(String cidr) {
+        int slash = cidr.indexOf('/');
+        String address = cidr.substring(0, slash);
+        int prefixLength;
+        try {
+            prefixLength = Integer.parseInt(cidr.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid CIDR in no_proxy: '%s'", cidr), e);
+        }
+        if (address.indexOf(':') >= 0) {
+            byte[] bytes = parseIpv6(address);
+            if (bytes == null || prefixLength < 0 || prefixLength > 128) {
+                throw new IllegalArgumentException(String.format("Invalid CIDR in no_proxy: '%s'", cidr));
+            }
+            ipv6.add(bytes, prefixLength);
+        } else {
+            int value = parseIpv4(address);
+            if ((value == -1 && !"255.255.255.255".equals(address)) || prefixLength < 0 || prefixLength > 32) {
+                throw new IllegalArgumentException(String.format("Invalid CIDR in no_proxy: '%s'", cidr));
+            }
+            ipv4.add(value, prefixLength);
+        }
+    }
+
+    private static boolean isIpLiteral(String pattern) {
+        return parseIpv4(pattern) != -1 || "255.255.255.255".equals(pattern) || (pattern.indexOf(':') >= 0 && parseIpv6(pattern) != null);
+    }
+
+    /**
+     * Convert IPv4 prefix like {@code 192.168.} or {@code 10} to the CIDR
+     *
+     * @return CIDR or null if prefix is not a sequence of octets
+     */
+    private static String toIpv4Cidr(String prefix) {
+        String octets = prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        if (octets.isEmpty()) {
+            return null;
+        }
+        String[] parts = octets.split("\\.");
+        if (parts.length > 3) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            if (i < parts.length) {
+                if (!parts[i].matches("\\d{1,3}") || Integer.parseInt(parts[i]) > 255) {
+                    return null;
+                }
+                sb.append(Integer.parseInt(parts[i]));
+            } else {
+                sb.append('0');
+            }
+            sb.append(i < 3 ? "." : "/");
+        }
+        return sb.append(parts.length * 8).toString();
+    }
+
+    /**
+     * Convert IPv4 CIDR to the prefixes with whole octets like {@code 192.168.*}, that cover the range
+     * (up to 256 prefixes, when range is not aligned to the octet)
+     */
+    private static void addIpv4Prefixes(String cidr, List<String> prefixes) {
+        int slash = cidr.indexOf('/');
+        int prefixLength = Integer.parseInt(cidr.substring(slash + 1).trim());
+        int octets = (prefixLength + 7) / 8;
+        // prefix /0 is covered by /8 prefixes, as '*' would match host names too
+        octets = Math.max(octets, 1);
+        int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+        int network = parseIpv4(cidr.substring(0, slash)) & mask;
+        int count = 1 << (octets * 8 - prefixLength);
+        for (int i = 0; i < count; i++) {
+            int address = network + (i << (32 - octets * 8));
+            StringBuilder sb = new StringBuilder();
+            for (int octet = 0; octet < octets; octet++) {
+                sb.append(octet > 0 ? "." : "").append((address >>> (24 - octet * 8)) & 0xFF);
+            }
+            prefixes.add(octets == 4 ? sb.toString() : sb.append(".*").toString());
+        }
+    }
+
+    /**
+     * Parse IPv4 literal without allocation
+     *
+     * @return address as int, or -1 if host is not an IPv4 literal (so {@code 255.255.255.255} should be checked separately)
+     */
+    private static int parseIpv4(String host) {
+        int length = host.length();
+        if (length < 7 || length > 15) {
+            return -1;
+        }
+        int result = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < length; i++) {
+            char c = host.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0) {
+            return -1;
+        }
+        return (result << 8) | octet;
+    }
+
+    private static byte[] parseIpv6(String host) {
+        String literal = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (Character.digit(c, 16) == -1 && c != ':' && c != '.' && c != '%') {
+                return null;
+            }
+        }
+        try {
+            // literal address is parsed without name service lookup
+            byte[] address = InetAddress.getByName(literal).getAddress();
+            return address.length == 16 ? address : null;
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Node of the suffix trie of the reversed domains
+     */
+    private static final class DomainNode {
+        private char[] keys = new char[0];
+        private DomainNode[] children = new DomainNode[0];
+        // host ends on this node
+        private boolean exact;
+        // host ends on this node or continues with the next label
+        private boolean subdomains;
+
+        private void add(String domain, boolean withSubdomains) {
+            String normalized = domain.endsWith(".") ? domain.substring(0, domain.length() - 1) : domain;
+            DomainNode node = this;
+            for (int i = normalized.length() - 1; i >= 0; i--) {
+                node = node.getOrCreate(normalized.charAt(i));
+            }
+            if (withSubdomains) {
+                node.subdomains = true;
+            } else {
+                node.exact = true;
+            }
+        }
+
+        private boolean matches(String host) {
+            int end = host.length();
+            if (host.charAt(end - 1) == '.') {
+                end--;
+            }
+            DomainNode node = this;
+            for (int i = end - 1; i >= 0; i--) {
+                node = node.get(Character.toLowerCase(host.charAt(i)));
+                if (node == null) {
+                    return false;
+                }
+                if (i == 0) {
+                    return node.exact || node.subdomains;
+                }
+                if (node.subdomains && host.charAt(i - 1) == '.') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private DomainNode get(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private DomainNode getOrCreate(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertion = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            DomainNode[] newChildren = new DomainNode[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            DomainNode node = new DomainNode();
+            newKeys[insertion] = key;
+            newChildren[insertion] = node;
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+    }
+
+    /**
+     * Node of the binary trie of the CIDR ranges
+     */
+    private static final class BitNode {
+        private final BitNode[] children = new BitNode[2];
+        private boolean terminal;
+
+        private void add(int address, int prefixLength) {
+            BitNode node = this;
+            for (int i = 0; i < prefixLength && !node.terminal; i++) {
+                int bit = (address >>> (31 - i)) & 1;
+                if (node.children[bit] == null) {
+                    node.children[bit] = new BitNode();
+                }
+                node = node.children[bit];
+            }
+            node.terminal = true;
+        }
+
+        private void add(byte[] address, int prefixLength) {
+            BitNode node = this;
+            for (int i = 0; i < prefixLength && !node.terminal; i++) {
+                int bit = (address[i >>> 3] >>> (7 - (i & 7))) & 1;
+                if (node.children[bit] == null) {
+                    node.children[bit] = new BitNode();
+                }
+                node = node.children[bit];
+            }
+            node.terminal = true;
+        }
+
+        private boolean matches(int address, int length) {
+            BitNode node = this;
+            for (int i = 0; i < length; i++) {
+                if (node.terminal) {
+                    return true;
+                }
+                node = node.children[(address >>> (31 - i)) & 1];
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.terminal;
+        }
+
+        private boolean matches(byte[] address) {
+            BitNode node = this;
+            for (int i = 0; i < 128; i++) {
+                if (node.terminal) {
+                    return true;
+                }
+                node = node.children[(address[i >>> 3] >>> (7 - (i & 7))) & 1];
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.terminal;
+        }
+    }
+}
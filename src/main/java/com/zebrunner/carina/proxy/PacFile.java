@@ -0,0 +1,81 @@
+package com.zebrunner.carina.proxy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Content of the local PAC file, cached by path, last modified time and size.<br>
+ * File is read again only when it is changed, Base64 data URL is built once per content.
+ */
+final class PacFile {
+    private static final Map<Path, PacFile> CACHE = new ConcurrentHashMap<>();
+
+    private final long lastModified;
+    private final long size;
+    private final byte[] content;
+    private final String etag;
+    private volatile String dataUrl;
+
+    private PacFile(long lastModified, long size, byte[] content) {
+        this.lastModified = lastModified;
+        this.size = size;
+        this.content = content;
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        this.etag = String.format("\"%x-%x\"", content.length, crc.getValue());
+    }
+
+    /**
+     * Get content of the PAC file
+     *
+     * @param path {@link Path} to the PAC file
+     * @return cached {@link PacFile} if file was not changed since it was read, new one otherwise
+     * @throws UncheckedIOException if error happens when try to read the file
+     */
+    static PacFile of(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            PacFile cached = CACHE.get(key);
+            if (cached != null && cached.lastModified == lastModified && cached.size == attributes.size()) {
+                return cached;
+            }
+            PacFile pacFile = new PacFile(lastModified, attributes.size(), Files.readAllBytes(key));
+            CACHE.put(key, pacFile);
+            return pacFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * @return strong entity tag of the content, for example {@code "1f4-9a0364b9"}
+     */
+    String getETag() {
+        return etag;
+    }
+
+    /**
+     * @return PAC file encoded to the data URL with Base64
+     */
+    String getDataUrl() {
+        String url = dataUrl;
+        if (url == null) {
+            url = "data:application/x-javascript-config;base64," + Base64.getEncoder().encodeToString(content);
+            dataUrl = url;
+        }
+        return url;
+    }
+}
@@ -0,0 +1,185 @@
+package com.zebrunner.carina.proxy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded HTTP server, that serves local PAC files, so the browser gets short URL instead of the data URL with the whole file.<br>
+ * Responses have {@code ETag} and {@code Cache-Control: no-cache}, so the browser revalidates PAC file and gets
+ * {@code 304 Not Modified} while file is not changed.
+ * <p>
+ * Server is started with the first registered file and lives until JVM shutdown, its threads are daemons.
+ * It listens on the loopback interface while only loopback hosts are requested, and is restarted on all interfaces
+ * (on the same port, if it is possible) when non-loopback host is requested.
+ */
+final class PacServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String CONTEXT = "/pac/";
+    private static final String CONTENT_TYPE = "application/x-ns-proxy-autoconfig";
+    private static final Map<Path, String> IDS = new ConcurrentHashMap<>();
+    private static final Map<String, Path> FILES = new ConcurrentHashMap<>();
+    private static final AtomicInteger ID_COUNTER = new AtomicInteger();
+    private static HttpServer server = null;
+    private static boolean allInterfaces = false;
+    private static ExecutorService executor = null;
+
+    private PacServer() {
+        // hide
+    }
+
+    /**
+     * Register PAC file in the server and get it's URL. Server will be started if it is not started yet
+     *
+     * @param path {@link Path} to the local PAC file
+     * @param host host, that will be used in the URL, so it should be reachable from the browser.
+     *            If it is not a loopback address, server will listen on all interfaces
+     * @return URL of the PAC file, for example {@code http://127.0.0.1:43721/pac/1.pac}
+     * @throws UncheckedIOException if server could not be started or host could not be resolved
+     */
+    static synchronized String getUrl(Path path, String host) {
+        Path key = path.toAbsolutePath().normalize();
+        if (server == null || !allInterfaces) {
+            InetAddress address = resolve(host);
+            if (server == null) {
+                allInterfaces = !address.isLoopbackAddress();
+                server = start(allInterfaces ? null : address, 0);
+            } else if (!address.isLoopbackAddress()) {
+                int port = server.getAddress().getPort();
+                LOGGER.info("PAC server is requested by non-loopback host '{}' and will be restarted on all interfaces.", host);
+                server.stop(0);
+                server = restart(port);
+                allInterfaces = true;
+            }
+        }
+        String id = IDS.computeIfAbsent(key, k -> {
+            String newId = ID_COUNTER.incrementAndGet() + ".pac";
+            FILES.put(newId, k);
+            return newId;
+        });
+        return String.format("http://%s:%d%s%s", host, server.getAddress().getPort(), CONTEXT, id);
+    }
+
+    private static InetAddress resolve(String host) {
+        try {
+            return InetAddress.getByName(host);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Unable to resolve host of the PAC server: '%s'", host), e);
+        }
+    }
+
+    /**
+     * Start server on all interfaces, on the same port, so already returned URLs are still valid
+     */
+    private static HttpServer restart(int port) {
+        try {
+            return start(null, port);
+        } catch (UncheckedIOException e) {
+            LOGGER.warn("Unable to start PAC server on the same port {}, previously returned URLs will not be available: {}", port,
+                    e.getMessage());
+            return start(null, 0);
+        }
+    }
+
+    /**
+     * @param address address to listen on, or null to listen on all interfaces
+     */
+    private static HttpServer start(InetAddress address, int port) {
+        try {
+            HttpServer httpServer = HttpServer.create(address == null
+                    ? new InetSocketAddress(port)
+                    : new InetSocketAddress(address, port), 0);
+            httpServer.createContext(CONTEXT, PacServer::handle);
+            if (executor == null) {
+                executor = Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "carina-pac-server");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            httpServer.setExecutor(executor);
+            // dispatcher thread inherits daemon status from the thread that starts the server
+            Thread starter = new Thread(httpServer::start, "carina-pac-server-starter");
+            starter.setDaemon(true);
+            starter.start();
+            starter.join();
+            LOGGER.info("PAC server is started on port {}", httpServer.getAddress().getPort());
+            return httpServer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to start PAC server", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while starting PAC server", e);
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            Path path = FILES.get(exchange.getRequestURI().getPath().substring(CONTEXT.length()));
+            if (path == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            PacFile pacFile;
+            try {
+                pacFile = PacFile.of(path);
+            } catch (UncheckedIOException e) {
+                LOGGER.warn("Unable to read PAC file '{}': {}", path, e.getMessage());
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", pacFile.getETag());
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (isNotModified(exchange.getRequestHeaders().getFirst("If-None-Match"), pacFile.getETag())) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            byte[] content = pacFile.getContent();
+            if ("HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(content);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static boolean isNotModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String value = tag.trim();
+            if ("*".equals(value) || etag.equals(value) || ("W/" + etag).equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
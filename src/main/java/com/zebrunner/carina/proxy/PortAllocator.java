@@ -0,0 +1,338 @@
+package com.zebrunner.carina.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe allocator of the proxy ports from the configured range(s).
+ * <p>
+ * Port state is kept in the bitset that is changed only by CAS, free ports are kept in the lock-free ring,
+ * so port allocation and release are O(1) and the same port could not be handed out to two threads.<br>
+ * Before the port is handed out, it is checked that it could be bound. Ports that could not be bound
+ * (for example, used by another process or sit in TIME_WAIT state) or that were released after the failed proxy start
+ * are quarantined for some time and will not be handed out until quarantine ends.
+ */
+public final class PortAllocator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    public static final Duration DEFAULT_QUARANTINE = Duration.ofSeconds(10);
+
+    private final int[] ports;
+    private final Map<Integer, Integer> indexByPort;
+    private final AtomicLongArray busy;
+    private final AtomicLongArray quarantineUntil;
+    private final IndexRing free;
+    private final boolean bindProbe;
+    private final long quarantineNanos;
+
+    /**
+     * @param ports      ports that could be allocated
+     * @param bindProbe  check that the port could be bound before handing it out
+     * @param quarantine how long ports that failed should not be handed out
+     */
+    public PortAllocator(Collection<Integer> ports, boolean bindProbe, Duration quarantine) {
+        Set<Integer> uniquePorts = new LinkedHashSet<>(ports);
+        this.ports = uniquePorts.stream().mapToInt(Integer::intValue).toArray();
+        this.indexByPort = new HashMap<>(this.ports.length * 2);
+        for (int i = 0; i < this.ports.length; i++) {
+            indexByPort.put(this.ports[i], i);
+        }
+        this.busy = new AtomicLongArray((this.ports.length + 63) >>> 6);
+        this.quarantineUntil = new AtomicLongArray(this.ports.length);
+        this.free = new IndexRing(this.ports.length);
+        for (int i = 0; i < this.ports.length; i++) {
+            free.offer(i);
+        }
+        this.bindProbe = bindProbe;
+        this.quarantineNanos = quarantine.toNanos();
+    }
+
+    /**
+     * Create allocator from ports specification, for example {@code 20, 30:40, 400}
+     *
+     * @param spec comma-separated list of ports and ranges in format {@code port_from:port_to}
+     * @return {@link PortAllocator} with bind probing and {@link #DEFAULT_QUARANTINE}
+     * @throws IllegalArgumentException if specification is incorrect
+     */
+    public static PortAllocator parse(String spec) {
+        return new PortAllocator(parsePorts(spec), true, DEFAULT_QUARANTINE);
+    }
+
+    /**
+     * Parse ports specification, for example {@code 20, 30:40, 400}
+     *
+     * @param spec comma-separated list of ports and ranges in format {@code port_from:port_to}
+     * @return {@link List} of ports in the specified order without duplicates
+     * @throws IllegalArgumentException if specification is incorrect
+     */
+    public static List<Integer> parsePorts(String spec) {
+        Set<Integer> ports = new LinkedHashSet<>();
+        for (String item : spec.trim().split("\\s*,\\s*")) {
+            if (item.isEmpty()) {
+                continue;
+            }
+            String[] range = item.split("\\s*:\\s*");
+            if (range.length > 2) {
+                throw new IllegalArgumentException("Invalid ports range: " + item);
+            }
+            int from = parsePort(range[0]);
+            int to = range.length == 2 ? parsePort(range[1]) : from;
+            if (from > to) {
+                throw new IllegalArgumentException("Invalid ports range: " + item);
+            }
+            for (int port = from; port <= to; port++) {
+                ports.add(port);
+            }
+        }
+        if (ports.isEmpty()) {
+            throw new IllegalArgumentException("There are no ports in specification: " + spec);
+        }
+        return new ArrayList<>(ports);
+    }
+
+    /**
+     * Allocate available port
+     *
+     * @return {@link OptionalInt} with port, {@link OptionalInt#empty()} if all ports are busy or quarantined
+     */
+    public OptionalInt allocate() {
+        for (int attempt = 0; attempt < ports.length; attempt++) {
+            int index = free.poll();
+            if (index < 0) {
+                return OptionalInt.empty();
+            }
+            long until = quarantineUntil.get(index);
+            if (until != 0 && until - System.nanoTime() > 0) {
+                free.offer(index);
+                continue;
+            }
+            if (!setBusy(index)) {
+                // should not happen: index is in the ring only when port is free
+                LOGGER.warn("Port {} is already busy.", ports[index]);
+                continue;
+            }
+            if (bindProbe && !isBindable(ports[index])) {
+                LOGGER.debug("Port {} could not be bound and will be quarantined.", ports[index]);
+                quarantine(index);
+                clearBusy(index);
+                free.offer(index);
+                continue;
+            }
+            quarantineUntil.set(index, 0);
+            return OptionalInt.of(ports[index]);
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * Return port to the allocator
+     *
+     * @param port port, that was allocated by {@link #allocate()}
+     * @return true if port was returned, false if port is not managed by this allocator or was not allocated
+     */
+    public boolean release(int port) {
+        return release(port, false);
+    }
+
+    /**
+     * Return port to the allocator
+     *
+     * @param port   port, that was allocated by {@link #allocate()}
+     * @param failed true if the port could not be used (for example, proxy was not started on it), so it will be quarantined
+     * @return true if port was returned, false if port is not managed by this allocator or was not allocated
+     */
+    public boolean release(int port, boolean failed) {
+        Integer index = indexByPort.get(port);
+        if (index == null) {
+            return false;
+        }
+        if (failed) {
+            quarantine(index);
+        }
+        if (!clearBusy(index)) {
+            LOGGER.warn("Port {} was not allocated, so it could not be released.", port);
+            return false;
+        }
+        free.offer(index);
+        return true;
+    }
+
+    /**
+     * Check if port is managed by this allocator
+     *
+     * @param port port
+     * @return true if port is managed by this allocator, false otherwise
+     */
+    public boolean contains(int port) {
+        return indexByPort.containsKey(port);
+    }
+
+    /**
+     * Check if port is currently allocated
+     *
+     * @param port port
+     * @return true if port is managed by this allocator and allocated, false otherwise
+     */
+    public boolean isAllocated(int port) {
+        Integer index = indexByPort.get(port);
+        return index != null && (busy.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Get number of ports managed by this allocator
+     *
+     * @return number of ports
+     */
+    public int getCapacity() {
+        return ports.length;
+    }
+
+    /**
+     * Get number of ports that are not allocated at the moment (including quarantined ones)
+     *
+     * @return number of not allocated ports
+     */
+    public int getAvailableCount() {
+        int allocated = 0;
+        for (int i = 0; i < busy.length(); i++) {
+            allocated += Long.bitCount(busy.get(i));
+        }
+        return ports.length - allocated;
+    }
+
+    private void quarantine(int index) {
+        long until = System.nanoTime() + quarantineNanos;
+        // 0 means that port is not quarantined
+        quarantineUntil.set(index, until == 0 ? 1 : until);
+    }
+
+    private boolean setBusy(int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        long current;
+        do {
+            current = busy.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+        } while (!busy.compareAndSet(word, current, current | mask));
+        return true;
+    }
+
+    private boolean clearBusy(int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        long current;
+        do {
+            current = busy.get(word);
+            if ((current & mask) == 0) {
+                return false;
+            }
+        } while (!busy.compareAndSet(word, current, current & ~mask));
+        return true;
+    }
+
+    private static boolean isBindable(int port) {
+        if (port == 0) {
+            // dynamic port
+            return true;
+        }
+        try (ServerSocket socket = new ServerSocket()) {
+            // without SO_REUSEADDR bind fails for the port in TIME_WAIT state
+            socket.setReuseAddress(false);
+            socket.bind(new InetSocketAddress(port));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int parsePort(String value) {
+        int port;
+        try {
+            port = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port: " + value, e);
+        }
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port: " + value);
+        }
+        return port;
+    }
+
+    /**
+     * Bounded lock-free multi-producer multi-consumer queue of indexes (D. Vyukov's algorithm)
+     */
+    private static final class IndexRing {
+        private final AtomicIntegerArray buffer;
+        private final AtomicLongArray sequence;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        IndexRing(int capacity) {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            this.buffer = new AtomicIntegerArray(size);
+            this.sequence = new AtomicLongArray(size);
+            this.mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequence.set(i, i);
+            }
+        }
+
+        boolean offer(int value) {
+            long position = tail.get();
+            while (true) {
+                int slot = (int) (position & mask);
+                long difference = sequence.get(slot) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        buffer.set(slot, value);
+                        sequence.set(slot, position + 1);
+                        return true;
+                    }
+                } else if (difference < 0) {
+                    return false;
+                }
+                position = tail.get();
+            }
+        }
+
+        int poll() {
+            long position = head.get();
+            while (true) {
+                int slot = (int) (position & mask);
+                long difference = sequence.get(slot) - (position + 1);
+                if (difference == 0) {
+                    if (head.compareAndSet(position, position + 1)) {
+                        int value = buffer.get(slot);
+                        sequence.set(slot, position + mask + 1);
+                        return value;
+                    }
+                } else if (difference < 0) {
+                    return -1;
+                }
+                position = head.get();
+            }
+        }
+    }
+}
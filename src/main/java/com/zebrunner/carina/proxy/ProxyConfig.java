@@ -0,0 +1,334 @@
+package com.zebrunner.carina.proxy;
+
+import com.zebrunner.carina.utils.R;
+import com.zebrunner.carina.utils.commons.SpecialKeywords;
+import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable precompiled snapshot of the proxy configuration parameters.
+ * <p>
+ * {@link #get()} returns the snapshot of the current thread and does not read configuration parameters at all.
+ * Snapshot of the thread is refreshed when the session starts using the proxy configuration (see {@link ProxyPool#startProxy()},
+ * {@link SystemProxy#setupProxy()} and {@link ProxyUtils#getSeleniumProxy()}): raw values of the {@link #KEYS}
+ * are compared with the snapshot, and it is rebuilt only when one of them is changed, so parameters are not split,
+ * joined or parsed again. Snapshots of other threads are not affected.<br>
+ * Parameters changed in the middle of the session are applied when the next session starts, or in every thread
+ * after {@link #invalidate()}.<br>
+ * Invalid {@code proxy_port}, {@code proxy_ports} and {@code no_proxy} values do not prevent creating the snapshot,
+ * {@link InvalidConfigurationException} is thrown when such value is requested.
+ */
+public final class ProxyConfig {
+    static final String[] KEYS = {
+            "proxy_type",
+            "proxy_host",
+            "proxy_port",
+            "proxy_ports",
+            "proxy_protocols",
+            "no_proxy",
+            "proxy_set_to_system",
+            "proxy_autoconfig_url",
+            "proxy_pac_local",
+            "proxy_pac_server",
+            "proxy_pac_server_host"
+    };
+
+    private static final AtomicLong VERSION = new AtomicLong();
+    // snapshot validated by the thread, parameters could be overridden for the current thread only
+    private static final ThreadLocal<Validated> VALIDATED = new ThreadLocal<>();
+    // the last built snapshot, it is shared by the threads with the same parameter values
+    private static volatile ProxyConfig snapshot;
+
+    private final String[] raw;
+    private final String proxyType;
+    private final String proxyHost;
+    private final String proxyPort;
+    private final String proxyAddress;
+    private final Integer staticPort;
+    private final String staticPortError;
+    private final List<Integer> proxyPorts;
+    private final String proxyPortsError;
+    private final Set<Protocol> protocols;
+    private final String noProxy;
+    private final String systemNoProxy;
+    private final NoProxyMatcher noProxyMatcher;
+    private final String noProxyError;
+    private final boolean setToSystem;
+    private final String autoconfigUrl;
+    private final boolean pacLocal;
+    private final boolean pacServer;
+    private final String pacServerHost;
+
+    private ProxyConfig(String[] raw) {
+        this.raw = raw;
+        this.proxyType = value(raw[0]);
+        this.proxyHost = value(raw[1]);
+        this.proxyPort = value(raw[2]);
+        this.proxyAddress = String.format("%s:%s", proxyHost, proxyPort);
+
+        Integer port = null;
+        String portError = null;
+        if (!proxyPort.isEmpty()) {
+            try {
+                port = Integer.valueOf(proxyPort.trim());
+            } catch (NumberFormatException e) {
+                portError = String.format("Invalid 'proxy_port' value: '%s'", proxyPort);
+            }
+        }
+        this.staticPort = port;
+        this.staticPortError = portError;
+
+        List<Integer> ports = List.of();
+        String portsError = null;
+        if (!value(raw[3]).isEmpty()) {
+            try {
+                ports = List.copyOf(PortAllocator.parsePorts(value(raw[3])));
+            } catch (RuntimeException e) {
+                portsError = "Please specify 'proxy_ports' in format 'port_from:port_to' "
+                        + "or as comma-separated list of ports and ranges, for example '20, 30:40, 400'";
+            }
+        }
+        this.proxyPorts = ports;
+        this.proxyPortsError = portsError;
+
+        EnumSet<Protocol> parsedProtocols = EnumSet.noneOf(Protocol.class);
+        for (String protocol : value(raw[4]).split("[\\s,]+")) {
+            for (Protocol candidate : Protocol.values()) {
+                if (candidate.toString().equals(protocol)) {
+                    parsedProtocols.add(candidate);
+                }
+            }
+        }
+        this.protocols = Collections.unmodifiableSet(parsedProtocols);
+
+        NoProxyMatcher matcher = NoProxyMatcher.parse(null);
+        String matcherError = null;
+        try {
+            matcher = NoProxyMatcher.parse(value(raw[5]));
+        } catch (IllegalArgumentException e) {
+            matcherError = e.getMessage();
+        }
+        this.noProxyMatcher = matcher;
+        this.noProxyError = matcherError;
+        this.noProxy = noProxyMatcher.toSeleniumFormat();
+        this.systemNoProxy = noProxyMatcher.toSystemFormat();
+
+        this.setToSystem = Boolean.parseBoolean(value(raw[6]).trim());
+        this.autoconfigUrl = value(raw[7]);
+        this.pacLocal = Boolean.parseBoolean(value(raw[8]).trim());
+        this.pacServer = Boolean.parseBoolean(value(raw[9]).trim());
+        this.pacServerHost = value(raw[10]).isBlank() ? "127.0.0.1" : value(raw[10]).trim();
+    }
+
+    /**
+     * Get snapshot of the current proxy configuration
+     *
+     * @return snapshot, validated by the current thread after the last {@link #invalidate()}.
+     * Cached {@link ProxyConfig} is returned if configuration was not changed since it was created, new one otherwise
+     */
+    public static ProxyConfig get() {
+        long version = VERSION.get();
+        Validated validated = VALIDATED.get();
+        if (validated != null && validated.version == version) {
+            return validated.config;
+        }
+        return load(version);
+    }
+
+    /**
+     * Refresh snapshot of the current thread, if one of the configuration parameters is changed.
+     * Nothing is allocated while parameters are not changed
+     */
+    static void refresh() {
+        long version = VERSION.get();
+        Validated validated = VALIDATED.get();
+        if (validated != null && validated.config.isCurrent()) {
+            validated.version = version;
+        } else {
+            load(version);
+        }
+    }
+
+    private boolean isCurrent() {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (!Objects.equals(R.CONFIG.get(KEYS[i]), raw[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ProxyConfig load(long version) {
+        String[] raw = new String[KEYS.length];
+        for (int i = 0; i < KEYS.length; i++) {
+            raw[i] = R.CONFIG.get(KEYS[i]);
+        }
+        ProxyConfig config = snapshot;
+        if (config == null || !Arrays.equals(config.raw, raw)) {
+            config = new ProxyConfig(raw);
+            snapshot = config;
+        }
+        VALIDATED.set(new Validated(config, version));
+        return config;
+    }
+
+    /**
+     * Force re-reading of the proxy configuration parameters by the next {@link #get()} call in every thread
+     */
+    public static void invalidate() {
+        VERSION.incrementAndGet();
+    }
+
+    private static String value(String value) {
+        return !(value == null || value.equalsIgnoreCase(SpecialKeywords.NULL)) ? value : StringUtils.EMPTY;
+    }
+
+    /**
+     * @return value of the {@code proxy_type} parameter or empty string
+     */
+    public String getProxyType() {
+        return proxyType;
+    }
+
+    /**
+     * @return value of the {@code proxy_host} parameter or empty string
+     */
+    public String getProxyHost() {
+        return proxyHost;
+    }
+
+    /**
+     * @return value of the {@code proxy_port} parameter or empty string
+     */
+    public String getProxyPort() {
+        return proxyPort;
+    }
+
+    /**
+     * @return proxy address in format {@code proxy_host:proxy_port}
+     */
+    public String getProxyAddress() {
+        return proxyAddress;
+    }
+
+    /**
+     * Get parsed value of the {@code proxy_port} parameter
+     *
+     * @return {@link OptionalInt} with port, or {@link OptionalInt#empty()} if {@code proxy_port} is not specified
+     * @throws InvalidConfigurationException if {@code proxy_port} is not a number
+     */
+    public OptionalInt getStaticPort() {
+        if (staticPortError != null) {
+            throw new InvalidConfigurationException(staticPortError);
+        }
+        return staticPort == null ? OptionalInt.empty() : OptionalInt.of(staticPort);
+    }
+
+    /**
+     * Get ports parsed from the {@code proxy_ports} parameter
+     *
+     * @return unmodifiable {@link List} of ports, empty if {@code proxy_ports} is not specified
+     * @throws InvalidConfigurationException if {@code proxy_ports} has incorrect format
+     */
+    public List<Integer> getProxyPorts() {
+        if (proxyPortsError != null) {
+            throw new InvalidConfigurationException(proxyPortsError);
+        }
+        return proxyPorts;
+    }
+
+    /**
+     * @return unmodifiable {@link Set} of the protocols from the {@code proxy_protocols} parameter
+     */
+    public Set<Protocol> getProtocols() {
+        return protocols;
+    }
+
+    /**
+     * @return {@code no_proxy} in the selenium style (addresses separated by ',') or empty string
+     * @throws InvalidConfigurationException if {@code no_proxy} has incorrect CIDR
+     */
+    public String getNoProxy() {
+        checkNoProxy();
+        return noProxy;
+    }
+
+    /**
+     * @return {@code no_proxy} in the System properties style (patterns separated by '|')
+     * @throws InvalidConfigurationException if {@code no_proxy} has incorrect CIDR
+     */
+    public String getSystemNoProxy() {
+        checkNoProxy();
+        return systemNoProxy;
+    }
+
+    /**
+     * @return {@link NoProxyMatcher} compiled from the {@code no_proxy} parameter
+     * @throws InvalidConfigurationException if {@code no_proxy} has incorrect CIDR
+     */
+    public NoProxyMatcher getNoProxyMatcher() {
+        checkNoProxy();
+        return noProxyMatcher;
+    }
+
+    private void checkNoProxy() {
+        if (noProxyError != null) {
+            throw new InvalidConfigurationException(noProxyError);
+        }
+    }
+
+    /**
+     * @return value of the {@code proxy_set_to_system} parameter
+     */
+    public boolean isSetToSystem() {
+        return setToSystem;
+    }
+
+    /**
+     * @return value of the {@code proxy_autoconfig_url} parameter or empty string
+     */
+    public String getAutoconfigUrl() {
+        return autoconfigUrl;
+    }
+
+    /**
+     * @return value of the {@code proxy_pac_local} parameter
+     */
+    public boolean isPacLocal() {
+        return pacLocal;
+    }
+
+    /**
+     * @return value of the {@code proxy_pac_server} parameter
+     */
+    public boolean isPacServer() {
+        return pacServer;
+    }
+
+    /**
+     * @return value of the {@code proxy_pac_server_host} parameter, {@code 127.0.0.1} if it is not specified
+     */
+    public String getPacServerHost() {
+        return pacServerHost;
+    }
+
+    private static final class Validated {
+        private final ProxyConfig config;
+        // thread-confined, updated by refresh() when parameters are not changed
+        private long version;
+
+        private Validated(ProxyConfig config, long version) {
+            this.config = config;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.zebrunner.carina.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch health checker of the proxies and upstream endpoints.
+ * <p>
+ * All targets are probed concurrently on one NIO {@link Selector}, so checking of many endpoints takes
+ * about one timeout instead of the sum of them. For every target TCP connection is made, and for the targets
+ * behind the proxy also HTTP CONNECT or SOCKS5 handshake. Host names are resolved via cache with short TTL.
+ */
+public final class ProxyHealthChecker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    public static final Duration DNS_CACHE_TTL = Duration.ofSeconds(30);
+    private static final Map<String, ResolvedAddress> DNS_CACHE = new ConcurrentHashMap<>();
+    private static final int MAX_RESPONSE_SIZE = 8192;
+
+    private ProxyHealthChecker() {
+        // hide
+    }
+
+    /**
+     * Check single target
+     *
+     * @param target  {@link HealthCheckTarget}
+     * @param timeout max time for connection and handshake
+     * @return {@link HealthCheckResult}
+     */
+    public static HealthCheckResult check(HealthCheckTarget target, Duration timeout) {
+        return check(List.of(target), timeout).get(0);
+    }
+
+    /**
+     * Check targets concurrently
+     *
+     * @param targets {@link HealthCheckTarget}s
+     * @param timeout max time for connection and handshake of every target. All targets are checked at the same time,
+     *                so method returns not later than after timeout
+     * @return {@link HealthCheckResult}s in the same order as targets
+     * @throws UncheckedIOException if selector could not be opened
+     */
+    public static List<HealthCheckResult> check(Collection<HealthCheckTarget> targets, Duration timeout) {
+        List<Probe> probes = new ArrayList<>(targets.size());
+        try (Selector selector = Selector.open()) {
+            long deadline = System.nanoTime() + timeout.toNanos();
+            for (HealthCheckTarget target : targets) {
+                Probe probe = new Probe(target);
+                probes.add(probe);
+                probe.start(selector);
+            }
+            int pending = (int) probes.stream().filter(p -> !p.isDone()).count();
+            while (pending > 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    break;
+                }
+                selector.select(remainingMillis);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    probe.handle(key);
+                    if (probe.isDone()) {
+                        pending--;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            for (Probe probe : probes) {
+                if (!probe.isDone()) {
+                    probe.timeout();
+                }
+            }
+        } catch (IOException e) {
+            probes.forEach(Probe::close);
+            throw new UncheckedIOException("Unable to check targets", e);
+        }
+        List<HealthCheckResult> results = new ArrayList<>(probes.size());
+        for (Probe probe : probes) {
+            results.add(probe.result);
+        }
+        return results;
+    }
+
+    /**
+     * Resolve host via cache with {@link #DNS_CACHE_TTL}. Unresolved hosts are not cached
+     *
+     * @param host host or ip address
+     * @return {@link InetAddress}
+     * @throws UnknownHostException if host could not be resolved
+     */
+    public static InetAddress resolve(String host) throws UnknownHostException {
+        long now = System.nanoTime();
+        ResolvedAddress cached = DNS_CACHE.get(host);
+        if (cached != null && now - cached.expiresAt < 0) {
+            return cached.address;
+        }
+        InetAddress address = InetAddress.getByName(host);
+        DNS_CACHE.put(host, new ResolvedAddress(address, now + DNS_CACHE_TTL.toNanos()));
+        return address;
+    }
+
+    /**
+     * State machine of the check of one target
+     */
+    private static final class Probe {
+        private final HealthCheckTarget target;
+        private SocketChannel channel;
+        private long start;
+        private ByteBuffer out;
+        private ByteBuffer in;
+        // 0 - connect, 1 - SOCKS method selection, 2 - SOCKS connect / HTTP CONNECT
+        private int stage;
+        private HealthCheckResult result;
+
+        private Probe(HealthCheckTarget target) {
+            this.target = target;
+        }
+
+        private boolean isDone() {
+            return result != null;
+        }
+
+        private void start(Selector selector) {
+            start = System.nanoTime();
+            InetAddress address;
+            try {
+                address = resolve(target.getHost());
+            } catch (UnknownHostException e) {
+                fail("Unknown host: " + target.getHost());
+                return;
+            }
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(new InetSocketAddress(address, target.getPort()))) {
+                    onConnected(selector);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e.toString());
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    onConnected(key.selector());
+                } else if (key.isWritable()) {
+                    channel.write(out);
+                    if (!out.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    if (channel.read(in) < 0) {
+                        fail("Connection closed by proxy");
+                        return;
+                    }
+                    onRead(key);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e.toString());
+            }
+        }
+
+        private void onConnected(Selector selector) throws IOException {
+            if (target.getType() == Proxy.Type.DIRECT) {
+                succeed();
+                return;
+            }
+            if (target.getType() == Proxy.Type.SOCKS) {
+                stage = 1;
+                // version 5, one method: no authentication
+                send(selector, ByteBuffer.wrap(new byte[] { 5, 1, 0 }), 2);
+            } else {
+                stage = 2;
+                String authority = target.getDestinationHost() + ":" + target.getDestinationPort();
+                String request = "CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n";
+                send(selector, ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)), MAX_RESPONSE_SIZE);
+            }
+        }
+
+        private void send(Selector selector, ByteBuffer buffer, int responseCapacity) throws IOException {
+            out = buffer;
+            in = ByteBuffer.allocate(responseCapacity);
+            channel.register(selector, SelectionKey.OP_WRITE, this);
+        }
+
+        private void onRead(SelectionKey key) throws IOException {
+            if (target.getType() == Proxy.Type.SOCKS) {
+                if (in.position() < 2) {
+                    return;
+                }
+                if (in.get(0) != 5 || in.get(1) != 0) {
+                    fail(stage == 1
+                            ? "SOCKS5 proxy requires authentication or is not a SOCKS5 proxy"
+                            : "SOCKS5 connect failed with code " + in.get(1));
+                } else if (stage == 1) {
+                    stage = 2;
+                    byte[] host = target.getDestinationHost().getBytes(StandardCharsets.US_ASCII);
+                    ByteBuffer request = ByteBuffer.allocate(7 + host.length)
+                            // version 5, CONNECT, reserved, domain name address
+                            .put(new byte[] { 5, 1, 0, 3, (byte) host.length })
+                            .put(host)
+                            .putShort((short) target.getDestinationPort());
+                    request.flip();
+                    send(key.selector(), request, MAX_RESPONSE_SIZE);
+                } else {
+                    succeed();
+                }
+                return;
+            }
+            // HTTP CONNECT: wait for the status line
+            for (int i = 1; i < in.position(); i++) {
+                if (in.get(i - 1) == '\r' && in.get(i) == '\n') {
+                    String statusLine = new String(in.array(), 0, i - 1, StandardCharsets.US_ASCII);
+                    String[] parts = statusLine.split(" ");
+                    if (parts.length > 1 && parts[0].startsWith("HTTP/") && "200".equals(parts[1])) {
+                        succeed();
+                    } else {
+                        fail("Proxy responded: " + statusLine);
+                    }
+                    return;
+                }
+            }
+            if (!in.hasRemaining()) {
+                fail("Proxy response is too long");
+            }
+        }
+
+        private void succeed() {
+            complete(true, null, false);
+        }
+
+        private void fail(String error) {
+            complete(false, error, false);
+        }
+
+        private void timeout() {
+            complete(false, "Timed out", true);
+        }
+
+        private void complete(boolean alive, String error, boolean timedOut) {
+            if (result == null) {
+                result = new HealthCheckResult(target, alive, Duration.ofNanos(System.nanoTime() - start), error, timedOut);
+                close();
+            }
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Unable to close health check channel: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static final class ResolvedAddress {
+        private final InetAddress address;
+        private final long expiresAt;
+
+        private ResolvedAddress(InetAddress address, long expiresAt) {
+            this.address = address;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
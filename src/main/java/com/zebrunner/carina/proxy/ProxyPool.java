@@ -1,17 +1,31 @@
 package com.zebrunner.carina.proxy;
 
+import com.zebrunner.carina.proxy.metrics.ProxyMetrics;
 import com.zebrunner.carina.utils.R;
 import com.zebrunner.carina.utils.commons.SpecialKeywords;
-import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Implementation-independent proxy pool.
@@ -27,27 +41,79 @@ import java.util.concurrent.ConcurrentHashMap;
  * {@link #register(IProxy)} method.
  *
  * <p>
+ * Proxies are stored by the owner id. By default, the owner is the current thread, or the {@link ProxySession}
+ * attached to it (for test runners, where one test could be executed by the different threads).
+ * Owner detection could be changed via {@link #setOwnerResolver(IProxyOwnerResolver)}.<br>
+ * In this documentation "current thread" means the owner of the current context.
+ *
+ * <p>
  * Configuration:
  * <b>proxy_port</b> - proxy port, that will be used by default for proxy starting. Default value: 0
- * <b>proxy_ports</b> - proxy port(s), that will be used to start proxy. They will be used only in case when proxy_port is NULL
+ * <b>proxy_ports</b> - proxy port(s), that will be used to start proxy. They will be used only in case when proxy_port is NULL.
+ * Could be specified as range ({@code 8000:8010}) or as comma-separated list of ports and ranges ({@code 20, 30:40, 400})
+ * <b>proxy_standby_size</b> - number of proxies, that will be started in the background and handed over to the threads
+ * by {@link #startProxy()} (0 - disabled, AUTO - depends on the observed peak of concurrently used proxies). Default value: 0
+ * <b>proxy_reaper_interval</b> - how often (in seconds) proxies, ports and rules of the dead owners (and idle proxies)
+ * are reclaimed in the background (0 - disabled). Default value: 60
+ * <b>proxy_idle_timeout</b> - proxy, that was not used by its owner longer than this time (in seconds), is stopped
+ * by the reaper (0 - disabled). Default value: 0
+ * Reclaimed resources could be observed via {@link #addReapListener(IProxyReapListener)}.
+ * <b>proxy_health_check_interval</b> - how often (in seconds) started proxies are checked by the supervisor. Proxy, that does not
+ * accept connections, is restarted on the same port with its filters (0 - disabled). Default value: 30
  *
  * Default proxy (that use BrowserUp proxy) depends on configuration:
  * <b>browserup_proxy</b> - true if proxy should be started, false otherwise
  * <b>browserup_disabled_mitm</b> - when true, MITM capture will be disabled, false otherwise
+ * <b>browserup_shared_server</b> - when true, proxies will be the sessions of one shared BrowserUp proxy server
+ * (see {@link com.zebrunner.carina.proxy.browserup.shared.SharedBrowserUpProxy})
  * <br>
  * <b>Important</b>: the proxy will be launched by Carina Framework before driver starts when generation capabilities only if the <b>DYNAMIC</b> mode is enabled in the configuration (<b>proxy_type=DYNAMIC</b>)
  */
 public class ProxyPool {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
     private static final Map<Long, IProxy> PROXY_POOL = new ConcurrentHashMap<>();
-    private static final Map<Integer, Boolean> PROXY_PORTS_FROM_RANGE = new ConcurrentHashMap<>();
-    private static final Map<Long, Integer> PROXY_PORTS_BY_THREAD = new ConcurrentHashMap<>();
+    private static volatile PortAllocator portAllocator = null; // ports from 'proxy_ports'
+    private static final Map<Long, Integer> PROXY_PORTS_BY_OWNER = new ConcurrentHashMap<>();
     private static IProxyRule globalRule = new DefaultProxyRule(); // global proxy rule
-    //todo investigate how to clean (maybe use Map to store all thread-depended rules and clean them)
-    private static final ThreadLocal<IProxyRule> THREAD_RULE = new ThreadLocal<>(); // thread-only proxy rule
+    private static final Map<Long, IProxyRule> OWNER_RULES = new ConcurrentHashMap<>(); // thread(owner)-only proxy rules
+    private static final IProxyOwnerResolver DEFAULT_OWNER_RESOLVER = new IProxyOwnerResolver() {
+        @Override
+        public long getOwnerId() {
+            ProxySession session = ProxySession.current().orElse(null);
+            return session != null ? session.getId() : Thread.currentThread().getId();
+        }
+
+        @Override
+        public Object getOwner() {
+            ProxySession session = ProxySession.current().orElse(null);
+            return session != null ? session : Thread.currentThread();
+        }
+    };
+    private static volatile IProxyOwnerResolver ownerResolver = DEFAULT_OWNER_RESOLVER;
+    private static final Map<Long, OwnerRef> OWNERS = new ConcurrentHashMap<>(); // owners, that have proxy, port or rule
+    private static final List<IProxyReapListener> REAP_LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile boolean reaperStarted = false;
+    private static volatile boolean supervisorStarted = false;
+    private static final Duration HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(2);
+    private static final Map<Long, Integer> RESTARTS_BY_OWNER = new ConcurrentHashMap<>();
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "carina-proxy-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final StandbyProxyPool STANDBY_POOL = new StandbyProxyPool(() -> globalRule.getProxyInstance(),
+            () -> {
+                // snapshot of the standby thread could be outdated
+                ProxyConfig.refresh();
+                return getProxyPortFromConfig();
+            }, ProxyPool::releaseProxyPort, PROXY_POOL::size);
 
     static {
         initProxyPortsRange();
+        ProxyMetrics.registerGauge(ProxyMetrics.PROXY_ACTIVE, PROXY_POOL::size);
+        ProxyMetrics.registerGauge(ProxyMetrics.PROXY_STANDBY, STANDBY_POOL::size);
+        ProxyMetrics.registerGauge(ProxyMetrics.PORT_CAPACITY, () -> portAllocator != null ? portAllocator.getCapacity() : 0);
+        ProxyMetrics.registerGauge(ProxyMetrics.PORT_AVAILABLE, () -> portAllocator != null ? portAllocator.getAvailableCount() : 0);
     }
 
     private ProxyPool() {
@@ -71,9 +137,13 @@ public class ProxyPool {
      */
     public static void setRule(IProxyRule rule, boolean threadOnly) {
         if (threadOnly == true) {
-            THREAD_RULE.set(rule);
+            long ownerId = getOwnerId();
+            trackOwner(ownerId, ownerResolver.getOwner());
+            OWNER_RULES.put(ownerId, rule);
         } else {
             ProxyPool.globalRule = rule;
+            // standby proxies were created by the previous rule
+            STANDBY_POOL.clear();
         }
     }
 
@@ -83,7 +153,7 @@ public class ProxyPool {
      * @return {@link IProxyRule}
      */
     public static IProxyRule getRule() {
-        IProxyRule proxyRule = THREAD_RULE.get();
+        IProxyRule proxyRule = OWNER_RULES.get(getOwnerId());
         if (proxyRule == null) {
             proxyRule = globalRule;
         }
@@ -94,7 +164,35 @@ public class ProxyPool {
      * Remove thread-only {@link IProxyRule} if exist
      */
     public static void clearThreadRule() {
-        THREAD_RULE.remove();
+        clearOwnerRule(getOwnerId());
+    }
+
+    /**
+     * Remove owner-only {@link IProxyRule} if exist
+     *
+     * @param ownerId owner id (thread id by default, see {@link IProxyOwnerResolver})
+     */
+    public static void clearOwnerRule(Long ownerId) {
+        OWNER_RULES.remove(ownerId);
+    }
+
+    /**
+     * Set the way of the proxy owner detection
+     *
+     * @param resolver see {@link IProxyOwnerResolver}, null to restore default behaviour
+     *                 (current thread or {@link ProxySession} attached to it)
+     */
+    public static void setOwnerResolver(IProxyOwnerResolver resolver) {
+        ownerResolver = resolver != null ? resolver : DEFAULT_OWNER_RESOLVER;
+    }
+
+    /**
+     * Get id of the proxy owner in the current context
+     *
+     * @return owner id (thread id by default, see {@link IProxyOwnerResolver})
+     */
+    public static long getOwnerId() {
+        return ownerResolver.getOwnerId();
     }
 
     /**
@@ -104,14 +202,54 @@ public class ProxyPool {
      * {@link Optional#empty()} otherwise
      */
     public static Optional<IProxyInfo> startProxy() {
-        Optional<IProxy> proxy = getRule().getProxyInstance();
+        // session starts using the proxy configuration, so parameters changed since the previous session are applied
+        ProxyConfig.refresh();
+        return startProxy(getOwnerId(), ownerResolver.getOwner());
+    }
+
+    /**
+     * Start proxy (depends on {@link IProxyRule} implementation(s)) in the background.<br>
+     * Proxy owner is detected in the current thread, so proxy will be available via {@link #getProxy()} in the current thread
+     * after the future completion. For example, driver could be created while proxy is starting.
+     *
+     * @return {@link CompletableFuture} of {@link Optional} of {@link IProxyInfo}, see {@link #startProxy()}
+     */
+    public static CompletableFuture<Optional<IProxyInfo>> startProxyAsync() {
+        ProxyConfig.refresh();
+        long ownerId = getOwnerId();
+        Object owner = ownerResolver.getOwner();
+        return CompletableFuture.supplyAsync(() -> {
+            // snapshot of the executor thread could be outdated
+            ProxyConfig.refresh();
+            return startProxy(ownerId, owner);
+        }, ASYNC_EXECUTOR);
+    }
+
+    private static Optional<IProxyInfo> startProxy(long ownerId, Object owner) {
+        Optional<IProxyInfo> standbyProxyInfo = startStandbyProxy(ownerId, owner);
+        if (standbyProxyInfo.isPresent()) {
+            return standbyProxyInfo;
+        }
+        Optional<IProxy> proxy = OWNER_RULES.getOrDefault(ownerId, globalRule).getProxyInstance();
         IProxyInfo proxyInfo = null;
         if (proxy.isPresent()) {
-            proxyInfo = startProxy(proxy.get());
+            proxyInfo = startProxy(proxy.get(), ownerId, owner);
         }
         return Optional.ofNullable(proxyInfo);
     }
 
+    /**
+     * Start standby proxies in the background (if <b>proxy_standby_size</b> is set), so the next calls of {@link #startProxy()}
+     * will not wait for the proxy start. Can be called before the tests to warm up the pool,
+     * otherwise it will be warmed up on the first {@link #startProxy()} call.
+     */
+    public static void startStandbyProxies() {
+        ProxyConfig.refresh();
+        if (isStandbyEnabled()) {
+            STANDBY_POOL.scheduleRefill();
+        }
+    }
+
     /**
      * Start proxy explicitly, ignoring {@link IProxyRule}s<br>
      * If proxy already exists in current thread, it will not be override
@@ -120,32 +258,116 @@ public class ProxyPool {
      * @return {@link ProxyInfo}
      */
     public static IProxyInfo startProxy(IProxy proxy) {
-        long threadId = Thread.currentThread().getId();
+        ProxyConfig.refresh();
+        return startProxy(proxy, getOwnerId(), ownerResolver.getOwner());
+    }
+
+    /**
+     * Start proxy explicitly, ignoring {@link IProxyRule}s, in the background<br>
+     * Proxy owner is detected in the current thread, see {@link #startProxyAsync()}
+     *
+     * @param proxy see {@link IProxy}
+     * @return {@link CompletableFuture} of {@link IProxyInfo}
+     */
+    public static CompletableFuture<IProxyInfo> startProxyAsync(IProxy proxy) {
+        ProxyConfig.refresh();
+        long ownerId = getOwnerId();
+        Object owner = ownerResolver.getOwner();
+        return CompletableFuture.supplyAsync(() -> {
+            ProxyConfig.refresh();
+            return startProxy(proxy, ownerId, owner);
+        }, ASYNC_EXECUTOR);
+    }
+
+    private static IProxyInfo startProxy(IProxy proxy, long ownerId, Object owner) {
+        long start = System.nanoTime();
+        trackOwner(ownerId, owner);
         Integer availablePort;
-        if (PROXY_PORTS_BY_THREAD.containsKey(threadId)) {
+        if (PROXY_PORTS_BY_OWNER.containsKey(ownerId)) {
             LOGGER.warn("Existing proxy ports is detected in current thread and will be used to start current proxy.");
-            availablePort = PROXY_PORTS_BY_THREAD.get(threadId);
+            availablePort = PROXY_PORTS_BY_OWNER.get(ownerId);
         } else {
-            availablePort = getProxyPortFromConfig();
+            try {
+                availablePort = getProxyPortFromConfig();
+            } catch (RuntimeException e) {
+                ProxyMetrics.counter(ProxyMetrics.PROXY_START_FAILED).increment();
+                throw e;
+            }
         }
 
         IProxyInfo proxyInfo;
-        if (PROXY_POOL.containsKey(threadId)) {
-            LOGGER.warn("Existing proxy is detected in current thread.");
-            if (!PROXY_POOL.get(threadId).isStarted()) {
-                PROXY_POOL.get(threadId).start(availablePort);
+        try {
+            if (PROXY_POOL.containsKey(ownerId)) {
+                LOGGER.warn("Existing proxy is detected in current thread.");
+                if (!PROXY_POOL.get(ownerId).isStarted()) {
+                    PROXY_POOL.get(ownerId).start(availablePort);
+                }
+                proxyInfo = PROXY_POOL.get(ownerId)
+                        .getInfo();
+            } else {
+                proxyInfo = proxy.start(availablePort);
+                PROXY_POOL.put(ownerId, proxy);
             }
-            proxyInfo = PROXY_POOL.get(threadId)
-                    .getInfo();
-        } else {
-            proxyInfo = proxy.start(availablePort);
-            PROXY_POOL.put(threadId, proxy);
+        } catch (RuntimeException e) {
+            // port from 'proxy_ports' could not be used, so it will be quarantined
+            PortAllocator allocator = portAllocator;
+            if (allocator != null && allocator.release(availablePort, true)) {
+                ProxyMetrics.counter(ProxyMetrics.PORT_QUARANTINED).increment();
+                PROXY_PORTS_BY_OWNER.remove(ownerId, availablePort);
+            }
+            ProxyMetrics.counter(ProxyMetrics.PROXY_START_FAILED).increment();
+            throw e;
         }
 
-        PROXY_PORTS_BY_THREAD.put(threadId, proxyInfo.getPort());
+        PROXY_PORTS_BY_OWNER.put(ownerId, proxyInfo.getPort());
+        STANDBY_POOL.recordConcurrency(PROXY_POOL.size());
+        ProxyMetrics.histogram(ProxyMetrics.PROXY_START).recordSince(start);
         return proxyInfo;
     }
 
+    /**
+     * Hand over started proxy from the standby pool to the current thread.<br>
+     * Standby proxies are created by the global rule, so they are not used when thread-only rule is set,
+     * or when there are proxy or proxy port already cached in the current thread.
+     *
+     * @return {@link Optional} of {@link IProxyInfo} if standby proxy was handed over, {@link Optional#empty()} otherwise
+     */
+    private static Optional<IProxyInfo> startStandbyProxy(long ownerId, Object owner) {
+        if (OWNER_RULES.containsKey(ownerId) ||
+                PROXY_POOL.containsKey(ownerId) ||
+                PROXY_PORTS_BY_OWNER.containsKey(ownerId) ||
+                !isStandbyEnabled()) {
+            return Optional.empty();
+        }
+        long start = System.nanoTime();
+        Optional<IProxy> proxy = STANDBY_POOL.poll();
+        if (proxy.isEmpty()) {
+            LOGGER.debug("There are no standby proxies, so proxy will be started in the current thread.");
+            return Optional.empty();
+        }
+        IProxyInfo proxyInfo = proxy.get().getInfo();
+        trackOwner(ownerId, owner);
+        LOGGER.info("Standby proxy '{}' on port {} is handed over to the owner: {}", proxy.get(), proxyInfo.getPort(), ownerId);
+        PROXY_POOL.put(ownerId, proxy.get());
+        PROXY_PORTS_BY_OWNER.put(ownerId, proxyInfo.getPort());
+        STANDBY_POOL.recordConcurrency(PROXY_POOL.size());
+        ProxyMetrics.counter(ProxyMetrics.PROXY_STANDBY_HANDOVER).increment();
+        ProxyMetrics.histogram(ProxyMetrics.PROXY_START).recordSince(start);
+        return Optional.of(proxyInfo);
+    }
+
+    private static boolean isStandbyEnabled() {
+        if (!STANDBY_POOL.configure(getConfigurationParam("proxy_standby_size"))) {
+            return false;
+        }
+        String proxyPort = ProxyConfig.get().getProxyPort();
+        if (!proxyPort.isEmpty() && !"0".equals(proxyPort.trim())) {
+            LOGGER.warn("Standby proxies could not be used with static 'proxy_port': {}. Use 0 or 'proxy_ports' instead.", proxyPort);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Register proxy in current thread. Proxy will not started by this method.
      * Also, it should not be started by user before registering.
@@ -156,15 +378,16 @@ public class ProxyPool {
      * @param proxy {@link IProxy}
      */
     public static void register(IProxy proxy) {
-        long threadId = Thread.currentThread().getId();
-        if (PROXY_POOL.containsKey(threadId)) {
+        long ownerId = getOwnerId();
+        if (PROXY_POOL.containsKey(ownerId)) {
             LOGGER.warn("Existing proxy is detected and will be stopped and overwritten");
-            PROXY_POOL.get(threadId)
+            PROXY_POOL.get(ownerId)
                     .stop();
-            PROXY_POOL.remove(threadId);
+            PROXY_POOL.remove(ownerId);
         }
-        LOGGER.info("Register custom proxy in thread: {}", threadId);
-        PROXY_POOL.put(threadId, proxy);
+        LOGGER.info("Register custom proxy for owner: {}", ownerId);
+        trackOwner(ownerId, ownerResolver.getOwner());
+        PROXY_POOL.put(ownerId, proxy);
     }
 
     /**
@@ -173,8 +396,8 @@ public class ProxyPool {
      * @return true if proxy registered (exists) in pool in current thread, false otherwise
      */
     public static boolean isProxyRegistered() {
-        long threadId = Thread.currentThread().getId();
-        return PROXY_POOL.containsKey(threadId);
+        long ownerId = getOwnerId();
+        return PROXY_POOL.containsKey(ownerId);
     }
 
     /**
@@ -184,20 +407,20 @@ public class ProxyPool {
      * {@link Optional#empty()} otherwise
      */
     public static Optional<IProxy> getProxy() {
-        return getProxy(Thread.currentThread().getId());
+        return getProxy(getOwnerId());
     }
 
     /**
-     * Get proxy of specified thread
+     * Get proxy of specified thread (owner)
      *
-     * @param threadId thread id
-     * @return {@link Optional} of {@link IProxy} if there are proxy registered in specified thread,
+     * @param ownerId owner id (thread id by default, see {@link IProxyOwnerResolver})
+     * @return {@link Optional} of {@link IProxy} if there are proxy registered for specified owner,
      * {@link Optional#empty()} otherwise
      */
-    public static Optional<IProxy> getProxy(Long threadId) {
-        IProxy proxy = null;
-        if (PROXY_POOL.containsKey(threadId)) {
-            proxy = PROXY_POOL.get(threadId);
+    public static Optional<IProxy> getProxy(Long ownerId) {
+        IProxy proxy = PROXY_POOL.get(ownerId);
+        if (proxy != null) {
+            touchOwner(ownerId);
         }
         return Optional.ofNullable(proxy);
     }
@@ -213,7 +436,13 @@ public class ProxyPool {
 
         Optional<IProxy> optionalProxy = getProxy();
         if (optionalProxy.isPresent()) {
-            originalProxyObject = (T) clazz.cast(optionalProxy.get());
+            IProxy proxy = optionalProxy.get();
+            if (!clazz.isInstance(proxy)) {
+                throw new ClassCastException(String.format("Proxy of the current thread is '%s', not '%s'. "
+                        + "Shared BrowserUp proxy sessions should be obtained via getOriginal(SharedBrowserUpProxy.class).",
+                        proxy.getClass().getName(), clazz.getName()));
+            }
+            originalProxyObject = clazz.cast(proxy);
         }
         return Optional.ofNullable(originalProxyObject);
     }
@@ -222,46 +451,384 @@ public class ProxyPool {
      * Stop proxy in current thread
      */
     public static void stopProxy() {
-        stopProxy(Thread.currentThread().getId());
+        stopProxy(getOwnerId());
     }
 
     /**
-     * Stop proxy in specified thread
+     * Stop proxy in specified thread (owner)
      *
-     * @param threadId thread id
+     * @param ownerId owner id (thread id by default, see {@link IProxyOwnerResolver})
      */
-    public static void stopProxy(Long threadId) {
-        if (!PROXY_POOL.containsKey(threadId)) {
-            LOGGER.warn("There are no registered Proxy in '{}' thread", threadId);
+    public static void stopProxy(Long ownerId) {
+        // proxy is removed before stopping, so it could not be stopped twice by the concurrent calls
+        IProxy proxy = PROXY_POOL.remove(ownerId);
+        if (proxy == null) {
+            LOGGER.warn("There are no registered Proxy for '{}' owner", ownerId);
             return;
         }
-        PROXY_POOL.get(threadId).stop();
-        setProxyPortToAvailable(threadId);
-        PROXY_POOL.remove(threadId);
+        long start = System.nanoTime();
+        try {
+            proxy.stop();
+            ProxyMetrics.histogram(ProxyMetrics.PROXY_STOP).recordSince(start);
+        } catch (RuntimeException e) {
+            ProxyMetrics.counter(ProxyMetrics.PROXY_STOP_FAILED).increment();
+            throw e;
+        } finally {
+            RESTARTS_BY_OWNER.remove(ownerId);
+            setProxyPortToAvailable(ownerId);
+            // in AUTO mode the number of standby proxies grows when threads release their proxies
+            STANDBY_POOL.scheduleRefill();
+        }
+    }
+
+    /**
+     * Stop proxy in current thread in the background
+     *
+     * @return {@link CompletableFuture}, that completes when the proxy is stopped
+     */
+    public static CompletableFuture<Void> stopProxyAsync() {
+        return stopProxyAsync(getOwnerId());
+    }
+
+    /**
+     * Stop proxy in specified thread (owner) in the background
+     *
+     * @param ownerId owner id (thread id by default, see {@link IProxyOwnerResolver})
+     * @return {@link CompletableFuture}, that completes when the proxy is stopped
+     */
+    public static CompletableFuture<Void> stopProxyAsync(Long ownerId) {
+        return CompletableFuture.runAsync(() -> stopProxy(ownerId), ASYNC_EXECUTOR);
     }
 
     /**
-     * Stop all proxies in all threads
+     * Stop all proxies in all threads, including standby ones. Proxies are stopped in parallel
      */
     public static void stopAllProxies() {
-        for (Long threadId : new ArrayList<>(PROXY_POOL.keySet())) {
-            stopProxy(threadId);
+        stopAllProxies(null);
+    }
+
+    /**
+     * Stop all proxies in all threads, including standby ones, in bounded time.<br>
+     * Proxies are stopped gracefully in parallel. Proxies, that were not stopped in the specified time,
+     * are aborted (see {@link IProxy#abort()})
+     *
+     * @param timeout how long to wait for the graceful stop, null to wait until all proxies are stopped
+     */
+    public static void stopAllProxies(Duration timeout) {
+        Map<Long, IProxy> proxies = new HashMap<>();
+        for (Long ownerId : new ArrayList<>(PROXY_POOL.keySet())) {
+            IProxy proxy = PROXY_POOL.remove(ownerId);
+            if (proxy != null) {
+                proxies.put(ownerId, proxy);
+            }
+        }
+        Map<Long, CompletableFuture<Void>> stops = new HashMap<>();
+        proxies.forEach((ownerId, proxy) -> stops.put(ownerId, CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            proxy.stop();
+            ProxyMetrics.histogram(ProxyMetrics.PROXY_STOP).recordSince(start);
+        }, ASYNC_EXECUTOR)));
+        try {
+            CompletableFuture<Void> all = CompletableFuture.allOf(stops.values().toArray(new CompletableFuture[0]));
+            if (timeout == null) {
+                all.join();
+            } else {
+                all.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            LOGGER.warn("Not all proxies were stopped in {}, they will be aborted.", timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Proxies stopping was interrupted, not stopped proxies will be aborted.");
+        } catch (ExecutionException | CompletionException e) {
+            // failures are logged per proxy below
+        }
+        stops.forEach((ownerId, stop) -> {
+            if (!stop.isDone()) {
+                abortQuietly(ownerId, proxies.get(ownerId));
+            } else if (stop.isCompletedExceptionally()) {
+                try {
+                    stop.join();
+                } catch (CompletionException e) {
+                    ProxyMetrics.counter(ProxyMetrics.PROXY_STOP_FAILED).increment();
+                    LOGGER.warn("Unable to stop proxy of the owner '{}': {}", ownerId, e.getCause().getMessage());
+                }
+            }
+            RESTARTS_BY_OWNER.remove(ownerId);
+            setProxyPortToAvailable(ownerId);
+        });
+        STANDBY_POOL.clear();
+    }
+
+    private static void abortQuietly(Long ownerId, IProxy proxy) {
+        try {
+            LOGGER.info("Aborting proxy of the owner '{}'", ownerId);
+            ProxyMetrics.counter(ProxyMetrics.PROXY_ABORTED).increment();
+            proxy.abort();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to abort proxy of the owner '{}': {}", ownerId, e.getMessage());
+        }
+    }
+
+    /**
+     * Add listener of the resources, reclaimed by the reaper
+     *
+     * @param listener see {@link IProxyReapListener}
+     */
+    public static void addReapListener(IProxyReapListener listener) {
+        REAP_LISTENERS.add(listener);
+    }
+
+    /**
+     * Remove listener of the resources, reclaimed by the reaper
+     *
+     * @param listener see {@link IProxyReapListener}
+     */
+    public static void removeReapListener(IProxyReapListener listener) {
+        REAP_LISTENERS.remove(listener);
+    }
+
+    /**
+     * Reclaim proxies, ports and owner-only rules of the dead owners, and stop proxies that are idle
+     * longer than <b>proxy_idle_timeout</b>.<br>
+     * Is executed by the reaper every <b>proxy_reaper_interval</b> seconds, but could be called explicitly,
+     * for example after the test suite.
+     *
+     * @return {@link List} of {@link ProxyReapEvent}, that describe reclaimed resources
+     */
+    public static List<ProxyReapEvent> reapLeakedProxies() {
+        List<ProxyReapEvent> events = new ArrayList<>();
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(getIntConfigurationParam("proxy_idle_timeout", 0));
+        long now = System.nanoTime();
+        for (Map.Entry<Long, OwnerRef> entry : OWNERS.entrySet()) {
+            Long ownerId = entry.getKey();
+            OwnerRef ownerRef = entry.getValue();
+            ProxyReapEvent event = null;
+            if (ownerRef.isDead()) {
+                OWNERS.remove(ownerId, ownerRef);
+                event = reclaim(ownerId, ProxyReapEvent.Reason.DEAD_OWNER);
+            } else if (idleTimeoutNanos > 0 && now - ownerRef.lastActivity > idleTimeoutNanos && PROXY_POOL.containsKey(ownerId)) {
+                event = reclaim(ownerId, ProxyReapEvent.Reason.IDLE);
+            } else if (!PROXY_POOL.containsKey(ownerId) && !PROXY_PORTS_BY_OWNER.containsKey(ownerId) && !OWNER_RULES.containsKey(ownerId)) {
+                // nothing to reclaim, owner will be tracked again when it gets proxy, port or rule
+                OWNERS.remove(ownerId, ownerRef);
+            }
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        for (ProxyReapEvent event : events) {
+            LOGGER.info("Reclaimed leaked proxy resources: {}", event);
+            ProxyMetrics.counter(event.getReason() == ProxyReapEvent.Reason.DEAD_OWNER ? ProxyMetrics.PROXY_REAPED_DEAD_OWNER
+                    : ProxyMetrics.PROXY_REAPED_IDLE).increment();
+            for (IProxyReapListener listener : REAP_LISTENERS) {
+                try {
+                    listener.onReap(event);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Proxy reap listener failed: {}", e.getMessage(), e);
+                }
+            }
+        }
+        if (!events.isEmpty()) {
+            STANDBY_POOL.scheduleRefill();
         }
+        return events;
+    }
+
+    private static ProxyReapEvent reclaim(Long ownerId, ProxyReapEvent.Reason reason) {
+        IProxy proxy = PROXY_POOL.remove(ownerId);
+        RESTARTS_BY_OWNER.remove(ownerId);
+        if (proxy != null) {
+            try {
+                if (proxy.isStarted()) {
+                    proxy.stop();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to stop leaked proxy '{}' of the owner '{}': {}", proxy, ownerId, e.getMessage());
+            }
+        }
+        Integer port = PROXY_PORTS_BY_OWNER.remove(ownerId);
+        if (port != null) {
+            releaseProxyPort(port);
+        }
+        // idle owner is still alive, so its rule is kept
+        boolean ruleRemoved = reason == ProxyReapEvent.Reason.DEAD_OWNER && OWNER_RULES.remove(ownerId) != null;
+        if (proxy == null && port == null && !ruleRemoved) {
+            return null;
+        }
+        return new ProxyReapEvent(ownerId, reason, proxy, port, ruleRemoved);
     }
 
     /**
-     * Get range of ports from proxy_ports configuration parameter
+     * Check all started proxies and restart the ones, that do not accept connections, on the same port
+     * (see {@link IProxy#restart(int)}).<br>
+     * All proxies are checked at the same time by {@link ProxyHealthChecker}.
+     * Is executed by the supervisor every <b>proxy_health_check_interval</b> seconds, but could be called explicitly.
+     *
+     * @return {@link List} of {@link HealthCheckResult} of the unhealthy proxies
      */
-    private static void initProxyPortsRange() {
-        // todo add opportunity to set something like 20, 30:40, 400
-        if (!getConfigurationParam("proxy_ports").isEmpty()) {
+    public static List<HealthCheckResult> checkProxies() {
+        List<Long> owners = new ArrayList<>();
+        List<IProxy> proxies = new ArrayList<>();
+        List<HealthCheckTarget> targets = new ArrayList<>();
+        for (Map.Entry<Long, IProxy> entry : PROXY_POOL.entrySet()) {
+            IProxy proxy = entry.getValue();
+            IProxyInfo info;
             try {
-                String[] ports = getConfigurationParam("proxy_ports").split(":");
-                for (int i = Integer.parseInt(ports[0]); i <= Integer.parseInt(ports[1]); i++) {
-                    PROXY_PORTS_FROM_RANGE.put(i, true);
+                info = proxy.isStarted() ? proxy.getInfo() : null;
+            } catch (IllegalStateException e) {
+                // proxy is stopped concurrently
+                info = null;
+            }
+            if (info == null) {
+                continue;
+            }
+            owners.add(entry.getKey());
+            proxies.add(proxy);
+            targets.add(HealthCheckTarget.direct(info.getHost(), info.getPort()));
+        }
+        List<HealthCheckResult> unhealthy = new ArrayList<>();
+        if (targets.isEmpty()) {
+            return unhealthy;
+        }
+        List<HealthCheckResult> results = ProxyHealthChecker.check(targets, HEALTH_CHECK_TIMEOUT);
+        for (int i = 0; i < results.size(); i++) {
+            HealthCheckResult result = results.get(i);
+            if (!result.isAlive()) {
+                unhealthy.add(result);
+                restartProxy(owners.get(i), proxies.get(i), result);
+            }
+        }
+        return unhealthy;
+    }
+
+    private static void restartProxy(Long ownerId, IProxy proxy, HealthCheckResult result) {
+        // proxy could be stopped or replaced by the owner while it was checked
+        if (PROXY_POOL.get(ownerId) != proxy) {
+            return;
+        }
+        int port = result.getTarget().getPort();
+        LOGGER.warn("Proxy '{}' of the owner '{}' is not healthy and will be restarted on port {}: {}", proxy, ownerId, port,
+                result.getError().orElse(""));
+        try {
+            proxy.restart(port);
+            RESTARTS_BY_OWNER.merge(ownerId, 1, Integer::sum);
+            ProxyMetrics.counter(ProxyMetrics.PROXY_RESTARTED).increment();
+        } catch (RuntimeException e) {
+            ProxyMetrics.counter(ProxyMetrics.PROXY_RESTART_FAILED).increment();
+            LOGGER.error("Unable to restart proxy '{}' of the owner '{}': {}", proxy, ownerId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get how many times the proxy of the current thread was restarted by the supervisor
+     *
+     * @return number of restarts, 0 if there are no proxy in current thread
+     */
+    public static int getRestartCount() {
+        return getRestartCount(getOwnerId());
+    }
+
+    /**
+     * Get how many times the proxy of the specified thread (owner) was restarted by the supervisor
+     *
+     * @param ownerId owner id (thread id by default, see {@link IProxyOwnerResolver})
+     * @return number of restarts, 0 if there are no proxy for specified owner
+     */
+    public static int getRestartCount(Long ownerId) {
+        return RESTARTS_BY_OWNER.getOrDefault(ownerId, 0);
+    }
+
+    /**
+     * Remember owner of the current context, so its resources could be reclaimed when it dies
+     *
+     * @param ownerId id of the owner of the current context
+     * @param owner   owner object of the current context, see {@link IProxyOwnerResolver#getOwner()}
+     */
+    private static void trackOwner(long ownerId, Object owner) {
+        OwnerRef ownerRef = OWNERS.get(ownerId);
+        if (ownerRef == null || ownerRef.isDead()) {
+            OWNERS.put(ownerId, new OwnerRef(owner));
+        } else {
+            ownerRef.lastActivity = System.nanoTime();
+        }
+        startReaper();
+        startSupervisor();
+    }
+
+    private static void touchOwner(Long ownerId) {
+        OwnerRef ownerRef = OWNERS.get(ownerId);
+        if (ownerRef != null) {
+            ownerRef.lastActivity = System.nanoTime();
+        }
+    }
+
+    private static void startReaper() {
+        if (reaperStarted) {
+            return;
+        }
+        synchronized (ProxyPool.class) {
+            if (reaperStarted) {
+                return;
+            }
+            reaperStarted = true;
+            int interval = getIntConfigurationParam("proxy_reaper_interval", 60);
+            if (interval <= 0) {
+                LOGGER.debug("Proxy reaper is disabled.");
+                return;
+            }
+            ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "carina-proxy-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reaper.scheduleWithFixedDelay(() -> {
+                try {
+                    reapLeakedProxies();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Proxy reaper failed: {}", e.getMessage(), e);
                 }
-            } catch (Exception e) {
-                throw new InvalidConfigurationException("Please specify 'proxy_ports' in format 'port_from:port_to'");
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void startSupervisor() {
+        if (supervisorStarted) {
+            return;
+        }
+        synchronized (ProxyPool.class) {
+            if (supervisorStarted) {
+                return;
+            }
+            supervisorStarted = true;
+            int interval = getIntConfigurationParam("proxy_health_check_interval", 30);
+            if (interval <= 0) {
+                LOGGER.debug("Proxy health supervisor is disabled.");
+                return;
+            }
+            ScheduledExecutorService supervisor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "carina-proxy-supervisor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            supervisor.scheduleWithFixedDelay(() -> {
+                try {
+                    checkProxies();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Proxy health supervisor failed: {}", e.getMessage(), e);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Get range(s) of ports from proxy_ports configuration parameter, for example {@code 20, 30:40, 400}
+     */
+    private static synchronized void initProxyPortsRange() {
+        if (portAllocator == null) {
+            List<Integer> ports = ProxyConfig.get().getProxyPorts();
+            if (!ports.isEmpty()) {
+                portAllocator = new PortAllocator(ports, true, PortAllocator.DEFAULT_QUARANTINE);
             }
         }
     }
@@ -271,16 +838,28 @@ public class ProxyPool {
      * If port was get from 'proxy_port', it will be just removed from thread-cached port.<br>
      * If port was get from 'proxy_ports', it's status will be changed to available and removed from thread-cached port.
      *
-     * @param threadId thread id
+     * @param ownerId owner id
      */
-    private static void setProxyPortToAvailable(Long threadId) {
-        if (PROXY_PORTS_BY_THREAD.get(threadId) != null &&
-                PROXY_PORTS_FROM_RANGE.get(PROXY_PORTS_BY_THREAD.get(threadId)) != null) {
+    private static void setProxyPortToAvailable(Long ownerId) {
+        Integer port = PROXY_PORTS_BY_OWNER.get(ownerId);
+        PortAllocator allocator = portAllocator;
+        if (port != null && allocator != null && allocator.contains(port)) {
             LOGGER.info("Setting proxy port '{}' to available state - means that it will be removed from thread cache "
-                            + "and it's status will be set as available if it was got from 'proxy_ports'",
-                    PROXY_PORTS_BY_THREAD.get(threadId));
-            PROXY_PORTS_FROM_RANGE.put(PROXY_PORTS_BY_THREAD.get(threadId), true);
-            PROXY_PORTS_BY_THREAD.remove(threadId);
+                    + "and it's status will be set as available if it was got from 'proxy_ports'", port);
+            allocator.release(port);
+            PROXY_PORTS_BY_OWNER.remove(ownerId);
+        }
+    }
+
+    /**
+     * Set proxy port, that is not cached by any thread, as available if it was got from 'proxy_ports'
+     *
+     * @param port proxy port
+     */
+    private static void releaseProxyPort(Integer port) {
+        PortAllocator allocator = portAllocator;
+        if (allocator != null) {
+            allocator.release(port);
         }
     }
 
@@ -290,17 +869,26 @@ public class ProxyPool {
      * @return 'proxy_port' value from configuration if it exists, proxy_ports available port otherwise
      */
     private static Integer getProxyPortFromConfig() {
-        if (!getConfigurationParam("proxy_port").isEmpty()) {
-            return Integer.valueOf(getConfigurationParam("proxy_port"));
-        } else if (!getConfigurationParam("proxy_ports").isEmpty()) {
-            for (Map.Entry<Integer, Boolean> pair : PROXY_PORTS_FROM_RANGE.entrySet()) {
-                if (pair.getValue()) {
-                    LOGGER.info("Making proxy port busy: {}", pair.getKey());
-                    pair.setValue(false);
-                    return pair.getKey();
-                }
+        ProxyConfig config = ProxyConfig.get();
+        OptionalInt staticPort = config.getStaticPort();
+        if (staticPort.isPresent()) {
+            return staticPort.getAsInt();
+        } else if (!config.getProxyPorts().isEmpty()) {
+            PortAllocator allocator = portAllocator;
+            if (allocator == null) {
+                initProxyPortsRange();
+                allocator = portAllocator;
             }
-            throw new RuntimeException("All ports from 'proxy_ports' are currently busy. Please change execution thread count");
+            long start = System.nanoTime();
+            OptionalInt allocatedPort = allocator.allocate();
+            ProxyMetrics.histogram(ProxyMetrics.PORT_ALLOCATE).recordSince(start);
+            if (allocatedPort.isEmpty()) {
+                ProxyMetrics.counter(ProxyMetrics.PORT_EXHAUSTED).increment();
+                throw new RuntimeException("All ports from 'proxy_ports' are currently busy. Please change execution thread count");
+            }
+            int port = allocatedPort.getAsInt();
+            LOGGER.info("Making proxy port busy: {}", port);
+            return port;
         }
         throw new RuntimeException("Neither 'proxy_port' nor 'proxy_ports' are specified!");
     }
@@ -311,4 +899,38 @@ public class ProxyPool {
         return !(value == null || value.equalsIgnoreCase(SpecialKeywords.NULL)) ? value : StringUtils.EMPTY;
     }
 
+    private static int getIntConfigurationParam(String param, int defaultValue) {
+        String value = getConfigurationParam(param);
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid '{}' value: '{}'. Default value will be used: {}", param, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Weak reference to the owner object. Owner without object (see {@link IProxyOwnerResolver#getOwner()}) never dies.
+     */
+    private static final class OwnerRef extends WeakReference<Object> {
+        private final boolean tracked;
+        private volatile long lastActivity = System.nanoTime();
+
+        OwnerRef(Object owner) {
+            super(owner);
+            this.tracked = owner != null;
+        }
+
+        boolean isDead() {
+            if (!tracked) {
+                return false;
+            }
+            Object owner = get();
+            return owner == null || (owner instanceof Thread && !((Thread) owner).isAlive());
+        }
+    }
+
 }
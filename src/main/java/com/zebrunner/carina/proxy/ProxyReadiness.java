@@ -0,0 +1,92 @@
+package com.zebrunner.carina.proxy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits until the proxy listener accepts connections.<br>
+ * Uses non-blocking self-connect probes, so it completes as soon as the listener is ready
+ * instead of the fixed pause after the proxy start.
+ */
+public final class ProxyReadiness {
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    private static final long RETRY_DELAY_MILLIS = 5;
+
+    private ProxyReadiness() {
+        // hide
+    }
+
+    /**
+     * Wait until the listener on the local port accepts connections
+     *
+     * @param port    local port of the proxy
+     * @param timeout how long to wait
+     * @return how long it took for the listener to become ready
+     * @throws IllegalStateException if the listener is not ready after timeout
+     */
+    public static Duration awaitReady(int port, Duration timeout) {
+        return awaitReady(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), timeout);
+    }
+
+    /**
+     * Wait until the listener accepts connections
+     *
+     * @param address address of the proxy
+     * @param timeout how long to wait
+     * @return how long it took for the listener to become ready
+     * @throws IllegalStateException if the listener is not ready after timeout
+     */
+    public static Duration awaitReady(InetSocketAddress address, Duration timeout) {
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        try (Selector selector = Selector.open()) {
+            while (!tryConnect(selector, address, deadline)) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    throw new IllegalStateException(String.format("Proxy listener %s is not ready after %d ms",
+                            address, timeout.toMillis()));
+                }
+                TimeUnit.MILLISECONDS.sleep(Math.min(RETRY_DELAY_MILLIS, remainingMillis));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to check proxy listener " + address, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Waiting for proxy listener " + address + " was interrupted", e);
+        }
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private static boolean tryConnect(Selector selector, InetSocketAddress address, long deadline) throws IOException {
+        try (SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+                return true;
+            }
+            SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+            try {
+                long remainingMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                if (selector.select(remainingMillis) == 0) {
+                    return false;
+                }
+                selector.selectedKeys().clear();
+                return channel.finishConnect();
+            } finally {
+                key.cancel();
+                // deregister the channel before it is closed
+                selector.selectNow();
+            }
+        } catch (ConnectException e) {
+            // listener is not bound yet
+            return false;
+        }
+    }
+}
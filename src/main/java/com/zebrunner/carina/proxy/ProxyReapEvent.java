@@ -0,0 +1,78 @@
+package com.zebrunner.carina.proxy;
+
+import java.util.Optional;
+
+/**
+ * Describes resources of the proxy owner, that were reclaimed by the {@link ProxyPool} reaper
+ */
+public final class ProxyReapEvent {
+
+    /**
+     * Why resources were reclaimed
+     */
+    public enum Reason {
+        /**
+         * Owner thread was terminated or owner object was garbage collected
+         */
+        DEAD_OWNER,
+        /**
+         * Proxy was not used longer than <b>proxy_idle_timeout</b>
+         */
+        IDLE
+    }
+
+    private final long ownerId;
+    private final Reason reason;
+    private final IProxy proxy;
+    private final Integer port;
+    private final boolean ruleRemoved;
+
+    ProxyReapEvent(long ownerId, Reason reason, IProxy proxy, Integer port, boolean ruleRemoved) {
+        this.ownerId = ownerId;
+        this.reason = reason;
+        this.proxy = proxy;
+        this.port = port;
+        this.ruleRemoved = ruleRemoved;
+    }
+
+    public long getOwnerId() {
+        return ownerId;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Get stopped proxy
+     *
+     * @return {@link Optional} of {@link IProxy} if proxy of the owner was stopped, {@link Optional#empty()} otherwise
+     */
+    public Optional<IProxy> getProxy() {
+        return Optional.ofNullable(proxy);
+    }
+
+    /**
+     * Get released port
+     *
+     * @return {@link Optional} of port cached for the owner, {@link Optional#empty()} otherwise
+     */
+    public Optional<Integer> getPort() {
+        return Optional.ofNullable(port);
+    }
+
+    /**
+     * Check if owner-only rule was removed
+     *
+     * @return true if owner-only {@link IProxyRule} was removed, false otherwise
+     */
+    public boolean isRuleRemoved() {
+        return ruleRemoved;
+    }
+
+    @Override
+    public String toString() {
+        return "ProxyReapEvent [ownerId=" + ownerId + ", reason=" + reason + ", proxy=" + proxy + ", port=" + port
+                + ", ruleRemoved=" + ruleRemoved + "]";
+    }
+}
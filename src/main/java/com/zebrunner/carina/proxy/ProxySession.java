@@ -0,0 +1,139 @@
+package com.zebrunner.carina.proxy;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handle of the proxy owner, that is not bound to the OS thread.
+ * <p>
+ * By default, {@link ProxyPool} stores proxies by the id of the current thread. When the session is attached to the thread,
+ * proxies are stored by the session id instead, so the test that hops between threads (async test runners,
+ * pooled executors, virtual threads) keeps its proxy, and the pooled thread does not inherit the proxy of the previous test.<br>
+ * Session is not inherited by the child threads, since pooled threads would keep the session of the thread that created them.
+ * To use the session in other threads, use {@link #wrap(Runnable)} / {@link #wrap(Callable)}.
+ *
+ * <pre>{@code
+ * try (ProxySession session = ProxySession.open()) {
+ *     ProxyPool.startProxy();
+ *     executor.submit(session.wrap(() -> ProxyPool.getProxy()));
+ * }
+ * }</pre>
+ */
+public final class ProxySession implements AutoCloseable {
+    // session ids are negative, so they never clash with thread ids
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+    private static final ThreadLocal<ProxySession> CURRENT_SESSION = new ThreadLocal<>();
+
+    private final long id;
+
+    private ProxySession() {
+        this.id = ID_SEQUENCE.decrementAndGet();
+    }
+
+    /**
+     * Create new session and attach it to the current thread
+     *
+     * @return {@link ProxySession}
+     */
+    public static ProxySession open() {
+        ProxySession session = new ProxySession();
+        session.attach();
+        return session;
+    }
+
+    /**
+     * Get session attached to the current thread
+     *
+     * @return {@link Optional} of {@link ProxySession} if it is attached to the current thread, {@link Optional#empty()} otherwise
+     */
+    public static Optional<ProxySession> current() {
+        return Optional.ofNullable(CURRENT_SESSION.get());
+    }
+
+    /**
+     * Get session id. It is used by {@link ProxyPool} as the proxy owner id
+     *
+     * @return session id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Attach session to the current thread
+     */
+    public void attach() {
+        CURRENT_SESSION.set(this);
+    }
+
+    /**
+     * Detach session from the current thread if it is attached
+     */
+    public void detach() {
+        if (CURRENT_SESSION.get() == this) {
+            CURRENT_SESSION.remove();
+        }
+    }
+
+    /**
+     * Wrap task, so it will be executed with this session attached to the executing thread
+     *
+     * @param task {@link Runnable}
+     * @return wrapped {@link Runnable}
+     */
+    public Runnable wrap(Runnable task) {
+        return () -> {
+            ProxySession previous = CURRENT_SESSION.get();
+            attach();
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Wrap task, so it will be executed with this session attached to the executing thread
+     *
+     * @param task {@link Callable}
+     * @return wrapped {@link Callable}
+     */
+    public <T> Callable<T> wrap(Callable<T> task) {
+        return () -> {
+            ProxySession previous = CURRENT_SESSION.get();
+            attach();
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Stop proxy of this session (if exists), remove session-only rule and detach session from the current thread
+     */
+    @Override
+    public void close() {
+        if (ProxyPool.getProxy(id).isPresent()) {
+            ProxyPool.stopProxy(id);
+        }
+        ProxyPool.clearOwnerRule(id);
+        detach();
+    }
+
+    private static void restore(ProxySession previous) {
+        if (previous == null) {
+            CURRENT_SESSION.remove();
+        } else {
+            CURRENT_SESSION.set(previous);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ProxySession [id=" + id + "]";
+    }
+}
@@ -1,24 +1,19 @@
 package com.zebrunner.carina.proxy;
 
+import com.zebrunner.carina.proxy.browserup.shared.SharedBrowserUpProxy;
 import com.zebrunner.carina.utils.Configuration;
-import com.zebrunner.carina.utils.R;
-import com.zebrunner.carina.utils.commons.SpecialKeywords;
 import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
-import org.apache.commons.lang3.StringUtils;
 import org.openqa.selenium.Proxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 public final class ProxyUtils {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
@@ -32,9 +27,13 @@ public final class ProxyUtils {
      *
      * @return {@link Proxy} in {@link Optional} if according to the configuration it should have been created, {@link Optional#empty()} otherwise
      * @throws InvalidConfigurationException if the proxy configuration is incorrect
+     * @throws IllegalStateException if the dynamic proxy is the {@link SharedBrowserUpProxy} session in
+     *                               {@link SharedBrowserUpProxy.Mode#PROXY_AUTH} mode, that could not be used by the browser
      */
     public static Optional<Proxy> getSeleniumProxy() {
-        String proxyTypeAsString = getConfigurationValue("proxy_type");
+        ProxyConfig.refresh();
+        ProxyConfig config = ProxyConfig.get();
+        String proxyTypeAsString = config.getProxyType();
         if (proxyTypeAsString.isEmpty()) {
             throw new InvalidConfigurationException("proxy_type should not be empty and have a correct value.");
         }
@@ -50,11 +49,11 @@ public final class ProxyUtils {
         }
 
         if ("LEGACY".equalsIgnoreCase(proxyTypeAsString)) {
-            return getLegacyProxy();
+            return getLegacyProxy(config);
         }
 
         if ("DYNAMIC".equalsIgnoreCase(proxyTypeAsString)) {
-            return getDynamicSeleniumProxy();
+            return getDynamicSeleniumProxy(config);
         }
 
         Proxy.ProxyType proxyType;
@@ -72,15 +71,15 @@ public final class ProxyUtils {
             break;
 
         case MANUAL:
-            proxy = getManualSeleniumProxy();
+            proxy = getManualSeleniumProxy(config);
             break;
 
         case PAC:
-            String autoConfigURL = getConfigurationValue("proxy_autoconfig_url");
+            String autoConfigURL = config.getAutoconfigUrl();
             if (autoConfigURL.isEmpty()) {
                 throw new InvalidConfigurationException("ProxyType is PAC, but proxy_autoconfig_url is empty. Please, provide autoconfig url");
             }
-            if (Boolean.parseBoolean(getConfigurationValue("proxy_pac_local"))) {
+            if (config.isPacLocal()) {
                 Path path = Path.of(autoConfigURL);
                 if (!Files.exists(path)) {
                     throw new InvalidConfigurationException("'proxy_pac_local' parameter value is true, "
@@ -91,7 +90,9 @@ public final class ProxyUtils {
                             + "but the path specified in the 'proxy_pac_local' parameter does not point to the file, "
                             + "but to the directory. Specify the path to the file. Path: " + path);
                 }
-                autoConfigURL = encodePAC(path);
+                autoConfigURL = config.isPacServer()
+                        ? PacServer.getUrl(path, config.getPacServerHost())
+                        : encodePAC(path);
             }
             proxy.setProxyAutoconfigUrl(autoConfigURL);
             break;
@@ -112,32 +113,23 @@ public final class ProxyUtils {
     }
 
     /**
-     * Encode PAC file to encoded link with Base64
+     * Encode PAC file to encoded link with Base64. Encoded link is cached until the file is changed
      *
      * @param pathToPac {@link Path} to the pac file
      * @return encoded link to pac file
      * @throws UncheckedIOException if error happens when try to read/encode content of the file
      */
     private static String encodePAC(Path pathToPac) {
-        try {
-            return String.format("data:application/x-javascript-config;base64,%s",
-                    new String(Base64.getEncoder().encode(Files.readAllBytes(pathToPac))));
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return PacFile.of(pathToPac).getDataUrl();
     }
 
-    private static Proxy getManualSeleniumProxy() {
-        String proxyHost = Configuration.get(Configuration.Parameter.PROXY_HOST);
-        String proxyPort = Configuration.get(Configuration.Parameter.PROXY_PORT);
-        String noProxy = Configuration.get(Configuration.Parameter.NO_PROXY);
-        // there are difference between system noproxy (parttern with '|' delimiter) and selenium noproxy (addresses with ',' delimiter)
-        String systemNoProxy = noProxy.contains(",") ? Arrays.stream(noProxy.split(","))
-                .map(String::trim)
-                .collect(Collectors.joining("|")) : noProxy;
-
-        List<String> protocols = Arrays.asList(Configuration.get(Configuration.Parameter.PROXY_PROTOCOLS).split("[\\s,]+"));
-        boolean isSetToSystem = Configuration.getBoolean(Configuration.Parameter.PROXY_SET_TO_SYSTEM);
+    private static Proxy getManualSeleniumProxy(ProxyConfig config) {
+        String proxyHost = config.getProxyHost();
+        String proxyPort = config.getProxyPort();
+        String noProxy = config.getNoProxy();
+        String systemNoProxy = config.getSystemNoProxy();
+        Set<Protocol> protocols = config.getProtocols();
+        boolean isSetToSystem = config.isSetToSystem();
 
         if (proxyHost.isEmpty() || proxyPort.isEmpty() || protocols.isEmpty()) {
             throw new InvalidConfigurationException(
@@ -145,9 +137,9 @@ public final class ProxyUtils {
         }
 
         org.openqa.selenium.Proxy proxy = new org.openqa.selenium.Proxy();
-        String proxyAddress = String.format("%s:%s", proxyHost, proxyPort);
+        String proxyAddress = config.getProxyAddress();
 
-        if (protocols.contains("http")) {
+        if (protocols.contains(Protocol.HTTP)) {
             LOGGER.info("Http proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setHttpProxy(proxyAddress);
             if (isSetToSystem) {
@@ -156,7 +148,7 @@ public final class ProxyUtils {
             }
         }
 
-        if (protocols.contains("https")) {
+        if (protocols.contains(Protocol.HTTPS)) {
             LOGGER.info("Https proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setSslProxy(proxyAddress);
             if (isSetToSystem) {
@@ -165,7 +157,7 @@ public final class ProxyUtils {
             }
         }
 
-        if (protocols.contains("ftp")) {
+        if (protocols.contains(Protocol.FTP)) {
             LOGGER.info("FTP proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setFtpProxy(proxyAddress);
             if (isSetToSystem) {
@@ -174,7 +166,7 @@ public final class ProxyUtils {
             }
         }
 
-        if (protocols.contains("socks")) {
+        if (protocols.contains(Protocol.SOCKS)) {
             LOGGER.info("Socks proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setSocksProxy(proxyAddress);
             if (isSetToSystem) {
@@ -189,7 +181,7 @@ public final class ProxyUtils {
         return proxy;
     }
 
-    private static Optional<Proxy> getDynamicSeleniumProxy() {
+    private static Optional<Proxy> getDynamicSeleniumProxy(ProxyConfig config) {
         ProxyPool.startProxy();
         Optional<IProxy> proxy = ProxyPool.getProxy();
 
@@ -197,20 +189,21 @@ public final class ProxyUtils {
             return Optional.empty();
         }
 
+        if (proxy.get() instanceof SharedBrowserUpProxy && ((SharedBrowserUpProxy) proxy.get()).getMode() == SharedBrowserUpProxy.Mode.PROXY_AUTH) {
+            // browser does not know the session credentials, so all its requests will be rejected
+            throw new IllegalStateException(String.format("'%s' session in PROXY_AUTH mode could not be used for the Selenium proxy. "
+                    + "Use LISTENER mode.", proxy.get()));
+        }
         IProxyInfo proxyInfo = proxy.orElseThrow(() -> new RuntimeException("Proxy info should exists for starting proxy"))
                 .getInfo();
-        String noProxy = Configuration.get(Configuration.Parameter.NO_PROXY);
-        boolean isSetToSystem = Configuration.getBoolean(Configuration.Parameter.PROXY_SET_TO_SYSTEM);
-        // there are difference between system noproxy (parttern with '|' delimiter) and selenium noproxy (addresses with ',' delimiter)
-        String systemNoProxy = noProxy.contains(",") ? Arrays.stream(noProxy.split(","))
-                .map(String::trim)
-                .collect(Collectors.joining("|")) : noProxy;
-
-        if (isSetToSystem) {
-            LOGGER.warn("Setting proxy to system parameters is not thread-safe with DYNAMIC proxy mode.");
+        String noProxy = config.getNoProxy();
+
+        if (config.isSetToSystem()) {
+            // instead of global System properties, HTTP clients of each session will use it's own proxy
+            CarinaProxySelector.install();
         }
 
-        List<String> protocols = Arrays.asList(Configuration.get(Configuration.Parameter.PROXY_PROTOCOLS).split("[\\s,]+"));
+        Set<Protocol> protocols = config.getProtocols();
         List<Protocol> supportedProtocols = proxy.get()
                 .getSupportedProtocols();
         String proxyHost = proxyInfo.getHost();
@@ -219,56 +212,40 @@ public final class ProxyUtils {
         org.openqa.selenium.Proxy seleniumProxy = new org.openqa.selenium.Proxy();
         String proxyAddress = String.format("%s:%s", proxyHost, proxyPort);
 
-        if (protocols.contains("http")) {
+        if (protocols.contains(Protocol.HTTP)) {
             if (supportedProtocols.contains(Protocol.HTTP)) {
                 LOGGER.info("Http proxy will be set: {}:{}", proxyHost, proxyPort);
                 seleniumProxy.setHttpProxy(proxyAddress);
-                if (isSetToSystem) {
-                    //todo investigate if we need to set system proxy here
-                    SystemProxy.setupSystemProxy(proxyHost, proxyPort, Protocol.HTTP, systemNoProxy);
-                }
             } else {
                 LOGGER.warn("'proxy_protocols' configuration parameter contains 'http' protocol, but '{}' proxy implementation does not support it.",
                         proxy.get());
             }
         }
 
-        if (protocols.contains("https")) {
+        if (protocols.contains(Protocol.HTTPS)) {
             if (supportedProtocols.contains(Protocol.HTTPS)) {
                 LOGGER.info("Https proxy will be set: {}:{}", proxyHost, proxyPort);
                 seleniumProxy.setSslProxy(proxyAddress);
-                if (isSetToSystem) {
-                    //todo investigate if we need to set system proxy here
-                    SystemProxy.setupSystemProxy(proxyHost, proxyPort, Protocol.HTTPS, systemNoProxy);
-                }
             } else {
                 LOGGER.warn("'proxy_protocols' configuration parameter contains 'https' protocol, but '{}' proxy implementation does not support it.",
                         proxy.get());
             }
         }
 
-        if (protocols.contains("ftp")) {
+        if (protocols.contains(Protocol.FTP)) {
             if (supportedProtocols.contains(Protocol.FTP)) {
                 LOGGER.info("FTP proxy will be set: {}:{}", proxyHost, proxyPort);
                 seleniumProxy.setFtpProxy(proxyAddress);
-                if (isSetToSystem) {
-                    //todo investigate if we need to set system proxy here
-                    SystemProxy.setupSystemProxy(proxyHost, proxyPort, Protocol.FTP, systemNoProxy);
-                }
             } else {
                 LOGGER.warn("'proxy_protocols' configuration parameter contains 'ftp' protocol, but '{}' proxy implementation does not support it.",
                         proxy.get());
             }
         }
 
-        if (protocols.contains("socks")) {
+        if (protocols.contains(Protocol.SOCKS)) {
             if (supportedProtocols.contains(Protocol.SOCKS)) {
                 LOGGER.info("Socks proxy will be set: {}:{}", proxyHost, proxyPort);
                 seleniumProxy.setSocksProxy(proxyAddress);
-                if (isSetToSystem) {
-                    //todo investigate if we need to set system proxy here
-                    SystemProxy.setupSystemProxy(proxyHost, proxyPort, Protocol.SOCKS, systemNoProxy);
-                }
             } else {
                 LOGGER.warn("'proxy_protocols' configuration parameter contains 'socks' protocol, but '{}' proxy implementation does not support it.",
                         proxy.get());
@@ -281,18 +258,18 @@ public final class ProxyUtils {
         return Optional.of(seleniumProxy);
     }
 
-    private static Optional<Proxy> getLegacyProxy() {
+    private static Optional<Proxy> getLegacyProxy(ProxyConfig config) {
         com.zebrunner.carina.proxy.browserup.ProxyPool.setupBrowserUpProxy();
         SystemProxy.setupProxy();
 
-        String proxyHost = Configuration.get(Configuration.Parameter.PROXY_HOST);
-        String proxyPort = Configuration.get(Configuration.Parameter.PROXY_PORT);
-        String noProxy = Configuration.get(Configuration.Parameter.NO_PROXY);
+        String proxyHost = config.getProxyHost();
+        String proxyPort = config.getProxyPort();
+        String noProxy = config.getNoProxy();
 
         if (Configuration.get(Configuration.Parameter.BROWSERUP_PROXY).equals("true")) {
             proxyPort = Integer.toString(com.zebrunner.carina.proxy.browserup.ProxyPool.getProxyPortFromThread());
         }
-        List<String> protocols = Arrays.asList(Configuration.get(Configuration.Parameter.PROXY_PROTOCOLS).split("[\\s,]+"));
+        Set<Protocol> protocols = config.getProtocols();
 
         if (proxyHost.isEmpty() || proxyPort.isEmpty()) {
             return Optional.empty();
@@ -301,22 +278,22 @@ public final class ProxyUtils {
         org.openqa.selenium.Proxy proxy = new org.openqa.selenium.Proxy();
         String proxyAddress = String.format("%s:%s", proxyHost, proxyPort);
 
-        if (protocols.contains("http")) {
+        if (protocols.contains(Protocol.HTTP)) {
             LOGGER.info("Http proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setHttpProxy(proxyAddress);
         }
 
-        if (protocols.contains("https")) {
+        if (protocols.contains(Protocol.HTTPS)) {
             LOGGER.info("Https proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setSslProxy(proxyAddress);
         }
 
-        if (protocols.contains("ftp")) {
+        if (protocols.contains(Protocol.FTP)) {
             LOGGER.info("FTP proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setFtpProxy(proxyAddress);
         }
 
-        if (protocols.contains("socks")) {
+        if (protocols.contains(Protocol.SOCKS)) {
             LOGGER.info("Socks proxy will be set: {}:{}", proxyHost, proxyPort);
             proxy.setSocksProxy(proxyAddress);
         }
@@ -327,10 +304,4 @@ public final class ProxyUtils {
         return Optional.of(proxy);
     }
 
-    // todo remove when params will be added to the Configuration class
-    private static String getConfigurationValue(String param) {
-        String value = R.CONFIG.get(param);
-        return !(value == null || value.equalsIgnoreCase(SpecialKeywords.NULL)) ? value : StringUtils.EMPTY;
-    }
-
 }
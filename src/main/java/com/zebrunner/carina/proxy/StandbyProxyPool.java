@@ -0,0 +1,226 @@
+package com.zebrunner.carina.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Keeps already started proxies in the background, so {@link ProxyPool#startProxy()} could hand one over
+ * to the thread without waiting for the proxy start.
+ * <p>
+ * Used only when <b>proxy_standby_size</b> configuration parameter is set:<br>
+ * <b>0</b> (or NULL) - standby pool is disabled<br>
+ * <b>N</b> - N proxies will be kept started<br>
+ * <b>AUTO</b> - the number of standby proxies depends on the observed peak of concurrently used proxies
+ */
+final class StandbyProxyPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    static final String AUTO_SIZE = "AUTO";
+
+    private final Deque<StandbyProxy> proxies = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger peakConcurrency = new AtomicInteger();
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    // incremented by clear(), so proxy started by the refill in progress is not added to the cleared pool
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Supplier<Optional<IProxy>> proxyFactory;
+    private final Supplier<Integer> portSupplier;
+    private final Consumer<Integer> portReleaser;
+    private final IntSupplier activeProxies;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "carina-proxy-standby");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile String sizeValue = "";
+    private volatile boolean auto = false;
+    private volatile int fixedSize = 0;
+
+    /**
+     * @param proxyFactory  creates a new (not started) proxy
+     * @param portSupplier  provides port for the proxy starting
+     * @param portReleaser  returns port of the proxy, that was not handed over, back to the pool
+     * @param activeProxies number of proxies currently used by threads
+     */
+    StandbyProxyPool(Supplier<Optional<IProxy>> proxyFactory, Supplier<Integer> portSupplier, Consumer<Integer> portReleaser,
+            IntSupplier activeProxies) {
+        this.proxyFactory = proxyFactory;
+        this.portSupplier = portSupplier;
+        this.portReleaser = portReleaser;
+        this.activeProxies = activeProxies;
+    }
+
+    /**
+     * Apply value of the <b>proxy_standby_size</b> configuration parameter
+     *
+     * @param value parameter value, for example {@code 4} or {@code AUTO}
+     * @return true if standby pool is enabled, false otherwise
+     */
+    boolean configure(String value) {
+        if (!value.equals(sizeValue)) {
+            if (value.isEmpty()) {
+                auto = false;
+                fixedSize = 0;
+            } else if (AUTO_SIZE.equalsIgnoreCase(value)) {
+                auto = true;
+                fixedSize = 0;
+            } else {
+                try {
+                    fixedSize = Math.max(0, Integer.parseInt(value.trim()));
+                    auto = false;
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Invalid 'proxy_standby_size' value: '{}'. Standby proxies will not be used.", value);
+                    fixedSize = 0;
+                    auto = false;
+                }
+            }
+            sizeValue = value;
+        }
+        return auto || fixedSize > 0;
+    }
+
+    /**
+     * Take started proxy from the standby pool. Refill of the pool will be scheduled in the background
+     *
+     * @return {@link Optional} of started {@link IProxy}, {@link Optional#empty()} if there are no standby proxies
+     */
+    Optional<IProxy> poll() {
+        StandbyProxy standby;
+        while ((standby = proxies.pollFirst()) != null) {
+            if (standby.proxy.isStarted()) {
+                break;
+            }
+            LOGGER.debug("Standby proxy '{}' is not started anymore and will be skipped.", standby.proxy);
+            // info of the stopped proxy is not available, so the allocated port is used
+            portReleaser.accept(standby.port);
+        }
+        scheduleRefill();
+        return standby != null ? Optional.of(standby.proxy) : Optional.empty();
+    }
+
+    /**
+     * Update observed peak of concurrently used proxies
+     *
+     * @param concurrency number of proxies currently used by threads
+     */
+    void recordConcurrency(int concurrency) {
+        peakConcurrency.accumulateAndGet(concurrency, Math::max);
+    }
+
+    /**
+     * Schedule refill of the standby pool in the background
+     */
+    void scheduleRefill() {
+        if ((auto || fixedSize > 0) && refillScheduled.compareAndSet(false, true)) {
+            executor.execute(this::refill);
+        }
+    }
+
+    /**
+     * Stop all standby proxies and return their ports
+     */
+    void clear() {
+        generation.incrementAndGet();
+        StandbyProxy standby;
+        while ((standby = proxies.pollFirst()) != null) {
+            stopQuietly(standby);
+        }
+    }
+
+    int size() {
+        return proxies.size();
+    }
+
+    private int targetSize() {
+        if (auto) {
+            // keep total number of started proxies around the observed peak
+            return Math.max(1, peakConcurrency.get() - activeProxies.getAsInt());
+        }
+        return fixedSize;
+    }
+
+    private void refill() {
+        boolean completed = false;
+        try {
+            completed = startMissingProxies();
+        } finally {
+            refillScheduled.set(false);
+        }
+        // the target could be changed while we were starting proxies
+        if (completed && proxies.size() < targetSize()) {
+            scheduleRefill();
+        }
+    }
+
+    private boolean startMissingProxies() {
+        while (proxies.size() < targetSize()) {
+            int expectedGeneration = generation.get();
+            Optional<IProxy> proxy = proxyFactory.get();
+            if (proxy.isEmpty()) {
+                return false;
+            }
+            Integer port;
+            try {
+                port = portSupplier.get();
+            } catch (RuntimeException e) {
+                LOGGER.debug("Unable to get port for the standby proxy: {}", e.getMessage());
+                return false;
+            }
+            try {
+                proxy.get().start(port);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to start standby proxy: {}", e.getMessage());
+                portReleaser.accept(port);
+                return false;
+            }
+            LOGGER.debug("Standby proxy started on port {}", proxy.get().getInfo().getPort());
+            StandbyProxy standby = new StandbyProxy(proxy.get(), port);
+            proxies.offerLast(standby);
+            // checked after adding, so the proxy is either removed here or by the clear() in progress
+            if (generation.get() != expectedGeneration) {
+                LOGGER.debug("Standby pool was cleared while the proxy was starting, so proxy will be stopped.");
+                if (proxies.remove(standby)) {
+                    stopQuietly(standby);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void stopQuietly(StandbyProxy standby) {
+        try {
+            if (standby.proxy.isStarted()) {
+                standby.proxy.stop();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.debug("Unable to stop standby proxy: {}", e.getMessage());
+        } finally {
+            portReleaser.accept(standby.port);
+        }
+    }
+
+    /**
+     * Started proxy with the port, that was allocated for it
+     */
+    private static final class StandbyProxy {
+        private final IProxy proxy;
+        private final int port;
+
+        private StandbyProxy(IProxy proxy, int port) {
+            this.proxy = proxy;
+            this.port = port;
+        }
+    }
+}
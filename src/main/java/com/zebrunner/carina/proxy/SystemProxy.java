@@ -15,24 +15,15 @@
  *******************************************************************************/
 package com.zebrunner.carina.proxy;
 
-import com.zebrunner.carina.utils.Configuration;
-import com.zebrunner.carina.utils.Configuration.Parameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.Proxy;
-import java.net.Socket;
-import java.net.SocketAddress;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.Arrays;
-import java.util.List;
+import java.time.Duration;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 public class SystemProxy {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
@@ -76,55 +67,47 @@ public class SystemProxy {
 
     /**
      * Setup system proxy from properties.<br>
-     * <b>If there are started dynamic proxy, it's values will be in priority</b>
+     * <b>If there are started dynamic proxy, it will be used in priority: {@link CarinaProxySelector} is installed,
+     * so HTTP clients of each session use it's own proxy, and System properties are not changed</b>
      */
     public static void setupProxy() {
-        String proxyHost = Configuration.get(Parameter.PROXY_HOST);
-        String proxyPort = Configuration.get(Parameter.PROXY_PORT);
-        List<String> protocols = Arrays.asList(Configuration.get(Parameter.PROXY_PROTOCOLS)
-                .split("[\\s,]+"));
-        List<String> supportedProtocols = protocols;
+        ProxyConfig.refresh();
+        ProxyConfig config = ProxyConfig.get();
+        String proxyHost = config.getProxyHost();
+        String proxyPort = config.getProxyPort();
+        Set<Protocol> protocols = config.getProtocols();
 
-        // get values of dynamic proxy in priority
+        if (!config.isSetToSystem()) {
+            return;
+        }
+
+        // dynamic proxy is used in priority, but it is set per owner by the proxy selector instead of System properties
         Optional<IProxy> dynamicProxy = ProxyPool.getProxy();
         if (dynamicProxy.isPresent()) {
-            IProxyInfo proxyInfo = dynamicProxy.get().getInfo();
-            proxyHost = proxyInfo.getHost();
-            proxyPort = String.valueOf(proxyInfo.getPort());
-            LOGGER.debug("Detected dynamic proxy '{}', it's host '{}' and port '{}' will be used in priority for system proxy."
-                            + "System proxy parameters is not thread-safe.",
-                    dynamicProxy.get(), proxyHost, proxyPort);
-            supportedProtocols = dynamicProxy.get()
-                    .getSupportedProtocols()
-                    .stream()
-                    .map(Protocol::toString)
-                    .collect(Collectors.toList());
+            LOGGER.debug("Detected dynamic proxy '{}', it will be used by HTTP clients of the current session via proxy selector.",
+                    dynamicProxy.get());
+            CarinaProxySelector.install();
+            return;
         }
 
-        if (proxyHost.isEmpty() ||
-                proxyPort.isEmpty() ||
-                !Configuration.getBoolean(Parameter.PROXY_SET_TO_SYSTEM)) {
+        if (proxyHost.isEmpty() || proxyPort.isEmpty()) {
             return;
         }
 
-        String noProxyHosts = Configuration.get(Parameter.NO_PROXY);
-        // there are difference between system noproxy (parttern with '|' delimiter) and selenium noproxy (addresses with ',' delimiter)
         // in configuration we use set noproxy in selenium style, so for system proxy we should rewrite it for compatibility
-        String systemNoProxy = noProxyHosts.contains(",") ? Arrays.stream(noProxyHosts.split(","))
-                .map(String::trim)
-                .collect(Collectors.joining("|")) : noProxyHosts;
+        String systemNoProxy = config.getSystemNoProxy();
 
-        if (protocols.contains("http") && supportedProtocols.contains("http")) {
+        if (protocols.contains(Protocol.HTTP)) {
             initProxy("http", proxyHost, proxyPort, systemNoProxy);
         }
-        if (protocols.contains("https") && supportedProtocols.contains("https")) {
+        if (protocols.contains(Protocol.HTTPS)) {
             initProxy("https", proxyHost, proxyPort, systemNoProxy);
         }
-        if (protocols.contains("ftp") && supportedProtocols.contains("ftp")) {
+        if (protocols.contains(Protocol.FTP)) {
             initProxy("ftp", proxyHost, proxyPort, systemNoProxy);
         }
 
-        if (protocols.contains("socks") && supportedProtocols.contains("socks")) {
+        if (protocols.contains(Protocol.SOCKS)) {
             /*
              * http://docs.oracle.com/javase/8/docs/technotes/guides/net/proxies.html
              * Once a SOCKS proxy is specified in this manner, all TCP connections will be attempted through the proxy.
@@ -146,7 +129,8 @@ public class SystemProxy {
     }
 
     /**
-     * Checks if a proxy server is available
+     * Checks if a proxy server is available.<br>
+     * To check several servers at once use {@link ProxyHealthChecker#check(java.util.Collection, Duration)}
      * 
      * @param address ip address
      * @param port int
@@ -155,19 +139,14 @@ public class SystemProxy {
      * @throws UnknownHostException if address is not correct
      */
     public static boolean isProxyAlive(String address, int port, int timeoutMillis) throws UnknownHostException {
-        boolean isAlive = false;
-        InetAddress proxyAddress = InetAddress.getByName(address);
-        try (Socket socket = new Socket()) {
-            socket.connect(new InetSocketAddress(proxyAddress, port), timeoutMillis);
-            isAlive = true;
-        } catch (IOException e) {
-            // do nothing
-        }
-        return isAlive;
+        ProxyHealthChecker.resolve(address);
+        return ProxyHealthChecker.check(HealthCheckTarget.direct(address, port), Duration.ofMillis(timeoutMillis))
+                .isAlive();
     }
 
     /**
-     * Checks the availability of a resource through a proxy
+     * Checks the availability of a resource through a proxy.<br>
+     * To check several resources at once use {@link ProxyHealthChecker#check(java.util.Collection, Duration)}
      * 
      * @param proxyAddress ip address
      * @param proxyPort int
@@ -180,43 +159,34 @@ public class SystemProxy {
      */
     public static boolean isResourceAvailableUsingProxy(String proxyAddress, int proxyPort, Proxy.Type protocol,
             String destinationAddress, int destinationPort, int timeoutMillis) throws UnknownHostException {
-        boolean isAvailable = false;
-
-        InetAddress inetProxyAddress;
         try {
-            inetProxyAddress = InetAddress.getByName(proxyAddress);
+            ProxyHealthChecker.resolve(proxyAddress);
         } catch (UnknownHostException e) {
             LOGGER.error("Proxy address is not correct");
             throw e;
         }
 
-        SocketAddress proxySocketAddress = new InetSocketAddress(inetProxyAddress, proxyPort);
-        Proxy proxy;
+        HealthCheckTarget target;
         try {
-            proxy = new Proxy(protocol, proxySocketAddress);
+            target = HealthCheckTarget.viaProxy(proxyAddress, proxyPort, protocol, destinationAddress, destinationPort);
         } catch (IllegalArgumentException e) {
             LOGGER.warn(e.getMessage());
             return false;
         }
 
-        InetAddress inetDestinationAddress;
         try {
-            inetDestinationAddress = InetAddress.getByName(destinationAddress);
+            ProxyHealthChecker.resolve(destinationAddress);
         } catch (UnknownHostException e) {
             LOGGER.error("Destination address is not correct");
             throw e;
         }
 
-        try (Socket socket = new Socket(proxy)) {
-            socket.connect(new InetSocketAddress(inetDestinationAddress, destinationPort), timeoutMillis);
-            isAvailable = true;
-        } catch (SocketTimeoutException e) {
+        HealthCheckResult result = ProxyHealthChecker.check(target, Duration.ofMillis(timeoutMillis));
+        if (result.isTimedOut()) {
             LOGGER.error("Timeout when try to connect to {} by port {} with proxy {} by port {}",
                     destinationAddress, destinationPort, proxyAddress, proxyPort);
-        } catch (IOException | InternalError e) {
-            // do nothing
         }
-        return isAvailable;
+        return result.isAlive();
     }
 
 }
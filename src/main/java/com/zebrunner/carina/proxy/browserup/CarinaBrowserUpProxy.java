@@ -2,44 +2,116 @@ package com.zebrunner.carina.proxy.browserup;
 
 import com.browserup.bup.BrowserUpProxy;
 import com.browserup.bup.BrowserUpProxyServer;
+import com.browserup.bup.filters.RequestFilter;
+import com.browserup.bup.filters.ResponseFilter;
+import com.browserup.bup.proxy.CaptureType;
 import com.zebrunner.carina.proxy.IProxy;
 import com.zebrunner.carina.proxy.IProxyInfo;
 import com.zebrunner.carina.proxy.ProxyInfo;
+import com.zebrunner.carina.proxy.ProxyReadiness;
+import com.zebrunner.carina.proxy.browserup.archive.RequestFingerprinter;
+import com.zebrunner.carina.proxy.browserup.archive.TrafficArchive;
+import com.zebrunner.carina.proxy.browserup.archive.TrafficArchiveFiltersSource;
+import com.zebrunner.carina.proxy.browserup.cache.SharedCacheFiltersSource;
+import com.zebrunner.carina.proxy.browserup.cache.SharedResponseCache;
+import com.zebrunner.carina.proxy.browserup.har.CapturePolicy;
+import com.zebrunner.carina.proxy.browserup.har.StreamingHarCapture;
+import com.zebrunner.carina.proxy.browserup.rewrite.ReloadableRewriteRules;
+import com.zebrunner.carina.proxy.browserup.rewrite.RewriteItem;
+import com.zebrunner.carina.proxy.browserup.rewrite.RewriteRuleStats;
+import com.zebrunner.carina.proxy.browserup.upstream.UpstreamProxyManager;
 import com.zebrunner.carina.utils.Configuration;
 import com.zebrunner.carina.utils.NetworkUtil;
-import com.zebrunner.carina.utils.common.CommonUtils;
+import com.zebrunner.carina.utils.R;
+import com.zebrunner.carina.utils.commons.SpecialKeywords;
+import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
+import org.apache.commons.lang3.StringUtils;
+import org.littleshoot.proxy.HttpFiltersSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
 
 /**
  * Default {@link IProxy} implementation, that use {@link BrowserUpProxy}
+ * <p>
+ * If <b>browserup_archive_mode</b> is RECORD or REPLAY, proxy records upstream responses to the traffic archive
+ * in <b>browserup_archive_dir</b> or replays them from it (see {@link #recordTraffic(Path, RequestFingerprinter)}
+ * and {@link #replayTraffic(Path, RequestFingerprinter)})<br>
+ * If <b>browserup_cache_size</b> is set, proxy uses {@link SharedResponseCache}, that is shared by all proxies of the JVM<br>
+ * If <b>browserup_upstream_proxies</b> is set, proxy is chained to the upstream proxies via {@link UpstreamProxyManager},
+ * that is shared by all proxies of the JVM
  */
 public class CarinaBrowserUpProxy implements IProxy {
     // todo investigate using Process / Runnable / Callable to start BrowserUpProxy
     // todo investigate using mitmproxy instead
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    protected final BrowserUpProxy proxy;
+    // replaced by the new server when stopped proxy is started again, because BrowserUp server could not be restarted
+    protected volatile BrowserUpProxy proxy;
     protected IProxyInfo proxyInfo = null;
+    // rewrite rules of the proxy filters, their statistics is logged when proxy is stopped
+    private final List<ReloadableRewriteRules> rewriteRules = new CopyOnWriteArrayList<>();
+    private StreamingHarCapture harCapture = null;
+    private Path harFile = null;
+    private volatile UpstreamProxyManager upstreamProxies = null;
 
     public CarinaBrowserUpProxy() {
         proxy = new BrowserUpProxyServer();
         proxy.setTrustAllServers(true);
         // disable MITM in case we do not need it
         proxy.setMitmDisabled(Configuration.getBoolean(Configuration.Parameter.BROWSERUP_MITM));
+        SharedResponseCache cache = SharedResponseCache.getInstance();
+        if (cache != null) {
+            useResponseCache(cache);
+        }
+        configureTrafficArchive();
+        UpstreamProxyManager upstream = UpstreamProxyManager.getInstance();
+        if (upstream != null) {
+            useUpstreamProxies(upstream);
+        }
     }
 
+    /**
+     * Start proxy. If proxy was stopped (or died), new BrowserUp server is created with the filters and settings
+     * of the previous one, so the object returned by {@link #getProxy()} before restart should not be used after it
+     */
     @Override
-    public IProxyInfo start(int port) {
-        if (proxy.isStarted()) {
+    public synchronized IProxyInfo start(int port) {
+        if (isStarted()) {
             throw new IllegalStateException("Proxy already started.");
         }
+        if (proxy.isStarted()) {
+            proxy = copyOf(proxy);
+        }
         LOGGER.info("Starting BrowserUp proxy...");
         proxy.start(port);
 
-        CommonUtils.pause(1); // todo set pause or not?
+        Duration startup;
+        try {
+            startup = ProxyReadiness.awaitReady(proxy.getPort(), ProxyReadiness.DEFAULT_TIMEOUT);
+        } catch (RuntimeException e) {
+            // started server should not keep the port, that is quarantined by the pool
+            try {
+                proxy.abort();
+            } catch (RuntimeException abortException) {
+                e.addSuppressed(abortException);
+            }
+            throw e;
+        }
+        LOGGER.info("BrowserUp proxy is ready on port {} in {} ms", proxy.getPort(), startup.toMillis());
         proxyInfo = new ProxyInfo(NetworkUtil.getIpAddress(), proxy.getPort());
         return proxyInfo;
     }
@@ -58,10 +130,32 @@ public class CarinaBrowserUpProxy implements IProxy {
             LOGGER.info(e.getMessage());
         } finally {
             proxyInfo = null;
+            logRewriteStatistics();
+            finishStreamingHarCapture();
             LOGGER.debug("stopProxy finished...");
         }
     }
 
+    @Override
+    public void abort() {
+        if (!proxy.isStarted()) {
+            throw new IllegalStateException("Proxy was not started.");
+        }
+        try {
+            LOGGER.debug("abortProxy starting...");
+            proxy.abort();
+        } catch (IllegalStateException e) {
+            LOGGER.info("Seems like proxy was already stopped.");
+            LOGGER.info(e.getMessage());
+        } finally {
+            proxyInfo = null;
+            logRewriteStatistics();
+            // streaming HAR capture is not finished: abort is a part of the restart, and the capture
+            // is carried over to the new server (see copyOf), HAR is written by stop()
+            LOGGER.debug("abortProxy finished...");
+        }
+    }
+
     @Override
     public IProxyInfo getInfo() {
         if (!isStarted()) {
@@ -72,7 +166,295 @@ public class CarinaBrowserUpProxy implements IProxy {
 
     @Override
     public boolean isStarted() {
-        return proxy.isStarted();
+        // BrowserUp server remains started after stop
+        BrowserUpProxy current = proxy;
+        return current.isStarted() && !(current instanceof BrowserUpProxyServer && ((BrowserUpProxyServer) current).isStopped());
+    }
+
+    /**
+     * Create new not started BrowserUp server with the filters and settings of the specified one
+     *
+     * @param source started (or stopped) {@link BrowserUpProxy}
+     * @return {@link BrowserUpProxy}
+     */
+    protected BrowserUpProxy copyOf(BrowserUpProxy source) {
+        BrowserUpProxyServer copy = new BrowserUpProxyServer();
+        copy.setTrustAllServers(true);
+        if (source instanceof BrowserUpProxyServer) {
+            BrowserUpProxyServer server = (BrowserUpProxyServer) source;
+            copy.setMitmDisabled(server.isMitmDisabled());
+            for (HttpFiltersSource filter : server.getFilterFactories()) {
+                // filters of the server itself (HAR capture, rewrite, blacklist and so on) are added again on start
+                if (filter.getClass().getEnclosingClass() != BrowserUpProxyServer.class) {
+                    copy.addLastHttpFilterFactory(filter);
+                }
+            }
+        } else {
+            copy.setMitmDisabled(Configuration.getBoolean(Configuration.Parameter.BROWSERUP_MITM));
+        }
+        copy.setHarCaptureTypes(source.getHarCaptureTypes());
+        copy.rewriteUrls(source.getRewriteRules());
+        copy.setBlacklist(source.getBlacklist());
+        if (source.isWhitelistEnabled()) {
+            copy.whitelistRequests(source.getWhitelistUrls(), source.getWhitelistStatusCode());
+        }
+        copy.addHeaders(source.getAllHeaders());
+        copy.setHostNameResolver(source.getHostNameResolver());
+        copy.setReadBandwidthLimit(source.getReadBandwidthLimit());
+        copy.setWriteBandwidthLimit(source.getWriteBandwidthLimit());
+        if (source.getChainedProxy() != null) {
+            copy.setChainedProxy(source.getChainedProxy());
+        }
+        // chained proxy manager could not be obtained from the BrowserUp server
+        if (upstreamProxies != null) {
+            copy.setChainedProxyManager(upstreamProxies);
+        }
+        return copy;
+    }
+
+    /**
+     * Add request filter, that is applied only to the requests with selected URL. Unlike
+     * {@link BrowserUpProxy#addRequestFilter(RequestFilter)}, requests are not aggregated for this filter
+     *
+     * @param filter    {@link RequestFilter}
+     * @param urlFilter URLs of the requests, that should be filtered
+     */
+    public void addRequestFilter(RequestFilter filter, Predicate<String> urlFilter) {
+        proxy.addLastHttpFilterFactory(SelectiveFiltersSource.forRequests(filter, urlFilter));
+    }
+
+    /**
+     * Add response filter, that is applied only to the responses with selected URL and content type. Unlike
+     * {@link BrowserUpProxy#addResponseFilter(ResponseFilter)}, only these responses are aggregated, other traffic
+     * is streamed through untouched
+     *
+     * @param filter            {@link ResponseFilter}
+     * @param urlFilter         URLs of the responses, that should be filtered
+     * @param contentTypeFilter {@code Content-Type} header values (could be null) of the responses, that should be filtered
+     */
+    public void addResponseFilter(ResponseFilter filter, Predicate<String> urlFilter, Predicate<String> contentTypeFilter) {
+        proxy.addLastHttpFilterFactory(SelectiveFiltersSource.forResponses(filter, urlFilter, contentTypeFilter));
+    }
+
+    /**
+     * Add request rewrite rules. Header-only rules do not require aggregation of the requests
+     *
+     * @param rewrites {@link List} of {@link RewriteItem}
+     */
+    public void addRequestRewriteRules(List<RewriteItem> rewrites) {
+        addRequestRewriteRules(ReloadableRewriteRules.of(rewrites));
+    }
+
+    /**
+     * Add response rewrite rules. Responses are aggregated only for the rules with body regex
+     * and only if they have textual content
+     *
+     * @param rewrites {@link List} of {@link RewriteItem}
+     */
+    public void addResponseRewriteRules(List<RewriteItem> rewrites) {
+        addResponseRewriteRules(ReloadableRewriteRules.of(rewrites));
+    }
+
+    /**
+     * Add request rewrite rules, that could be replaced while proxy is running (for example, loaded from the file
+     * by {@link ReloadableRewriteRules#watch(java.nio.file.Path)})
+     *
+     * @param rules {@link ReloadableRewriteRules}
+     */
+    public void addRequestRewriteRules(ReloadableRewriteRules rules) {
+        proxy.addLastHttpFilterFactory(SelectiveFiltersSource.forRequestRewrite(rules));
+        profileRewriteRules(rules);
+    }
+
+    /**
+     * Add response rewrite rules, that could be replaced while proxy is running (for example, loaded from the file
+     * by {@link ReloadableRewriteRules#watch(java.nio.file.Path)})
+     *
+     * @param rules {@link ReloadableRewriteRules}
+     */
+    public void addResponseRewriteRules(ReloadableRewriteRules rules) {
+        proxy.addLastHttpFilterFactory(SelectiveFiltersSource.forResponseRewrite(rules));
+        profileRewriteRules(rules);
+    }
+
+    /**
+     * Add rules to the statistics of the proxy. Rules, added via methods of this class, are added automatically,
+     * rules of the {@link com.browserup.bup.BrowserUpProxy#addRequestFilter(RequestFilter)} filters
+     * could be added via {@link com.zebrunner.carina.proxy.browserup.rewrite.CustomRqFilter#getRules()}
+     *
+     * @param rules {@link ReloadableRewriteRules}
+     */
+    public void profileRewriteRules(ReloadableRewriteRules rules) {
+        if (!rewriteRules.contains(rules)) {
+            rewriteRules.add(rules);
+        }
+    }
+
+    /**
+     * Get profiling counters of the rewrite rules of the proxy (see {@link #profileRewriteRules(ReloadableRewriteRules)})
+     *
+     * @return {@link List} of {@link RewriteRuleStats}, the most expensive rules first
+     */
+    public List<RewriteRuleStats> getRewriteStatistics() {
+        List<RewriteRuleStats> statistics = new ArrayList<>();
+        for (ReloadableRewriteRules rules : rewriteRules) {
+            statistics.addAll(rules.getStatistics());
+        }
+        statistics.sort(Comparator.comparingLong(RewriteRuleStats::getNanos).reversed());
+        return statistics;
+    }
+
+    private void logRewriteStatistics() {
+        StringBuilder sb = new StringBuilder();
+        for (RewriteRuleStats stats : getRewriteStatistics()) {
+            if (stats.getMatches() > 0 || stats.getNanos() > 0) {
+                sb.append(System.lineSeparator()).append(stats);
+            }
+        }
+        if (sb.length() > 0) {
+            LOGGER.info("Rewrite rules statistics:{}", sb);
+        }
+    }
+
+    /**
+     * Start HAR capture, that keeps completed entries in the file next to the HAR file ({@code <har file>.ndjson})
+     * instead of the heap. When proxy is stopped, HAR file is written and the entries file is deleted.
+     * Capture is continued after {@link #abort()} and {@link #restart(int)}.<br>
+     * Should be used instead of {@link BrowserUpProxy#newHar()} for the long flows
+     *
+     * @param harFile      {@link Path} to the HAR file, that will be written when proxy is stopped
+     * @param captureTypes {@link CaptureType}s
+     * @return {@link StreamingHarCapture}, that could be used to start new pages or to write HAR before stop
+     * @throws IllegalStateException if streaming HAR capture is already started
+     */
+    public StreamingHarCapture startStreamingHarCapture(Path harFile, Set<CaptureType> captureTypes) {
+        return startStreamingHarCapture(harFile, captureTypes, new CapturePolicy());
+    }
+
+    /**
+     * Start HAR capture with the {@link CapturePolicy}, see {@link #startStreamingHarCapture(Path, Set)}
+     *
+     * @param harFile      {@link Path} to the HAR file, that will be written when the proxy is stopped
+     * @param captureTypes {@link CaptureType}s
+     * @param policy       {@link CapturePolicy}: host and content type filters, body caps, sampling
+     * @return {@link StreamingHarCapture}
+     * @throws IllegalStateException if streaming HAR capture is already started
+     */
+    public synchronized StreamingHarCapture startStreamingHarCapture(Path harFile, Set<CaptureType> captureTypes, CapturePolicy policy) {
+        if (harCapture != null) {
+            throw new IllegalStateException("Streaming HAR capture is already started.");
+        }
+        StreamingHarCapture capture = new StreamingHarCapture(harFile.resolveSibling(harFile.getFileName() + ".ndjson"), captureTypes,
+                policy);
+        proxy.addLastHttpFilterFactory(capture);
+        this.harCapture = capture;
+        this.harFile = harFile;
+        return capture;
+    }
+
+    private synchronized void finishStreamingHarCapture() {
+        if (harCapture == null) {
+            return;
+        }
+        StreamingHarCapture capture = harCapture;
+        harCapture = null;
+        capture.close();
+        try {
+            capture.writeHar(harFile);
+            Files.deleteIfExists(capture.getEntriesFile());
+            LOGGER.info("HAR with {} entries is written to '{}'", capture.getEntryCount(), harFile);
+        } catch (IOException e) {
+            LOGGER.error("Could not write HAR to '{}', entries are kept in '{}': {}", harFile, capture.getEntriesFile(), e.getMessage());
+        }
+    }
+
+    /**
+     * Chain proxy to the upstream proxies: every upstream connection goes through the least loaded healthy
+     * upstream proxy and fails over to the next one. Should be called before the proxy is started
+     *
+     * @param manager {@link UpstreamProxyManager}, for example {@link UpstreamProxyManager#getInstance()}
+     * @throws IllegalStateException if proxy is started
+     */
+    public synchronized void useUpstreamProxies(UpstreamProxyManager manager) {
+        if (!(proxy instanceof BrowserUpProxyServer)) {
+            throw new IllegalStateException("Upstream proxies are supported only by BrowserUpProxyServer.");
+        }
+        ((BrowserUpProxyServer) proxy).setChainedProxyManager(manager);
+        this.upstreamProxies = manager;
+    }
+
+    /**
+     * @return {@link UpstreamProxyManager} of the proxy or null
+     */
+    public UpstreamProxyManager getUpstreamProxies() {
+        return upstreamProxies;
+    }
+
+    /**
+     * Serve responses from the cache, that could be shared with other proxies, and store upstream responses in it
+     *
+     * @param cache {@link SharedResponseCache}, for example {@link SharedResponseCache#getInstance()}
+     */
+    public void useResponseCache(SharedResponseCache cache) {
+        proxy.addFirstHttpFilterFactory(new SharedCacheFiltersSource(cache));
+    }
+
+    /**
+     * Record upstream responses to the traffic archive. Responses are passed to the client as usual
+     *
+     * @param directory     {@link Path} to the archive directory, see {@link TrafficArchive}
+     * @param fingerprinter {@link RequestFingerprinter}, that should be the same for recording and replay
+     * @return {@link TrafficArchiveFiltersSource} with recording statistics
+     */
+    public TrafficArchiveFiltersSource recordTraffic(Path directory, RequestFingerprinter fingerprinter) {
+        return addTrafficArchive(directory, fingerprinter, TrafficArchiveFiltersSource.Mode.RECORD);
+    }
+
+    /**
+     * Serve responses from the traffic archive instead of the upstream servers.
+     * Requests, that are not found in the archive, are answered with {@code 404 Not Found}
+     *
+     * @param directory     {@link Path} to the archive directory, see {@link TrafficArchive}
+     * @param fingerprinter {@link RequestFingerprinter}, that should be the same for recording and replay
+     * @return {@link TrafficArchiveFiltersSource} with replay statistics
+     */
+    public TrafficArchiveFiltersSource replayTraffic(Path directory, RequestFingerprinter fingerprinter) {
+        return addTrafficArchive(directory, fingerprinter, TrafficArchiveFiltersSource.Mode.REPLAY);
+    }
+
+    private TrafficArchiveFiltersSource addTrafficArchive(Path directory, RequestFingerprinter fingerprinter,
+            TrafficArchiveFiltersSource.Mode mode) {
+        TrafficArchiveFiltersSource source = new TrafficArchiveFiltersSource(TrafficArchive.open(directory), fingerprinter, mode);
+        // replayed responses should not be affected by the filters, that are added before
+        proxy.addFirstHttpFilterFactory(source);
+        LOGGER.info("Traffic archive '{}' is used in {} mode: {} responses", directory, mode, source.getArchive().size());
+        return source;
+    }
+
+    private void configureTrafficArchive() {
+        String mode = configValue("browserup_archive_mode");
+        if (mode.isEmpty()) {
+            return;
+        }
+        String directory = configValue("browserup_archive_dir");
+        if (directory.isEmpty()) {
+            throw new InvalidConfigurationException("'browserup_archive_dir' should be specified for 'browserup_archive_mode'.");
+        }
+        TrafficArchiveFiltersSource.Mode archiveMode;
+        try {
+            archiveMode = TrafficArchiveFiltersSource.Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidConfigurationException(String.format("Invalid 'browserup_archive_mode' value: '%s'", mode));
+        }
+        RequestFingerprinter fingerprinter = new RequestFingerprinter()
+                .ignoreQueryParams(StringUtils.split(configValue("browserup_archive_ignored_params"), ','))
+                .includeHeaders(StringUtils.split(configValue("browserup_archive_headers"), ','));
+        addTrafficArchive(Paths.get(directory), fingerprinter, archiveMode);
+    }
+
+    private static String configValue(String key) {
+        String value = R.CONFIG.get(key);
+        return !(value == null || value.equalsIgnoreCase(SpecialKeywords.NULL)) ? value : StringUtils.EMPTY;
     }
 
     /**
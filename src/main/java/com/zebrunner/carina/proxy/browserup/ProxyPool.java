@@ -17,22 +17,22 @@ package com.zebrunner.carina.proxy.browserup;
 
 import com.browserup.bup.BrowserUpProxy;
 import com.browserup.bup.BrowserUpProxyServer;
+import com.zebrunner.carina.proxy.PortAllocator;
+import com.zebrunner.carina.proxy.ProxyReadiness;
+import com.zebrunner.carina.proxy.metrics.ProxyMetrics;
 import com.zebrunner.carina.utils.Configuration;
 import com.zebrunner.carina.utils.Configuration.Parameter;
 import com.zebrunner.carina.utils.NetworkUtil;
 import com.zebrunner.carina.utils.R;
-import com.zebrunner.carina.utils.android.recorder.utils.AdbExecutor;
-import com.zebrunner.carina.utils.common.CommonUtils;
 import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 
 import java.lang.invoke.MethodHandles;
+import java.time.Duration;
 import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -42,12 +42,19 @@ public final class ProxyPool {
     // todo should be deprecated
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
     private static final ConcurrentHashMap<Long, Integer> PROXY_PORTS_BY_THREAD = new ConcurrentHashMap<>();
-    // map for storing of available ports range and their availability
-    private static final ConcurrentHashMap<Integer, Boolean> PROXY_PORTS_FROM_RANGE = new ConcurrentHashMap<>();
+    // allocator of available ports from range(s)
+    private static volatile PortAllocator portAllocator = null;
     private static final ConcurrentHashMap<Long, BrowserUpProxy> PROXIES = new ConcurrentHashMap<>();
+    // started proxies by port, to release the port from the proxy, that was left started in this JVM
+    private static final ConcurrentHashMap<Integer, BrowserUpProxy> PROXIES_BY_PORT = new ConcurrentHashMap<>();
 
 	static {
         initProxyPortsRange();
+        ProxyMetrics.registerGauge(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PROXY_ACTIVE, PROXIES::size);
+        ProxyMetrics.registerGauge(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PORT_CAPACITY,
+                () -> portAllocator != null ? portAllocator.getCapacity() : 0);
+        ProxyMetrics.registerGauge(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PORT_AVAILABLE,
+                () -> portAllocator != null ? portAllocator.getAvailableCount() : 0);
     }
 
     private ProxyPool() {
@@ -56,12 +63,10 @@ public final class ProxyPool {
 	public static void initProxyPortsRange() {
 		if (!Configuration.get(Parameter.BROWSERUP_PORTS_RANGE).isEmpty()) {
 			try {
-				String[] ports = Configuration.get(Parameter.BROWSERUP_PORTS_RANGE).split(":");
-				for (int i = Integer.parseInt(ports[0]); i <= Integer.parseInt(ports[1]); i++) {
-					PROXY_PORTS_FROM_RANGE.put(i, true);
-				}
+				portAllocator = PortAllocator.parse(Configuration.get(Parameter.BROWSERUP_PORTS_RANGE));
 			} catch (Exception e) {
-				throw new InvalidConfigurationException("Please specify BROWSERUP_PORTS_RANGE in format 'port_from:port_to'");
+				throw new InvalidConfigurationException("Please specify BROWSERUP_PORTS_RANGE in format 'port_from:port_to' "
+						+ "or as comma-separated list of ports and ranges, for example '20, 30:40, 400'");
 			}
 		}
 	}
@@ -153,14 +158,20 @@ public final class ProxyPool {
 		if (!Configuration.get(Parameter.BROWSERUP_PORT).isEmpty())
 			return Configuration.getInt(Parameter.BROWSERUP_PORT);
 		else if (!Configuration.get(Parameter.BROWSERUP_PORTS_RANGE).isEmpty()) {
-			for (Map.Entry<Integer, Boolean> pair : PROXY_PORTS_FROM_RANGE.entrySet()) {
-				if (pair.getValue()) {
-					LOGGER.info("Making BrowserUp proxy port busy: {}", pair.getKey());
-					pair.setValue(false);
-					return pair.getKey();
-				}
+			if (portAllocator == null) {
+				initProxyPortsRange();
 			}
-			throw new RuntimeException("All ports from Parameter.BROWSERUP_PORTS_RANGE are currently busy. Please change execution thread count");
+			long start = System.nanoTime();
+			OptionalInt allocatedPort = portAllocator.allocate();
+			ProxyMetrics.histogram(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PORT_ALLOCATE).recordSince(start);
+			if (allocatedPort.isEmpty()) {
+				ProxyMetrics.counter(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PORT_EXHAUSTED).increment();
+				throw new RuntimeException("All ports from Parameter.BROWSERUP_PORTS_RANGE are currently busy. "
+						+ "Please change execution thread count");
+			}
+			int port = allocatedPort.getAsInt();
+			LOGGER.info("Making BrowserUp proxy port busy: {}", port);
+			return port;
 		}
 		throw new RuntimeException("Neither Parameter.BROWSERUP_PORT nor Parameter.BROWSERUP_PORTS_RANGE are specified!");
 	}
@@ -173,7 +184,9 @@ public final class ProxyPool {
      *
      */
     public static synchronized BrowserUpProxy startProxy() {
-        return startProxy(getProxyPortFromConfig());
+        // port cached in current thread will be used anyway, so there is no need to allocate new one
+        Integer threadPort = PROXY_PORTS_BY_THREAD.get(Thread.currentThread().getId());
+        return startProxy(threadPort != null ? threadPort : getProxyPortFromConfig());
     }
 
     public static synchronized BrowserUpProxy startProxy(int proxyPort) {
@@ -200,9 +213,24 @@ public final class ProxyPool {
 
         if (!proxy.isStarted()) {
             LOGGER.info("Starting BrowserUp proxy...");
-        	// TODO: [VD] confirmed with MB that restart was added just in case. Maybe comment/remove?
-            killProcessByPort(proxyPort);
-            proxy.start(proxyPort);
+            releasePortFromOtherProxy(proxyPort, proxy);
+            long start = System.nanoTime();
+            try {
+                proxy.start(proxyPort);
+                Duration startup = ProxyReadiness.awaitReady(proxy.getPort(), ProxyReadiness.DEFAULT_TIMEOUT);
+                LOGGER.info("BrowserUp proxy is ready on port {} in {} ms", proxy.getPort(), startup.toMillis());
+                PROXIES_BY_PORT.put(proxy.getPort(), proxy);
+                ProxyMetrics.histogram(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PROXY_START).recordSince(start);
+            } catch (RuntimeException e) {
+                // port from range could not be used, so it will be quarantined
+                PortAllocator allocator = portAllocator;
+                if (allocator != null && allocator.release(proxyPort, true)) {
+                    ProxyMetrics.counter(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PORT_QUARANTINED).increment();
+                    PROXY_PORTS_BY_THREAD.remove(threadId, proxyPort);
+                }
+                ProxyMetrics.counter(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PROXY_START_FAILED).increment();
+                throw e;
+            }
         } else {
             LOGGER.info("BrowserUp proxy is already started on port {}", proxy.getPort());
         }
@@ -211,10 +239,11 @@ public final class ProxyPool {
     }
 
     private static void setProxyPortToAvailable(long threadId) {
-        if (PROXY_PORTS_BY_THREAD.get(threadId) != null &&
-                PROXY_PORTS_FROM_RANGE.get(PROXY_PORTS_BY_THREAD.get(threadId)) != null) {
-            LOGGER.info("Setting BrowserUp proxy port {} to available state", PROXY_PORTS_BY_THREAD.get(threadId));
-            PROXY_PORTS_FROM_RANGE.put(PROXY_PORTS_BY_THREAD.get(threadId), true);
+        Integer port = PROXY_PORTS_BY_THREAD.get(threadId);
+        PortAllocator allocator = portAllocator;
+        if (port != null && allocator != null && allocator.contains(port)) {
+            LOGGER.info("Setting BrowserUp proxy port {} to available state", port);
+            allocator.release(port);
             PROXY_PORTS_BY_THREAD.remove(threadId);
         }
     }
@@ -254,8 +283,11 @@ public final class ProxyPool {
                 // isStarted returns true even if proxy was already stopped
                 if (proxy.isStarted()) {
                     try {
-                        LOGGER.debug("stopProxy starting...");                        
+                        LOGGER.debug("stopProxy starting...");
+                        PROXIES_BY_PORT.remove(proxy.getPort(), proxy);
+                        long start = System.nanoTime();
                         proxy.stop();
+                        ProxyMetrics.histogram(ProxyMetrics.LEGACY_PREFIX + ProxyMetrics.PROXY_STOP).recordSince(start);
                     } catch (IllegalStateException e) {
                         LOGGER.info("Seems like proxy was already stopped.");
                         LOGGER.info(e.getMessage());
@@ -330,35 +362,27 @@ public final class ProxyPool {
     }
     
     /**
-     * Method to kill process by port. It is used before start of new proxy instance
-     * 
-     * @param port int
+     * Stop proxy of this JVM, that is still started on the port. It is used before start of new proxy instance.<br>
+     * Ports used by other processes are not touched: proxy start fails and the port from range is quarantined.
+     *
+     * @param port  int
+     * @param owner proxy, that will be started on the port
      */
-    private static void killProcessByPort(int port) {
+    private static void releasePortFromOtherProxy(int port, BrowserUpProxy owner) {
         if (port == 0) {
             //do nothing as it is default dynamic browsermob proxy
             return;
         }
-        LOGGER.info("Process on port {} will be closed.", port);
-
-        //TODO: make OS independent or remove completely
+        BrowserUpProxy previousProxy = PROXIES_BY_PORT.remove(port);
+        if (previousProxy == null || previousProxy == owner) {
+            return;
+        }
+        LOGGER.info("Proxy that is still started on port {} will be stopped.", port);
         try {
-            List<?> output = new AdbExecutor().execute(String.format("lsof -ti :%d", port).split(" "));
-            LOGGER.debug("proxy process before kill: {}", StringUtils.join(output, ""));
-            
-            output = new AdbExecutor().execute(String.format("lsof -ti :%d | xargs kill -9", port).split(" "));
-            LOGGER.debug("proxy process kill output: {}",  StringUtils.join(output, ""));
-            
-            output = new AdbExecutor().execute(String.format("lsof -ti :%d", port).split(" "));
-            LOGGER.debug("proxy process after kill: {}", StringUtils.join(output, ""));
-            
-            CommonUtils.pause(1);
-            
-            output = new AdbExecutor().execute(String.format("lsof -ti :%d", port).split(" "));
-            LOGGER.debug("proxy process after kill and 2 sec pause: {}", StringUtils.join(output, ""));
-            
-        } catch (Exception e) {
-            LOGGER.error("Unable to kill process by lsof utility!", e);
+            previousProxy.stop();
+        } catch (IllegalStateException e) {
+            LOGGER.info("Seems like proxy was already stopped.");
+            LOGGER.info(e.getMessage());
         }
     }
 }
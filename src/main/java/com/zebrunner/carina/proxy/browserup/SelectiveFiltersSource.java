@@ -0,0 +1,330 @@
+package com.zebrunner.carina.proxy.browserup;
+
+import com.browserup.bup.filters.HttpsAwareFiltersAdapter;
+import com.browserup.bup.filters.RequestFilter;
+import com.browserup.bup.filters.ResponseFilter;
+import com.browserup.bup.util.BrowserUpHttpUtil;
+import com.browserup.bup.util.HttpMessageContents;
+import com.browserup.bup.util.HttpMessageInfo;
+import com.zebrunner.carina.proxy.browserup.rewrite.CustomRqFilter;
+import com.zebrunner.carina.proxy.browserup.rewrite.CustomRsFilter;
+import com.zebrunner.carina.proxy.browserup.rewrite.ReloadableRewriteRules;
+import com.zebrunner.carina.proxy.browserup.rewrite.RewriteItem;
+import com.zebrunner.carina.proxy.browserup.rewrite.RewriteRuleEngine;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Source of the BrowserUp request / response filters, that are applied only to the selected traffic.
+ * <p>
+ * Filters, added by {@link com.browserup.bup.BrowserUpProxy#addRequestFilter(RequestFilter)} and
+ * {@link com.browserup.bup.BrowserUpProxy#addResponseFilter(ResponseFilter)}, make LittleProxy aggregate every message
+ * of every host in memory, including binary assets and downloads. Filters of this source do not require aggregation:
+ * responses are aggregated (per message) only when their URL and content type are selected by the filter,
+ * other traffic is streamed through untouched.<br>
+ * Request bodies could be aggregated by LittleProxy only for all requests, so request filters of this source
+ * get {@link HttpMessageContents} only when some other filter needs request aggregation
+ * (or when it is requested by {@link #forRequestRewrite(List)} for rules with body regex).
+ * <p>
+ * Could be added via {@link com.browserup.bup.BrowserUpProxy#addLastHttpFilterFactory(org.littleshoot.proxy.HttpFiltersSource)},
+ * or via the methods of the {@link CarinaBrowserUpProxy}
+ */
+public final class SelectiveFiltersSource extends HttpFiltersSourceAdapter {
+    /**
+     * Max size of the aggregated message
+     */
+    public static final int MAXIMUM_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final AttributeKey<ResponseSelection> RESPONSE_SELECTION = AttributeKey.valueOf("carina-response-selection");
+    private static final String AGGREGATOR = "carina-selective-aggregator";
+    // name of the LittleProxy connection handler
+    private static final String HANDLER = "handler";
+
+    private final RequestFilter requestFilter;
+    private final ResponseFilter responseFilter;
+    private final Predicate<String> urlFilter;
+    private final Predicate<String> aggregateUrlFilter;
+    private final Predicate<String> contentTypeFilter;
+    // true if response filter should be also applied to not aggregated responses (without contents)
+    private final boolean headersPhase;
+    private final BooleanSupplier aggregateRequests;
+    // rules of the rewrite filter: selection and rewrite of the message use the same snapshot of the rules (see Filters)
+    private final ReloadableRewriteRules rewriteRules;
+
+    private SelectiveFiltersSource(RequestFilter requestFilter, ResponseFilter responseFilter, Predicate<String> urlFilter,
+            Predicate<String> aggregateUrlFilter, Predicate<String> contentTypeFilter, boolean headersPhase,
+            BooleanSupplier aggregateRequests) {
+        this(requestFilter, responseFilter, urlFilter, aggregateUrlFilter, contentTypeFilter, headersPhase, aggregateRequests, null);
+    }
+
+    private SelectiveFiltersSource(RequestFilter requestFilter, ResponseFilter responseFilter, Predicate<String> urlFilter,
+            Predicate<String> aggregateUrlFilter, Predicate<String> contentTypeFilter, boolean headersPhase,
+            BooleanSupplier aggregateRequests, ReloadableRewriteRules rewriteRules) {
+        this.rewriteRules = rewriteRules;
+        this.requestFilter = requestFilter;
+        this.responseFilter = responseFilter;
+        this.urlFilter = urlFilter;
+        this.aggregateUrlFilter = aggregateUrlFilter;
+        this.contentTypeFilter = contentTypeFilter;
+        this.headersPhase = headersPhase;
+        this.aggregateRequests = aggregateRequests;
+    }
+
+    /**
+     * Create source of the response filter, that is applied only to the aggregated responses
+     * with selected URL and content type
+     *
+     * @param filter            {@link ResponseFilter}, it always gets {@link HttpMessageContents}
+     * @param urlFilter         URLs of the responses, that should be filtered
+     * @param contentTypeFilter {@code Content-Type} header values (could be null) of the responses, that should be filtered
+     * @return {@link SelectiveFiltersSource}
+     */
+    public static SelectiveFiltersSource forResponses(ResponseFilter filter, Predicate<String> urlFilter,
+            Predicate<String> contentTypeFilter) {
+        return new SelectiveFiltersSource(null, filter, urlFilter, urlFilter, contentTypeFilter, false, () -> false);
+    }
+
+    /**
+     * Create source of the request filter, that is applied only to the requests with selected URL.
+     * Requests are not aggregated
+     *
+     * @param filter    {@link RequestFilter}, it gets null {@link HttpMessageContents} if request is not aggregated
+     * @param urlFilter URLs of the requests, that should be filtered
+     * @return {@link SelectiveFiltersSource}
+     */
+    public static SelectiveFiltersSource forRequests(RequestFilter filter, Predicate<String> urlFilter) {
+        return new SelectiveFiltersSource(filter, null, urlFilter, url -> false, contentType -> false, false, () -> false);
+    }
+
+    /**
+     * Create source of the {@link CustomRsFilter} rules. Header-only rules are applied without aggregation,
+     * responses are aggregated only for the URLs of the rules with body regex and only if they have textual content
+     *
+     * @param rewrites {@link List} of {@link RewriteItem}
+     * @return {@link SelectiveFiltersSource}
+     */
+    public static SelectiveFiltersSource forResponseRewrite(List<RewriteItem> rewrites) {
+        return forResponseRewrite(ReloadableRewriteRules.of(rewrites));
+    }
+
+    /**
+     * Create source of the {@link CustomRsFilter} rules, that could be replaced while proxy is running
+     *
+     * @param rules {@link ReloadableRewriteRules}
+     * @return {@link SelectiveFiltersSource}
+     * @see #forResponseRewrite(List)
+     */
+    public static SelectiveFiltersSource forResponseRewrite(ReloadableRewriteRules rules) {
+        // URLs are selected by the rules (see Filters)
+        return new SelectiveFiltersSource(null, new CustomRsFilter(rules), null, null,
+                BrowserUpHttpUtil::hasTextualContent, true, () -> false, rules);
+    }
+
+    /**
+     * Create source of the {@link CustomRqFilter} rules. Requests are aggregated (all of them, see class description)
+     * only if there are rules with body regex
+     *
+     * @param rewrites {@link List} of {@link RewriteItem}
+     * @return {@link SelectiveFiltersSource}
+     */
+    public static SelectiveFiltersSource forRequestRewrite(List<RewriteItem> rewrites) {
+        return forRequestRewrite(ReloadableRewriteRules.of(rewrites));
+    }
+
+    /**
+     * Create source of the {@link CustomRqFilter} rules, that could be replaced while proxy is running
+     *
+     * @param rules {@link ReloadableRewriteRules}
+     * @return {@link SelectiveFiltersSource}
+     * @see #forRequestRewrite(List)
+     */
+    public static SelectiveFiltersSource forRequestRewrite(ReloadableRewriteRules rules) {
+        return new SelectiveFiltersSource(new CustomRqFilter(rules), null, null, null, contentType -> false, false,
+                () -> rules.getEngine().hasBodyRules(), rules);
+    }
+
+    private static boolean hasBodyRule(RewriteItem item) {
+        return item.getRegex() != null && !item.getRegex().isEmpty();
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        if (ctx == null) {
+            return null;
+        }
+        ResponseSelection selection = null;
+        if (responseFilter != null) {
+            // selection is shared by all selective sources and is created for each request
+            Attribute<ResponseSelection> attribute = ctx.channel().attr(RESPONSE_SELECTION);
+            selection = attribute.get();
+            if (selection == null || selection.request != originalRequest) {
+                selection = new ResponseSelection(originalRequest);
+                attribute.set(selection);
+            }
+        }
+        // filters are created even for not selected requests, so aggregator could be added to the new server connection
+        return new Filters(originalRequest, ctx, selection);
+    }
+
+    @Override
+    public int getMaximumRequestBufferSizeInBytes() {
+        return aggregateRequests.getAsBoolean() ? MAXIMUM_BUFFER_SIZE : 0;
+    }
+
+    private final class Filters extends HttpsAwareFiltersAdapter {
+        // snapshot of the rewrite rules, that selects and rewrites the messages of the request
+        private final RewriteRuleEngine engine;
+        private final boolean selected;
+        private final boolean aggregated;
+
+        private Filters(HttpRequest originalRequest, ChannelHandlerContext ctx, ResponseSelection selection) {
+            super(originalRequest, ctx);
+            boolean isConnect = HttpMethod.CONNECT.equals(originalRequest.method());
+            String url = isConnect ? null : getOriginalUrl();
+            if (rewriteRules != null) {
+                this.engine = rewriteRules.getEngine();
+                List<RewriteItem> matched = isConnect ? List.of() : engine.match(url);
+                this.selected = !matched.isEmpty();
+                // only response rewrite aggregates messages of the rules with body regex
+                this.aggregated = selected && selection != null && matched.stream().anyMatch(SelectiveFiltersSource::hasBodyRule);
+            } else {
+                this.engine = null;
+                this.selected = !isConnect && urlFilter.test(url);
+                this.aggregated = selected && selection != null && aggregateUrlFilter.test(url);
+            }
+            if (aggregated) {
+                selection.contentTypeFilters.add(contentTypeFilter);
+            }
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            if (!selected || !(httpObject instanceof HttpRequest)) {
+                return null;
+            }
+            if (aggregated) {
+                // compressed responses are not aggregated
+                ((HttpRequest) httpObject).headers().set(HttpHeaderNames.ACCEPT_ENCODING, HttpHeaderValues.IDENTITY);
+            }
+            if (requestFilter == null) {
+                return null;
+            }
+            HttpMessageContents contents = httpObject instanceof FullHttpMessage
+                    ? new HttpMessageContents((FullHttpMessage) httpObject)
+                    : null;
+            if (engine != null) {
+                // the same as CustomRqFilter, but with the rules the request was selected by
+                HttpRequest request = (HttpRequest) httpObject;
+                engine.apply(request.uri(), request.headers(), contents);
+                return null;
+            }
+            return requestFilter.filterRequest((HttpRequest) httpObject, contents, getMessageInfo());
+        }
+
+        @Override
+        public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+            if (responseFilter == null) {
+                return;
+            }
+            ChannelPipeline pipeline = serverCtx.pipeline();
+            if (pipeline.get(AGGREGATOR) == null && pipeline.get(HANDLER) != null) {
+                pipeline.addBefore(HANDLER, AGGREGATOR, new SelectiveAggregator(ctx.channel()));
+            }
+        }
+
+        @Override
+        public HttpObject serverToProxyResponse(HttpObject httpObject) {
+            if (responseFilter == null || !selected || !(httpObject instanceof HttpResponse)) {
+                return httpObject;
+            }
+            HttpMessageContents contents = null;
+            if (httpObject instanceof FullHttpMessage) {
+                contents = new HttpMessageContents((FullHttpMessage) httpObject);
+            } else if (!headersPhase) {
+                return httpObject;
+            }
+            if (engine != null) {
+                // the same as CustomRsFilter, but with the rules the response was selected by
+                engine.apply(getOriginalUrl(), ((HttpResponse) httpObject).headers(), contents);
+            } else {
+                responseFilter.filterResponse((HttpResponse) httpObject, contents, getMessageInfo());
+            }
+            return httpObject;
+        }
+
+        private HttpMessageInfo getMessageInfo() {
+            return new HttpMessageInfo(originalRequest, ctx, isHttps(), getFullUrl(originalRequest), getOriginalUrl());
+        }
+    }
+
+    /**
+     * Content types of the response of the current request of the client connection, that should be aggregated
+     */
+    private static final class ResponseSelection {
+        private final HttpRequest request;
+        private final List<Predicate<String>> contentTypeFilters = new ArrayList<>(1);
+
+        private ResponseSelection(HttpRequest request) {
+            this.request = request;
+        }
+
+        private boolean test(HttpResponse response) {
+            if (contentTypeFilters.isEmpty()) {
+                return false;
+            }
+            // compressed response could not be filtered without decompression
+            String contentEncoding = response.headers().get(HttpHeaderNames.CONTENT_ENCODING);
+            if (contentEncoding != null && !HttpHeaderValues.IDENTITY.contentEqualsIgnoreCase(contentEncoding)) {
+                return false;
+            }
+            String contentType = response.headers().get(HttpHeaderNames.CONTENT_TYPE);
+            for (Predicate<String> filter : contentTypeFilters) {
+                if (filter.test(contentType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Aggregator of the server connection, that aggregates only responses selected for the current request of the client
+     */
+    private static final class SelectiveAggregator extends HttpObjectAggregator {
+        private final Channel clientChannel;
+
+        private SelectiveAggregator(Channel clientChannel) {
+            super(MAXIMUM_BUFFER_SIZE);
+            this.clientChannel = clientChannel;
+        }
+
+        @Override
+        public boolean acceptInboundMessage(Object msg) throws Exception {
+            if (msg instanceof HttpResponse && !(msg instanceof FullHttpMessage)) {
+                ResponseSelection selection = clientChannel.attr(RESPONSE_SELECTION).get();
+                if (selection == null || !selection.test((HttpResponse) msg)) {
+                    // content of the not accepted response is not accepted too
+                    return false;
+                }
+            }
+            return super.acceptInboundMessage(msg);
+        }
+    }
+}
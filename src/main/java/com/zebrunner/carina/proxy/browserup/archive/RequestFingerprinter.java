@@ -0,0 +1,159 @@
+package com.zebrunner.carina.proxy.browserup.archive;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Creates normalized fingerprint of the request, that is used as the key of the {@link TrafficArchive}.
+ * <p>
+ * Fingerprint consists of the method, normalized URL and hash of the selected headers:<br>
+ * {@code GET http://example.com/api?a=1&b=2 #3f7a9c0e12ab45cd}<br>
+ * URL is normalized: scheme and host are lowercased, default port and fragment are removed,
+ * ignored query parameters are removed and other parameters are sorted by name (values of the same parameter keep their order).
+ * Hash part is added only when some headers are selected, header names are case-insensitive.
+ * <p>
+ * Fingerprinter is not thread-safe while it is configured, so it should be configured before it is passed to the proxy.
+ */
+public final class RequestFingerprinter {
+    private static final int HASH_LENGTH = 16;
+
+    private final Set<String> ignoredQueryParams = new HashSet<>();
+    private final List<String> headers = new ArrayList<>();
+
+    /**
+     * Remove query parameters from the fingerprint (timestamps, cache busters, tracking parameters and so on)
+     *
+     * @param names names of the query parameters
+     * @return this {@link RequestFingerprinter}
+     */
+    public RequestFingerprinter ignoreQueryParams(String... names) {
+        for (String name : names) {
+            if (!StringUtils.isBlank(name)) {
+                ignoredQueryParams.add(name.trim());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Add hash of the values of these request headers to the fingerprint
+     *
+     * @param names names of the headers, for example {@code Accept}, {@code Authorization}
+     * @return this {@link RequestFingerprinter}
+     */
+    public RequestFingerprinter includeHeaders(String... names) {
+        for (String name : names) {
+            if (!StringUtils.isBlank(name)) {
+                headers.add(name.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Create fingerprint of the request
+     *
+     * @param method  request method
+     * @param url     full URL of the request
+     * @param headers request headers
+     * @return fingerprint
+     */
+    public String fingerprint(String method, String url, HttpHeaders headers) {
+        StringBuilder sb = new StringBuilder(method.length() + url.length() + HASH_LENGTH + 2)
+                .append(method.toUpperCase(Locale.ROOT))
+                .append(' ')
+                .append(normalize(url));
+        if (!this.headers.isEmpty()) {
+            sb.append(" #").append(hash(headers));
+        }
+        return sb.toString();
+    }
+
+    String normalize(String url) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            // not a valid URI, fingerprint is created from the raw value
+            return url;
+        }
+        StringBuilder sb = new StringBuilder(url.length());
+        if (uri.getScheme() != null) {
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            sb.append(scheme).append("://");
+            if (uri.getRawAuthority() != null) {
+                sb.append(uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : uri.getRawAuthority());
+                int port = uri.getPort();
+                if (port != -1 && !(port == 80 && "http".equals(scheme)) && !(port == 443 && "https".equals(scheme))) {
+                    sb.append(':').append(port);
+                }
+            }
+        }
+        sb.append(StringUtils.isEmpty(uri.getRawPath()) ? "/" : uri.getRawPath());
+        if (uri.getRawQuery() != null) {
+            String query = normalizeQuery(uri.getRawQuery());
+            if (!query.isEmpty()) {
+                sb.append('?').append(query);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String normalizeQuery(String rawQuery) {
+        Map<String, List<String>> params = new TreeMap<>();
+        for (String param : StringUtils.split(rawQuery, '&')) {
+            int eq = param.indexOf('=');
+            String name = eq < 0 ? param : param.substring(0, eq);
+            if (!ignoredQueryParams.contains(QueryStringDecoder.decodeComponent(name))) {
+                params.computeIfAbsent(name, key -> new ArrayList<>(1)).add(param);
+            }
+        }
+        StringBuilder sb = new StringBuilder(rawQuery.length());
+        for (List<String> values : params.values()) {
+            for (String param : values) {
+                if (sb.length() > 0) {
+                    sb.append('&');
+                }
+                sb.append(param);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String hash(HttpHeaders requestHeaders) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+        for (String name : headers) {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ':');
+            for (String value : requestHeaders.getAll(name)) {
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ',');
+            }
+            digest.update((byte) '\n');
+        }
+        byte[] hash = digest.digest();
+        StringBuilder sb = new StringBuilder(HASH_LENGTH);
+        for (int i = 0; i < HASH_LENGTH / 2; i++) {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,301 @@
+package com.zebrunner.carina.proxy.browserup.archive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local archive of the upstream responses, keyed by the request fingerprint (see {@link RequestFingerprinter}).
+ * <p>
+ * Archive is a directory with two append-only files:<br>
+ * {@code bodies.bin} - response bodies one after another<br>
+ * {@code index.ndjson} - one JSON line per response: fingerprint, status, headers, offset and length of the body<br>
+ * Index is loaded when archive is opened (the last recorded response wins), so lookup is a hash map access.
+ * Bodies are never loaded to the heap: replayed response content is a slice of the memory-mapped bodies file,
+ * that is remapped only when the response recorded after the last mapping is requested.
+ * <p>
+ * Files are written directly via {@link FileChannel} (body first, then its index line), so responses,
+ * recorded before the JVM exit, are not lost, and the line of the interrupted write is skipped on load.<br>
+ * One archive object is shared by all proxies of the JVM, that use the same directory (see {@link #open(Path)}).
+ */
+public final class TrafficArchive implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<Path, TrafficArchive> ARCHIVES = new ConcurrentHashMap<>();
+    static final String INDEX_FILE = "index.ndjson";
+    static final String BODIES_FILE = "bodies.bin";
+
+    private final Path directory;
+    private final Path indexFile;
+    private final Path bodiesFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private FileChannel indexChannel = null;
+    private FileChannel bodiesChannel = null;
+    private long bodiesSize;
+    private volatile MappedByteBuffer mapped = null;
+
+    private TrafficArchive(Path directory) {
+        this.directory = directory;
+        this.indexFile = directory.resolve(INDEX_FILE);
+        this.bodiesFile = directory.resolve(BODIES_FILE);
+        try {
+            Files.createDirectories(directory);
+            this.bodiesSize = Files.exists(bodiesFile) ? Files.size(bodiesFile) : 0;
+            if (Files.exists(indexFile)) {
+                load();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not open traffic archive '%s'.", directory), e);
+        }
+    }
+
+    /**
+     * Open archive. Directory is created if it does not exist
+     *
+     * @param directory {@link Path} to the archive directory
+     * @return {@link TrafficArchive}, the same object for the same directory until it is closed
+     * @throws UncheckedIOException if archive could not be read
+     */
+    public static TrafficArchive open(Path directory) {
+        return ARCHIVES.computeIfAbsent(directory.toAbsolutePath().normalize(), TrafficArchive::new);
+    }
+
+    /**
+     * @return {@link Path} to the archive directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return number of the archived responses
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param fingerprint request fingerprint
+     * @return true if response of the request is archived
+     */
+    public boolean contains(String fingerprint) {
+        return entries.containsKey(fingerprint);
+    }
+
+    /**
+     * Append response to the archive. Response, that was recorded before with the same fingerprint, is replaced
+     *
+     * @param fingerprint request fingerprint
+     * @param response    response head
+     * @param content     response content, is not released by this method
+     * @throws UncheckedIOException if response could not be written
+     */
+    public void record(String fingerprint, HttpResponse response, ByteBuf content) {
+        List<Map.Entry<String, String>> headers = new ArrayList<>(response.headers().size());
+        for (Map.Entry<String, String> header : response.headers()) {
+            headers.add(Map.entry(header.getKey(), header.getValue()));
+        }
+        int length = content.readableBytes();
+        synchronized (this) {
+            try {
+                openChannels();
+                long offset = bodiesSize;
+                int written = 0;
+                while (written < length) {
+                    written += content.getBytes(content.readerIndex() + written, bodiesChannel, offset + written, length - written);
+                }
+                bodiesSize += length;
+                Entry entry = new Entry(response.status().code(), response.status().reasonPhrase(), headers, offset, length);
+                ByteBuffer line = ByteBuffer.wrap((MAPPER.writeValueAsString(entry.toJson(fingerprint)) + '\n')
+                        .getBytes(StandardCharsets.UTF_8));
+                while (line.hasRemaining()) {
+                    indexChannel.write(line);
+                }
+                entries.put(fingerprint, entry);
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Could not write response to traffic archive '%s'.", directory), e);
+            }
+        }
+    }
+
+    /**
+     * Create response from the archive
+     *
+     * @param fingerprint request fingerprint
+     * @return {@link FullHttpResponse} with the content, that is backed by the memory-mapped file, or null if response is not archived
+     * @throws UncheckedIOException if bodies file could not be mapped
+     */
+    public FullHttpResponse replay(String fingerprint) {
+        Entry entry = entries.get(fingerprint);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuf content = Unpooled.EMPTY_BUFFER;
+        if (entry.length > 0) {
+            ByteBuffer body = mapping(entry.offset + entry.length).duplicate();
+            body.position((int) entry.offset).limit((int) entry.offset + entry.length);
+            content = Unpooled.wrappedBuffer(body.slice());
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                new HttpResponseStatus(entry.status, entry.reason), content);
+        HttpHeaders headers = response.headers();
+        for (Map.Entry<String, String> header : entry.headers) {
+            headers.add(header.getKey(), header.getValue());
+        }
+        // body is archived as it was received, so it is always sent with the known length
+        headers.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, entry.length);
+        return response;
+    }
+
+    /**
+     * Close archive files. Archive could be opened again by {@link #open(Path)}
+     */
+    @Override
+    public synchronized void close() {
+        ARCHIVES.remove(directory.toAbsolutePath().normalize(), this);
+        closeQuietly(indexChannel);
+        closeQuietly(bodiesChannel);
+        indexChannel = null;
+        bodiesChannel = null;
+        mapped = null;
+    }
+
+    private void load() throws IOException {
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode node = MAPPER.readTree(line);
+                    Entry entry = Entry.fromJson(node);
+                    if (entry.offset + entry.length > bodiesSize) {
+                        skipped++;
+                        continue;
+                    }
+                    entries.put(node.path("fingerprint").asText(), entry);
+                } catch (IOException e) {
+                    skipped++;
+                }
+            }
+        }
+        if (skipped > 0) {
+            LOGGER.warn("{} broken responses are skipped in the traffic archive '{}'", skipped, directory);
+        }
+        LOGGER.debug("Traffic archive '{}' is loaded: {} responses", directory, entries.size());
+    }
+
+    private void openChannels() throws IOException {
+        if (bodiesChannel == null) {
+            bodiesChannel = FileChannel.open(bodiesFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private ByteBuffer mapping(long end) {
+        MappedByteBuffer current = mapped;
+        if (current != null && current.capacity() >= end) {
+            return current;
+        }
+        synchronized (this) {
+            if (mapped == null || mapped.capacity() < end) {
+                if (bodiesSize > Integer.MAX_VALUE) {
+                    throw new IllegalStateException(String.format("Bodies file of the traffic archive '%s' is larger than 2GB.", directory));
+                }
+                try (FileChannel channel = FileChannel.open(bodiesFile, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, bodiesSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(String.format("Could not map bodies file of the traffic archive '%s'.", directory), e);
+                }
+            }
+            return mapped;
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close file of the traffic archive '{}': {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Archived response: status, headers and position of the body in the bodies file
+     */
+    private static final class Entry {
+        private final int status;
+        private final String reason;
+        private final List<Map.Entry<String, String>> headers;
+        private final long offset;
+        private final int length;
+
+        private Entry(int status, String reason, List<Map.Entry<String, String>> headers, long offset, int length) {
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private ObjectNode toJson(String fingerprint) {
+            ObjectNode node = MAPPER.createObjectNode()
+                    .put("fingerprint", fingerprint)
+                    .put("status", status)
+                    .put("reason", reason);
+            ArrayNode array = node.putArray("headers");
+            for (Map.Entry<String, String> header : headers) {
+                array.addArray().add(header.getKey()).add(header.getValue());
+            }
+            return node.put("offset", offset)
+                    .put("length", length);
+        }
+
+        private static Entry fromJson(JsonNode node) throws IOException {
+            if (!node.hasNonNull("fingerprint") || !node.hasNonNull("offset") || !node.hasNonNull("length")) {
+                throw new IOException("Required field is missing.");
+            }
+            List<Map.Entry<String, String>> headers = new ArrayList<>();
+            for (JsonNode header : node.path("headers")) {
+                headers.add(Map.entry(header.path(0).asText(), header.path(1).asText()));
+            }
+            return new Entry(node.path("status").asInt(200), node.path("reason").asText("OK"), headers,
+                    node.path("offset").asLong(), node.path("length").asInt());
+        }
+    }
+}
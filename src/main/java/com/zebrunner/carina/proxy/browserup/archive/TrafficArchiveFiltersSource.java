@@ -0,0 +1,189 @@
+package com.zebrunner.carina.proxy.browserup.archive;
+
+import com.browserup.bup.filters.HttpsAwareFiltersAdapter;
+import com.zebrunner.carina.proxy.browserup.SelectiveFiltersSource;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Source of the filters, that record upstream responses to the {@link TrafficArchive} or replay them from it.
+ * <p>
+ * {@link Mode#RECORD} - responses are passed to the client untouched, their copies are collected per request
+ * (no aggregation by LittleProxy) and appended to the archive when completed. Responses larger than
+ * {@link SelectiveFiltersSource#MAXIMUM_BUFFER_SIZE} are not recorded<br>
+ * {@link Mode#REPLAY} - requests are answered from the archive and are never sent upstream.
+ * Request without archived response is answered with {@code 404 Not Found} and {@code X-Carina-Archive: miss} header.<br>
+ * HTTPS requests are recorded and replayed only when MITM is enabled. Note that LittleProxy connects to the upstream
+ * server to establish MITM for the {@code CONNECT} request, so only plain HTTP replay does not require network at all.
+ * <p>
+ * Should be added via {@link com.browserup.bup.BrowserUpProxy#addFirstHttpFilterFactory(org.littleshoot.proxy.HttpFiltersSource)}
+ * (replayed responses should not be affected by request filters), or via
+ * {@link com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy#recordTraffic(java.nio.file.Path, RequestFingerprinter)} and
+ * {@link com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy#replayTraffic(java.nio.file.Path, RequestFingerprinter)}
+ */
+public final class TrafficArchiveFiltersSource extends HttpFiltersSourceAdapter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    /**
+     * Header of the response, that was not found in the archive in {@link Mode#REPLAY}
+     */
+    public static final String ARCHIVE_HEADER = "X-Carina-Archive";
+
+    /**
+     * Mode of the archive filters
+     */
+    public enum Mode {
+        RECORD,
+        REPLAY
+    }
+
+    private final TrafficArchive archive;
+    private final RequestFingerprinter fingerprinter;
+    private final Mode mode;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+
+    public TrafficArchiveFiltersSource(TrafficArchive archive, RequestFingerprinter fingerprinter, Mode mode) {
+        this.archive = archive;
+        this.fingerprinter = fingerprinter;
+        this.mode = mode;
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        if (ctx == null || HttpMethod.CONNECT.equals(originalRequest.method())) {
+            return null;
+        }
+        return mode == Mode.REPLAY ? new ReplayFilters(originalRequest, ctx) : new RecordFilters(originalRequest, ctx);
+    }
+
+    public TrafficArchive getArchive() {
+        return archive;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return number of the responses, recorded by the filters of this source
+     */
+    public long getRecordedCount() {
+        return recorded.sum();
+    }
+
+    /**
+     * @return number of the responses, served from the archive by the filters of this source
+     */
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    /**
+     * @return number of the requests without archived response in {@link Mode#REPLAY}
+     */
+    public long getMissedCount() {
+        return missed.sum();
+    }
+
+    private final class ReplayFilters extends HttpsAwareFiltersAdapter {
+
+        private ReplayFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            super(originalRequest, ctx);
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            if (!(httpObject instanceof HttpRequest)) {
+                return null;
+            }
+            HttpRequest request = (HttpRequest) httpObject;
+            String fingerprint = fingerprinter.fingerprint(request.method().name(), getFullUrl(request), request.headers());
+            FullHttpResponse response = archive.replay(fingerprint);
+            if (response != null) {
+                replayed.increment();
+                return response;
+            }
+            missed.increment();
+            LOGGER.warn("Response is not found in the traffic archive '{}': {}", archive.getDirectory(), fingerprint);
+            FullHttpResponse notFound = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND,
+                    Unpooled.copiedBuffer("Response is not found in the traffic archive: " + fingerprint, StandardCharsets.UTF_8));
+            notFound.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+            notFound.headers().set(HttpHeaderNames.CONTENT_LENGTH, notFound.content().readableBytes());
+            notFound.headers().set(ARCHIVE_HEADER, "miss");
+            return notFound;
+        }
+    }
+
+    private final class RecordFilters extends HttpsAwareFiltersAdapter {
+        private String fingerprint = null;
+        private HttpResponse response = null;
+        private ByteBuf content = null;
+
+        private RecordFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            super(originalRequest, ctx);
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            if (httpObject instanceof HttpRequest) {
+                HttpRequest request = (HttpRequest) httpObject;
+                fingerprint = fingerprinter.fingerprint(request.method().name(), getFullUrl(request), request.headers());
+            }
+            return null;
+        }
+
+        @Override
+        public HttpObject serverToProxyResponse(HttpObject httpObject) {
+            if (fingerprint == null) {
+                return httpObject;
+            }
+            if (httpObject instanceof HttpResponse) {
+                response = (HttpResponse) httpObject;
+                content = Unpooled.buffer();
+            }
+            if (httpObject instanceof HttpContent && content != null) {
+                ByteBuf chunk = ((HttpContent) httpObject).content();
+                if (content.readableBytes() + chunk.readableBytes() > SelectiveFiltersSource.MAXIMUM_BUFFER_SIZE) {
+                    LOGGER.warn("Response is too large for the traffic archive: {}", fingerprint);
+                    content = null;
+                } else {
+                    content.writeBytes(chunk, chunk.readerIndex(), chunk.readableBytes());
+                }
+            }
+            if (httpObject instanceof LastHttpContent && content != null) {
+                try {
+                    archive.record(fingerprint, response, content);
+                    recorded.increment();
+                } catch (UncheckedIOException e) {
+                    LOGGER.warn(e.getMessage(), e.getCause());
+                } finally {
+                    content = null;
+                    response = null;
+                }
+            }
+            return httpObject;
+        }
+    }
+}
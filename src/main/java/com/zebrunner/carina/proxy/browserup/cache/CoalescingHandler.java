@@ -0,0 +1,110 @@
+package com.zebrunner.carina.proxy.browserup.cache;
+
+import com.browserup.bup.filters.HttpsAwareFiltersAdapter;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handler of the client connection, that holds the request while the response for the same URL is requested from the upstream
+ * by another request (see {@link SharedResponseCache#getPendingFill(String, HttpRequest)}), so the event loop is not blocked.<br>
+ * Reading of the connection is suspended while the request is held. When the response is received (or the coalescing
+ * timeout is expired), the cached response is written to the client, or the held request is passed to the proxy
+ * if response was not stored.
+ * <p>
+ * Is added before the handler of the proxy by {@link SharedCacheFiltersSource} with the first request of the connection.
+ */
+final class CoalescingHandler extends ChannelInboundHandlerAdapter {
+    static final String NAME = "carina-cache-coalescing";
+
+    private final SharedResponseCache cache;
+    // request and its content, that wait for the pending fill
+    private final List<Object> held = new ArrayList<>();
+    private CompletableFuture<Void> fill = null;
+    // request is served from the cache, so its remaining content should be dropped
+    private boolean discarding = false;
+
+    CoalescingHandler(SharedResponseCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (discarding) {
+            discarding = !(msg instanceof LastHttpContent);
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (fill != null) {
+            held.add(msg);
+            return;
+        }
+        if (msg instanceof HttpRequest && HttpCacheRules.isCacheable((HttpRequest) msg)) {
+            HttpRequest request = (HttpRequest) msg;
+            String key = new HttpsAwareFiltersAdapter(request, ctx).getFullUrl(request);
+            CompletableFuture<Void> pendingFill = cache.getPendingFill(key, request);
+            if (pendingFill != null) {
+                hold(ctx, key, request, pendingFill);
+                return;
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        fill = null;
+        held.forEach(ReferenceCountUtil::release);
+        held.clear();
+        ctx.fireChannelInactive();
+    }
+
+    private void hold(ChannelHandlerContext ctx, String key, HttpRequest request, CompletableFuture<Void> pendingFill) {
+        fill = pendingFill;
+        held.add(request);
+        ctx.channel().config().setAutoRead(false);
+        ScheduledFuture<?> timeout = ctx.executor().schedule(() -> release(ctx, key, pendingFill),
+                cache.getCoalescingTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        pendingFill.whenComplete((result, e) -> ctx.executor().execute(() -> {
+            timeout.cancel(false);
+            release(ctx, key, pendingFill);
+        }));
+    }
+
+    private void release(ChannelHandlerContext ctx, String key, CompletableFuture<Void> releasedFill) {
+        if (fill != releasedFill) {
+            // already released by the timeout or the connection is closed
+            return;
+        }
+        fill = null;
+        List<Object> messages = new ArrayList<>(held);
+        held.clear();
+        ctx.channel().config().setAutoRead(true);
+        HttpRequest request = (HttpRequest) messages.get(0);
+        FullHttpResponse response = cache.getCoalesced(key, request, releasedFill);
+        if (response == null) {
+            messages.forEach(ctx::fireChannelRead);
+            return;
+        }
+        discarding = !(messages.get(messages.size() - 1) instanceof LastHttpContent);
+        messages.forEach(ReferenceCountUtil::release);
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        if (keepAlive) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.zebrunner.carina.proxy.browserup.cache;
+
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rules of the shared cache (RFC 7234), that are supported by the {@link SharedResponseCache}:<br>
+ * - only {@code GET} responses with the status, that is cacheable by default, are stored<br>
+ * - {@code no-store}, {@code private} and {@code no-cache} responses, responses with {@code Set-Cookie} and {@code Vary: *}
+ * are not stored (cache does not revalidate responses)<br>
+ * - responses to the requests with {@code Authorization} are stored only if they are {@code public}
+ * or have {@code s-maxage}<br>
+ * - freshness lifetime is {@code s-maxage}, {@code max-age}, {@code Expires - Date} or 10% of the time
+ * since {@code Last-Modified} (no more than a day)<br>
+ * - requests with {@code no-cache} (or {@code Pragma: no-cache}) and {@code no-store} are not served from the cache,
+ * {@code max-age} of the request limits the age of the served response
+ */
+final class HttpCacheRules {
+    private static final Set<Integer> CACHEABLE_STATUSES = Set.of(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+    private static final long MAX_HEURISTIC_LIFETIME = TimeUnit.DAYS.toMillis(1);
+
+    private HttpCacheRules() {
+        // hide
+    }
+
+    /**
+     * @param request {@link HttpRequest}
+     * @return true if response of the request could be served from the cache or stored in it
+     */
+    static boolean isCacheable(HttpRequest request) {
+        return HttpMethod.GET.equals(request.method());
+    }
+
+    /**
+     * @param request {@link HttpRequest}
+     * @return max age (in milliseconds) of the response, that could be served to the request,
+     * {@link Long#MAX_VALUE} if it is not limited, or -1 if response should not be served from the cache
+     */
+    static long maxAge(HttpRequest request) {
+        Map<String, String> cacheControl = parseCacheControl(request.headers());
+        if (cacheControl.containsKey("no-cache") || cacheControl.containsKey("no-store")
+                || (cacheControl.isEmpty() && "no-cache".equalsIgnoreCase(request.headers().get(HttpHeaderNames.PRAGMA)))) {
+            return -1;
+        }
+        long maxAge = seconds(cacheControl.get("max-age"));
+        return maxAge < 0 ? Long.MAX_VALUE : TimeUnit.SECONDS.toMillis(maxAge);
+    }
+
+    /**
+     * Compute freshness lifetime of the response, if it could be stored by the shared cache
+     *
+     * @param request  {@link HttpRequest}
+     * @param response {@link HttpResponse}
+     * @param now      time when response is received, in milliseconds
+     * @return freshness lifetime in milliseconds, or 0 if response should not be stored
+     */
+    static long freshnessLifetime(HttpRequest request, HttpResponse response, long now) {
+        HttpHeaders headers = response.headers();
+        if (!CACHEABLE_STATUSES.contains(response.status().code()) || headers.contains(HttpHeaderNames.SET_COOKIE)
+                || "*".equals(headers.get(HttpHeaderNames.VARY, "").trim())) {
+            return 0;
+        }
+        Map<String, String> cacheControl = parseCacheControl(headers);
+        if (cacheControl.containsKey("no-store") || cacheControl.containsKey("private") || cacheControl.containsKey("no-cache")
+                || parseCacheControl(request.headers()).containsKey("no-store")) {
+            return 0;
+        }
+        if (request.headers().contains(HttpHeaderNames.AUTHORIZATION)
+                && !cacheControl.containsKey("public") && !cacheControl.containsKey("s-maxage")) {
+            return 0;
+        }
+        long sharedMaxAge = seconds(cacheControl.get("s-maxage"));
+        if (sharedMaxAge >= 0) {
+            return TimeUnit.SECONDS.toMillis(sharedMaxAge);
+        }
+        long maxAge = seconds(cacheControl.get("max-age"));
+        if (maxAge >= 0) {
+            return TimeUnit.SECONDS.toMillis(maxAge);
+        }
+        long date = date(headers, HttpHeaderNames.DATE.toString(), now);
+        if (headers.contains(HttpHeaderNames.EXPIRES)) {
+            // invalid Expires value means already expired response
+            return Math.max(0, date(headers, HttpHeaderNames.EXPIRES.toString(), date) - date);
+        }
+        long lastModified = date(headers, HttpHeaderNames.LAST_MODIFIED.toString(), -1);
+        if (lastModified >= 0 && lastModified < date) {
+            return Math.min((date - lastModified) / 10, MAX_HEURISTIC_LIFETIME);
+        }
+        return 0;
+    }
+
+    /**
+     * Compute age of the response when it is received (RFC 7234, 4.2.3)
+     *
+     * @param response {@link HttpResponse}
+     * @param now      time when response is received, in milliseconds
+     * @return age in milliseconds
+     */
+    static long initialAge(HttpResponse response, long now) {
+        long apparentAge = Math.max(0, now - date(response.headers(), HttpHeaderNames.DATE.toString(), now));
+        long age = seconds(response.headers().get(HttpHeaderNames.AGE));
+        return Math.max(apparentAge, age < 0 ? 0 : TimeUnit.SECONDS.toMillis(age));
+    }
+
+    static Map<String, String> parseCacheControl(HttpHeaders headers) {
+        Map<String, String> directives = new HashMap<>();
+        for (String header : headers.getAll(HttpHeaderNames.CACHE_CONTROL)) {
+            for (String directive : header.split(",")) {
+                int eq = directive.indexOf('=');
+                String name = (eq < 0 ? directive : directive.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+                if (name.isEmpty()) {
+                    continue;
+                }
+                String value = eq < 0 ? "" : directive.substring(eq + 1).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                directives.putIfAbsent(name, value);
+            }
+        }
+        return directives;
+    }
+
+    private static long seconds(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long date(HttpHeaders headers, String name, long defaultValue) {
+        String value = headers.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        Date date = DateFormatter.parseHttpDate(value);
+        return date != null ? date.getTime() : defaultValue;
+    }
+}
@@ -0,0 +1,136 @@
+package com.zebrunner.carina.proxy.browserup.cache;
+
+import com.browserup.bup.filters.HttpsAwareFiltersAdapter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+
+/**
+ * Source of the filters, that serve responses from the {@link SharedResponseCache} and store upstream responses in it.
+ * <p>
+ * Responses are passed to the client untouched, their copies are collected per request (no aggregation by LittleProxy)
+ * and stored when completed. Cached responses are returned instead of sending the request upstream,
+ * so they are not passed to the response filters of the proxy.<br>
+ * Requests, that wait for the concurrent request to the same URL, are held by the {@link CoalescingHandler} of the client connection.
+ * It is added with the first request of the connection, so the first request is never held.<br>
+ * HTTPS responses are cached only when MITM is enabled.
+ * <p>
+ * Should be added via {@link com.browserup.bup.BrowserUpProxy#addFirstHttpFilterFactory(org.littleshoot.proxy.HttpFiltersSource)},
+ * so the original upstream responses are stored, or via
+ * {@link com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy#useResponseCache(SharedResponseCache)}
+ */
+public final class SharedCacheFiltersSource extends HttpFiltersSourceAdapter {
+    private final SharedResponseCache cache;
+
+    public SharedCacheFiltersSource(SharedResponseCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        if (ctx == null) {
+            return null;
+        }
+        // the following requests of the connection wait for the concurrent requests to the same URL without blocking
+        if (!cache.getCoalescingTimeout().isZero() && ctx.pipeline().get(CoalescingHandler.NAME) == null) {
+            ctx.pipeline().addBefore(ctx.name(), CoalescingHandler.NAME, new CoalescingHandler(cache));
+        }
+        if (!HttpCacheRules.isCacheable(originalRequest)) {
+            return null;
+        }
+        return new CacheFilters(originalRequest, ctx);
+    }
+
+    public SharedResponseCache getCache() {
+        return cache;
+    }
+
+    private final class CacheFilters extends HttpsAwareFiltersAdapter {
+        private String key = null;
+        private HttpRequest request = null;
+        private boolean filling = false;
+        private HttpResponse response = null;
+        private ByteBuf content = null;
+
+        private CacheFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            super(originalRequest, ctx);
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            if (!(httpObject instanceof HttpRequest)) {
+                return null;
+            }
+            request = (HttpRequest) httpObject;
+            key = getFullUrl(request);
+            SharedResponseCache.Lookup lookup = cache.lookup(key, request);
+            if (lookup.getResponse() != null) {
+                key = null;
+                return lookup.getResponse();
+            }
+            filling = lookup.isFilling();
+            return null;
+        }
+
+        @Override
+        public HttpObject serverToProxyResponse(HttpObject httpObject) {
+            if (key == null) {
+                return httpObject;
+            }
+            if (httpObject instanceof HttpResponse) {
+                response = (HttpResponse) httpObject;
+                content = Unpooled.buffer();
+            }
+            if (httpObject instanceof HttpContent && content != null) {
+                ByteBuf chunk = ((HttpContent) httpObject).content();
+                if (content.readableBytes() + chunk.readableBytes() > cache.getMaxEntrySize()) {
+                    content = null;
+                } else {
+                    content.writeBytes(chunk, chunk.readerIndex(), chunk.readableBytes());
+                }
+            }
+            if (httpObject instanceof LastHttpContent) {
+                try {
+                    if (content != null) {
+                        cache.put(key, request, response, content);
+                    }
+                } finally {
+                    finish();
+                }
+            }
+            return httpObject;
+        }
+
+        @Override
+        public void serverToProxyResponseTimedOut() {
+            finish();
+        }
+
+        @Override
+        public void proxyToServerResolutionFailed(String hostAndPort) {
+            finish();
+        }
+
+        @Override
+        public void proxyToServerConnectionFailed() {
+            finish();
+        }
+
+        private void finish() {
+            if (filling) {
+                cache.complete(key);
+                filling = false;
+            }
+            key = null;
+            response = null;
+            content = null;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.zebrunner.carina.proxy.browserup.cache;
+
+import com.zebrunner.carina.utils.R;
+import com.zebrunner.carina.utils.commons.SpecialKeywords;
+import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AsciiString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP response cache, that could be shared by all proxies of the JVM (see {@link #getInstance()}),
+ * so static bundles, downloaded by many parallel browsers, are fetched from the upstream once.
+ * <p>
+ * Cache follows the rules of the shared cache (see {@link HttpCacheRules}) and keeps only fresh responses:
+ * expired responses are not revalidated, but fetched again. Responses are keyed by the full URL,
+ * one variant per URL is kept (the variant is selected by the headers from the {@code Vary} header).<br>
+ * Bodies are stored off-heap in the pooled direct buffers; served responses share the buffer of the entry
+ * (reference counted), so evicted body is released when the last response, that uses it, is written to the client.<br>
+ * Cache is bounded by the size of the bodies and evicts the least recently used entries. Response larger than
+ * {@link #getMaxEntrySize()} is not stored.
+ * <p>
+ * Concurrent misses of the same URL are coalesced: the first request is sent to the upstream, and other requests
+ * wait for it (no longer than the coalescing timeout) and are served from the cache, or are sent to the upstream
+ * if response was not stored. Requests wait without blocking the event loop: the client connection holds the request
+ * and stops reading until the response is received (see {@link #getPendingFill(String, HttpRequest)}).
+ * <p>
+ * Configuration:
+ * <b>browserup_cache_size</b> - size of the shared cache in MB, 0 - disabled. Default value: 0<br>
+ * <b>browserup_cache_coalescing_timeout</b> - max time (in milliseconds) of waiting for the concurrent request
+ * to the same URL, 0 - requests are not waited for. Default value: 30000
+ */
+public final class SharedResponseCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    public static final Duration DEFAULT_COALESCING_TIMEOUT = Duration.ofSeconds(30);
+    // hop-by-hop headers (RFC 7230, 6.1), that are not stored
+    private static final List<CharSequence> HOP_BY_HOP_HEADERS = List.of(HttpHeaderNames.CONNECTION, AsciiString.cached("keep-alive"),
+            AsciiString.cached("proxy-connection"), HttpHeaderNames.TE, HttpHeaderNames.TRAILER, HttpHeaderNames.UPGRADE,
+            HttpHeaderNames.PROXY_AUTHENTICATE);
+    private static volatile SharedResponseCache instance = null;
+
+    private final long maxSize;
+    private final int maxEntrySize;
+    private final Duration coalescingTimeout;
+    // access order, guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Void>> fills = new ConcurrentHashMap<>();
+    private long size = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create cache
+     *
+     * @param maxSize            max size of the stored bodies in bytes
+     * @param coalescingTimeout  max time of waiting for the response of the concurrent request to the same URL,
+     *                           zero - concurrent requests are not waited for
+     */
+    public SharedResponseCache(long maxSize, Duration coalescingTimeout) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException(String.format("Cache size should be positive, but was: %d", maxSize));
+        }
+        this.maxSize = maxSize;
+        // one response should not evict the whole cache
+        this.maxEntrySize = (int) Math.min(maxSize / 8, 16 * 1024 * 1024);
+        this.coalescingTimeout = coalescingTimeout;
+    }
+
+    /**
+     * Get cache, shared by all proxies of the JVM
+     *
+     * @return {@link SharedResponseCache}, or null if <b>browserup_cache_size</b> is 0
+     * @throws InvalidConfigurationException if <b>browserup_cache_size</b> is not a number
+     */
+    public static SharedResponseCache getInstance() {
+        SharedResponseCache cache = instance;
+        if (cache != null) {
+            return cache;
+        }
+        synchronized (SharedResponseCache.class) {
+            if (instance == null) {
+                long megabytes = configValue("browserup_cache_size");
+                if (megabytes <= 0) {
+                    return null;
+                }
+                String timeout = R.CONFIG.get("browserup_cache_coalescing_timeout");
+                instance = new SharedResponseCache(megabytes * 1024 * 1024,
+                        timeout == null || timeout.isEmpty() || timeout.equalsIgnoreCase(SpecialKeywords.NULL)
+                                ? DEFAULT_COALESCING_TIMEOUT
+                                : Duration.ofMillis(Math.max(0, configValue("browserup_cache_coalescing_timeout"))));
+                LOGGER.info("Shared response cache is enabled: {} MB", megabytes);
+            }
+            return instance;
+        }
+    }
+
+    private static long configValue(String key) {
+        String value = R.CONFIG.get(key);
+        try {
+            return value == null || value.isEmpty() || value.equalsIgnoreCase(SpecialKeywords.NULL) ? 0 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidConfigurationException(String.format("Invalid '%s' value: '%s'", key, value));
+        }
+    }
+
+    /**
+     * Get fresh response from the cache
+     *
+     * @param key     cache key (full URL of the request)
+     * @param request {@link HttpRequest}
+     * @return {@link FullHttpResponse} with the content, that should be released (it is released when written to the channel),
+     * or null if there is no fresh response for the request
+     */
+    public FullHttpResponse get(String key, HttpRequest request) {
+        FullHttpResponse response = find(key, request);
+        if (response != null) {
+            hits.increment();
+        }
+        return response;
+    }
+
+    private FullHttpResponse find(String key, HttpRequest request) {
+        long maxAge = HttpCacheRules.maxAge(request);
+        if (maxAge < 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry;
+        ByteBuf content;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null || !entry.matches(request)) {
+                return null;
+            }
+            if (entry.age(now) >= entry.lifetime) {
+                remove(key, entry);
+                return null;
+            }
+            if (entry.age(now) > maxAge) {
+                return null;
+            }
+            // retained under the lock, so entry could not be released by eviction in between
+            content = entry.content.retainedDuplicate();
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, entry.status, content,
+                entry.headers.copy(), EmptyHttpHeaders.INSTANCE);
+        response.headers().set(HttpHeaderNames.AGE, TimeUnit.MILLISECONDS.toSeconds(entry.age(now)));
+        return response;
+    }
+
+    /**
+     * Get fresh response from the cache. If there is no such response and the response for the same key is not requested
+     * from the upstream yet, the request becomes the one, that fills the cache, when the coalescing timeout is set
+     *
+     * @param key     cache key (full URL of the request)
+     * @param request {@link HttpRequest}
+     * @return {@link Lookup}
+     */
+    public Lookup lookup(String key, HttpRequest request) {
+        FullHttpResponse response = get(key, request);
+        if (response != null) {
+            return new Lookup(response, false);
+        }
+        misses.increment();
+        if (HttpCacheRules.maxAge(request) < 0 || coalescingTimeout.isZero()) {
+            // request bypasses the cache, but its response could be stored
+            return new Lookup(null, false);
+        }
+        return new Lookup(null, fills.putIfAbsent(key, new CompletableFuture<>()) == null);
+    }
+
+    /**
+     * Get the upstream request for the same key, that fills the cache, so the request could wait for its response
+     * instead of sending the request to the upstream. Never blocks
+     *
+     * @param key     cache key (full URL of the request)
+     * @param request {@link HttpRequest}
+     * @return {@link CompletableFuture}, that is completed when the response is received (or could not be received),
+     * or null if the request should not wait
+     */
+    public CompletableFuture<Void> getPendingFill(String key, HttpRequest request) {
+        if (coalescingTimeout.isZero() || HttpCacheRules.maxAge(request) < 0) {
+            return null;
+        }
+        return fills.get(key);
+    }
+
+    /**
+     * Get fresh response from the cache after waiting for the pending fill (see {@link #getPendingFill(String, HttpRequest)})
+     *
+     * @param key     cache key (full URL of the request)
+     * @param request {@link HttpRequest}
+     * @param fill    the pending fill, that the request waited for. If it is not completed (the timeout is expired),
+     *                it is considered abandoned, so the next request fills the cache
+     * @return {@link FullHttpResponse} (see {@link #get(String, HttpRequest)}), or null if response was not stored
+     */
+    public FullHttpResponse getCoalesced(String key, HttpRequest request, CompletableFuture<Void> fill) {
+        if (!fill.isDone()) {
+            fills.remove(key, fill);
+        }
+        FullHttpResponse response = find(key, request);
+        if (response != null) {
+            coalesced.increment();
+        }
+        return response;
+    }
+
+    /**
+     * Store the response, if it is allowed by the cache rules
+     *
+     * @param key      cache key (full URL of the request)
+     * @param request  {@link HttpRequest}
+     * @param response {@link HttpResponse}
+     * @param content  response content, is not released by this method
+     * @return true if response is stored
+     */
+    public boolean put(String key, HttpRequest request, HttpResponse response, ByteBuf content) {
+        long now = System.currentTimeMillis();
+        long lifetime = HttpCacheRules.freshnessLifetime(request, response, now);
+        int length = content.readableBytes();
+        if (lifetime <= 0 || length > maxEntrySize) {
+            return false;
+        }
+        ByteBuf stored = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+        stored.writeBytes(content, content.readerIndex(), length);
+        HttpHeaders headers = response.headers().copy();
+        // stored body is always sent as a whole
+        headers.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, length);
+        // connection-specific headers of the origin (for example, Connection: close) should not be replayed
+        for (String connectionHeader : response.headers().getAll(HttpHeaderNames.CONNECTION)) {
+            for (String name : connectionHeader.split(",")) {
+                if (!name.isBlank()) {
+                    headers.remove(name.trim());
+                }
+            }
+        }
+        HOP_BY_HOP_HEADERS.forEach(headers::remove);
+        Entry entry = new Entry(response.status(), headers, variant(request, response), stored, now - HttpCacheRules.initialAge(response, now),
+                lifetime);
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.content.capacity();
+                evicted.add(previous);
+            }
+            size += length;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                size -= eldest.content.capacity();
+                evicted.add(eldest);
+                evictions.increment();
+            }
+        }
+        evicted.forEach(Entry::release);
+        return true;
+    }
+
+    /**
+     * Notify requests, that wait for the response for the key (see {@link #getPendingFill(String, HttpRequest)}),
+     * that the response is received (or could not be received)
+     *
+     * @param key cache key
+     */
+    public void complete(String key) {
+        CompletableFuture<Void> fill = fills.remove(key);
+        if (fill != null) {
+            fill.complete(null);
+        }
+    }
+
+    /**
+     * Remove all responses
+     */
+    public void clear() {
+        List<Entry> removed;
+        synchronized (entries) {
+            removed = new ArrayList<>(entries.values());
+            entries.clear();
+            size = 0;
+        }
+        removed.forEach(Entry::release);
+    }
+
+    /**
+     * @return number of the stored responses
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return size of the stored bodies in bytes
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return max time of waiting for the response of the concurrent request to the same URL, zero if requests are not waited for
+     */
+    public Duration getCoalescingTimeout() {
+        return coalescingTimeout;
+    }
+
+    /**
+     * @return max size of the stored body in bytes
+     */
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * @return number of the requests, served from the cache without waiting
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of the requests, sent to the upstream
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of the requests, served from the cache after waiting for the concurrent request to the same URL
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return number of the responses, evicted because the cache is full
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries=%d, size=%d, hits=%d, coalesced=%d, misses=%d, evictions=%d", getEntryCount(), getSize(),
+                getHitCount(), getCoalescedCount(), getMissCount(), getEvictionCount());
+    }
+
+    private void remove(String key, Entry entry) {
+        // called under the lock
+        if (entries.remove(key, entry)) {
+            size -= entry.content.capacity();
+            entry.release();
+        }
+    }
+
+    private static Map<String, String> variant(HttpRequest request, HttpResponse response) {
+        Map<String, String> variant = new LinkedHashMap<>();
+        for (String vary : response.headers().getAll(HttpHeaderNames.VARY)) {
+            for (String name : vary.split(",")) {
+                if (!name.isBlank()) {
+                    variant.put(name.trim(), request.headers().getAll(name.trim()).toString());
+                }
+            }
+        }
+        return variant;
+    }
+
+    /**
+     * Result of the {@link #lookup(String, HttpRequest)}
+     */
+    public static final class Lookup {
+        private final FullHttpResponse response;
+        private final boolean filling;
+
+        private Lookup(FullHttpResponse response, boolean filling) {
+            this.response = response;
+            this.filling = filling;
+        }
+
+        /**
+         * @return cached response or null
+         */
+        public FullHttpResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * @return true if concurrent requests to the same key could wait for the response of this request,
+         * so {@link #complete(String)} should be called when it is received
+         */
+        public boolean isFilling() {
+            return filling;
+        }
+    }
+
+    /**
+     * Stored response
+     */
+    private static final class Entry {
+        private final HttpResponseStatus status;
+        private final HttpHeaders headers;
+        private final Map<String, String> variant;
+        private final ByteBuf content;
+        // time of the response generation by the origin server
+        private final long createdMillis;
+        private final long lifetime;
+
+        private Entry(HttpResponseStatus status, HttpHeaders headers, Map<String, String> variant, ByteBuf content,
+                long createdMillis, long lifetime) {
+            this.status = status;
+            this.headers = headers;
+            this.variant = variant;
+            this.content = content;
+            this.createdMillis = createdMillis;
+            this.lifetime = lifetime;
+        }
+
+        private long age(long now) {
+            return Math.max(0, now - createdMillis);
+        }
+
+        private boolean matches(HttpRequest request) {
+            for (Map.Entry<String, String> header : variant.entrySet()) {
+                if (!Objects.equals(header.getValue(), request.headers().getAll(header.getKey()).toString())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void release() {
+            content.release();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.zebrunner.carina.proxy.browserup.har;
+
+import com.browserup.harreader.model.HarContent;
+import com.browserup.harreader.model.HarEntry;
+import com.browserup.harreader.model.HarPostData;
+import com.zebrunner.carina.proxy.NoProxyMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy of the {@link StreamingHarCapture}: which requests are captured and how much of them is stored.
+ * <p>
+ * Hosts are specified in the same format as the {@code no_proxy} parameter (see {@link NoProxyMatcher}),
+ * content types - as mime types, optionally with {@code *} subtype (for example {@code image/*}).<br>
+ * Request host and sampling are checked when the request is started, so not captured requests cost nothing.
+ * Content type is known only when the response is completed: entries with excluded content type are not stored.<br>
+ * Static assets (images, fonts, audio and video) are detected by the URL extension when the request is started
+ * (then content is not even buffered) and by the response content type.
+ * <p>
+ * Policy is not thread-safe while it is configured, so it should be configured before it is passed to the capture.
+ */
+public final class CapturePolicy {
+    /**
+     * Format of the text, that is appended to the truncated body: stored and original number of characters
+     */
+    public static final String TRUNCATION_MARKER = "...[truncated: %d of %d characters]";
+    private static final Set<String> STATIC_EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "webp", "avif", "bmp", "ico", "svg",
+            "woff", "woff2", "ttf", "otf", "eot", "mp3", "mp4", "webm", "ogg", "wav");
+    private static final List<String> STATIC_CONTENT_TYPES = List.of("image/*", "font/*", "audio/*", "video/*",
+            "application/font-woff", "application/font-woff2", "application/x-font-ttf", "application/x-font-otf",
+            "application/vnd.ms-fontobject");
+
+    private NoProxyMatcher includeHosts = null;
+    private NoProxyMatcher excludeHosts = null;
+    private final List<String> includeContentTypes = new ArrayList<>();
+    private final List<String> excludeContentTypes = new ArrayList<>();
+    private int maxBodySize = -1;
+    private double sampleRate = 1;
+    private boolean headersOnlyForStaticAssets = false;
+
+    /**
+     * Capture only requests to these hosts
+     *
+     * @param hosts hosts separated by ',' or '|', for example {@code *.example.com,api.test.org}
+     * @return this {@link CapturePolicy}
+     */
+    public CapturePolicy includeHosts(String hosts) {
+        this.includeHosts = NoProxyMatcher.parse(hosts);
+        return this;
+    }
+
+    /**
+     * Do not capture requests to these hosts
+     *
+     * @param hosts hosts separated by ',' or '|', for example {@code *.googleapis.com,fonts.gstatic.com}
+     * @return this {@link CapturePolicy}
+     */
+    public CapturePolicy excludeHosts(String hosts) {
+        this.excludeHosts = NoProxyMatcher.parse(hosts);
+        return this;
+    }
+
+    /**
+     * Store only entries with these response content types
+     *
+     * @param contentTypes mime types, for example {@code application/json}, {@code text/*}
+     * @return this {@link CapturePolicy}
+     */
+    public CapturePolicy includeContentTypes(String... contentTypes) {
+        addContentTypes(includeContentTypes, contentTypes);
+        return this;
+    }
+
+    /**
+     * Do not store entries with these response content types
+     *
+     * @param contentTypes mime types, for example {@code image/*}
+     * @return this {@link CapturePolicy}
+     */
+    public CapturePolicy excludeContentTypes(String... contentTypes) {
+        addContentTypes(excludeContentTypes, contentTypes);
+        return this;
+    }
+
+    /**
+     * Cap stored request and response bodies. Truncated body ends with {@link #TRUNCATION_MARKER}
+     *
+     * @param maxBodySize max number of the stored characters of the body text (base64 text for the binary content),
+     *                    negative value means no limit
+     * @return this {@link CapturePolicy}
+     */
+    public CapturePolicy maxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * Capture only part of the requests, that match host filters
+     *
+     * @param percentage percentage of the captured requests, from 0 to 100
+     * @return this {@link CapturePolicy}
+     * @throws IllegalArgumentException if percentage is out of range
+     */
+    public CapturePolicy samplePercentage(double percentage) {
+        if (percentage < 0 || percentage > 100) {
+            throw new IllegalArgumentException(String.format("Sample percentage should be from 0 to 100, but was: %s", percentage));
+        }
+        this.sampleRate = percentage / 100;
+        return this;
+    }
+
+    /**
+     * Capture only headers and timings of the static assets (images, fonts, audio and video)
+     *
+     * @param headersOnly true to not store the content of the static assets
+     * @return this {@link CapturePolicy}
+     */
+    public CapturePolicy headersOnlyForStaticAssets(boolean headersOnly) {
+        this.headersOnlyForStaticAssets = headersOnly;
+        return this;
+    }
+
+    /**
+     * Check host filters and sampling
+     *
+     * @param host host of the request
+     * @return true if request should be captured
+     */
+    public boolean shouldCapture(String host) {
+        if (host != null) {
+            if (includeHosts != null && !includeHosts.matches(host)) {
+                return false;
+            }
+            if (excludeHosts != null && excludeHosts.matches(host)) {
+                return false;
+            }
+        }
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * @param url URL of the request
+     * @return true if content of the request to URL should not be captured
+     */
+    public boolean isHeadersOnly(String url) {
+        return headersOnlyForStaticAssets && hasStaticExtension(url);
+    }
+
+    /**
+     * Check content type filters
+     *
+     * @param contentType response content type, could be null
+     * @return true if entry should be stored
+     */
+    public boolean shouldStore(String contentType) {
+        if (!includeContentTypes.isEmpty() && !matches(includeContentTypes, contentType)) {
+            return false;
+        }
+        return !matches(excludeContentTypes, contentType);
+    }
+
+    /**
+     * Remove content of the static assets and truncate bodies of the completed entry
+     *
+     * @param entry {@link HarEntry}
+     */
+    public void apply(HarEntry entry) {
+        if (entry.getRequest() != null && entry.getRequest().getPostData() != null) {
+            HarPostData postData = entry.getRequest().getPostData();
+            postData.setText(truncate(postData.getText()));
+        }
+        if (entry.getResponse() == null || entry.getResponse().getContent() == null) {
+            return;
+        }
+        HarContent content = entry.getResponse().getContent();
+        if (headersOnlyForStaticAssets && content.getText() != null && matches(STATIC_CONTENT_TYPES, content.getMimeType())) {
+            content.setText(null);
+            content.setEncoding(null);
+        } else {
+            content.setText(truncate(content.getText()));
+        }
+    }
+
+    private String truncate(String text) {
+        if (text == null || maxBodySize < 0 || text.length() <= maxBodySize) {
+            return text;
+        }
+        return text.substring(0, maxBodySize) + String.format(TRUNCATION_MARKER, maxBodySize, text.length());
+    }
+
+    private static void addContentTypes(List<String> target, String... contentTypes) {
+        for (String contentType : contentTypes) {
+            target.add(contentType.trim().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static boolean matches(List<String> contentTypes, String contentType) {
+        if (contentTypes.isEmpty() || contentType == null) {
+            return false;
+        }
+        int end = contentType.indexOf(';');
+        String mimeType = (end < 0 ? contentType : contentType.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+        for (String pattern : contentTypes) {
+            if (pattern.endsWith("/*") ? mimeType.startsWith(pattern.substring(0, pattern.length() - 1)) : pattern.equals(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasStaticExtension(String url) {
+        int end = url.length();
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        int dot = url.lastIndexOf('.', end - 1);
+        if (dot < 0 || url.lastIndexOf('/', end - 1) > dot) {
+            return false;
+        }
+        return STATIC_EXTENSIONS.contains(url.substring(dot + 1, end).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,402 @@
+package com.zebrunner.carina.proxy.browserup.har;
+
+import com.browserup.bup.BrowserUpProxyServer;
+import com.browserup.bup.filters.HarCaptureFilter;
+import com.browserup.bup.proxy.CaptureType;
+import com.browserup.bup.util.BrowserUpProxyUtil;
+import com.browserup.harreader.model.Har;
+import com.browserup.harreader.model.HarCreatorBrowser;
+import com.browserup.harreader.model.HarEntry;
+import com.browserup.harreader.model.HarLog;
+import com.browserup.harreader.model.HarPage;
+import com.browserup.harreader.model.HarPageTiming;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HAR capture, that keeps completed entries on disk instead of the heap.
+ * <p>
+ * {@link com.browserup.bup.BrowserUpProxy#newHar()} keeps the whole HAR in memory for as long as the proxy lives,
+ * so long flows with capture could take hundreds of MB per proxy. This capture uses the same {@link HarCaptureFilter}
+ * for each request, but when the entry is completed it is appended to the file as one JSON line (NDJSON)
+ * and is released. Only the small index (offset, length, start time and page of the entry) and pages are kept in memory.<br>
+ * Standard HAR is produced by {@link #writeHar(OutputStream)}: entries are copied from the file one by one
+ * in the order of their start time, so the whole HAR is never materialized in memory.<br>
+ * Which requests are captured and how much of them is stored is controlled by the {@link CapturePolicy}.
+ * <p>
+ * Should be added via {@link com.browserup.bup.BrowserUpProxy#addLastHttpFilterFactory(org.littleshoot.proxy.HttpFiltersSource)},
+ * or via {@link com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy#startStreamingHarCapture(Path, Set)}.
+ * BrowserUp HAR capture ({@link com.browserup.bup.BrowserUpProxy#newHar()}) should not be enabled at the same time.
+ */
+public final class StreamingHarCapture extends HttpFiltersSourceAdapter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    // the same configuration as the mapper of the Har#writeTo
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte NEW_LINE = '\n';
+
+    private final Path entriesFile;
+    private final EnumSet<CaptureType> captureTypes;
+    private final EnumSet<CaptureType> headersOnlyCaptureTypes;
+    private final CapturePolicy policy;
+    private final List<HarPage> pages = new CopyOnWriteArrayList<>();
+    private final List<IndexEntry> index = new ArrayList<>();
+    private final LongAdder droppedEntries = new LongAdder();
+    private volatile String currentPageRef;
+    private OutputStream out;
+    private long position = 0;
+
+    /**
+     * Create capture. Page {@link BrowserUpProxyServer#DEFAULT_PAGE_REF} is started
+     *
+     * @param entriesFile  file for the completed entries (NDJSON), will be overwritten
+     * @param captureTypes {@link CaptureType}s, see {@link com.browserup.bup.BrowserUpProxy#setHarCaptureTypes(Set)}
+     * @throws UncheckedIOException if file could not be created
+     */
+    public StreamingHarCapture(Path entriesFile, Set<CaptureType> captureTypes) {
+        this(entriesFile, captureTypes, new CapturePolicy());
+    }
+
+    /**
+     * Create capture. Page {@link BrowserUpProxyServer#DEFAULT_PAGE_REF} is started
+     *
+     * @param entriesFile  file for the completed entries (NDJSON), will be overwritten
+     * @param captureTypes {@link CaptureType}s, see {@link com.browserup.bup.BrowserUpProxy#setHarCaptureTypes(Set)}
+     * @param policy       {@link CapturePolicy}, should not be changed after the capture is created
+     * @throws UncheckedIOException if file could not be created
+     */
+    public StreamingHarCapture(Path entriesFile, Set<CaptureType> captureTypes, CapturePolicy policy) {
+        this.entriesFile = entriesFile;
+        this.captureTypes = captureTypes.isEmpty() ? EnumSet.noneOf(CaptureType.class) : EnumSet.copyOf(captureTypes);
+        this.headersOnlyCaptureTypes = EnumSet.copyOf(this.captureTypes);
+        this.headersOnlyCaptureTypes.removeAll(CaptureType.getAllContentCaptureTypes());
+        this.policy = policy;
+        try {
+            this.out = new BufferedOutputStream(Files.newOutputStream(entriesFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not create HAR entries file '%s'.", entriesFile), e);
+        }
+        newPage(BrowserUpProxyServer.DEFAULT_PAGE_REF, BrowserUpProxyServer.DEFAULT_PAGE_TITLE);
+    }
+
+    /**
+     * Start new page. Entries of the requests, started after this call, will refer to it
+     *
+     * @param pageRef page id
+     * @param title   page title
+     */
+    public void newPage(String pageRef, String title) {
+        HarPage page = new HarPage();
+        page.setId(pageRef);
+        page.setTitle(title);
+        page.setStartedDateTime(new Date());
+        page.setPageTimings(new HarPageTiming());
+        pages.add(page);
+        currentPageRef = pageRef;
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        // CONNECT requests are not captured as entries (as in BrowserUp HAR capture without errors)
+        if (ctx == null || HttpMethod.CONNECT.equals(originalRequest.method()) || isClosed()) {
+            return null;
+        }
+        if (!policy.shouldCapture(getHost(originalRequest))) {
+            return null;
+        }
+        return new EntryCaptureFilter(originalRequest, ctx, new Har(), currentPageRef,
+                policy.isHeadersOnly(originalRequest.uri()) ? headersOnlyCaptureTypes : captureTypes);
+    }
+
+    /**
+     * @return {@link Path} to the file with the completed entries (one JSON per line)
+     */
+    public Path getEntriesFile() {
+        return entriesFile;
+    }
+
+    /**
+     * @return number of the captured entries
+     */
+    public synchronized int getEntryCount() {
+        return index.size();
+    }
+
+    /**
+     * @return {@link CapturePolicy} of the capture
+     */
+    public CapturePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return number of the entries, that could not be written to the file
+     */
+    public long getDroppedEntryCount() {
+        return droppedEntries.sum();
+    }
+
+    /**
+     * Read entry from the file
+     *
+     * @param i number of the entry in the order of capture
+     * @return {@link HarEntry}
+     * @throws IOException if entry could not be read
+     */
+    public HarEntry readEntry(int i) throws IOException {
+        IndexEntry entry;
+        synchronized (this) {
+            entry = index.get(i);
+            flush();
+        }
+        try (FileChannel channel = FileChannel.open(entriesFile, StandardOpenOption.READ)) {
+            return MAPPER.readValue(read(channel, entry, null).array(), 0, entry.length, HarEntry.class);
+        }
+    }
+
+    /**
+     * Write standard HAR with the pages and entries, that are captured before the call
+     *
+     * @param target {@link Path} to the HAR file
+     * @throws IOException if HAR could not be written
+     */
+    public void writeHar(Path target) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(target))) {
+            writeHar(os);
+        }
+    }
+
+    /**
+     * Write standard HAR with the pages and entries, that are captured before the call.
+     * Entries are written in the order of their start time
+     *
+     * @param os {@link OutputStream}, is not closed by this method
+     * @throws IOException if HAR could not be written
+     */
+    public void writeHar(OutputStream os) throws IOException {
+        List<IndexEntry> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(index);
+            flush();
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.startedMillis));
+
+        HarCreatorBrowser creator = new HarCreatorBrowser();
+        creator.setName("BrowserUp Proxy");
+        creator.setVersion(BrowserUpProxyUtil.getVersionString());
+        os.write("{\"log\":{\"version\":".getBytes(StandardCharsets.UTF_8));
+        os.write(MAPPER.writeValueAsBytes(new HarLog().getVersion()));
+        os.write(",\"creator\":".getBytes(StandardCharsets.UTF_8));
+        os.write(MAPPER.writeValueAsBytes(creator));
+        os.write(",\"pages\":".getBytes(StandardCharsets.UTF_8));
+        os.write(MAPPER.writeValueAsBytes(pages));
+        os.write(",\"entries\":[".getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(entriesFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = null;
+            for (int i = 0; i < entries.size(); i++) {
+                IndexEntry entry = entries.get(i);
+                buffer = read(channel, entry, buffer);
+                if (i > 0) {
+                    os.write(',');
+                }
+                os.write(buffer.array(), 0, entry.length);
+            }
+        }
+        os.write("]}}".getBytes(StandardCharsets.UTF_8));
+        os.flush();
+    }
+
+    /**
+     * Close the entries file. Entries of the requests, that are not completed yet, are dropped,
+     * HAR could still be written by {@link #writeHar(OutputStream)}
+     */
+    @Override
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close HAR entries file '{}': {}", entriesFile, e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return out == null;
+    }
+
+    private void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @return host of the request from the URI (requests to the proxy) or from the Host header (MITM requests), without port
+     */
+    private static String getHost(HttpRequest request) {
+        try {
+            String host = URI.create(request.uri()).getHost();
+            if (host != null) {
+                return host;
+            }
+        } catch (IllegalArgumentException e) {
+            // not a valid URI, Host header is used
+        }
+        String host = request.headers().get(HttpHeaderNames.HOST);
+        if (host == null) {
+            return null;
+        }
+        int end = host.startsWith("[") ? host.indexOf(']') + 1 : host.indexOf(':');
+        return end > 0 ? host.substring(0, end) : host;
+    }
+
+    private static ByteBuffer read(FileChannel channel, IndexEntry entry, ByteBuffer reusable) throws IOException {
+        ByteBuffer buffer = reusable != null && reusable.capacity() >= entry.length ? reusable : ByteBuffer.allocate(entry.length);
+        buffer.clear().limit(entry.length);
+        long offset = entry.offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException(String.format("HAR entries file '%s' is truncated.", channel));
+            }
+            offset += read;
+        }
+        return buffer;
+    }
+
+    private void append(HarEntry entry) {
+        byte[] json;
+        try {
+            // entry is serialized outside of the lock
+            json = MAPPER.writeValueAsBytes(entry);
+        } catch (IOException e) {
+            droppedEntries.increment();
+            LOGGER.warn("Could not serialize HAR entry of '{}': {}", entry.getRequest().getUrl(), e.getMessage());
+            return;
+        }
+        long started = entry.getStartedDateTime() != null ? entry.getStartedDateTime().getTime() : 0;
+        synchronized (this) {
+            if (out == null) {
+                droppedEntries.increment();
+                return;
+            }
+            try {
+                out.write(json);
+                out.write(NEW_LINE);
+            } catch (IOException e) {
+                droppedEntries.increment();
+                LOGGER.warn("Could not write HAR entry to '{}': {}", entriesFile, e.getMessage());
+                return;
+            }
+            index.add(new IndexEntry(position, json.length, started));
+            position += json.length + 1;
+        }
+    }
+
+    /**
+     * Position of the entry in the file
+     */
+    private static final class IndexEntry {
+        private final long offset;
+        private final int length;
+        private final long startedMillis;
+
+        private IndexEntry(long offset, int length, long startedMillis) {
+            this.offset = offset;
+            this.length = length;
+            this.startedMillis = startedMillis;
+        }
+    }
+
+    /**
+     * BrowserUp capture filter with its own {@link Har}, entry of which is appended to the file when completed
+     */
+    private final class EntryCaptureFilter extends HarCaptureFilter {
+        private final Har har;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        private EntryCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String pageRef,
+                Set<CaptureType> captureTypes) {
+            super(originalRequest, ctx, har, pageRef, captureTypes);
+            this.har = har;
+        }
+
+        @Override
+        public HttpObject serverToProxyResponse(HttpObject httpObject) {
+            HttpObject result = super.serverToProxyResponse(httpObject);
+            if (httpObject instanceof LastHttpContent) {
+                complete();
+            }
+            return result;
+        }
+
+        @Override
+        public void serverToProxyResponseTimedOut() {
+            super.serverToProxyResponseTimedOut();
+            complete();
+        }
+
+        @Override
+        public void proxyToServerResolutionFailed(String hostAndPort) {
+            super.proxyToServerResolutionFailed(hostAndPort);
+            complete();
+        }
+
+        @Override
+        public void proxyToServerConnectionFailed() {
+            super.proxyToServerConnectionFailed();
+            complete();
+        }
+
+        private void complete() {
+            List<HarEntry> entries = har.getLog().getEntries();
+            if (entries.isEmpty() || !completed.compareAndSet(false, true)) {
+                return;
+            }
+            HarEntry entry = entries.get(0);
+            String mimeType = entry.getResponse() != null && entry.getResponse().getContent() != null
+                    ? entry.getResponse().getContent().getMimeType()
+                    : null;
+            if (policy.shouldStore(mimeType)) {
+                policy.apply(entry);
+                append(entry);
+            }
+            // entry is released with the filter, but the filter could be referenced by the connection for a while
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming replacer of the byte sequences in the {@link ByteBuf} chunks.
+ * <p>
+ * Replacements are applied one after another (as the sequence of {@link String#replace(CharSequence, CharSequence)} calls),
+ * each one finds matches by the Knuth-Morris-Pratt automaton, so matches that span chunk boundaries are found,
+ * and only the bytes of the partial match (less than the length of the target) are kept between chunks.<br>
+ * Is not thread-safe: one instance should be used for one message.
+ */
+public final class ByteBufReplacer {
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * Add replacement
+     *
+     * @param target      not empty sequence of bytes, that should be replaced
+     * @param replacement replacement bytes
+     * @return this {@link ByteBufReplacer}
+     * @throws IllegalArgumentException if target is empty
+     */
+    public ByteBufReplacer add(byte[] target, byte[] replacement) {
+        if (target.length == 0) {
+            throw new IllegalArgumentException("Target of the replacement could not be empty.");
+        }
+        stages.add(new Stage(target, replacement));
+        return this;
+    }
+
+    /**
+     * @return true if there are no replacements
+     */
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    /**
+     * Process next chunk. Bytes of the chunk are not modified and its reader index is not changed
+     *
+     * @param chunk next chunk of the message
+     * @return new {@link ByteBuf} with processed bytes. Bytes, that could be the start of the match, are kept
+     * until the next chunk or {@link #finish()}
+     */
+    public ByteBuf process(ByteBuf chunk) {
+        ByteBuf in = chunk;
+        for (Stage stage : stages) {
+            ByteBuf out = Unpooled.buffer(in.readableBytes() + 16);
+            stage.process(in, out);
+            in = out;
+        }
+        return in == chunk ? Unpooled.copiedBuffer(chunk) : in;
+    }
+
+    /**
+     * Finish message
+     *
+     * @return new {@link ByteBuf} with the kept bytes
+     */
+    public ByteBuf finish() {
+        ByteBuf in = Unpooled.EMPTY_BUFFER;
+        for (Stage stage : stages) {
+            ByteBuf out = Unpooled.buffer();
+            stage.process(in, out);
+            stage.finish(out);
+            in = out;
+        }
+        return in;
+    }
+
+    private static final class Stage {
+        private final byte[] target;
+        private final byte[] replacement;
+        // length of the longest proper prefix of the target[0..i], that is also its suffix
+        private final int[] failure;
+        // number of the target bytes, that are matched by the last bytes of the previous chunks (and not written yet)
+        private int matched = 0;
+
+        private Stage(byte[] target, byte[] replacement) {
+            this.target = target.clone();
+            this.replacement = replacement.clone();
+            this.failure = new int[target.length];
+            for (int i = 1, k = 0; i < target.length; i++) {
+                while (k > 0 && target[i] != target[k]) {
+                    k = failure[k - 1];
+                }
+                if (target[i] == target[k]) {
+                    k++;
+                }
+                failure[i] = k;
+            }
+        }
+
+        private void process(ByteBuf in, ByteBuf out) {
+            int i = in.readerIndex();
+            int end = in.writerIndex();
+            while (i < end) {
+                if (matched == 0) {
+                    // copy bytes until the possible start of the match
+                    int next = in.indexOf(i, end, target[0]);
+                    if (next < 0) {
+                        out.writeBytes(in, i, end - i);
+                        return;
+                    }
+                    out.writeBytes(in, i, next - i);
+                    i = next;
+                }
+                byte b = in.getByte(i++);
+                while (matched > 0 && target[matched] != b) {
+                    // bytes, that are not the part of the match anymore, are written as is
+                    int fallback = failure[matched - 1];
+                    out.writeBytes(target, 0, matched - fallback);
+                    matched = fallback;
+                }
+                if (target[matched] == b) {
+                    matched++;
+                    if (matched == target.length) {
+                        out.writeBytes(replacement);
+                        matched = 0;
+                    }
+                } else {
+                    out.writeByte(b);
+                }
+            }
+        }
+
+        private void finish(ByteBuf out) {
+            out.writeBytes(target, 0, matched);
+            matched = 0;
+        }
+    }
+}
@@ -20,74 +20,49 @@ import com.browserup.bup.util.HttpMessageContents;
 import com.browserup.bup.util.HttpMessageInfo;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.lang.invoke.MethodHandles;
-import java.util.ArrayList;
 import java.util.List;
 
 
 /**
  * Class wrapper for RequestFilter. Rewrite rules can be configured as separate
- * Java Beans and can be passed into this class. Fitler's will be applied.
+ * Java Beans and can be passed into this class. Fitler's will be applied.<br>
+ * Rules are compiled once by the {@link RewriteRuleEngine} when filter is created,
+ * or could be replaced while proxy is running (see {@link ReloadableRewriteRules}).
  *
  */
 public class CustomRqFilter implements RequestFilter {
-    
-    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    
-    private List<RewriteItem> rewrites = new ArrayList<>();
+
+    private final ReloadableRewriteRules rules;
 
     @Override
     public HttpResponse filterRequest(HttpRequest rq, HttpMessageContents contents, HttpMessageInfo messageInfo) {
-        if (rewrites.isEmpty()) {
-            return null;
-        }
-        String reqUrl = rq.uri();
-        for (RewriteItem rewriteItem : rewrites) {
-            if(reqUrl.matches(rewriteItem.getHost())) {
-                // headers rewrite
-                LOGGER.debug("Rewrite rule will be applied for host: {}", reqUrl);
-                applyHeaders(rq, rewriteItem.getHeaders());
-                // body rewrite
-                String content = contents.getTextContents();
-                String replacedContent = content.replaceAll(rewriteItem.getRegex(), rewriteItem.getReplacement());
-                contents.setTextContents(replacedContent);
-            }
-        }
-        
+        rules.getEngine().apply(rq.uri(), rq.headers(), contents);
         return null;
     }
-    
-    
+
+    public CustomRqFilter (List<RewriteItem> rewrites) {
+        this.rules = ReloadableRewriteRules.of(rewrites);
+    }
+
+    public CustomRqFilter(ReloadableRewriteRules rules) {
+        this.rules = rules;
+    }
+
     /**
-     * Apply headers to request
-     * @param req HttpRequest
-     * @param headers List&lt;HeaderItem&gt;
-     * @return updated request
+     * @return rules of the filter
      */
-    private HttpRequest applyHeaders(HttpRequest req, List<HeaderItem> headers) {
-        for (HeaderItem headerItem : headers) {
-            switch (headerItem.getMethod()) {
-            case ADD:
-                req.headers().add(headerItem.getHeader().getKey(), headerItem.getHeader().getValue());
-                break;
-            case REMOVE:
-                req.headers().remove(headerItem.getHeader().getKey());
-                break;
-            case UPDATE:
-                req.headers().set(headerItem.getHeader().getKey(), headerItem.getHeader().getValue());
-                break;
-            default:
-                break;
-            }
-        }
-        return req;
+    public ReloadableRewriteRules getRules() {
+        return rules;
     }
-    
-    public CustomRqFilter (List<RewriteItem> rewrites) {
-        this.rewrites = rewrites;
+
+    /**
+     * Get profiling counters of the rules
+     *
+     * @return {@link List} of {@link RewriteRuleStats}
+     */
+    public List<RewriteRuleStats> getStatistics() {
+        return rules.getStatistics();
     }
 
 }
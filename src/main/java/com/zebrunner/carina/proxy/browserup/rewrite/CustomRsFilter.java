@@ -19,72 +19,47 @@ import com.browserup.bup.filters.ResponseFilter;
 import com.browserup.bup.util.HttpMessageContents;
 import com.browserup.bup.util.HttpMessageInfo;
 import io.netty.handler.codec.http.HttpResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.lang.invoke.MethodHandles;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Class wrapper for ResponseFilter. Rewrite rules can be configured as separate
- * Java Beans and can be passed into this class. Fitler's will be applied.
+ * Java Beans and can be passed into this class. Fitler's will be applied.<br>
+ * Rules are compiled once by the {@link RewriteRuleEngine} when filter is created,
+ * or could be replaced while proxy is running (see {@link ReloadableRewriteRules}).
  *
  */
 public class CustomRsFilter implements ResponseFilter {
-    
-    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
-    private List<RewriteItem> rewrites = new ArrayList<>();
+    private final ReloadableRewriteRules rules;
 
-    /**
-     * Update response headers
-     * @param rs HttpResponse
-     * @param headers List&lt;HeaderItem&gt;
-     */
-    private void applyHeaders(HttpResponse rs, List<HeaderItem> headers) {
-        for (HeaderItem headerItem : headers) {
-            LOGGER.debug("Rewrite header: {}", headerItem);
-            switch (headerItem.getMethod()) {
-            case ADD:
-                rs.headers().add(headerItem.getHeader().getKey(), headerItem.getHeader().getValue());
-                break;
-            case REMOVE:
-                rs.headers().remove(headerItem.getHeader().getKey());
-                break;
-            case UPDATE:
-                rs.headers().set(headerItem.getHeader().getKey(), headerItem.getHeader().getValue());
-                break;
-            default:
-                break;
-            }
-        }
+    public CustomRsFilter(List<RewriteItem> rewrites) {
+        this.rules = ReloadableRewriteRules.of(rewrites);
     }
 
-    public CustomRsFilter(List<RewriteItem> rewrites) {
-        this.rewrites = rewrites;
+    public CustomRsFilter(ReloadableRewriteRules rules) {
+        this.rules = rules;
     }
 
     @Override
     public void filterResponse(HttpResponse response, HttpMessageContents contents, HttpMessageInfo messageInfo) {
-        if (rewrites.isEmpty()) {
-            return;
-        }
-
-        String reqUrl = messageInfo.getOriginalUrl();
-        for (RewriteItem rewriteItem : rewrites) {
-            if (reqUrl.matches(rewriteItem.getHost())) {
-                // headers rewrite
-                LOGGER.debug("Rewrite rule will be applied for host: {}", reqUrl);
-                applyHeaders(response, rewriteItem.getHeaders());
+        rules.getEngine().apply(messageInfo.getOriginalUrl(), response.headers(), contents);
+    }
 
-                // body rewrite
-                String content = contents.getTextContents();
-                String replacedContent = content.replaceAll(rewriteItem.getRegex(), rewriteItem.getReplacement());
-                contents.setTextContents(replacedContent);
-            }
-        }
+    /**
+     * @return rules of the filter
+     */
+    public ReloadableRewriteRules getRules() {
+        return rules;
+    }
 
+    /**
+     * Get profiling counters of the rules
+     *
+     * @return {@link List} of {@link RewriteRuleStats}
+     */
+    public List<RewriteRuleStats> getStatistics() {
+        return rules.getStatistics();
     }
 
 }
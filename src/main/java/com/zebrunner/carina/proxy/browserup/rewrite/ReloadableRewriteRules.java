@@ -0,0 +1,223 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rewrite rules, that could be replaced while proxy is running.
+ * <p>
+ * Rules are compiled to the {@link RewriteRuleEngine} before publication, and published by the swap
+ * of the {@link AtomicReference}, so filters ({@link CustomRqFilter}, {@link CustomRsFilter}) get the consistent
+ * snapshot of the rules per message and never wait for the update.
+ * <p>
+ * Rules could be loaded from the JSON file and reloaded when the file is changed
+ * (see {@link #watch(Path)}). File should contain an array of rules:
+ * <pre>
+ * [
+ *   {
+ *     "host": ".*example\\.com.*",
+ *     "regex": "cdn\\.example\\.com",
+ *     "replacement": "cdn.example.org",
+ *     "headers": [ { "method": "UPDATE", "name": "Cache-Control", "value": "no-cache" } ]
+ *   }
+ * ]
+ * </pre>
+ * {@code regex}, {@code replacement} and {@code headers} are optional. Changed file is read and compiled by the watcher thread,
+ * if it is incorrect, error is logged and previous rules are kept.
+ */
+public final class ReloadableRewriteRules implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // editors and copy tools could write the file in several steps, so events are collected during this delay
+    private static final long RELOAD_DELAY_MILLIS = 100;
+
+    private final AtomicReference<RewriteRuleEngine> engine;
+    private final Path file;
+    private WatchService watchService = null;
+
+    private ReloadableRewriteRules(RewriteRuleEngine engine, Path file) {
+        this.engine = new AtomicReference<>(engine);
+        this.file = file;
+    }
+
+    /**
+     * Create rules, that could be replaced only by {@link #update(List)}
+     *
+     * @param rewrites {@link List} of {@link RewriteItem}. Changes of the list and its items after the call are not applied
+     * @return {@link ReloadableRewriteRules}
+     */
+    public static ReloadableRewriteRules of(List<RewriteItem> rewrites) {
+        return new ReloadableRewriteRules(RewriteRuleEngine.compile(rewrites), null);
+    }
+
+    /**
+     * Load rules from the JSON file and reload them when file is changed
+     *
+     * @param file {@link Path} to the JSON file with rules
+     * @return {@link ReloadableRewriteRules}, that should be closed to stop watching
+     * @throws UncheckedIOException if file could not be read or watched
+     * @throws IllegalArgumentException if file contains incorrect rules
+     */
+    public static ReloadableRewriteRules watch(Path file) {
+        Path path = file.toAbsolutePath();
+        ReloadableRewriteRules rules;
+        WatchService watchService = null;
+        try {
+            rules = new ReloadableRewriteRules(RewriteRuleEngine.compile(read(path)), path);
+            watchService = FileSystems.getDefault().newWatchService();
+            path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException ce) {
+                    e.addSuppressed(ce);
+                }
+            }
+            throw new UncheckedIOException(String.format("Could not watch rewrite rules file '%s'.", path), e);
+        }
+        WatchService service = watchService;
+        rules.watchService = service;
+        Thread thread = new Thread(() -> rules.watchLoop(service), "carina-rewrite-rules-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return rules;
+    }
+
+    /**
+     * Read rules from the JSON file
+     *
+     * @param file {@link Path} to the JSON file with rules (see class description)
+     * @return {@link List} of {@link RewriteItem}
+     * @throws IOException if file could not be read or parsed
+     * @throws IllegalArgumentException if file contains incorrect rules
+     */
+    public static List<RewriteItem> read(Path file) throws IOException {
+        JsonNode root = MAPPER.readTree(file.toFile());
+        if (root == null || !root.isArray()) {
+            throw new IllegalArgumentException(String.format("Rewrite rules file '%s' should contain an array of rules.", file));
+        }
+        List<RewriteItem> rewrites = new ArrayList<>(root.size());
+        for (JsonNode rule : root) {
+            String host = rule.path("host").asText(null);
+            if (host == null) {
+                throw new IllegalArgumentException(String.format("Rule without host in the rewrite rules file '%s': %s", file, rule));
+            }
+            List<HeaderItem> headers = new ArrayList<>();
+            for (JsonNode header : rule.path("headers")) {
+                String method = header.path("method").asText("");
+                String name = header.path("name").asText(null);
+                if (name == null) {
+                    throw new IllegalArgumentException(String.format("Header without name in the rewrite rules file '%s': %s", file, rule));
+                }
+                headers.add(new HeaderItem(HeaderMethod.valueOf(method.toUpperCase(Locale.ROOT)),
+                        Pair.of(name, header.path("value").asText(null))));
+            }
+            rewrites.add(new RewriteItem(host, rule.path("regex").asText(""), rule.path("replacement").asText(""), headers));
+        }
+        return rewrites;
+    }
+
+    /**
+     * Get current rules. Should be called once per message, so the whole message is processed by the same rules
+     *
+     * @return {@link RewriteRuleEngine}
+     */
+    public RewriteRuleEngine getEngine() {
+        return engine.get();
+    }
+
+    /**
+     * Get profiling counters of the current rules. Counters are not carried over to the replaced rules
+     *
+     * @return {@link List} of {@link RewriteRuleStats}
+     */
+    public List<RewriteRuleStats> getStatistics() {
+        return engine.get().getStatistics();
+    }
+
+    /**
+     * Replace rules
+     *
+     * @param rewrites {@link List} of {@link RewriteItem}
+     * @throws java.util.regex.PatternSyntaxException if host or body regex of the rule is incorrect (rules are not replaced)
+     */
+    public void update(List<RewriteItem> rewrites) {
+        engine.set(RewriteRuleEngine.compile(rewrites));
+    }
+
+    /**
+     * Stop watching the file. Current rules remain in use
+     */
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close watch service of the rewrite rules: {}", e.getMessage());
+            }
+            watchService = null;
+        }
+    }
+
+    private void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                boolean changed = collectChanges(service.take());
+                if (changed) {
+                    // wait for the rest of the events of the same change
+                    TimeUnit.MILLISECONDS.sleep(RELOAD_DELAY_MILLIS);
+                    for (WatchKey key = service.poll(); key != null; key = service.poll()) {
+                        collectChanges(key);
+                    }
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            LOGGER.debug("Watching of the rewrite rules file '{}' is stopped.", file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean collectChanges(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        try {
+            engine.set(RewriteRuleEngine.compile(read(file)));
+            LOGGER.info("Rewrite rules are reloaded from '{}'.", file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not reload rewrite rules from '{}', previous rules are kept: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import com.browserup.bup.util.HttpMessageContents;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.AsciiString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link RewriteItem}s compiled for the {@link CustomRqFilter} and {@link CustomRsFilter}.
+ * <p>
+ * Host of the {@link RewriteItem} is a regex, that should match the whole URL (as {@link String#matches(String)}).
+ * Literal hosts (for example {@code http://example.com/}) are looked up in the hash map,
+ * hosts like {@code .*example\.com.*} (literal surrounded by {@code .*}) are found in the URL by the rolling hash
+ * of the literals of the same length, so these rules cost the same regardless of their number.
+ * Other hosts are matched by the precompiled {@link Pattern}s.<br>
+ * Header names are converted to {@link AsciiString}s once, and the body is read and written only when
+ * there is matched rule with the body regex.
+ * <p>
+ * Rules are compiled once, so changes of the {@link RewriteItem}s after compilation are not applied.<br>
+ * Each compiled rule is profiled (see {@link #getStatistics()}), so expensive rules could be found.
+ */
+public final class RewriteRuleEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final String ANY = ".*";
+
+    private final Rule[] rules;
+    private final Map<String, List<Rule>> exactRules = new HashMap<>();
+    private final List<LiteralIndex> containsIndexes = new ArrayList<>();
+    private final List<Rule> containsRules = new ArrayList<>();
+    private final List<Rule> regexRules = new ArrayList<>();
+
+    private RewriteRuleEngine(List<RewriteItem> rewrites) {
+        this.rules = new Rule[rewrites.size()];
+        Map<Integer, LiteralIndex> indexesByLength = new TreeMap<>();
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = new Rule(i, rewrites.get(i));
+            rules[i] = rule;
+            String host = rule.item.getHost();
+            String literal = toLiteral(host);
+            if (literal != null) {
+                exactRules.computeIfAbsent(literal, k -> new ArrayList<>(1)).add(rule);
+                continue;
+            }
+            literal = host.length() > 4 && host.startsWith(ANY) && host.endsWith(ANY)
+                    ? toLiteral(host.substring(ANY.length(), host.length() - ANY.length()))
+                    : null;
+            if (literal != null && !literal.isEmpty()) {
+                rule.literal = literal;
+                containsRules.add(rule);
+                indexesByLength.computeIfAbsent(literal.length(), LiteralIndex::new).add(rule);
+            } else {
+                regexRules.add(rule);
+            }
+        }
+        containsIndexes.addAll(indexesByLength.values());
+    }
+
+    /**
+     * Compile rewrite rules
+     *
+     * @param rewrites {@link List} of {@link RewriteItem}
+     * @return {@link RewriteRuleEngine}
+     * @throws java.util.regex.PatternSyntaxException if host or body regex of the rule is incorrect
+     */
+    public static RewriteRuleEngine compile(List<RewriteItem> rewrites) {
+        return new RewriteRuleEngine(rewrites);
+    }
+
+    /**
+     * @return true if there are no rules
+     */
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * @return true if there is a rule with the body regex
+     */
+    public boolean hasBodyRules() {
+        for (Rule rule : rules) {
+            if (rule.body != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get profiling counters of the rules
+     *
+     * @return {@link List} of {@link RewriteRuleStats} in the order the rules were specified
+     */
+    public List<RewriteRuleStats> getStatistics() {
+        List<RewriteRuleStats> statistics = new ArrayList<>(rules.length);
+        for (Rule rule : rules) {
+            statistics.add(rule.stats);
+        }
+        return statistics;
+    }
+
+    /**
+     * Get rules, that should be applied to the URL
+     *
+     * @param url request URL
+     * @return {@link List} of {@link RewriteItem}s in the order they were specified
+     */
+    public List<RewriteItem> match(String url) {
+        BitSet matched = findMatched(url);
+        if (matched.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<RewriteItem> items = new ArrayList<>(matched.cardinality());
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            items.add(rules[i].item);
+        }
+        return items;
+    }
+
+    /**
+     * Apply header and body rewrites of the rules, that match the URL
+     *
+     * @param url      request URL
+     * @param headers  {@link HttpHeaders} of the request or response
+     * @param contents {@link HttpMessageContents} of the request or response, or null if message is not aggregated
+     *                 (only headers are rewritten)
+     */
+    public void apply(String url, HttpHeaders headers, HttpMessageContents contents) {
+        if (rules.length == 0) {
+            return;
+        }
+        BitSet matched = findMatched(url);
+        if (matched.isEmpty()) {
+            return;
+        }
+        boolean hasBodyRule = false;
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            Rule rule = rules[i];
+            LOGGER.debug("Rewrite rule will be applied for host: {}", url);
+            long start = System.nanoTime();
+            rule.stats.recordMatch();
+            rule.applyHeaders(headers);
+            rule.stats.recordTime(System.nanoTime() - start);
+            hasBodyRule |= rule.body != null;
+        }
+        if (!hasBodyRule || contents == null) {
+            return;
+        }
+        String content = contents.getTextContents();
+        boolean changed = false;
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            Rule rule = rules[i];
+            if (rule.body == null) {
+                continue;
+            }
+            long start = System.nanoTime();
+            int length = content.length();
+            Matcher matcher = rule.body.matcher(content);
+            long replaced = 0;
+            if (matcher.find()) {
+                StringBuilder sb = new StringBuilder(length);
+                // same as Matcher.replaceAll, but continues from the first found match
+                do {
+                    replaced += matcher.end() - matcher.start();
+                    matcher.appendReplacement(sb, rule.replacement);
+                } while (matcher.find());
+                matcher.appendTail(sb);
+                content = sb.toString();
+                changed = true;
+            }
+            rule.stats.recordBody(length, replaced);
+            rule.stats.recordTime(System.nanoTime() - start);
+        }
+        if (changed) {
+            contents.setTextContents(content);
+        }
+    }
+
+    /**
+     * Apply only header rewrites of the rules, that match the URL
+     *
+     * @param url     request URL
+     * @param headers {@link HttpHeaders} of the request or response
+     * @return {@link List} of matched {@link RewriteItem}s in the order they were specified
+     */
+    public List<RewriteItem> applyHeaders(String url, HttpHeaders headers) {
+        if (rules.length == 0) {
+            return Collections.emptyList();
+        }
+        BitSet matched = findMatched(url);
+        if (matched.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<RewriteItem> items = new ArrayList<>(matched.cardinality());
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            LOGGER.debug("Rewrite rule will be applied for host: {}", url);
+            Rule rule = rules[i];
+            long start = System.nanoTime();
+            rule.stats.recordMatch();
+            rule.applyHeaders(headers);
+            rule.stats.recordTime(System.nanoTime() - start);
+            items.add(rule.item);
+        }
+        return items;
+    }
+
+    private BitSet findMatched(String url) {
+        BitSet matched = new BitSet(rules.length);
+        List<Rule> exact = exactRules.get(url);
+        if (exact != null) {
+            for (Rule rule : exact) {
+                matched.set(rule.index);
+            }
+        }
+        if (!containsRules.isEmpty()) {
+            if (hasLineTerminator(url)) {
+                // '.' does not match line terminators, so literal search is not the same as the regex
+                for (Rule rule : containsRules) {
+                    if (rule.matchesHost(url)) {
+                        matched.set(rule.index);
+                    }
+                }
+            } else {
+                for (LiteralIndex index : containsIndexes) {
+                    index.find(url, matched);
+                }
+            }
+        }
+        for (Rule rule : regexRules) {
+            if (rule.matchesHost(url)) {
+                matched.set(rule.index);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Get string, that is matched by the regex
+     *
+     * @param regex regex
+     * @return literal, or null if regex has metacharacters (except escaped ones)
+     */
+    static String toLiteral(String regex) {
+        StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                // backslash before non-alphabetic character always means the character itself
+                if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    return null;
+                }
+                literal.append(regex.charAt(++i));
+            } else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    private static boolean hasLineTerminator(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Literals of the same length, indexed by the {@link String#hashCode()}, that is computed for each URL window
+     * by the rolling hash
+     */
+    private static final class LiteralIndex {
+        private final int length;
+        // 31^(length - 1)
+        private final int highestPower;
+        private final Map<Integer, List<Rule>> rulesByHash = new HashMap<>();
+
+        private LiteralIndex(int length) {
+            this.length = length;
+            int power = 1;
+            for (int i = 1; i < length; i++) {
+                power *= 31;
+            }
+            this.highestPower = power;
+        }
+
+        private void add(Rule rule) {
+            rulesByHash.computeIfAbsent(rule.literal.hashCode(), k -> new ArrayList<>(1)).add(rule);
+        }
+
+        private void find(String url, BitSet matched) {
+            if (url.length() < length) {
+                return;
+            }
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + url.charAt(i);
+            }
+            for (int start = 0; ; start++) {
+                List<Rule> candidates = rulesByHash.get(hash);
+                if (candidates != null) {
+                    for (Rule rule : candidates) {
+                        if (!matched.get(rule.index) && url.regionMatches(start, rule.literal, 0, length)) {
+                            matched.set(rule.index);
+                        }
+                    }
+                }
+                if (start + length == url.length()) {
+                    return;
+                }
+                hash = 31 * (hash - url.charAt(start) * highestPower) + url.charAt(start + length);
+            }
+        }
+    }
+
+    private static final class Rule {
+        private final int index;
+        private final RewriteItem item;
+        private final Pattern host;
+        private final HeaderOperation[] headers;
+        private final Pattern body;
+        private final String replacement;
+        private final RewriteRuleStats stats;
+        private String literal;
+
+        private Rule(int index, RewriteItem item) {
+            this.index = index;
+            this.item = item;
+            this.host = Pattern.compile(item.getHost());
+            List<HeaderItem> headerItems = item.getHeaders() != null ? item.getHeaders() : Collections.emptyList();
+            this.headers = new HeaderOperation[headerItems.size()];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = new HeaderOperation(headerItems.get(i));
+            }
+            // empty regex means that body should not be rewritten
+            String regex = item.getRegex();
+            this.body = regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+            this.replacement = item.getReplacement() != null ? item.getReplacement() : "";
+            this.stats = new RewriteRuleStats(item);
+        }
+
+        private boolean matchesHost(String url) {
+            long start = System.nanoTime();
+            boolean matches = host.matcher(url).matches();
+            stats.recordTime(System.nanoTime() - start);
+            return matches;
+        }
+
+        private void applyHeaders(HttpHeaders httpHeaders) {
+            for (HeaderOperation header : headers) {
+                LOGGER.debug("Rewrite header: {}", header.item);
+                header.apply(httpHeaders);
+            }
+        }
+    }
+
+    private static final class HeaderOperation {
+        private final HeaderItem item;
+        private final HeaderMethod method;
+        private final AsciiString name;
+        private final String value;
+
+        private HeaderOperation(HeaderItem item) {
+            this.item = item;
+            this.method = item.getMethod();
+            this.name = AsciiString.cached(item.getHeader().getKey());
+            this.value = item.getHeader().getValue();
+        }
+
+        private void apply(HttpHeaders headers) {
+            switch (method) {
+            case ADD:
+                headers.add(name, value);
+                break;
+            case REMOVE:
+                headers.remove(name);
+                break;
+            case UPDATE:
+                headers.set(name, value);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Profiling counters of the {@link RewriteItem}, compiled by the {@link RewriteRuleEngine}.<br>
+ * Counters are updated on the filter hot path by many threads without contention, values are read as the sum
+ * of the stripes, so they could be slightly inconsistent with each other while traffic is processed.
+ * <p>
+ * Body is rewritten as the text, so scanned and replaced amounts are in characters.
+ * Time includes host regex matching (for the hosts, that are not literals), header rewrites and body rewrites.
+ */
+public final class RewriteRuleStats {
+    private final RewriteItem item;
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder charsScanned = new LongAdder();
+    private final LongAdder charsReplaced = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    RewriteRuleStats(RewriteItem item) {
+        this.item = item;
+    }
+
+    void recordMatch() {
+        matches.increment();
+    }
+
+    void recordBody(long scanned, long replaced) {
+        charsScanned.add(scanned);
+        charsReplaced.add(replaced);
+    }
+
+    void recordTime(long elapsedNanos) {
+        nanos.add(elapsedNanos);
+    }
+
+    public RewriteItem getItem() {
+        return item;
+    }
+
+    /**
+     * @return number of the URLs, the rule was applied to
+     */
+    public long getMatches() {
+        return matches.sum();
+    }
+
+    /**
+     * @return number of the body characters, searched by the body regex
+     */
+    public long getCharsScanned() {
+        return charsScanned.sum();
+    }
+
+    /**
+     * @return number of the body characters, matched by the body regex and replaced
+     */
+    public long getCharsReplaced() {
+        return charsReplaced.sum();
+    }
+
+    /**
+     * @return cumulative time, spent on the rule, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("matches=%d, scanned=%d, replaced=%d, time=%d ms, rule=%s", getMatches(), getCharsScanned(),
+                getCharsReplaced(), TimeUnit.NANOSECONDS.toMillis(getNanos()), item);
+    }
+}
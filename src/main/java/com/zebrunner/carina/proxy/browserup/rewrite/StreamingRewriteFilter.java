@@ -0,0 +1,195 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import com.browserup.bup.exception.UnsupportedCharsetException;
+import com.browserup.bup.filters.HttpsAwareFiltersAdapter;
+import com.browserup.bup.util.BrowserUpHttpUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response rewrite filter, that applies {@link RewriteItem}s to the body chunk by chunk, directly on the {@link ByteBuf}s
+ * (see {@link ByteBufReplacer}), so the response is not aggregated and decoded to the {@link String}
+ * like in {@link CustomRsFilter}: large responses pass through in bounded memory and the first bytes reach the browser sooner.
+ * <p>
+ * Body regex of the rules should be literal (for example {@code cdn\.example\.com}), and replacement should not refer
+ * to the groups other than {@code $0}. Headers of the rules are applied as in {@link CustomRsFilter}.<br>
+ * Only textual responses are rewritten. {@code Accept-Encoding} of the matched requests is set to {@code identity},
+ * so the body could be rewritten without decompression; compressed responses are passed as is.
+ * <p>
+ * Should be added via {@link com.browserup.bup.BrowserUpProxy#addLastHttpFilterFactory(org.littleshoot.proxy.HttpFiltersSource)}
+ */
+public class StreamingRewriteFilter extends HttpFiltersSourceAdapter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final RewriteRuleEngine engine;
+    // literal target and replacement of the rules with body regex
+    private final Map<RewriteItem, String[]> replacements = new IdentityHashMap<>();
+
+    /**
+     * @param rewrites {@link List} of {@link RewriteItem}
+     * @throws IllegalArgumentException if body regex of the rule is not literal or replacement refers to the groups
+     */
+    public StreamingRewriteFilter(List<RewriteItem> rewrites) {
+        for (RewriteItem item : rewrites) {
+            if (item.getRegex() != null && !item.getRegex().isEmpty()) {
+                replacements.put(item, toLiteralReplacement(item));
+            }
+        }
+        this.engine = RewriteRuleEngine.compile(rewrites);
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        if (engine.isEmpty()) {
+            return null;
+        }
+        return new Filters(originalRequest, ctx);
+    }
+
+    private boolean hasBodyRule(RewriteItem item) {
+        return replacements.containsKey(item);
+    }
+
+    /**
+     * Get target and replacement of the rule
+     *
+     * @param item {@link RewriteItem} with body regex
+     * @return array of target and replacement
+     */
+    private static String[] toLiteralReplacement(RewriteItem item) {
+        String target = RewriteRuleEngine.toLiteral(item.getRegex());
+        if (target == null) {
+            throw new IllegalArgumentException(String.format("Body regex of the rule is not literal: %s", item));
+        }
+        String replacement = item.getReplacement() != null ? item.getReplacement() : "";
+        StringBuilder literal = new StringBuilder(replacement.length());
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\' && i + 1 < replacement.length()) {
+                literal.append(replacement.charAt(++i));
+            } else if (c == '$') {
+                if (i + 1 < replacement.length() && replacement.charAt(i + 1) == '0') {
+                    literal.append(target);
+                    i++;
+                } else {
+                    throw new IllegalArgumentException(String.format("Replacement of the rule refers to the group: %s", item));
+                }
+            } else {
+                literal.append(c);
+            }
+        }
+        return new String[] { target, literal.toString() };
+    }
+
+    private final class Filters extends HttpsAwareFiltersAdapter {
+        private ByteBufReplacer replacer = null;
+
+        private Filters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            super(originalRequest, ctx);
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            if (httpObject instanceof HttpRequest &&
+                    engine.match(getOriginalUrl()).stream().anyMatch(StreamingRewriteFilter.this::hasBodyRule)) {
+                ((HttpRequest) httpObject).headers().set(HttpHeaderNames.ACCEPT_ENCODING, HttpHeaderValues.IDENTITY);
+            }
+            return null;
+        }
+
+        @Override
+        public HttpObject serverToProxyResponse(HttpObject httpObject) {
+            if (httpObject instanceof HttpResponse) {
+                HttpResponse response = (HttpResponse) httpObject;
+                replacer = createReplacer(engine.applyHeaders(getOriginalUrl(), response.headers()), response);
+                if (replacer == null) {
+                    return httpObject;
+                }
+                if (httpObject instanceof FullHttpResponse) {
+                    // response is aggregated by the other filters
+                    FullHttpResponse full = (FullHttpResponse) httpObject;
+                    ByteBuf content = replacer.process(full.content());
+                    content.writeBytes(replacer.finish());
+                    FullHttpResponse rewritten = full.replace(content);
+                    HttpUtil.setContentLength(rewritten, content.readableBytes());
+                    replacer = null;
+                    return rewritten;
+                }
+                // length of the rewritten body is unknown
+                HttpUtil.setTransferEncodingChunked(response, true);
+                return httpObject;
+            }
+            if (replacer != null && httpObject instanceof HttpContent) {
+                ByteBuf content = replacer.process(((HttpContent) httpObject).content());
+                if (httpObject instanceof LastHttpContent) {
+                    content.writeBytes(replacer.finish());
+                    replacer = null;
+                    LastHttpContent last = new DefaultLastHttpContent(content);
+                    last.trailingHeaders().set(((LastHttpContent) httpObject).trailingHeaders());
+                    return last;
+                }
+                return new DefaultHttpContent(content);
+            }
+            return httpObject;
+        }
+
+        private ByteBufReplacer createReplacer(List<RewriteItem> matched, HttpResponse response) {
+            List<RewriteItem> bodyRules = new ArrayList<>();
+            for (RewriteItem item : matched) {
+                if (hasBodyRule(item)) {
+                    bodyRules.add(item);
+                }
+            }
+            if (bodyRules.isEmpty()) {
+                return null;
+            }
+            String contentEncoding = response.headers().get(HttpHeaderNames.CONTENT_ENCODING);
+            if (contentEncoding != null && !HttpHeaderValues.IDENTITY.contentEqualsIgnoreCase(contentEncoding)) {
+                LOGGER.debug("Response of '{}' is encoded ({}) and will not be rewritten.", getOriginalUrl(), contentEncoding);
+                return null;
+            }
+            String contentType = response.headers().get(HttpHeaderNames.CONTENT_TYPE);
+            if (!BrowserUpHttpUtil.hasTextualContent(contentType)) {
+                return null;
+            }
+            Charset charset = BrowserUpHttpUtil.DEFAULT_HTTP_CHARSET;
+            try {
+                Charset declared = BrowserUpHttpUtil.readCharsetInContentTypeHeader(contentType);
+                if (declared != null) {
+                    charset = declared;
+                }
+            } catch (UnsupportedCharsetException e) {
+                LOGGER.debug("Response of '{}' has unsupported charset and will not be rewritten: {}", getOriginalUrl(), contentType);
+                return null;
+            }
+            ByteBufReplacer bufReplacer = new ByteBufReplacer();
+            for (RewriteItem item : bodyRules) {
+                String[] replacement = replacements.get(item);
+                bufReplacer.add(replacement[0].getBytes(charset), replacement[1].getBytes(charset));
+            }
+            return bufReplacer;
+        }
+    }
+}
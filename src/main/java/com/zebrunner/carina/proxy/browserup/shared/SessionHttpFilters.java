@@ -0,0 +1,188 @@
+package com.zebrunner.carina.proxy.browserup.shared;
+
+import com.browserup.bup.filters.ModifiedRequestAwareFilter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Chain of the filters of one {@link SharedBrowserUpProxy} session for one request.<br>
+ * Follows the semantics of the BrowserUp filter chain: request and response are passed through the filters in order,
+ * the first filter that returns short-circuit response (or null response object) stops the chain,
+ * exceptions of the filter are logged and do not break the chain.
+ */
+final class SessionHttpFilters extends HttpFiltersAdapter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final List<HttpFilters> filters;
+
+    SessionHttpFilters(HttpRequest originalRequest, ChannelHandlerContext ctx, List<HttpFilters> filters) {
+        super(originalRequest, ctx);
+        this.filters = filters;
+    }
+
+    @Override
+    public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+        for (HttpFilters filter : filters) {
+            try {
+                HttpResponse response = filter.clientToProxyRequest(httpObject);
+                if (response != null) {
+                    return response;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Session filter threw exception in clientToProxyRequest", e);
+            }
+        }
+        if (httpObject instanceof HttpRequest) {
+            for (HttpFilters filter : filters) {
+                if (filter instanceof ModifiedRequestAwareFilter) {
+                    ((ModifiedRequestAwareFilter) filter).setModifiedHttpRequest((HttpRequest) httpObject);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public HttpResponse proxyToServerRequest(HttpObject httpObject) {
+        for (HttpFilters filter : filters) {
+            try {
+                HttpResponse response = filter.proxyToServerRequest(httpObject);
+                if (response != null) {
+                    return response;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Session filter threw exception in proxyToServerRequest", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public HttpObject serverToProxyResponse(HttpObject httpObject) {
+        HttpObject processedObject = httpObject;
+        for (HttpFilters filter : filters) {
+            try {
+                processedObject = filter.serverToProxyResponse(processedObject);
+                if (processedObject == null) {
+                    return null;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Session filter threw exception in serverToProxyResponse", e);
+            }
+        }
+        return processedObject;
+    }
+
+    @Override
+    public HttpObject proxyToClientResponse(HttpObject httpObject) {
+        HttpObject processedObject = httpObject;
+        for (HttpFilters filter : filters) {
+            try {
+                processedObject = filter.proxyToClientResponse(processedObject);
+                if (processedObject == null) {
+                    return null;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Session filter threw exception in proxyToClientResponse", e);
+            }
+        }
+        return processedObject;
+    }
+
+    @Override
+    public InetSocketAddress proxyToServerResolutionStarted(String resolvingServerHostAndPort) {
+        InetSocketAddress overrideAddress = null;
+        for (HttpFilters filter : filters) {
+            try {
+                InetSocketAddress address = filter.proxyToServerResolutionStarted(resolvingServerHostAndPort);
+                if (address != null) {
+                    overrideAddress = address;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Session filter threw exception in proxyToServerResolutionStarted", e);
+            }
+        }
+        return overrideAddress;
+    }
+
+    @Override
+    public void proxyToServerRequestSending() {
+        forEach(HttpFilters::proxyToServerRequestSending);
+    }
+
+    @Override
+    public void proxyToServerRequestSent() {
+        forEach(HttpFilters::proxyToServerRequestSent);
+    }
+
+    @Override
+    public void serverToProxyResponseTimedOut() {
+        forEach(HttpFilters::serverToProxyResponseTimedOut);
+    }
+
+    @Override
+    public void serverToProxyResponseReceiving() {
+        forEach(HttpFilters::serverToProxyResponseReceiving);
+    }
+
+    @Override
+    public void serverToProxyResponseReceived() {
+        forEach(HttpFilters::serverToProxyResponseReceived);
+    }
+
+    @Override
+    public void proxyToServerConnectionQueued() {
+        forEach(HttpFilters::proxyToServerConnectionQueued);
+    }
+
+    @Override
+    public void proxyToServerResolutionFailed(String hostAndPort) {
+        forEach(filter -> filter.proxyToServerResolutionFailed(hostAndPort));
+    }
+
+    @Override
+    public void proxyToServerResolutionSucceeded(String serverHostAndPort, InetSocketAddress resolvedRemoteAddress) {
+        forEach(filter -> filter.proxyToServerResolutionSucceeded(serverHostAndPort, resolvedRemoteAddress));
+    }
+
+    @Override
+    public void proxyToServerConnectionStarted() {
+        forEach(HttpFilters::proxyToServerConnectionStarted);
+    }
+
+    @Override
+    public void proxyToServerConnectionSSLHandshakeStarted() {
+        forEach(HttpFilters::proxyToServerConnectionSSLHandshakeStarted);
+    }
+
+    @Override
+    public void proxyToServerConnectionFailed() {
+        forEach(HttpFilters::proxyToServerConnectionFailed);
+    }
+
+    @Override
+    public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+        forEach(filter -> filter.proxyToServerConnectionSucceeded(serverCtx));
+    }
+
+    private void forEach(Consumer<HttpFilters> action) {
+        for (HttpFilters filter : filters) {
+            try {
+                action.accept(filter);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Session filter threw exception", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.zebrunner.carina.proxy.browserup.shared;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.util.function.IntConsumer;
+
+/**
+ * Dedicated listener port of the {@link SharedBrowserUpProxy} session.<br>
+ * Every accepted connection is relayed as is to the shared engine. The local port of the relayed connection
+ * (that engine sees as the client port) is reported before any byte is relayed, so the engine could find the session
+ * of the connection.
+ */
+final class SessionListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final Channel serverChannel;
+    private final ChannelGroup connections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private SessionListener(EventLoopGroup group, int port, InetSocketAddress engineAddress, IntConsumer onConnected,
+            IntConsumer onDisconnected) {
+        this.serverChannel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        connections.add(channel);
+                        channel.pipeline().addLast(new FrontendHandler(engineAddress, onConnected, onDisconnected));
+                    }
+                })
+                .bind(port)
+                .syncUninterruptibly()
+                .channel();
+    }
+
+    /**
+     * Start listening on the port
+     *
+     * @param group          event loop group for the listener and relayed connections
+     * @param port           port to listen on, 0 for the dynamic port
+     * @param engineAddress  address of the shared engine
+     * @param onConnected    consumes local port of the relayed connection before the relaying starts
+     * @param onDisconnected consumes local port of the relayed connection after it was closed
+     * @return {@link SessionListener}
+     */
+    static SessionListener bind(EventLoopGroup group, int port, InetSocketAddress engineAddress, IntConsumer onConnected,
+            IntConsumer onDisconnected) {
+        return new SessionListener(group, port, engineAddress, onConnected, onDisconnected);
+    }
+
+    int getPort() {
+        return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    /**
+     * Stop listening and close all relayed connections
+     */
+    void close() {
+        serverChannel.close().syncUninterruptibly();
+        connections.close().awaitUninterruptibly();
+    }
+
+    private static void closeOnFlush(Channel channel) {
+        if (channel.isActive()) {
+            channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static final class FrontendHandler extends ChannelInboundHandlerAdapter {
+        private final InetSocketAddress engineAddress;
+        private final IntConsumer onConnected;
+        private final IntConsumer onDisconnected;
+        private Channel outboundChannel;
+
+        FrontendHandler(InetSocketAddress engineAddress, IntConsumer onConnected, IntConsumer onDisconnected) {
+            this.engineAddress = engineAddress;
+            this.onConnected = onConnected;
+            this.onDisconnected = onDisconnected;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            Channel inboundChannel = ctx.channel();
+            new Bootstrap()
+                    .group(inboundChannel.eventLoop())
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.AUTO_READ, false)
+                    .handler(new BackendHandler(inboundChannel))
+                    .connect(engineAddress)
+                    .addListener((ChannelFutureListener) future -> {
+                        if (!future.isSuccess()) {
+                            LOGGER.debug("Unable to connect to the shared proxy engine: {}", future.cause().getMessage());
+                            inboundChannel.close();
+                            return;
+                        }
+                        outboundChannel = future.channel();
+                        int localPort = ((InetSocketAddress) outboundChannel.localAddress()).getPort();
+                        onConnected.accept(localPort);
+                        outboundChannel.closeFuture().addListener(closeFuture -> onDisconnected.accept(localPort));
+                        inboundChannel.read();
+                    });
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            outboundChannel.writeAndFlush(msg).addListener((ChannelFutureListener) future -> {
+                if (future.isSuccess()) {
+                    ctx.channel().read();
+                } else {
+                    future.channel().close();
+                }
+            });
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (outboundChannel != null) {
+                closeOnFlush(outboundChannel);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.debug("Session listener connection failed: {}", cause.getMessage());
+            closeOnFlush(ctx.channel());
+        }
+    }
+
+    private static final class BackendHandler extends ChannelInboundHandlerAdapter {
+        private final Channel inboundChannel;
+
+        BackendHandler(Channel inboundChannel) {
+            this.inboundChannel = inboundChannel;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            ctx.read();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            inboundChannel.writeAndFlush(msg).addListener((ChannelFutureListener) future -> {
+                if (future.isSuccess()) {
+                    ctx.channel().read();
+                } else {
+                    future.channel().close();
+                }
+            });
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            closeOnFlush(inboundChannel);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.debug("Shared proxy engine connection failed: {}", cause.getMessage());
+            closeOnFlush(ctx.channel());
+        }
+    }
+}
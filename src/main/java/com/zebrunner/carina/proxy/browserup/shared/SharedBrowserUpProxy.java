@@ -0,0 +1,321 @@
+package com.zebrunner.carina.proxy.browserup.shared;
+
+import com.browserup.bup.filters.HarCaptureFilter;
+import com.browserup.bup.filters.HttpConnectHarCaptureFilter;
+import com.browserup.bup.filters.RequestFilter;
+import com.browserup.bup.filters.RequestFilterAdapter;
+import com.browserup.bup.filters.ResponseFilter;
+import com.browserup.bup.filters.ResponseFilterAdapter;
+import com.browserup.bup.proxy.CaptureType;
+import com.browserup.harreader.model.Har;
+import com.browserup.harreader.model.HarCreatorBrowser;
+import com.browserup.harreader.model.HarLog;
+import com.browserup.harreader.model.HarPage;
+import com.browserup.harreader.model.HarPageTiming;
+import com.zebrunner.carina.proxy.IProxy;
+import com.zebrunner.carina.proxy.IProxyInfo;
+import com.zebrunner.carina.proxy.ProxyInfo;
+import com.zebrunner.carina.utils.NetworkUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link IProxy} implementation, that is a session of the {@link SharedBrowserUpProxyServer}.<br>
+ * Instead of the own BrowserUp proxy server with ports, thread pools and capture state,
+ * session keeps only its filters and HAR, so many sessions could be served by one engine.
+ * <p>
+ * Session could be identified by the engine:<br>
+ * {@link Mode#LISTENER} - by the dedicated listener port (the port passed to {@link #start(int)}),
+ * whose connections are relayed to the engine. Works for any client, including browsers<br>
+ * {@link Mode#PROXY_AUTH} - by proxy-auth username (see {@link #getUsername()}), client should send it
+ * in <b>Proxy-Authorization: Basic</b> header to the engine port. Port passed to {@link #start(int)} is not used.
+ * Credentials are not a part of {@link IProxyInfo}, and browsers do not send them by the proxy settings,
+ * so the session in this mode could not be used for the Selenium proxy (see {@link com.zebrunner.carina.proxy.ProxyUtils#getSeleniumProxy()})
+ * and by the system proxy: every request will get {@code 407}. Clients should be configured with {@link #getUsername()} manually
+ * <p>
+ * Session does not support rewrite rules, streaming HAR capture, shared response cache, upstream proxies (except the engine-wide
+ * chained proxy) and traffic archive of the {@link com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy}.
+ * <p>
+ * Engine-wide settings (for example, chained proxy) could be set via
+ * {@link SharedBrowserUpProxyServer#setServerConfigurer(java.util.function.Consumer)}.
+ * <p>
+ * Session is not a {@link com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy} and has no own
+ * {@link com.browserup.bup.BrowserUpProxy}, so in shared mode the proxy of the thread should be obtained via
+ * {@code ProxyPool.getOriginal(SharedBrowserUpProxy.class)}.
+ */
+public class SharedBrowserUpProxy implements IProxy {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final AtomicLong SESSION_COUNTER = new AtomicLong();
+
+    /**
+     * The way the session is identified by the engine
+     */
+    public enum Mode {
+        LISTENER,
+        PROXY_AUTH
+    }
+
+    private final SharedBrowserUpProxyServer server;
+    private final Mode mode;
+    private final String username;
+    private final List<HttpFiltersSource> filterFactories = new CopyOnWriteArrayList<>();
+    private final AtomicInteger harPageCount = new AtomicInteger();
+    private volatile Set<CaptureType> harCaptureTypes = EnumSet.of(CaptureType.REQUEST_HEADERS, CaptureType.REQUEST_COOKIES,
+            CaptureType.RESPONSE_HEADERS, CaptureType.RESPONSE_COOKIES);
+    private volatile Har har = null;
+    private volatile String currentHarPageRef = null;
+    private volatile SessionListener listener = null;
+    protected volatile IProxyInfo proxyInfo = null;
+
+    public SharedBrowserUpProxy() {
+        this(Mode.LISTENER);
+    }
+
+    public SharedBrowserUpProxy(Mode mode) {
+        this.server = SharedBrowserUpProxyServer.getInstance();
+        this.mode = mode;
+        long id = SESSION_COUNTER.incrementAndGet();
+        this.username = mode == Mode.PROXY_AUTH ? "carina-session-" + id : null;
+    }
+
+    @Override
+    public synchronized IProxyInfo start(int port) {
+        if (isStarted()) {
+            throw new IllegalStateException("Proxy already started.");
+        }
+        server.register(this);
+        try {
+            if (mode == Mode.LISTENER) {
+                listener = server.bindListener(this, port);
+                proxyInfo = new ProxyInfo(NetworkUtil.getIpAddress(), listener.getPort());
+            } else {
+                proxyInfo = new ProxyInfo(NetworkUtil.getIpAddress(), server.getPort());
+            }
+        } catch (RuntimeException e) {
+            server.unregister(this);
+            throw e;
+        }
+        LOGGER.info("Shared BrowserUp proxy session started on port {}", proxyInfo.getPort());
+        return proxyInfo;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isStarted()) {
+            throw new IllegalStateException("Proxy was not started.");
+        }
+        try {
+            if (listener != null) {
+                listener.close();
+            }
+        } finally {
+            listener = null;
+            proxyInfo = null;
+            server.unregister(this);
+        }
+    }
+
+    @Override
+    public IProxyInfo getInfo() {
+        IProxyInfo info = proxyInfo;
+        if (info == null) {
+            throw new IllegalStateException("Proxy was not started.");
+        }
+        return info;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return proxyInfo != null;
+    }
+
+    /**
+     * Get proxy-auth username of the session
+     *
+     * @return username for {@link Mode#PROXY_AUTH} mode, null otherwise
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Get engine, that serves this session
+     *
+     * @return {@link SharedBrowserUpProxyServer}
+     */
+    public SharedBrowserUpProxyServer getServer() {
+        return server;
+    }
+
+    /**
+     * Add request filter of the session, it will be executed before already added filters
+     *
+     * @param filter {@link RequestFilter}
+     */
+    public void addRequestFilter(RequestFilter filter) {
+        addFirstHttpFilterFactory(new RequestFilterAdapter.FilterSource(filter));
+    }
+
+    /**
+     * Add response filter of the session, it will be executed after already added filters
+     *
+     * @param filter {@link ResponseFilter}
+     */
+    public void addResponseFilter(ResponseFilter filter) {
+        addLastHttpFilterFactory(new ResponseFilterAdapter.FilterSource(filter));
+    }
+
+    public void addFirstHttpFilterFactory(HttpFiltersSource filterFactory) {
+        filterFactories.add(0, filterFactory);
+    }
+
+    public void addLastHttpFilterFactory(HttpFiltersSource filterFactory) {
+        filterFactories.add(filterFactory);
+    }
+
+    /**
+     * Get filter factories of the session
+     *
+     * @return unmodifiable {@link List} of {@link HttpFiltersSource}
+     */
+    public List<HttpFiltersSource> getFilterFactories() {
+        return Collections.unmodifiableList(filterFactories);
+    }
+
+    public void setHarCaptureTypes(Set<CaptureType> captureTypes) {
+        this.harCaptureTypes = captureTypes.isEmpty() ? EnumSet.noneOf(CaptureType.class) : EnumSet.copyOf(captureTypes);
+    }
+
+    public Set<CaptureType> getHarCaptureTypes() {
+        return EnumSet.copyOf(harCaptureTypes);
+    }
+
+    /**
+     * Start new HAR capture of the session with the default page
+     *
+     * @return previous {@link Har}, or null if HAR capture was not started
+     */
+    public Har newHar() {
+        return newHar(null);
+    }
+
+    /**
+     * Start new HAR capture of the session
+     *
+     * @param initialPageRef reference of the first page, null for the default one
+     * @return previous {@link Har}, or null if HAR capture was not started
+     */
+    public synchronized Har newHar(String initialPageRef) {
+        Har previousHar = har;
+        harPageCount.set(0);
+        Har newHar = new Har();
+        HarLog log = new HarLog();
+        HarCreatorBrowser creator = new HarCreatorBrowser();
+        creator.setName("Carina Shared BrowserUp Proxy");
+        creator.setVersion("");
+        log.setCreator(creator);
+        log.setPages(new CopyOnWriteArrayList<>());
+        log.setEntries(new CopyOnWriteArrayList<>());
+        newHar.setLog(log);
+        har = newHar;
+        newPage(initialPageRef);
+        return previousHar;
+    }
+
+    /**
+     * Start new page of the HAR capture
+     *
+     * @param pageRef reference of the page, null for the default one
+     * @throws IllegalStateException if HAR capture was not started
+     */
+    public synchronized void newPage(String pageRef) {
+        Har currentHar = har;
+        if (currentHar == null) {
+            throw new IllegalStateException("HAR capture was not started.");
+        }
+        String ref = pageRef != null ? pageRef : "Page " + harPageCount.getAndIncrement();
+        HarPage page = new HarPage();
+        page.setId(ref);
+        page.setTitle(ref);
+        page.setStartedDateTime(new Date());
+        page.setPageTimings(new HarPageTiming());
+        currentHar.getLog().getPages().add(page);
+        currentHarPageRef = ref;
+    }
+
+    public Har getHar() {
+        return har;
+    }
+
+    /**
+     * Stop HAR capture of the session
+     *
+     * @return captured {@link Har}, or null if HAR capture was not started
+     */
+    public synchronized Har endHar() {
+        Har currentHar = har;
+        har = null;
+        currentHarPageRef = null;
+        return currentHar;
+    }
+
+    HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        List<HttpFilters> filters = new ArrayList<>(filterFactories.size() + 1);
+        Har currentHar = har;
+        if (currentHar != null) {
+            if (HttpMethod.CONNECT.equals(originalRequest.method())) {
+                filters.add(new HttpConnectHarCaptureFilter(originalRequest, ctx, currentHar, currentHarPageRef));
+            } else {
+                filters.add(new HarCaptureFilter(originalRequest, ctx, currentHar, currentHarPageRef, harCaptureTypes));
+            }
+        }
+        for (HttpFiltersSource filterFactory : filterFactories) {
+            HttpFilters filter = filterFactory.filterRequest(originalRequest, ctx);
+            if (filter != null) {
+                filters.add(filter);
+            }
+        }
+        return filters.isEmpty() ? null : new SessionHttpFilters(originalRequest, ctx, filters);
+    }
+
+    int getMaximumRequestBufferSizeInBytes() {
+        int size = 0;
+        for (HttpFiltersSource filterFactory : filterFactories) {
+            size = Math.max(size, filterFactory.getMaximumRequestBufferSizeInBytes());
+        }
+        return size;
+    }
+
+    int getMaximumResponseBufferSizeInBytes() {
+        int size = 0;
+        for (HttpFiltersSource filterFactory : filterFactories) {
+            size = Math.max(size, filterFactory.getMaximumResponseBufferSizeInBytes());
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedBrowserUpProxy";
+    }
+}
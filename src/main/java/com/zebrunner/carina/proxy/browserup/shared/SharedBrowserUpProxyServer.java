@@ -0,0 +1,306 @@
+package com.zebrunner.carina.proxy.browserup.shared;
+
+import com.browserup.bup.BrowserUpProxy;
+import com.browserup.bup.BrowserUpProxyServer;
+import com.zebrunner.carina.utils.Configuration;
+import com.zebrunner.carina.utils.R;
+import com.zebrunner.carina.utils.commons.SpecialKeywords;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Single BrowserUp proxy server (engine), that serves all {@link SharedBrowserUpProxy} sessions.
+ * <p>
+ * The engine is started when the first session is started and stopped when the last session is stopped.
+ * Request is dispatched to the session filters by:<br>
+ * 1. proxy-auth username (<b>Proxy-Authorization: Basic</b> header), if session is identified by username<br>
+ * 2. the session of the client connection, that was detected by the previous request
+ * (for example, MITM requests after CONNECT)<br>
+ * 3. the dedicated listener port of the session, which connections are relayed to the engine
+ * <p>
+ * Requests that do not belong to any session are rejected with <b>407 Proxy Authentication Required</b>
+ * and <b>Proxy-Authenticate: Basic</b> challenge, so clients could retry them with the session username.
+ * <p>
+ * Configuration:
+ * <b>browserup_shared_port</b> - port of the engine, that is used by sessions identified by username. Default value: 0
+ */
+public final class SharedBrowserUpProxyServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final SharedBrowserUpProxyServer INSTANCE = new SharedBrowserUpProxyServer();
+    private static final AttributeKey<SharedBrowserUpProxy> SESSION_KEY = AttributeKey.valueOf("carina.proxy.session");
+    private static final String PROXY_AUTH_CHALLENGE = "Basic realm=\"carina-proxy\"";
+
+    private final Set<SharedBrowserUpProxy> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<String, SharedBrowserUpProxy> sessionsByUsername = new ConcurrentHashMap<>();
+    // local port of the relayed connection -> session, that owns the listener
+    private final Map<Integer, SharedBrowserUpProxy> sessionsByConnection = new ConcurrentHashMap<>();
+    private volatile Consumer<BrowserUpProxy> serverConfigurer = proxy -> {
+    };
+    private BrowserUpProxyServer server = null;
+    private EventLoopGroup listenerGroup = null;
+
+    private SharedBrowserUpProxyServer() {
+        // hide
+    }
+
+    /**
+     * Get shared engine
+     *
+     * @return {@link SharedBrowserUpProxyServer}
+     */
+    public static SharedBrowserUpProxyServer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set configuration of the engine, that is common for all sessions (for example, chained proxy or timeouts).
+     * It is applied every time the engine starts, and immediately if the engine is already started
+     *
+     * @param configurer consumer of the engine {@link BrowserUpProxy}
+     */
+    public synchronized void setServerConfigurer(Consumer<BrowserUpProxy> configurer) {
+        this.serverConfigurer = Objects.requireNonNull(configurer);
+        if (server != null) {
+            configurer.accept(server);
+        }
+    }
+
+    /**
+     * Check if the engine is started
+     *
+     * @return true if there are started sessions and engine is started, false otherwise
+     */
+    public synchronized boolean isStarted() {
+        return server != null;
+    }
+
+    /**
+     * Get port of the engine
+     *
+     * @return port of the engine
+     * @throws IllegalStateException if the engine is not started
+     */
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Shared proxy server is not started.");
+        }
+        return server.getPort();
+    }
+
+    /**
+     * Get number of started sessions
+     *
+     * @return number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    synchronized void register(SharedBrowserUpProxy session) {
+        if (server == null) {
+            start();
+        }
+        sessions.add(session);
+        if (session.getUsername() != null) {
+            sessionsByUsername.put(session.getUsername(), session);
+        }
+    }
+
+    synchronized void unregister(SharedBrowserUpProxy session) {
+        if (session.getUsername() != null) {
+            sessionsByUsername.remove(session.getUsername(), session);
+        }
+        sessionsByConnection.values().removeIf(s -> s == session);
+        if (sessions.remove(session) && sessions.isEmpty()) {
+            stop();
+        }
+    }
+
+    synchronized SessionListener bindListener(SharedBrowserUpProxy session, int port) {
+        if (server == null) {
+            throw new IllegalStateException("Shared proxy server is not started.");
+        }
+        InetSocketAddress engineAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        return SessionListener.bind(listenerGroup, port, engineAddress,
+                localPort -> sessionsByConnection.put(localPort, session),
+                localPort -> sessionsByConnection.remove(localPort, session));
+    }
+
+    private void start() {
+        LOGGER.info("Starting shared BrowserUp proxy server...");
+        BrowserUpProxyServer proxy = new BrowserUpProxyServer();
+        proxy.setTrustAllServers(true);
+        // disable MITM in case we do not need it
+        proxy.setMitmDisabled(Configuration.getBoolean(Configuration.Parameter.BROWSERUP_MITM));
+        serverConfigurer.accept(proxy);
+        proxy.start(getPortFromConfig());
+        proxy.addLastHttpFilterFactory(new SessionDispatcher());
+        listenerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors(),
+                new DefaultThreadFactory("carina-proxy-shared", true));
+        server = proxy;
+        LOGGER.info("Shared BrowserUp proxy server started on port {}", proxy.getPort());
+    }
+
+    private void stop() {
+        LOGGER.info("Stopping shared BrowserUp proxy server...");
+        try {
+            server.stop();
+        } catch (IllegalStateException e) {
+            LOGGER.info("Seems like shared proxy server was already stopped: {}", e.getMessage());
+        } finally {
+            listenerGroup.shutdownGracefully();
+            sessionsByConnection.clear();
+            server = null;
+            listenerGroup = null;
+        }
+    }
+
+    private SharedBrowserUpProxy resolveSession(HttpRequest request, ChannelHandlerContext ctx) {
+        Channel channel = ctx.channel();
+        SharedBrowserUpProxy session = null;
+        String username = getProxyAuthUsername(request);
+        if (username != null) {
+            session = sessionsByUsername.get(username);
+        }
+        if (session == null) {
+            session = channel.attr(SESSION_KEY).get();
+        }
+        if (session == null) {
+            SocketAddress remoteAddress = channel.remoteAddress();
+            if (remoteAddress instanceof InetSocketAddress && ((InetSocketAddress) remoteAddress).getAddress().isLoopbackAddress()) {
+                session = sessionsByConnection.get(((InetSocketAddress) remoteAddress).getPort());
+            }
+        }
+        if (session == null || !session.isStarted()) {
+            return null;
+        }
+        channel.attr(SESSION_KEY).set(session);
+        return session;
+    }
+
+    private static String getProxyAuthUsername(HttpRequest request) {
+        String authorization = request.headers().get(HttpHeaderNames.PROXY_AUTHORIZATION);
+        if (authorization == null || !StringUtils.startsWithIgnoreCase(authorization, "Basic ")) {
+            return null;
+        }
+        try {
+            String credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+            return StringUtils.substringBefore(credentials, ":");
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Invalid Proxy-Authorization header: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static HttpResponse proxyAuthenticationRequired() {
+        HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.PROXY_AUTHENTICATION_REQUIRED);
+        response.headers().set(HttpHeaderNames.PROXY_AUTHENTICATE, PROXY_AUTH_CHALLENGE);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        return response;
+    }
+
+    private static int getPortFromConfig() {
+        String value = R.CONFIG.get("browserup_shared_port");
+        if (value == null || value.isEmpty() || value.equalsIgnoreCase(SpecialKeywords.NULL)) {
+            return 0;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Passes request to the filters of the session it belongs to.<br>
+     * Buffer sizes are requested by the engine for every client connection, so the maximum of the sessions is returned:
+     * when one session needs full messages, messages of the other sessions are also aggregated.
+     */
+    private final class SessionDispatcher extends HttpFiltersSourceAdapter {
+
+        @Override
+        public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            SharedBrowserUpProxy session = resolveSession(originalRequest, ctx);
+            if (session == null) {
+                if (ctx != null && ctx.pipeline().get(ProxyAuthChallengeHandler.NAME) == null) {
+                    ctx.pipeline().addBefore(ctx.name(), ProxyAuthChallengeHandler.NAME, ProxyAuthChallengeHandler.INSTANCE);
+                }
+                return new HttpFiltersAdapter(originalRequest, ctx) {
+                    @Override
+                    public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+                        return httpObject instanceof HttpRequest ? proxyAuthenticationRequired() : null;
+                    }
+                };
+            }
+            return session.filterRequest(originalRequest, ctx);
+        }
+
+        @Override
+        public int getMaximumRequestBufferSizeInBytes() {
+            int size = 0;
+            for (SharedBrowserUpProxy session : sessions) {
+                size = Math.max(size, session.getMaximumRequestBufferSizeInBytes());
+            }
+            return size;
+        }
+
+        @Override
+        public int getMaximumResponseBufferSizeInBytes() {
+            int size = 0;
+            for (SharedBrowserUpProxy session : sessions) {
+                size = Math.max(size, session.getMaximumResponseBufferSizeInBytes());
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Restores the challenge of the 407 response: LittleProxy removes hop-by-hop headers,
+     * including <b>Proxy-Authenticate</b>, from the responses returned by filters
+     */
+    @ChannelHandler.Sharable
+    private static final class ProxyAuthChallengeHandler extends ChannelOutboundHandlerAdapter {
+        private static final String NAME = "carina-proxy-auth-challenge";
+        private static final ProxyAuthChallengeHandler INSTANCE = new ProxyAuthChallengeHandler();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof HttpResponse) {
+                HttpResponse response = (HttpResponse) msg;
+                if (HttpResponseStatus.PROXY_AUTHENTICATION_REQUIRED.equals(response.status())
+                        && !response.headers().contains(HttpHeaderNames.PROXY_AUTHENTICATE)) {
+                    response.headers().set(HttpHeaderNames.PROXY_AUTHENTICATE, PROXY_AUTH_CHALLENGE);
+                }
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+}
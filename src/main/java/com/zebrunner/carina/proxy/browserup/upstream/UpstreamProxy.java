@@ -0,0 +1,167 @@
+package com.zebrunner.carina.proxy.browserup.upstream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Upstream (egress) HTTP proxy of the {@link UpstreamProxyManager} with its load and health state.
+ * <p>
+ * State is updated by the connections to the proxy: number of the active connections, average (EWMA)
+ * time of the connection establishment and number of the consecutive failures. After failure proxy is unhealthy
+ * for the backoff time (1 second, doubled with every consecutive failure, no more than a minute),
+ * then it gets the connections again and becomes healthy after the first successful one.
+ */
+public final class UpstreamProxy {
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // weight of the new latency sample
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile double latencyMillis = 0;
+    private volatile long unhealthyUntilNanos = 0;
+
+    public UpstreamProxy(String host, int port) {
+        this(host, port, null, null);
+    }
+
+    public UpstreamProxy(String host, int port, String username, String password) {
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException(String.format("Invalid port of the upstream proxy '%s': %d", host, port));
+        }
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Parse upstream proxy
+     *
+     * @param value proxy in format {@code host:port} or {@code username:password@host:port}
+     * @return {@link UpstreamProxy}
+     * @throws IllegalArgumentException if value is not in the supported format
+     */
+    public static UpstreamProxy parse(String value) {
+        String address = value.trim();
+        String username = null;
+        String password = null;
+        int at = address.lastIndexOf('@');
+        if (at >= 0) {
+            String credentials = address.substring(0, at);
+            int colon = credentials.indexOf(':');
+            username = colon < 0 ? credentials : credentials.substring(0, colon);
+            password = colon < 0 ? "" : credentials.substring(colon + 1);
+            address = address.substring(at + 1);
+        }
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException(String.format("Upstream proxy should be in format 'host:port', but was: '%s'", address));
+        }
+        try {
+            return new UpstreamProxy(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)), username, password);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid port of the upstream proxy: '%s'", address));
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    /**
+     * @return number of the open connections to the proxy
+     */
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * @return average time of the connection establishment in milliseconds, 0 if there were no connections yet
+     */
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return number of the successful connections to the proxy
+     */
+    public long getConnectionCount() {
+        return connections.sum();
+    }
+
+    /**
+     * @return number of the failed connections to the proxy
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * @return false if the last connection to the proxy failed and the backoff time is not elapsed yet
+     */
+    public boolean isHealthy() {
+        return isHealthy(System.nanoTime());
+    }
+
+    boolean isHealthy(long nowNanos) {
+        return consecutiveFailures.get() == 0 || nowNanos - unhealthyUntilNanos >= 0;
+    }
+
+    long getUnhealthyUntilNanos() {
+        return unhealthyUntilNanos;
+    }
+
+    /**
+     * @return the less the better: number of the active connections (including the new one) multiplied by the latency
+     */
+    double score() {
+        return (activeConnections.get() + 1) * Math.max(latencyMillis, 1);
+    }
+
+    void onConnected(long elapsedNanos) {
+        activeConnections.incrementAndGet();
+        connections.increment();
+        consecutiveFailures.set(0);
+        double sample = elapsedNanos / 1_000_000.0;
+        synchronized (this) {
+            latencyMillis = latencyMillis == 0 ? sample : latencyMillis + LATENCY_ALPHA * (sample - latencyMillis);
+        }
+    }
+
+    void onDisconnected() {
+        activeConnections.decrementAndGet();
+    }
+
+    void onFailure() {
+        failures.increment();
+        int failed = consecutiveFailures.incrementAndGet();
+        long backoff = Math.min(MAX_BACKOFF_NANOS, TimeUnit.SECONDS.toNanos(1) << Math.min(failed - 1, 6));
+        unhealthyUntilNanos = System.nanoTime() + backoff;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%d (active=%d, latency=%.1f ms, failures=%d, healthy=%s)", host, port, getActiveConnections(),
+                latencyMillis, getFailureCount(), isHealthy());
+    }
+}
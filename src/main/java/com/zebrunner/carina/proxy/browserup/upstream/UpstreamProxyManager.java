@@ -0,0 +1,227 @@
+package com.zebrunner.carina.proxy.browserup.upstream;
+
+import com.zebrunner.carina.proxy.NoProxyMatcher;
+import com.zebrunner.carina.utils.R;
+import com.zebrunner.carina.utils.commons.SpecialKeywords;
+import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import org.littleshoot.proxy.ChainedProxy;
+import org.littleshoot.proxy.ChainedProxyAdapter;
+import org.littleshoot.proxy.ChainedProxyManager;
+import org.littleshoot.proxy.impl.ClientDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Chains BrowserUp proxies to the list of the upstream (egress) HTTP proxies.
+ * <p>
+ * For every new upstream connection proxies are ordered: healthy proxies first, the one with the least
+ * active connections multiplied by the connection latency first (see {@link UpstreamProxy}), then unhealthy ones,
+ * which backoff ends first. LittleProxy tries them in this order until connection succeeds,
+ * so requests fail over to the next proxy when one goes down.<br>
+ * Connection to the upstream proxy is kept alive and reused by LittleProxy for the following requests
+ * of the same client connection.
+ * <p>
+ * One manager could be shared by many BrowserUp proxies (see {@link #getInstance()}), so the load of all
+ * sessions is balanced.
+ * <p>
+ * Configuration:
+ * <b>browserup_upstream_proxies</b> - upstream proxies in format {@code host:port} or {@code username:password@host:port},
+ * separated by commas. Default value: NULL
+ */
+public final class UpstreamProxyManager implements ChainedProxyManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static volatile UpstreamProxyManager instance = null;
+
+    private final List<UpstreamProxy> upstreams;
+    private volatile NoProxyMatcher bypass = null;
+
+    public UpstreamProxyManager(List<UpstreamProxy> upstreams) {
+        if (upstreams.isEmpty()) {
+            throw new IllegalArgumentException("At least one upstream proxy should be specified.");
+        }
+        this.upstreams = List.copyOf(upstreams);
+    }
+
+    /**
+     * Parse list of the upstream proxies
+     *
+     * @param value upstream proxies, separated by commas, see {@link UpstreamProxy#parse(String)}
+     * @return {@link UpstreamProxyManager}
+     * @throws IllegalArgumentException if value is not in the supported format
+     */
+    public static UpstreamProxyManager parse(String value) {
+        List<UpstreamProxy> upstreams = new ArrayList<>();
+        for (String proxy : value.split(",")) {
+            if (!proxy.isBlank()) {
+                upstreams.add(UpstreamProxy.parse(proxy));
+            }
+        }
+        return new UpstreamProxyManager(upstreams);
+    }
+
+    /**
+     * Get manager, shared by all proxies of the JVM
+     *
+     * @return {@link UpstreamProxyManager}, or null if <b>browserup_upstream_proxies</b> is not specified
+     * @throws InvalidConfigurationException if <b>browserup_upstream_proxies</b> is invalid
+     */
+    public static UpstreamProxyManager getInstance() {
+        UpstreamProxyManager manager = instance;
+        if (manager != null) {
+            return manager;
+        }
+        synchronized (UpstreamProxyManager.class) {
+            if (instance == null) {
+                String value = R.CONFIG.get("browserup_upstream_proxies");
+                if (value == null || value.isBlank() || value.equalsIgnoreCase(SpecialKeywords.NULL)) {
+                    return null;
+                }
+                try {
+                    instance = parse(value);
+                } catch (IllegalArgumentException e) {
+                    throw new InvalidConfigurationException(String.format("Invalid 'browserup_upstream_proxies' value: %s", e.getMessage()));
+                }
+                LOGGER.info("Upstream proxies: {}", value);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Connect to these hosts directly, without upstream proxy
+     *
+     * @param hosts hosts in the same format as the {@code no_proxy} parameter (see {@link NoProxyMatcher})
+     * @return this {@link UpstreamProxyManager}
+     */
+    public UpstreamProxyManager bypassHosts(String hosts) {
+        this.bypass = NoProxyMatcher.parse(hosts);
+        return this;
+    }
+
+    /**
+     * @return {@link List} of {@link UpstreamProxy} with their state
+     */
+    public List<UpstreamProxy> getUpstreams() {
+        return upstreams;
+    }
+
+    @Override
+    public void lookupChainedProxies(HttpRequest httpRequest, Queue<ChainedProxy> chainedProxies, ClientDetails clientDetails) {
+        NoProxyMatcher matcher = bypass;
+        if (matcher != null) {
+            String host = getHost(httpRequest);
+            if (host != null && matcher.matches(host)) {
+                chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+                return;
+            }
+        }
+        for (UpstreamProxy upstream : select()) {
+            chainedProxies.add(new UpstreamConnection(upstream));
+        }
+    }
+
+    /**
+     * @return upstream proxies in the order they should be tried
+     */
+    List<UpstreamProxy> select() {
+        long now = System.nanoTime();
+        List<UpstreamProxy> healthy = new ArrayList<>(upstreams.size());
+        List<UpstreamProxy> unhealthy = new ArrayList<>(0);
+        for (UpstreamProxy upstream : upstreams) {
+            (upstream.isHealthy(now) ? healthy : unhealthy).add(upstream);
+        }
+        healthy.sort(Comparator.comparingDouble(UpstreamProxy::score));
+        unhealthy.sort(Comparator.comparingLong(upstream -> upstream.getUnhealthyUntilNanos() - now));
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    private static String getHost(HttpRequest request) {
+        String uri = request.uri();
+        // CONNECT request uri is host:port
+        String authority = uri;
+        if (uri.contains("://")) {
+            try {
+                authority = URI.create(uri).getRawAuthority();
+            } catch (IllegalArgumentException e) {
+                authority = null;
+            }
+        }
+        if (authority == null || authority.startsWith("/")) {
+            authority = request.headers().get(HttpHeaderNames.HOST);
+        }
+        if (authority == null) {
+            return null;
+        }
+        int end = authority.startsWith("[") ? authority.indexOf(']') + 1 : authority.indexOf(':');
+        return end > 0 ? authority.substring(0, end) : authority;
+    }
+
+    /**
+     * One connection attempt to the upstream proxy, notifies the proxy about the connection state
+     */
+    private static final class UpstreamConnection extends ChainedProxyAdapter {
+        private final UpstreamProxy upstream;
+        private final String authorization;
+        private long startNanos = 0;
+        private boolean connected = false;
+
+        private UpstreamConnection(UpstreamProxy upstream) {
+            this.upstream = upstream;
+            this.authorization = upstream.getUsername() == null
+                    ? null
+                    : "Basic " + Base64.getEncoder().encodeToString((upstream.getUsername() + ":" + upstream.getPassword())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public InetSocketAddress getChainedProxyAddress() {
+            // is called when LittleProxy connects to the upstream proxy, the previous proxies could fail before
+            if (startNanos == 0) {
+                startNanos = System.nanoTime();
+            }
+            return new InetSocketAddress(upstream.getHost(), upstream.getPort());
+        }
+
+        @Override
+        public void filterRequest(HttpObject httpObject) {
+            if (authorization != null && httpObject instanceof HttpRequest) {
+                ((HttpRequest) httpObject).headers().set(HttpHeaderNames.PROXY_AUTHORIZATION, authorization);
+            }
+        }
+
+        @Override
+        public void connectionSucceeded() {
+            connected = true;
+            upstream.onConnected(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void connectionFailed(Throwable cause) {
+            LOGGER.debug("Connection to the upstream proxy {}:{} failed: {}", upstream.getHost(), upstream.getPort(),
+                    cause != null ? cause.getMessage() : null);
+            upstream.onFailure();
+        }
+
+        @Override
+        public void disconnected() {
+            if (connected) {
+                connected = false;
+                upstream.onDisconnected();
+            }
+        }
+    }
+}
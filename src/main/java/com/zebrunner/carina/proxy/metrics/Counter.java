@@ -0,0 +1,36 @@
+package com.zebrunner.carina.proxy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, that could be incremented by many threads without contention
+ */
+public final class Counter {
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        value.add(delta);
+        ProxyMetrics.notifyCounter(name, delta);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    void reset() {
+        value.reset();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,32 @@
+package com.zebrunner.carina.proxy.metrics;
+
+/**
+ * Bridge to the external metrics registry (Micrometer, Dropwizard, Prometheus client and so on).<br>
+ * Listener receives every counter increment and latency record as it happens. Gauges are not pushed,
+ * they could be read via {@link ProxyMetrics#getGauges()}.
+ * <p>
+ * Could be added via {@link ProxyMetrics#addListener(IProxyMetricsListener)}. Methods are called from the thread,
+ * that changed the metric, so they should be fast and should not throw exceptions.
+ */
+public interface IProxyMetricsListener {
+
+    /**
+     * Called when the counter is incremented
+     *
+     * @param name  counter name, for example {@link ProxyMetrics#PROXY_START_FAILED}
+     * @param delta increment
+     */
+    default void onCounter(String name, long delta) {
+        // do nothing by default
+    }
+
+    /**
+     * Called when the latency is recorded
+     *
+     * @param name  histogram name, for example {@link ProxyMetrics#PROXY_START}
+     * @param nanos latency in nanoseconds
+     */
+    default void onLatency(String name, long nanos) {
+        // do nothing by default
+    }
+}
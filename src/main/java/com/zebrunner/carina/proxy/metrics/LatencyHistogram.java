@@ -0,0 +1,107 @@
+package com.zebrunner.carina.proxy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power-of-two buckets (in nanoseconds).<br>
+ * Recording is lock-free and allocation-free, percentiles are approximated by the upper bound of the bucket,
+ * so they are accurate within the factor of two.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record latency
+     *
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        // bucket 0 contains 0, bucket i contains values in range [2^(i-1), 2^i)
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+        ProxyMetrics.notifyLatency(name, value);
+    }
+
+    /**
+     * Record latency since the start time
+     *
+     * @param startNanos start time, got by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get snapshot of the histogram
+     *
+     * @return {@link LatencySnapshot}
+     */
+    public LatencySnapshot getSnapshot() {
+        long[] values = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            values[i] = buckets.get(i);
+            total += values[i];
+        }
+        long maxNanos = max.get();
+        return new LatencySnapshot(total, total == 0 ? 0 : sum.sum() / total,
+                percentile(values, total, 0.5, maxNanos),
+                percentile(values, total, 0.9, maxNanos),
+                percentile(values, total, 0.99, maxNanos),
+                maxNanos);
+    }
+
+    private static long percentile(long[] values, long total, double quantile, long maxNanos) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += values[i];
+            if (seen >= rank) {
+                // for the last bucket (1L << 63) - 1 is Long.MAX_VALUE
+                long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upperBound, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + getSnapshot();
+    }
+}
@@ -0,0 +1,204 @@
+package com.zebrunner.carina.proxy.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Dependency-free registry of the proxy pool metrics: counters, gauges and latency histograms.
+ * <p>
+ * Metrics of the {@link com.zebrunner.carina.proxy.ProxyPool} use names from the constants of this class,
+ * metrics of the {@link com.zebrunner.carina.proxy.browserup.ProxyPool} (LEGACY mode) use the same names
+ * with {@link #LEGACY_PREFIX}.<br>
+ * Metrics are exposed via JMX as {@code com.zebrunner.carina.proxy:type=ProxyMetrics} and could be bridged
+ * to the external registry via {@link #addListener(IProxyMetricsListener)} (counters and latencies)
+ * and {@link #getGauges()}.
+ */
+public final class ProxyMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    public static final String OBJECT_NAME = "com.zebrunner.carina.proxy:type=ProxyMetrics";
+    public static final String LEGACY_PREFIX = "legacy.";
+
+    // latencies
+    public static final String PROXY_START = "proxy.start";
+    public static final String PROXY_STOP = "proxy.stop";
+    public static final String PORT_ALLOCATE = "port.allocate";
+    // counters
+    public static final String PROXY_START_FAILED = "proxy.start.failed";
+    public static final String PROXY_STOP_FAILED = "proxy.stop.failed";
+    public static final String PROXY_ABORTED = "proxy.aborted";
+    public static final String PROXY_RESTARTED = "proxy.restarted";
+    public static final String PROXY_RESTART_FAILED = "proxy.restart.failed";
+    public static final String PROXY_STANDBY_HANDOVER = "proxy.standby.handover";
+    public static final String PROXY_REAPED_DEAD_OWNER = "proxy.reaped.dead_owner";
+    public static final String PROXY_REAPED_IDLE = "proxy.reaped.idle";
+    public static final String PORT_EXHAUSTED = "port.exhausted";
+    public static final String PORT_QUARANTINED = "port.quarantined";
+    // gauges
+    public static final String PROXY_ACTIVE = "proxy.active";
+    public static final String PROXY_STANDBY = "proxy.standby";
+    public static final String PORT_CAPACITY = "port.capacity";
+    public static final String PORT_AVAILABLE = "port.available";
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final List<IProxyMetricsListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    static {
+        registerMBean();
+    }
+
+    private ProxyMetrics() {
+        // hide
+    }
+
+    /**
+     * Get or create counter
+     *
+     * @param name counter name
+     * @return {@link Counter}
+     */
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, Counter::new);
+    }
+
+    /**
+     * Get or create latency histogram
+     *
+     * @param name histogram name
+     * @return {@link LatencyHistogram}
+     */
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Register gauge. Previously registered gauge with the same name will be replaced
+     *
+     * @param name  gauge name
+     * @param gauge supplier of the current value
+     */
+    public static void registerGauge(String name, LongSupplier gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    public static void addListener(IProxyMetricsListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(IProxyMetricsListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Get current values of the counters
+     *
+     * @return sorted {@link Map} of counter name to value
+     */
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> counters = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> counters.put(name, counter.get()));
+        return counters;
+    }
+
+    /**
+     * Get current values of the gauges
+     *
+     * @return sorted {@link Map} of gauge name to value
+     */
+    public static Map<String, Long> getGauges() {
+        Map<String, Long> gauges = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> {
+            try {
+                gauges.put(name, gauge.getAsLong());
+            } catch (RuntimeException e) {
+                LOGGER.debug("Unable to get value of '{}' gauge: {}", name, e.getMessage());
+            }
+        });
+        return gauges;
+    }
+
+    /**
+     * Get snapshots of the latency histograms
+     *
+     * @return sorted {@link Map} of histogram name to {@link LatencySnapshot}
+     */
+    public static Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> latencies = new TreeMap<>();
+        HISTOGRAMS.forEach((name, histogram) -> latencies.put(name, histogram.getSnapshot()));
+        return latencies;
+    }
+
+    /**
+     * Reset counters and histograms. Gauges are not changed
+     */
+    public static void reset() {
+        COUNTERS.values().forEach(Counter::reset);
+        HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+    }
+
+    static void notifyCounter(String name, long delta) {
+        for (IProxyMetricsListener listener : LISTENERS) {
+            try {
+                listener.onCounter(name, delta);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Proxy metrics listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    static void notifyLatency(String name, long nanos) {
+        for (IProxyMetricsListener listener : LISTENERS) {
+            try {
+                listener.onLatency(name, nanos);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Proxy metrics listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            LOGGER.debug("Proxy metrics MBean is already registered.");
+        } catch (JMException | RuntimeException e) {
+            LOGGER.warn("Unable to register proxy metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    private static final class MXBean implements ProxyMetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return ProxyMetrics.getCounters();
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return ProxyMetrics.getGauges();
+        }
+
+        @Override
+        public Map<String, LatencySnapshot> getLatencies() {
+            return ProxyMetrics.getLatencies();
+        }
+
+        @Override
+        public void reset() {
+            ProxyMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.zebrunner.carina.proxy.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ProxyMetrics}. Registered as {@code com.zebrunner.carina.proxy:type=ProxyMetrics}
+ */
+public interface ProxyMetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getGauges();
+
+    Map<String, LatencySnapshot> getLatencies();
+
+    /**
+     * Reset counters and histograms. Gauges are not changed
+     */
+    void reset();
+}
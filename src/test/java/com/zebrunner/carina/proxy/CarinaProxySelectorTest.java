@@ -0,0 +1,100 @@
+package com.zebrunner.carina.proxy;
+
+import com.zebrunner.carina.utils.R;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class CarinaProxySelectorTest {
+    private static final List<Proxy> DELEGATED = List.of(new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("delegate", 1)));
+    private final Map<String, String> initialValues = new HashMap<>();
+    private final ProxySelector selector = new CarinaProxySelector(new ProxySelector() {
+        @Override
+        public List<Proxy> select(URI uri) {
+            return DELEGATED;
+        }
+
+        @Override
+        public void connectFailed(URI uri, java.net.SocketAddress sa, java.io.IOException ioe) {
+            // do nothing
+        }
+    });
+
+    @BeforeMethod
+    public void setUp() {
+        for (String key : ProxyConfig.KEYS) {
+            initialValues.put(key, R.CONFIG.get(key));
+        }
+        R.CONFIG.put("proxy_port", "3128");
+        R.CONFIG.put("proxy_ports", "NULL");
+        R.CONFIG.put("proxy_set_to_system", "true");
+        R.CONFIG.put("proxy_protocols", "http,https");
+        R.CONFIG.put("no_proxy", "localhost, *.internal.example.com");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        ProxyPool.stopProxy();
+        initialValues.forEach(R.CONFIG::put);
+        ProxyConfig.invalidate();
+    }
+
+    @Test
+    public void testConnectionIsRoutedToProxyOfCurrentOwner() throws Exception {
+        IProxyInfo info = ProxyPool.startProxy(new FakeProxy());
+
+        List<Proxy> proxies = selector.select(URI.create("https://www.example.com/api"));
+        Assert.assertEquals(proxies.size(), 1);
+        Assert.assertEquals(proxies.get(0).type(), Proxy.Type.HTTP);
+        InetSocketAddress address = (InetSocketAddress) proxies.get(0).address();
+        Assert.assertEquals(address.getHostString(), info.getHost());
+        Assert.assertEquals(address.getPort(), info.getPort());
+        Assert.assertSame(selector.select(URI.create("http://www.example.com/")), proxies,
+                "Routes should be reused while proxy is not changed");
+        R.CONFIG.put("proxy_protocols", "ftp");
+        ProxyConfig.invalidate();
+        Assert.assertSame(selector.select(URI.create("http://www.example.com/")), proxies,
+                "Configuration should be taken when the proxy is started");
+
+        // thread without proxy is routed by the delegate
+        List<Proxy> otherThreadProxies = CompletableFuture.supplyAsync(() -> selector.select(URI.create("https://www.example.com/api")))
+                .get();
+        Assert.assertSame(otherThreadProxies, DELEGATED);
+    }
+
+    @Test
+    public void testNoProxyAndUnsupportedProtocols() {
+        ProxyPool.startProxy(new FakeProxy());
+
+        Assert.assertEquals(selector.select(URI.create("http://localhost:4444/wd/hub")), List.of(Proxy.NO_PROXY));
+        Assert.assertEquals(selector.select(URI.create("https://api.internal.example.com/")), List.of(Proxy.NO_PROXY));
+        Assert.assertEquals(selector.select(URI.create("https://internal.example.com/")), List.of(Proxy.NO_PROXY));
+        Assert.assertNotEquals(selector.select(URI.create("https://notinternal.example.com/")), List.of(Proxy.NO_PROXY));
+        Assert.assertSame(selector.select(URI.create("ftp://files.example.com/")), DELEGATED,
+                "Protocol, that is not in 'proxy_protocols', should be routed by the delegate");
+    }
+
+    @Test
+    public void testNotStartedProxyIsRoutedByDelegate() {
+        FakeProxy proxy = new FakeProxy();
+        ProxyPool.register(proxy);
+        Assert.assertSame(selector.select(URI.create("https://www.example.com/api")), DELEGATED,
+                "Connection should be routed by the delegate while proxy is not started");
+
+        ProxyPool.startProxy(proxy);
+        Assert.assertNotSame(selector.select(URI.create("https://www.example.com/api")), DELEGATED);
+        proxy.stop();
+        Assert.assertSame(selector.select(URI.create("https://www.example.com/api")), DELEGATED,
+                "Connection should be routed by the delegate while proxy is stopped");
+    }
+}
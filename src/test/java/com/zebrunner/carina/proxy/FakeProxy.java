@@ -0,0 +1,35 @@
+package com.zebrunner.carina.proxy;
+
+/**
+ * {@link IProxy} implementation that does not start anything
+ */
+class FakeProxy implements IProxy {
+    private IProxyInfo info;
+
+    @Override
+    public IProxyInfo start(int port) {
+        if (info != null) {
+            throw new IllegalStateException("Proxy already started.");
+        }
+        info = new ProxyInfo("127.0.0.1", port);
+        return info;
+    }
+
+    @Override
+    public void stop() {
+        info = null;
+    }
+
+    @Override
+    public IProxyInfo getInfo() {
+        if (info == null) {
+            throw new IllegalStateException("Proxy is not started.");
+        }
+        return info;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return info != null;
+    }
+}
@@ -0,0 +1,72 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class NoProxyMatcherTest {
+
+    @Test
+    public void testDomainPatterns() {
+        NoProxyMatcher matcher = NoProxyMatcher.parse("localhost, *.corp.example.com | .internal, api.example.org, build*");
+
+        Assert.assertTrue(matcher.matches("localhost"));
+        Assert.assertTrue(matcher.matches("LOCALHOST"));
+        Assert.assertTrue(matcher.matches("corp.example.com"));
+        Assert.assertTrue(matcher.matches("jira.corp.example.com"));
+        Assert.assertTrue(matcher.matches("a.b.corp.example.com."));
+        Assert.assertTrue(matcher.matches("git.internal"));
+        Assert.assertTrue(matcher.matches("api.example.org"));
+        Assert.assertTrue(matcher.matches("build-agent-12"));
+
+        Assert.assertFalse(matcher.matches("notcorp.example.com"));
+        Assert.assertFalse(matcher.matches("example.com"));
+        Assert.assertFalse(matcher.matches("www.api.example.org"));
+        Assert.assertFalse(matcher.matches("localhost.example.com"));
+        Assert.assertFalse(matcher.matches("www.google.com"));
+    }
+
+    @Test
+    public void testIpPatterns() {
+        NoProxyMatcher matcher = NoProxyMatcher.parse("10.0.0.0/8,192.168.*,127.0.0.1,172.16.0.0/12,fd00::/8,::1");
+
+        Assert.assertTrue(matcher.matches("10.200.3.4"));
+        Assert.assertTrue(matcher.matches("192.168.1.1"));
+        Assert.assertTrue(matcher.matches("127.0.0.1"));
+        Assert.assertTrue(matcher.matches("172.31.255.255"));
+        Assert.assertTrue(matcher.matches("[fd12:3456::1]"));
+        Assert.assertTrue(matcher.matches("::1"));
+
+        Assert.assertFalse(matcher.matches("11.0.0.1"));
+        Assert.assertFalse(matcher.matches("192.169.1.1"));
+        Assert.assertFalse(matcher.matches("127.0.0.2"));
+        Assert.assertFalse(matcher.matches("172.32.0.1"));
+        Assert.assertFalse(matcher.matches("[2001:db8::1]"));
+    }
+
+    @Test
+    public void testSpecialPatterns() {
+        Assert.assertTrue(NoProxyMatcher.parse("*").matches("any.host"));
+        NoProxyMatcher local = NoProxyMatcher.parse("<local>");
+        Assert.assertTrue(local.matches("intranet"));
+        Assert.assertFalse(local.matches("intranet.example.com"));
+        Assert.assertFalse(NoProxyMatcher.parse(null).matches("localhost"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> NoProxyMatcher.parse("10.0.0.0/33"));
+    }
+
+    @Test
+    public void testFormats() {
+        NoProxyMatcher matcher = NoProxyMatcher.parse(" localhost , .internal|10.0.0.0/8, 192.168.0.0/16, 172.16.0.0/12 ");
+
+        Assert.assertEquals(matcher.toSeleniumFormat(), "localhost,.internal,10.0.0.0/8,192.168.0.0/16,172.16.0.0/12");
+        StringBuilder privateRange = new StringBuilder();
+        for (int octet = 16; octet < 32; octet++) {
+            privateRange.append("|172.").append(octet).append(".*");
+        }
+        Assert.assertEquals(matcher.toSystemFormat(), "localhost|*.internal|10.*|192.168.*" + privateRange);
+
+        Assert.assertEquals(NoProxyMatcher.parse("10.1.3.7/23, 192.168.1.1/32, 127.0.0.1/31").toSystemFormat(),
+                "10.1.2.*|10.1.3.*|192.168.1.1|127.0.0.0|127.0.0.1");
+        Assert.assertEquals(NoProxyMatcher.parse("localhost, fd00::/8, ::1/128").toSystemFormat(), "localhost|::1",
+                "IPv6 ranges should be skipped");
+    }
+}
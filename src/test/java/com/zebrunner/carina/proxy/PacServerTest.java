@@ -0,0 +1,114 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+
+public class PacServerTest {
+    private static final String PAC = "function FindProxyForURL(url, host) { return \"DIRECT\"; }";
+
+    @Test
+    public void testPacFileIsCachedUntilChanged() throws IOException {
+        Path path = Files.createTempFile("carina", ".pac");
+        try {
+            Files.writeString(path, PAC);
+            PacFile pacFile = PacFile.of(path);
+            Assert.assertSame(PacFile.of(path), pacFile, "PAC file should be read once while it is not changed");
+            Assert.assertSame(PacFile.of(path).getDataUrl(), pacFile.getDataUrl(), "Data URL should be encoded once");
+            Assert.assertTrue(pacFile.getDataUrl().startsWith("data:application/x-javascript-config;base64,"));
+
+            Files.writeString(path, PAC.replace("DIRECT", "PROXY 127.0.0.1:8080"));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+            Assert.assertNotEquals(PacFile.of(path).getETag(), pacFile.getETag(), "Changed PAC file should be read again");
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testPacServerSupportsConditionalRequests() throws IOException, InterruptedException {
+        Path path = Files.createTempFile("carina", ".pac");
+        try {
+            Files.writeString(path, PAC);
+            String url = PacServer.getUrl(path, "127.0.0.1");
+            Assert.assertEquals(PacServer.getUrl(path, "127.0.0.1"), url, "PAC file should be registered once");
+
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            Assert.assertEquals(response.statusCode(), 200);
+            Assert.assertEquals(response.body(), PAC);
+            String etag = response.headers().firstValue("ETag")
+                    .orElseThrow(() -> new AssertionError("ETag should be returned"));
+
+            HttpResponse<String> notModified = client.send(HttpRequest.newBuilder(URI.create(url))
+                    .header("If-None-Match", etag)
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(notModified.statusCode(), 304);
+
+            Files.writeString(path, PAC.replace("DIRECT", "PROXY 127.0.0.1:8080"));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+            HttpResponse<String> modified = client.send(HttpRequest.newBuilder(URI.create(url))
+                    .header("If-None-Match", etag)
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(modified.statusCode(), 200);
+            Assert.assertTrue(modified.body().contains("PROXY 127.0.0.1:8080"));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testPacServerIsRestartedOnAllInterfacesForNonLoopbackHost() throws IOException, InterruptedException {
+        String host = getNonLoopbackAddress();
+        if (host == null) {
+            throw new SkipException("There are no non-loopback addresses.");
+        }
+        Path path = Files.createTempFile("carina", ".pac");
+        try {
+            Files.writeString(path, PAC);
+            URI loopbackUrl = URI.create(PacServer.getUrl(path, "127.0.0.1"));
+            URI url = URI.create(PacServer.getUrl(path, host));
+            Assert.assertEquals(url.getPort(), loopbackUrl.getPort(), "Server should be restarted on the same port");
+
+            HttpClient client = HttpClient.newHttpClient();
+            for (URI uri : List.of(url, loopbackUrl)) {
+                HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).build(),
+                        HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                Assert.assertEquals(response.statusCode(), 200, "PAC file should be available by " + uri);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static String getNonLoopbackAddress() throws SocketException {
+        for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                if (address instanceof Inet4Address) {
+                    return address.getHostAddress();
+                }
+            }
+        }
+        return null;
+    }
+}
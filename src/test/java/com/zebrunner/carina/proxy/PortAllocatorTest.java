@@ -0,0 +1,101 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class PortAllocatorTest {
+
+    @Test
+    public void testParsePorts() {
+        Assert.assertEquals(PortAllocator.parsePorts("20, 30:33, 400"), List.of(20, 30, 31, 32, 33, 400));
+        Assert.assertEquals(PortAllocator.parsePorts("8000:8002"), List.of(8000, 8001, 8002));
+        Assert.assertEquals(PortAllocator.parsePorts("10,10, 9:10"), List.of(10, 9));
+    }
+
+    @Test
+    public void testParseInvalidPorts() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> PortAllocator.parsePorts("40:30"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> PortAllocator.parsePorts("1:2:3"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> PortAllocator.parsePorts("abc"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> PortAllocator.parsePorts("70000"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> PortAllocator.parsePorts(" "));
+    }
+
+    @Test
+    public void testAllocateAndRelease() {
+        PortAllocator allocator = new PortAllocator(List.of(1, 2), false, Duration.ZERO);
+        int first = allocator.allocate().orElseThrow();
+        int second = allocator.allocate().orElseThrow();
+        Assert.assertNotEquals(first, second);
+        Assert.assertTrue(allocator.allocate().isEmpty(), "All ports should be busy");
+        Assert.assertEquals(allocator.getAvailableCount(), 0);
+
+        Assert.assertTrue(allocator.release(first));
+        Assert.assertFalse(allocator.release(first), "Port should not be released twice");
+        Assert.assertFalse(allocator.release(3), "Port is not managed by allocator");
+        Assert.assertEquals(allocator.allocate().orElseThrow(), first);
+    }
+
+    @Test
+    public void testFailedPortIsQuarantined() {
+        PortAllocator allocator = new PortAllocator(List.of(1, 2), false, Duration.ofMinutes(1));
+        int port = allocator.allocate().orElseThrow();
+        allocator.release(port, true);
+        int anotherPort = allocator.allocate().orElseThrow();
+        Assert.assertNotEquals(anotherPort, port, "Quarantined port should not be allocated");
+        Assert.assertTrue(allocator.allocate().isEmpty(), "Quarantined port should not be allocated");
+    }
+
+    @Test
+    public void testBusyPortIsSkipped() throws IOException {
+        try (ServerSocket busySocket = new ServerSocket(0); ServerSocket freeSocket = new ServerSocket(0)) {
+            int busyPort = busySocket.getLocalPort();
+            int freePort = freeSocket.getLocalPort();
+            freeSocket.close();
+            PortAllocator allocator = new PortAllocator(List.of(busyPort, freePort), true, Duration.ofMinutes(1));
+            Assert.assertEquals(allocator.allocate(), OptionalInt.of(freePort));
+            Assert.assertTrue(allocator.allocate().isEmpty(), "Port that could not be bound should not be allocated");
+        }
+    }
+
+    @Test
+    public void testConcurrentAllocation() throws InterruptedException {
+        int capacity = 1000;
+        PortAllocator allocator = new PortAllocator(IntStream.range(1, capacity + 1).boxed().collect(Collectors.toList()),
+                false, Duration.ZERO);
+        Set<Integer> allocated = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch latch = new CountDownLatch(16);
+        for (int i = 0; i < 16; i++) {
+            executor.execute(() -> {
+                OptionalInt port;
+                while ((port = allocator.allocate()).isPresent()) {
+                    if (!allocated.add(port.getAsInt())) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assert.assertEquals(duplicates.get(), 0, "Port should not be allocated twice");
+        Assert.assertEquals(allocated.size(), capacity);
+    }
+}
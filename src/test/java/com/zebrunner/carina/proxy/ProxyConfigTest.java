@@ -0,0 +1,103 @@
+package com.zebrunner.carina.proxy;
+
+import com.zebrunner.carina.utils.R;
+import com.zebrunner.carina.utils.exception.InvalidConfigurationException;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ProxyConfigTest {
+    private final Map<String, String> initialValues = new HashMap<>();
+
+    @BeforeMethod
+    public void saveConfiguration() {
+        for (String key : ProxyConfig.KEYS) {
+            initialValues.put(key, R.CONFIG.get(key));
+        }
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void restoreConfiguration() {
+        initialValues.forEach(R.CONFIG::put);
+        ProxyConfig.invalidate();
+    }
+
+    @Test
+    public void testSnapshotIsCachedUntilConfigurationChanged() {
+        R.CONFIG.put("proxy_protocols", "http");
+        ProxyConfig.invalidate();
+        ProxyConfig config = ProxyConfig.get();
+        Assert.assertSame(ProxyConfig.get(), config, "Snapshot should be reused while configuration is not changed");
+        ProxyConfig.invalidate();
+        Assert.assertSame(ProxyConfig.get(), config, "Snapshot should be reused while configuration is not changed");
+
+        R.CONFIG.put("proxy_protocols", "http,socks");
+        Assert.assertSame(ProxyConfig.get(), config, "Configuration should not be re-read before invalidation");
+        ProxyConfig.invalidate();
+        ProxyConfig changed = ProxyConfig.get();
+        Assert.assertNotSame(changed, config, "Snapshot should be rebuilt after configuration is changed");
+        Assert.assertEquals(changed.getProtocols(), EnumSet.of(Protocol.HTTP, Protocol.SOCKS));
+    }
+
+    @Test
+    public void testRefreshAppliesChangesOnlyInCurrentThread() throws Exception {
+        R.CONFIG.put("proxy_protocols", "http");
+        ProxyConfig.invalidate();
+        ProxyConfig config = ProxyConfig.get();
+        ProxyConfig.refresh();
+        Assert.assertSame(ProxyConfig.get(), config, "Snapshot should be reused while configuration is not changed");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ProxyConfig otherThreadConfig = executor.submit(ProxyConfig::get).get();
+            R.CONFIG.put("proxy_protocols", "http,socks");
+            ProxyConfig.refresh();
+            ProxyConfig changed = ProxyConfig.get();
+            Assert.assertNotSame(changed, config, "Snapshot should be rebuilt after configuration is changed");
+            Assert.assertEquals(changed.getProtocols(), EnumSet.of(Protocol.HTTP, Protocol.SOCKS));
+            Assert.assertSame(executor.submit(ProxyConfig::get).get(), otherThreadConfig,
+                    "Snapshot of another thread should not be affected by refresh");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSnapshotParsesValues() {
+        R.CONFIG.put("proxy_host", "127.0.0.1");
+        R.CONFIG.put("proxy_port", "3128");
+        R.CONFIG.put("proxy_ports", "NULL");
+        R.CONFIG.put("proxy_protocols", " http, https ftp,unknown");
+        R.CONFIG.put("no_proxy", "localhost, *.example.com,,127.0.0.1 ");
+        ProxyConfig.invalidate();
+
+        ProxyConfig config = ProxyConfig.get();
+        Assert.assertEquals(config.getProxyAddress(), "127.0.0.1:3128");
+        Assert.assertEquals(config.getStaticPort().getAsInt(), 3128);
+        Assert.assertTrue(config.getProxyPorts().isEmpty());
+        Assert.assertEquals(config.getProtocols(), EnumSet.of(Protocol.HTTP, Protocol.HTTPS, Protocol.FTP));
+        Assert.assertEquals(config.getNoProxyMatcher().getPatterns(), List.of("localhost", "*.example.com", "127.0.0.1"));
+        Assert.assertEquals(config.getNoProxy(), "localhost,*.example.com,127.0.0.1");
+        Assert.assertEquals(config.getSystemNoProxy(), "localhost|*.example.com|127.0.0.1");
+    }
+
+    @Test
+    public void testInvalidPortsAreReportedOnUse() {
+        R.CONFIG.put("proxy_port", "abc");
+        R.CONFIG.put("proxy_ports", "abc:def");
+        ProxyConfig.invalidate();
+
+        ProxyConfig config = ProxyConfig.get();
+        Assert.assertEquals(config.getProxyPort(), "abc");
+        Assert.assertThrows(InvalidConfigurationException.class, config::getStaticPort);
+        Assert.assertThrows(InvalidConfigurationException.class, config::getProxyPorts);
+    }
+}
@@ -0,0 +1,151 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+public class ProxyHealthCheckerTest {
+    private static final String HOST = "127.0.0.1";
+
+    @Test
+    public void testDirectTargets() throws IOException {
+        try (ServerSocket alive = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            int deadPort = getClosedPort();
+            List<HealthCheckResult> results = ProxyHealthChecker.check(List.of(
+                    HealthCheckTarget.direct(HOST, alive.getLocalPort()),
+                    HealthCheckTarget.direct(HOST, deadPort)), Duration.ofSeconds(5));
+
+            Assert.assertEquals(results.size(), 2);
+            Assert.assertTrue(results.get(0).isAlive(), results.get(0).toString());
+            Assert.assertTrue(results.get(0).getError().isEmpty());
+            Assert.assertFalse(results.get(1).isAlive(), results.get(1).toString());
+            Assert.assertFalse(results.get(1).isTimedOut());
+            Assert.assertTrue(results.get(1).getError().isPresent());
+        }
+    }
+
+    @Test
+    public void testHttpConnect() throws IOException {
+        try (ServerSocket proxy = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            Thread thread = serve(proxy, socket -> {
+                String request = readHead(socket.getInputStream());
+                String response = request.startsWith("CONNECT example.com:443 HTTP/1.1")
+                        ? "HTTP/1.1 200 Connection established\r\n\r\n"
+                        : "HTTP/1.1 400 Bad Request\r\n\r\n";
+                socket.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+            });
+            HealthCheckResult result = ProxyHealthChecker.check(
+                    HealthCheckTarget.viaProxy(HOST, proxy.getLocalPort(), Proxy.Type.HTTP, "example.com", 443),
+                    Duration.ofSeconds(5));
+            Assert.assertTrue(result.isAlive(), result.toString());
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void testHttpConnectRejected() throws IOException {
+        try (ServerSocket proxy = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            Thread thread = serve(proxy, socket -> {
+                readHead(socket.getInputStream());
+                socket.getOutputStream().write("HTTP/1.1 403 Forbidden\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            });
+            HealthCheckResult result = ProxyHealthChecker.check(
+                    HealthCheckTarget.viaProxy(HOST, proxy.getLocalPort(), Proxy.Type.HTTP, "example.com", 443),
+                    Duration.ofSeconds(5));
+            Assert.assertFalse(result.isAlive());
+            Assert.assertEquals(result.getError().orElseThrow(), "Proxy responded: HTTP/1.1 403 Forbidden");
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void testSocksConnect() throws IOException {
+        try (ServerSocket proxy = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            Thread thread = serve(proxy, socket -> {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                Assert.assertEquals(in.readNBytes(3), new byte[] { 5, 1, 0 });
+                out.write(new byte[] { 5, 0 });
+                byte[] head = in.readNBytes(5);
+                byte[] host = in.readNBytes(head[4]);
+                in.readNBytes(2);
+                byte status = "example.com".equals(new String(host, StandardCharsets.US_ASCII)) ? (byte) 0 : (byte) 4;
+                out.write(new byte[] { 5, status, 0, 1, 127, 0, 0, 1, 0, 80 });
+            });
+            HealthCheckResult result = ProxyHealthChecker.check(
+                    HealthCheckTarget.viaProxy(HOST, proxy.getLocalPort(), Proxy.Type.SOCKS, "example.com", 80),
+                    Duration.ofSeconds(5));
+            Assert.assertTrue(result.isAlive(), result.toString());
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void testSilentProxyTimesOut() throws IOException {
+        // proxy accepts connection, but never answers
+        try (ServerSocket proxy = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            HealthCheckResult result = ProxyHealthChecker.check(
+                    HealthCheckTarget.viaProxy(HOST, proxy.getLocalPort(), Proxy.Type.HTTP, "example.com", 443),
+                    Duration.ofMillis(300));
+            Assert.assertFalse(result.isAlive());
+            Assert.assertTrue(result.isTimedOut());
+        }
+    }
+
+    @Test
+    public void testSystemProxyWrappers() throws IOException {
+        try (ServerSocket alive = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            Assert.assertTrue(SystemProxy.isProxyAlive(HOST, alive.getLocalPort(), 1000));
+            Assert.assertFalse(SystemProxy.isProxyAlive(HOST, getClosedPort(), 1000));
+            Assert.assertFalse(SystemProxy.isResourceAvailableUsingProxy(HOST, alive.getLocalPort(), Proxy.Type.DIRECT,
+                    HOST, 80, 1000));
+        }
+    }
+
+    private static int getClosedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.append((char) b);
+            if (head.length() >= 4 && head.substring(head.length() - 4).equals("\r\n\r\n")) {
+                break;
+            }
+        }
+        return head.toString();
+    }
+
+    private static Thread serve(ServerSocket server, Handler handler) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                handler.handle(socket);
+                // keep connection open until client closes it
+                socket.getInputStream().read();
+            } catch (IOException e) {
+                // server is closed
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private interface Handler {
+        void handle(Socket socket) throws IOException;
+    }
+}
@@ -0,0 +1,64 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ProxyPoolAsyncTest {
+
+    @Test
+    public void testProxyIsStartedAsyncForCallingThread() throws Exception {
+        FakeProxy proxy = new FakeProxy();
+        IProxyInfo proxyInfo = ProxyPool.startProxyAsync(proxy).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(proxyInfo.getHost(), "127.0.0.1");
+        Assert.assertSame(ProxyPool.getProxy().orElse(null), proxy, "Proxy should be owned by the calling thread");
+
+        ProxyPool.stopProxyAsync().get(10, TimeUnit.SECONDS);
+        Assert.assertFalse(proxy.isStarted(), "Proxy should be stopped");
+        Assert.assertFalse(ProxyPool.isProxyRegistered(), "Proxy should be removed from the pool");
+    }
+
+    @Test
+    public void testStopAllProxiesAbortsSlowProxies() throws Exception {
+        HangingProxy hangingProxy = new HangingProxy();
+        FakeProxy proxy = new FakeProxy();
+        Thread thread = new Thread(() -> ProxyPool.startProxy(proxy));
+        thread.start();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+        ProxyPool.startProxy(hangingProxy);
+
+        long start = System.nanoTime();
+        try {
+            ProxyPool.stopAllProxies(Duration.ofMillis(300));
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "Proxies should be stopped in bounded time");
+            Assert.assertFalse(proxy.isStarted(), "Proxy should be stopped gracefully");
+            Assert.assertTrue(hangingProxy.aborted, "Hanging proxy should be aborted");
+            Assert.assertFalse(ProxyPool.isProxyRegistered(), "Proxy should be removed from the pool");
+        } finally {
+            hangingProxy.release.countDown();
+        }
+    }
+
+    private static class HangingProxy extends FakeProxy {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean aborted = false;
+
+        @Override
+        public void stop() {
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.stop();
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+
+public class ProxyReadinessTest {
+
+    @Test
+    public void testReadyListenerIsDetectedImmediately() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Duration startup = ProxyReadiness.awaitReady(serverSocket.getLocalPort(), Duration.ofSeconds(5));
+            Assert.assertTrue(startup.toMillis() < 1000, "Listener should be detected without pause, but took: " + startup);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testNotBoundListenerFailsAfterTimeout() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = serverSocket.getLocalPort();
+        }
+        ProxyReadiness.awaitReady(port, Duration.ofMillis(200));
+    }
+}
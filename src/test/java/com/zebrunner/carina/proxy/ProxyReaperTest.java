@@ -0,0 +1,68 @@
+package com.zebrunner.carina.proxy;
+
+import com.zebrunner.carina.utils.R;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ProxyReaperTest {
+
+    @Test
+    public void testProxyOfDeadThreadIsReclaimed() throws InterruptedException {
+        FakeProxy proxy = new FakeProxy();
+        AtomicLong ownerId = new AtomicLong();
+        Thread thread = new Thread(() -> {
+            ownerId.set(ProxyPool.getOwnerId());
+            ProxyPool.startProxy(proxy);
+            ProxyPool.setRule(Optional::empty, true);
+        });
+        thread.start();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+        Assert.assertTrue(proxy.isStarted(), "Proxy should be started by the thread");
+
+        List<ProxyReapEvent> reaped = new CopyOnWriteArrayList<>();
+        IProxyReapListener listener = reaped::add;
+        ProxyPool.addReapListener(listener);
+        try {
+            ProxyPool.reapLeakedProxies();
+        } finally {
+            ProxyPool.removeReapListener(listener);
+        }
+
+        ProxyReapEvent event = reaped.stream()
+                .filter(e -> e.getOwnerId() == ownerId.get())
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Proxy of the dead thread should be reclaimed"));
+        Assert.assertEquals(event.getReason(), ProxyReapEvent.Reason.DEAD_OWNER);
+        Assert.assertTrue(event.isRuleRemoved(), "Thread-only rule should be removed");
+        Assert.assertFalse(proxy.isStarted(), "Proxy should be stopped");
+        Assert.assertTrue(ProxyPool.getProxy(ownerId.get()).isEmpty(), "Proxy should be removed from the pool");
+    }
+
+    @Test
+    public void testIdleProxyIsReclaimed() throws InterruptedException {
+        long ownerId = Long.MIN_VALUE + 1;
+        FakeProxy proxy = new FakeProxy();
+        ProxyPool.setOwnerResolver(() -> ownerId);
+        try {
+            ProxyPool.startProxy(proxy);
+            R.CONFIG.put("proxy_idle_timeout", "1", true);
+            Assert.assertTrue(ProxyPool.reapLeakedProxies().stream().noneMatch(e -> e.getOwnerId() == ownerId),
+                    "Proxy should not be reclaimed before idle timeout");
+
+            TimeUnit.MILLISECONDS.sleep(1100);
+            Assert.assertTrue(ProxyPool.reapLeakedProxies().stream()
+                    .anyMatch(e -> e.getOwnerId() == ownerId && e.getReason() == ProxyReapEvent.Reason.IDLE),
+                    "Idle proxy should be reclaimed");
+            Assert.assertFalse(proxy.isStarted(), "Idle proxy should be stopped");
+        } finally {
+            R.CONFIG.put("proxy_idle_timeout", "0", true);
+            ProxyPool.setOwnerResolver(null);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ProxySessionTest {
+
+    @Test
+    public void testProxyIsOwnedBySession() throws Exception {
+        long threadId = Thread.currentThread().getId();
+        FakeProxy proxy = new FakeProxy();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ProxySession session = ProxySession.open()) {
+            Assert.assertEquals(ProxyPool.getOwnerId(), session.getId());
+            ProxyPool.register(proxy);
+            Assert.assertTrue(ProxyPool.isProxyRegistered(), "Proxy should be registered for session");
+            Assert.assertTrue(ProxyPool.getProxy(threadId).isEmpty(), "Proxy should not be registered for thread");
+
+            // executor thread is created while session is attached, but it should not inherit the session
+            Assert.assertFalse(executor.submit(ProxyPool::isProxyRegistered).get(10, TimeUnit.SECONDS),
+                    "Proxy should not be visible outside of session");
+            Assert.assertTrue(executor.submit(session.wrap(ProxyPool::isProxyRegistered)).get(10, TimeUnit.SECONDS),
+                    "Proxy should be visible in the wrapped task");
+            Assert.assertFalse(executor.submit(ProxyPool::isProxyRegistered).get(10, TimeUnit.SECONDS),
+                    "Session should be detached after wrapped task");
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(ProxyPool.getOwnerId(), threadId, "Thread should be owner when session is closed");
+        Assert.assertTrue(ProxyPool.getProxy().isEmpty());
+    }
+
+    @Test
+    public void testCustomOwnerResolver() {
+        try {
+            ProxyPool.setOwnerResolver(() -> Long.MIN_VALUE);
+            Assert.assertEquals(ProxyPool.getOwnerId(), Long.MIN_VALUE);
+        } finally {
+            ProxyPool.setOwnerResolver(null);
+        }
+        Assert.assertEquals(ProxyPool.getOwnerId(), Thread.currentThread().getId());
+    }
+}
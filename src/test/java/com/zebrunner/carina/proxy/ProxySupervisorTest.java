@@ -0,0 +1,116 @@
+package com.zebrunner.carina.proxy;
+
+import com.browserup.bup.BrowserUpProxy;
+import com.browserup.bup.BrowserUpProxyServer;
+import com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+
+public class ProxySupervisorTest {
+
+    @Test
+    public void testDeadProxyIsRestartedOnTheSamePort() {
+        long ownerId = Long.MIN_VALUE + 2;
+        SocketProxy proxy = new SocketProxy();
+        ProxyPool.setOwnerResolver(() -> ownerId);
+        try {
+            int port = ProxyPool.startProxy(proxy).getPort();
+            Assert.assertTrue(ProxyPool.checkProxies().stream().noneMatch(r -> r.getTarget().getPort() == port),
+                    "Healthy proxy should not be restarted");
+            Assert.assertEquals(ProxyPool.getRestartCount(), 0);
+
+            proxy.kill();
+            Assert.assertTrue(ProxyPool.checkProxies().stream().anyMatch(r -> r.getTarget().getPort() == port),
+                    "Dead proxy should be detected");
+            Assert.assertEquals(ProxyPool.getRestartCount(), 1);
+            Assert.assertEquals(proxy.getInfo().getPort(), port, "Proxy should be restarted on the same port");
+            Assert.assertTrue(ProxyHealthChecker.check(HealthCheckTarget.direct("127.0.0.1", port), Duration.ofSeconds(2)).isAlive(),
+                    "Restarted proxy should accept connections");
+
+            ProxyPool.stopProxy();
+            Assert.assertEquals(ProxyPool.getRestartCount(), 0, "Restart count should be cleared with the proxy");
+        } finally {
+            ProxyPool.setOwnerResolver(null);
+        }
+    }
+
+    @Test
+    public void testStoppedBrowserUpProxyIsStartedWithFilters() {
+        CarinaBrowserUpProxy proxy = new CarinaBrowserUpProxy();
+        proxy.start(0);
+        BrowserUpProxy server = proxy.getProxy();
+        server.addRequestFilter((request, contents, messageInfo) -> null);
+        int filters = ((BrowserUpProxyServer) server).getFilterFactories().size();
+        int port = proxy.getInfo().getPort();
+
+        // simulate dead server
+        server.stop();
+        Assert.assertFalse(proxy.isStarted(), "Stopped proxy should not be reported as started");
+
+        proxy.restart(port);
+        try {
+            Assert.assertTrue(proxy.isStarted());
+            Assert.assertNotSame(proxy.getProxy(), server, "New BrowserUp server should be created");
+            Assert.assertEquals(proxy.getInfo().getPort(), port);
+            Assert.assertEquals(((BrowserUpProxyServer) proxy.getProxy()).getFilterFactories().size(), filters,
+                    "Filters should be kept");
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    /**
+     * {@link IProxy}, that only accepts connections
+     */
+    private static final class SocketProxy implements IProxy {
+        private ServerSocket socket;
+        private IProxyInfo info;
+
+        @Override
+        public IProxyInfo start(int port) {
+            if (info != null) {
+                throw new IllegalStateException("Proxy already started.");
+            }
+            try {
+                socket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            info = new ProxyInfo("127.0.0.1", socket.getLocalPort());
+            return info;
+        }
+
+        @Override
+        public void stop() {
+            kill();
+            info = null;
+        }
+
+        /**
+         * Close listener, but do not change the state of the proxy
+         */
+        void kill() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public IProxyInfo getInfo() {
+            return info;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return info != null;
+        }
+    }
+}
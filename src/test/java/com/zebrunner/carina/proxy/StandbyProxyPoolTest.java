@@ -0,0 +1,110 @@
+package com.zebrunner.carina.proxy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StandbyProxyPoolTest {
+
+    @Test
+    public void testStandbyProxiesAreStartedInBackground() throws InterruptedException {
+        AtomicInteger ports = new AtomicInteger(10000);
+        List<Integer> releasedPorts = new CopyOnWriteArrayList<>();
+        StandbyProxyPool pool = new StandbyProxyPool(() -> Optional.of(new FakeProxy()), ports::incrementAndGet,
+                releasedPorts::add, () -> 0);
+        Assert.assertTrue(pool.configure("2"), "Standby pool should be enabled");
+        pool.scheduleRefill();
+        waitForSize(pool, 2);
+
+        Optional<IProxy> proxy = pool.poll();
+        Assert.assertTrue(proxy.isPresent(), "Standby proxy should be handed over");
+        Assert.assertTrue(proxy.get().isStarted(), "Standby proxy should be started");
+        waitForSize(pool, 2);
+
+        pool.clear();
+        Assert.assertEquals(pool.size(), 0);
+        Assert.assertEquals(releasedPorts.size(), 2, "Ports of the standby proxies should be released");
+    }
+
+    @Test
+    public void testPortOfStoppedStandbyProxyIsReleased() throws InterruptedException {
+        AtomicInteger ports = new AtomicInteger(10000);
+        List<Integer> releasedPorts = new CopyOnWriteArrayList<>();
+        List<IProxy> started = new CopyOnWriteArrayList<>();
+        StandbyProxyPool pool = new StandbyProxyPool(() -> {
+            FakeProxy proxy = new FakeProxy();
+            started.add(proxy);
+            return Optional.of(proxy);
+        }, ports::incrementAndGet, releasedPorts::add, () -> 0);
+        Assert.assertTrue(pool.configure("1"), "Standby pool should be enabled");
+        pool.scheduleRefill();
+        waitForSize(pool, 1);
+
+        // for example, stopped by the health check
+        started.get(0).stop();
+        Assert.assertTrue(pool.poll().isEmpty(), "Stopped standby proxy should not be handed over");
+        Assert.assertEquals(releasedPorts, List.of(10001), "Port of the stopped standby proxy should be released");
+
+        waitForSize(pool, 1);
+        pool.clear();
+        Assert.assertEquals(releasedPorts, List.of(10001, 10002));
+    }
+
+    @Test
+    public void testProxyStartedDuringClearIsStopped() throws InterruptedException {
+        CountDownLatch starting = new CountDownLatch(1);
+        CountDownLatch cleared = new CountDownLatch(1);
+        List<Integer> releasedPorts = new CopyOnWriteArrayList<>();
+        FakeProxy proxy = new FakeProxy() {
+            @Override
+            public IProxyInfo start(int port) {
+                starting.countDown();
+                try {
+                    cleared.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.start(port);
+            }
+        };
+        StandbyProxyPool pool = new StandbyProxyPool(() -> Optional.of(proxy), () -> 10001, releasedPorts::add, () -> 0);
+        Assert.assertTrue(pool.configure("1"), "Standby pool should be enabled");
+        pool.scheduleRefill();
+        Assert.assertTrue(starting.await(5, TimeUnit.SECONDS), "Standby proxy should be started");
+
+        // for example, the rule is changed
+        pool.clear();
+        cleared.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (releasedPorts.isEmpty() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(releasedPorts, List.of(10001), "Port of the proxy started during clear should be released");
+        Assert.assertFalse(proxy.isStarted(), "Proxy started during clear should be stopped");
+        Assert.assertEquals(pool.size(), 0);
+    }
+
+    @Test
+    public void testStandbyPoolIsDisabledByDefault() {
+        StandbyProxyPool pool = new StandbyProxyPool(() -> Optional.of(new FakeProxy()), () -> 0, port -> {
+        }, () -> 0);
+        Assert.assertFalse(pool.configure(""), "Standby pool should be disabled");
+        Assert.assertFalse(pool.configure("0"), "Standby pool should be disabled");
+        Assert.assertTrue(pool.configure("auto"), "Standby pool should be enabled");
+        Assert.assertTrue(pool.poll().isEmpty(), "There should be no standby proxies before warm up");
+    }
+
+    private static void waitForSize(StandbyProxyPool pool, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.size() < size && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(pool.size(), size, "Unexpected number of standby proxies");
+    }
+}
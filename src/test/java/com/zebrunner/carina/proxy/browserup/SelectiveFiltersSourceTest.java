@@ -0,0 +1,151 @@
+package com.zebrunner.carina.proxy.browserup;
+
+import com.zebrunner.carina.proxy.browserup.rewrite.HeaderItem;
+import com.zebrunner.carina.proxy.browserup.rewrite.HeaderMethod;
+import com.zebrunner.carina.proxy.browserup.rewrite.ReloadableRewriteRules;
+import com.zebrunner.carina.proxy.browserup.rewrite.RewriteItem;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.apache.commons.lang3.tuple.Pair;
+import org.littleshoot.proxy.HttpFilters;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class SelectiveFiltersSourceTest {
+    private EmbeddedChannel client;
+    private EmbeddedChannel server;
+    private SelectiveFiltersSource source;
+
+    @BeforeMethod
+    public void setUp() {
+        source = SelectiveFiltersSource.forResponseRewrite(List.of(
+                new RewriteItem(".*example\\.com.*", "cdn\\.example\\.com", "cdn.example.org", List.of()),
+                new RewriteItem(".*static\\.net.*", "", "",
+                        List.of(new HeaderItem(HeaderMethod.UPDATE, Pair.of("Cache-Control", "no-cache"))))));
+        client = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        server = new EmbeddedChannel();
+        // the same name as in the pipeline of the LittleProxy server connection
+        server.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        client.finishAndReleaseAll();
+        server.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testSelectedResponseIsAggregated() {
+        HttpFilters filters = request("http://example.com/index.html");
+
+        server.writeInbound(head("text/html"), new DefaultHttpContent(buffer("<a href='//cdn.exa")),
+                new DefaultLastHttpContent(buffer("mple.com/a.js'>")));
+        Object aggregated = server.readInbound();
+        Assert.assertTrue(aggregated instanceof FullHttpResponse, "Selected response should be aggregated");
+        Assert.assertNull(server.readInbound());
+
+        filters.serverToProxyResponse((HttpObject) aggregated);
+        Assert.assertEquals(((FullHttpResponse) aggregated).content().toString(StandardCharsets.UTF_8),
+                "<a href='//cdn.example.org/a.js'>");
+        ((FullHttpResponse) aggregated).release();
+    }
+
+    @Test
+    public void testBinaryResponseIsStreamed() {
+        request("http://example.com/index.html");
+        server.writeInbound(head("text/html"), new DefaultLastHttpContent(buffer("text")));
+        ((FullHttpResponse) server.readInbound()).release();
+
+        // the next request on the same connections
+        request("http://example.com/logo.png");
+        server.writeInbound(head("image/png"), new DefaultHttpContent(buffer("cdn.example.com")),
+                new DefaultLastHttpContent(Unpooled.EMPTY_BUFFER));
+        Object head = server.readInbound();
+        Assert.assertTrue(head instanceof HttpResponse && !(head instanceof FullHttpResponse), "Binary response should be streamed");
+        HttpContent content = server.readInbound();
+        Assert.assertEquals(content.content().toString(StandardCharsets.UTF_8), "cdn.example.com");
+        content.release();
+        Assert.assertTrue(server.readInbound() instanceof LastHttpContent);
+    }
+
+    @Test
+    public void testHeaderOnlyRuleIsAppliedWithoutAggregation() {
+        HttpFilters filters = request("http://static.net/app.css");
+
+        HttpResponse head = head("text/css");
+        server.writeInbound(head, new DefaultLastHttpContent(buffer("body")));
+        Assert.assertSame(server.readInbound(), head, "Response of the header-only rule should be streamed");
+        ((HttpContent) server.readInbound()).release();
+
+        filters.serverToProxyResponse(head);
+        Assert.assertEquals(head.headers().get(HttpHeaderNames.CACHE_CONTROL), "no-cache");
+    }
+
+    @Test
+    public void testResponseIsRewrittenByRulesItWasSelectedBy() {
+        ReloadableRewriteRules rules = ReloadableRewriteRules.of(List.of(
+                new RewriteItem(".*static\\.net.*", "", "",
+                        List.of(new HeaderItem(HeaderMethod.UPDATE, Pair.of("Cache-Control", "no-cache"))))));
+        source = SelectiveFiltersSource.forResponseRewrite(rules);
+        HttpFilters filters = request("http://static.net/app.css");
+        rules.update(List.of());
+
+        HttpResponse head = head("text/css");
+        filters.serverToProxyResponse(head);
+        Assert.assertEquals(head.headers().get(HttpHeaderNames.CACHE_CONTROL), "no-cache",
+                "Response should be rewritten by the rules of the request, even if they were replaced");
+    }
+
+    @Test
+    public void testNotSelectedRequestIsNotChanged() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://other.org/");
+        request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        HttpFilters filters = source.filterRequest(request, client.pipeline().firstContext());
+        filters.clientToProxyRequest(request);
+        Assert.assertEquals(request.headers().get(HttpHeaderNames.ACCEPT_ENCODING), "gzip");
+        Assert.assertEquals(source.getMaximumRequestBufferSizeInBytes(), 0);
+        Assert.assertEquals(source.getMaximumResponseBufferSizeInBytes(), 0);
+    }
+
+    private HttpFilters request(String url) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, url);
+        request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        ChannelHandlerContext ctx = client.pipeline().firstContext();
+        HttpFilters filters = source.filterRequest(request, ctx);
+        Assert.assertNull(filters.clientToProxyRequest(request));
+        filters.proxyToServerConnectionSucceeded(server.pipeline().context("handler"));
+        return filters;
+    }
+
+    private static HttpResponse head(String contentType) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        return response;
+    }
+
+    private static ByteBuf buffer(String text) {
+        return Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,32 @@
+package com.zebrunner.carina.proxy.browserup.archive;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RequestFingerprinterTest {
+
+    @Test
+    public void testUrlIsNormalized() {
+        RequestFingerprinter fingerprinter = new RequestFingerprinter().ignoreQueryParams("ts", "_");
+        HttpHeaders headers = new DefaultHttpHeaders();
+        Assert.assertEquals(fingerprinter.fingerprint("get", "HTTP://Example.COM:80/api?b=2&ts=123&a=1&_=x&a=0#top", headers),
+                "GET http://example.com/api?a=1&a=0&b=2");
+        Assert.assertEquals(fingerprinter.fingerprint("GET", "https://example.com:443", headers), "GET https://example.com/");
+        Assert.assertEquals(fingerprinter.fingerprint("GET", "https://example.com:8443/?ts=1", headers), "GET https://example.com:8443/");
+    }
+
+    @Test
+    public void testSelectedHeadersAreHashed() {
+        RequestFingerprinter fingerprinter = new RequestFingerprinter().includeHeaders("Accept-Language");
+        HttpHeaders en = new DefaultHttpHeaders().set("accept-language", "en").set("User-Agent", "a");
+        HttpHeaders enOtherAgent = new DefaultHttpHeaders().set("Accept-Language", "en").set("User-Agent", "b");
+        HttpHeaders de = new DefaultHttpHeaders().set("Accept-Language", "de");
+
+        String fingerprint = fingerprinter.fingerprint("GET", "http://example.com/", en);
+        Assert.assertTrue(fingerprint.startsWith("GET http://example.com/ #"), fingerprint);
+        Assert.assertEquals(fingerprinter.fingerprint("GET", "http://example.com/", enOtherAgent), fingerprint);
+        Assert.assertNotEquals(fingerprinter.fingerprint("GET", "http://example.com/", de), fingerprint);
+    }
+}
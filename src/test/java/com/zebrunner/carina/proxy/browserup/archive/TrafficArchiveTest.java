@@ -0,0 +1,121 @@
+package com.zebrunner.carina.proxy.browserup.archive;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TrafficArchiveTest {
+    private HttpServer server;
+    private Path directory;
+    private final AtomicInteger upstreamRequests = new AtomicInteger();
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        upstreamRequests.set(0);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            upstreamRequests.incrementAndGet();
+            byte[] body = ("hello " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.getResponseHeaders().set("X-Upstream", "1");
+            // chunked response
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        directory = Files.createTempDirectory("traffic-archive");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        TrafficArchive.open(directory).close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testRecordedResponsesAreReplayedWithoutUpstream() throws IOException {
+        RequestFingerprinter fingerprinter = new RequestFingerprinter().ignoreQueryParams("ts");
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        CarinaBrowserUpProxy recorder = new CarinaBrowserUpProxy();
+        TrafficArchiveFiltersSource recording = recorder.recordTraffic(directory, fingerprinter);
+        recorder.start(0);
+        try {
+            Assert.assertEquals(get(recorder, base + "/first?ts=1"), "hello /first");
+            Assert.assertEquals(get(recorder, base + "/second"), "hello /second");
+        } finally {
+            recorder.stop();
+        }
+        Assert.assertEquals(recording.getRecordedCount(), 2);
+        Assert.assertEquals(upstreamRequests.get(), 2);
+
+        // archive is loaded from the disk
+        TrafficArchive.open(directory).close();
+        server.stop(0);
+
+        CarinaBrowserUpProxy player = new CarinaBrowserUpProxy();
+        TrafficArchiveFiltersSource replay = player.replayTraffic(directory, fingerprinter);
+        Assert.assertEquals(replay.getArchive().size(), 2);
+        player.start(0);
+        try {
+            HttpURLConnection connection = open(player, base + "/first?ts=2");
+            Assert.assertEquals(connection.getResponseCode(), 200);
+            Assert.assertEquals(connection.getHeaderField("X-Upstream"), "1");
+            Assert.assertEquals(read(connection), "hello /first");
+            Assert.assertEquals(get(player, base + "/second"), "hello /second");
+
+            connection = open(player, base + "/third");
+            Assert.assertEquals(connection.getResponseCode(), 404);
+            Assert.assertEquals(connection.getHeaderField(TrafficArchiveFiltersSource.ARCHIVE_HEADER), "miss");
+            connection.disconnect();
+        } finally {
+            player.stop();
+        }
+        Assert.assertEquals(replay.getReplayedCount(), 2);
+        Assert.assertEquals(replay.getMissedCount(), 1);
+        Assert.assertEquals(upstreamRequests.get(), 2, "Replayed requests should not be sent upstream");
+    }
+
+    private static String get(CarinaBrowserUpProxy proxy, String url) throws IOException {
+        HttpURLConnection connection = open(proxy, url);
+        Assert.assertEquals(connection.getResponseCode(), 200);
+        return read(connection);
+    }
+
+    private static HttpURLConnection open(CarinaBrowserUpProxy proxy, String url) throws IOException {
+        Proxy httpProxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.getProxy().getPort()));
+        return (HttpURLConnection) new URL(url).openConnection(httpProxy);
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        try (InputStream is = connection.getInputStream()) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
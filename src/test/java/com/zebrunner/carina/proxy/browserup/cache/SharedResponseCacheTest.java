@@ -0,0 +1,249 @@
+package com.zebrunner.carina.proxy.browserup.cache;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SharedResponseCacheTest {
+
+    @Test
+    public void testFreshnessLifetime() {
+        long now = System.currentTimeMillis();
+        HttpRequest request = request("http://example.com/app.js");
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, response("max-age=60"), now), 60_000);
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, response("max-age=60, s-maxage=10"), now), 10_000);
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, response("private, max-age=60"), now), 0);
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, response("no-cache"), now), 0);
+
+        HttpResponse expires = response(null);
+        expires.headers().set(HttpHeaderNames.DATE, DateFormatter.format(new Date(now)));
+        expires.headers().set(HttpHeaderNames.EXPIRES, DateFormatter.format(new Date(now + 120_000)));
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, expires, now), 120_000);
+
+        HttpResponse heuristic = response(null);
+        heuristic.headers().set(HttpHeaderNames.DATE, DateFormatter.format(new Date(now)));
+        heuristic.headers().set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(now - 1_000_000)));
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, heuristic, now), 100_000);
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, response(null), now), 0);
+
+        HttpResponse cookie = response("max-age=60");
+        cookie.headers().set(HttpHeaderNames.SET_COOKIE, "a=b");
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(request, cookie, now), 0);
+
+        HttpRequest authorized = request("http://example.com/app.js");
+        authorized.headers().set(HttpHeaderNames.AUTHORIZATION, "Bearer x");
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(authorized, response("max-age=60"), now), 0);
+        Assert.assertEquals(HttpCacheRules.freshnessLifetime(authorized, response("public, max-age=60"), now), 60_000);
+    }
+
+    @Test
+    public void testResponsesAreServedAndEvicted() {
+        SharedResponseCache cache = new SharedResponseCache(80, Duration.ofSeconds(1));
+        Assert.assertEquals(cache.getMaxEntrySize(), 10);
+        for (int i = 0; i < 9; i++) {
+            Assert.assertTrue(cache.put("http://example.com/" + i, request("http://example.com/" + i), response("max-age=60"), body("0123456789")));
+        }
+        Assert.assertFalse(cache.put("http://example.com/large", request("http://example.com/large"), response("max-age=60"), body("01234567890")));
+        Assert.assertEquals(cache.getEntryCount(), 8);
+        Assert.assertEquals(cache.getSize(), 80);
+        Assert.assertEquals(cache.getEvictionCount(), 1);
+        Assert.assertNull(cache.get("http://example.com/0", request("http://example.com/0")), "The eldest response should be evicted");
+
+        FullHttpResponse response = cache.get("http://example.com/1", request("http://example.com/1"));
+        Assert.assertNotNull(response);
+        Assert.assertEquals(response.content().toString(StandardCharsets.UTF_8), "0123456789");
+        Assert.assertEquals(response.headers().get(HttpHeaderNames.AGE), "0");
+        Assert.assertEquals(response.headers().getInt(HttpHeaderNames.CONTENT_LENGTH).intValue(), 10);
+        // the served content is still usable after eviction
+        cache.clear();
+        Assert.assertEquals(response.content().toString(StandardCharsets.UTF_8), "0123456789");
+        response.release();
+
+        HttpRequest noCache = request("http://example.com/2");
+        noCache.headers().set(HttpHeaderNames.CACHE_CONTROL, "no-cache");
+        cache.put("http://example.com/2", request("http://example.com/2"), response("max-age=60"), body("0"));
+        Assert.assertNull(cache.get("http://example.com/2", noCache));
+        cache.clear();
+    }
+
+    @Test
+    public void testVariantIsSelectedByVaryHeaders() {
+        SharedResponseCache cache = new SharedResponseCache(1024, Duration.ofSeconds(1));
+        HttpRequest gzip = request("http://example.com/app.js");
+        gzip.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        HttpResponse response = response("max-age=60");
+        response.headers().set(HttpHeaderNames.VARY, "Accept-Encoding");
+        cache.put("http://example.com/app.js", gzip, response, body("gzipped"));
+
+        FullHttpResponse cached = cache.get("http://example.com/app.js", gzip);
+        Assert.assertNotNull(cached);
+        cached.release();
+        Assert.assertNull(cache.get("http://example.com/app.js", request("http://example.com/app.js")));
+        cache.clear();
+    }
+
+    @Test
+    public void testHopByHopHeadersAreNotStored() {
+        SharedResponseCache cache = new SharedResponseCache(1024, Duration.ofSeconds(1));
+        HttpResponse response = response("max-age=60");
+        response.headers().set(HttpHeaderNames.CONNECTION, "close, X-Hop");
+        response.headers().set("Keep-Alive", "timeout=5");
+        response.headers().set("Proxy-Connection", "keep-alive");
+        response.headers().set("X-Hop", "1");
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
+        cache.put("http://example.com/", request("http://example.com/"), response, body("hello"));
+
+        FullHttpResponse cached = cache.get("http://example.com/", request("http://example.com/"));
+        Assert.assertNotNull(cached);
+        Assert.assertFalse(cached.headers().contains(HttpHeaderNames.CONNECTION));
+        Assert.assertFalse(cached.headers().contains("Keep-Alive"));
+        Assert.assertFalse(cached.headers().contains("Proxy-Connection"));
+        Assert.assertFalse(cached.headers().contains("X-Hop"));
+        Assert.assertEquals(cached.headers().get(HttpHeaderNames.CONTENT_TYPE), "text/plain");
+        cached.release();
+        cache.clear();
+    }
+
+    @Test
+    public void testLookupDoesNotWait() {
+        SharedResponseCache cache = new SharedResponseCache(1024, SharedResponseCache.DEFAULT_COALESCING_TIMEOUT);
+        String key = "http://example.com/";
+        long start = System.nanoTime();
+        Assert.assertNull(cache.getPendingFill(key, request(key)));
+        Assert.assertTrue(cache.lookup(key, request(key)).isFilling());
+        SharedResponseCache.Lookup second = cache.lookup(key, request(key));
+        Assert.assertNull(second.getResponse());
+        Assert.assertFalse(second.isFilling(), "Only one request should fill the cache");
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "Lookup should not wait");
+        Assert.assertEquals(cache.getMissCount(), 2);
+
+        CompletableFuture<Void> fill = cache.getPendingFill(key, request(key));
+        Assert.assertNotNull(fill, "Fill should be pending");
+        cache.put(key, request(key), response("max-age=60"), body("hello"));
+        cache.complete(key);
+        Assert.assertTrue(fill.isDone());
+        FullHttpResponse response = cache.getCoalesced(key, request(key), fill);
+        Assert.assertNotNull(response);
+        response.release();
+        Assert.assertEquals(cache.getCoalescedCount(), 1);
+        cache.clear();
+
+        SharedResponseCache notCoalescing = new SharedResponseCache(1024, Duration.ZERO);
+        Assert.assertFalse(notCoalescing.lookup(key, request(key)).isFilling());
+        Assert.assertNull(notCoalescing.getPendingFill(key, request(key)), "Requests should not wait when timeout is zero");
+    }
+
+    @Test
+    public void testProxiesShareCacheAndCoalesceMisses() throws Exception {
+        AtomicInteger upstreamRequests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            upstreamRequests.incrementAndGet();
+            try {
+                TimeUnit.MILLISECONDS.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "bundle".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/javascript");
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=600");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        SharedResponseCache cache = new SharedResponseCache(1024 * 1024, Duration.ofSeconds(10));
+        CarinaBrowserUpProxy first = new CarinaBrowserUpProxy();
+        CarinaBrowserUpProxy second = new CarinaBrowserUpProxy();
+        first.useResponseCache(cache);
+        second.useResponseCache(cache);
+        first.start(0);
+        second.start(0);
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/bundle.js";
+            // every client keeps its connection to the proxy, and requests are held by the handler,
+            // that is added to the connection with its first request
+            HttpClient firstClient = client(first);
+            HttpClient secondClient = client(second);
+            Assert.assertEquals(get(firstClient, url + "?warmup=1"), "bundle");
+            Assert.assertEquals(get(secondClient, url + "?warmup=2"), "bundle");
+            CompletableFuture<String> firstResponse = CompletableFuture.supplyAsync(() -> get(firstClient, url));
+            CompletableFuture<String> secondResponse = CompletableFuture.supplyAsync(() -> get(secondClient, url));
+            Assert.assertEquals(firstResponse.get(10, TimeUnit.SECONDS), "bundle");
+            Assert.assertEquals(secondResponse.get(10, TimeUnit.SECONDS), "bundle");
+            Assert.assertEquals(get(secondClient, url), "bundle");
+        } finally {
+            first.stop();
+            second.stop();
+            server.stop(0);
+            cache.clear();
+        }
+        Assert.assertEquals(upstreamRequests.get(), 3, "Only one request to the same URL should be sent upstream");
+        Assert.assertEquals(cache.getMissCount(), 3);
+        Assert.assertEquals(cache.getCoalescedCount(), 1, "Concurrent request should wait for the first one");
+        Assert.assertEquals(cache.getHitCount(), 1);
+    }
+
+    private static HttpClient client(CarinaBrowserUpProxy proxy) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .proxy(ProxySelector.of(new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.getProxy().getPort())))
+                .build();
+    }
+
+    private static String get(HttpClient client, String url) {
+        try {
+            return client.send(java.net.http.HttpRequest.newBuilder(URI.create(url)).build(),
+                    java.net.http.HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).body();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(e);
+        }
+    }
+
+    private static HttpRequest request(String url) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, url);
+    }
+
+    private static HttpResponse response(String cacheControl) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        if (cacheControl != null) {
+            response.headers().set(HttpHeaderNames.CACHE_CONTROL, cacheControl);
+        }
+        return response;
+    }
+
+    private static ByteBuf body(String text) {
+        return Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package com.zebrunner.carina.proxy.browserup.har;
+
+import com.browserup.harreader.model.HarContent;
+import com.browserup.harreader.model.HarEntry;
+import com.browserup.harreader.model.HarPostData;
+import com.browserup.harreader.model.HarRequest;
+import com.browserup.harreader.model.HarResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CapturePolicyTest {
+
+    @Test
+    public void testHostFilters() {
+        CapturePolicy policy = new CapturePolicy()
+                .includeHosts("*.example.com,test.org")
+                .excludeHosts("cdn.example.com");
+        Assert.assertTrue(policy.shouldCapture("www.example.com"));
+        Assert.assertTrue(policy.shouldCapture("test.org"));
+        Assert.assertFalse(policy.shouldCapture("cdn.example.com"));
+        Assert.assertFalse(policy.shouldCapture("other.net"));
+    }
+
+    @Test
+    public void testSampling() {
+        Assert.assertFalse(new CapturePolicy().samplePercentage(0).shouldCapture("example.com"));
+        Assert.assertTrue(new CapturePolicy().samplePercentage(100).shouldCapture("example.com"));
+        CapturePolicy policy = new CapturePolicy().samplePercentage(50);
+        int captured = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (policy.shouldCapture("example.com")) {
+                captured++;
+            }
+        }
+        Assert.assertTrue(captured > 4_000 && captured < 6_000, "Unexpected number of sampled requests: " + captured);
+        Assert.assertThrows(IllegalArgumentException.class, () -> new CapturePolicy().samplePercentage(101));
+    }
+
+    @Test
+    public void testContentTypeFilters() {
+        CapturePolicy policy = new CapturePolicy()
+                .includeContentTypes("text/*", "application/json")
+                .excludeContentTypes("text/css");
+        Assert.assertTrue(policy.shouldStore("text/html; charset=UTF-8"));
+        Assert.assertTrue(policy.shouldStore("Application/JSON"));
+        Assert.assertFalse(policy.shouldStore("text/css"));
+        Assert.assertFalse(policy.shouldStore("image/png"));
+        Assert.assertFalse(policy.shouldStore(null));
+        Assert.assertTrue(new CapturePolicy().excludeContentTypes("image/*").shouldStore(null));
+    }
+
+    @Test
+    public void testStaticAssets() {
+        CapturePolicy policy = new CapturePolicy().headersOnlyForStaticAssets(true);
+        Assert.assertTrue(policy.isHeadersOnly("/img/logo.PNG?v=2"));
+        Assert.assertTrue(policy.isHeadersOnly("https://example.com/fonts/roboto.woff2#x"));
+        Assert.assertFalse(policy.isHeadersOnly("https://example.com/app.js"));
+        Assert.assertFalse(policy.isHeadersOnly("https://example.com/v1.png/data"));
+        Assert.assertFalse(new CapturePolicy().isHeadersOnly("/img/logo.png"));
+
+        HarEntry entry = entry("image/svg+xml", "<svg/>");
+        policy.apply(entry);
+        Assert.assertNull(entry.getResponse().getContent().getText());
+        entry = entry("application/json", "{}");
+        policy.apply(entry);
+        Assert.assertEquals(entry.getResponse().getContent().getText(), "{}");
+    }
+
+    @Test
+    public void testBodiesAreTruncated() {
+        CapturePolicy policy = new CapturePolicy().maxBodySize(5);
+        HarEntry entry = entry("text/plain", "0123456789");
+        HarPostData postData = new HarPostData();
+        postData.setText("abcdef");
+        entry.getRequest().setPostData(postData);
+        policy.apply(entry);
+        Assert.assertEquals(entry.getResponse().getContent().getText(), "01234" + String.format(CapturePolicy.TRUNCATION_MARKER, 5, 10));
+        Assert.assertEquals(entry.getRequest().getPostData().getText(), "abcde" + String.format(CapturePolicy.TRUNCATION_MARKER, 5, 6));
+
+        entry = entry("text/plain", "01234");
+        policy.apply(entry);
+        Assert.assertEquals(entry.getResponse().getContent().getText(), "01234");
+    }
+
+    private static HarEntry entry(String mimeType, String text) {
+        HarContent content = new HarContent();
+        content.setMimeType(mimeType);
+        content.setText(text);
+        HarResponse response = new HarResponse();
+        response.setContent(content);
+        HarEntry entry = new HarEntry();
+        entry.setRequest(new HarRequest());
+        entry.setResponse(response);
+        return entry;
+    }
+}
@@ -0,0 +1,162 @@
+package com.zebrunner.carina.proxy.browserup.har;
+
+import com.browserup.bup.BrowserUpProxyServer;
+import com.browserup.bup.proxy.CaptureType;
+import com.browserup.harreader.model.Har;
+import com.browserup.harreader.model.HarEntry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy;
+import org.apache.commons.lang3.StringUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+public class StreamingHarCaptureTest {
+    private HttpServer server;
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = ("hello " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+            String path = exchange.getRequestURI().getPath();
+            exchange.getResponseHeaders().set("Content-Type", path.endsWith(".css") ? "text/css" : "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        directory = Files.createTempDirectory("streaming-har");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testEntriesAreStreamedAndHarIsWrittenOnStop() throws IOException, InterruptedException {
+        CarinaBrowserUpProxy proxy = new CarinaBrowserUpProxy();
+        Path harFile = directory.resolve("test.har");
+        StreamingHarCapture capture = proxy.startStreamingHarCapture(harFile, EnumSet.of(CaptureType.RESPONSE_CONTENT));
+        proxy.start(0);
+        try {
+            get(proxy, "/first");
+            capture.newPage("second", "Second page");
+            get(proxy, "/second");
+            get(proxy, "/third");
+
+            awaitEntries(capture, 3);
+            HarEntry first = capture.readEntry(0);
+            Assert.assertTrue(first.getRequest().getUrl().endsWith("/first"));
+            Assert.assertEquals(first.getPageref(), BrowserUpProxyServer.DEFAULT_PAGE_REF);
+            Assert.assertTrue(Files.size(capture.getEntriesFile()) > 0, "Entries should be written to the file");
+        } finally {
+            proxy.stop();
+        }
+
+        Assert.assertFalse(Files.exists(capture.getEntriesFile()), "Entries file should be deleted");
+        Har har = new ObjectMapper().readValue(harFile.toFile(), Har.class);
+        Assert.assertEquals(har.getLog().getPages().size(), 2);
+        Assert.assertEquals(har.getLog().getEntries().size(), 3);
+        HarEntry third = har.getLog().getEntries().get(2);
+        Assert.assertTrue(third.getRequest().getUrl().endsWith("/third"));
+        Assert.assertEquals(third.getPageref(), "second");
+        Assert.assertEquals(third.getResponse().getStatus(), 200);
+        Assert.assertEquals(third.getResponse().getContent().getText(), "hello /third");
+    }
+
+    @Test
+    public void testCaptureIsContinuedAfterRestart() throws IOException, InterruptedException {
+        CarinaBrowserUpProxy proxy = new CarinaBrowserUpProxy();
+        Path harFile = directory.resolve("restart.har");
+        StreamingHarCapture capture = proxy.startStreamingHarCapture(harFile, EnumSet.of(CaptureType.RESPONSE_CONTENT));
+        proxy.start(0);
+        try {
+            get(proxy, "/before");
+            awaitEntries(capture, 1);
+            proxy.restart(0);
+            Assert.assertFalse(Files.exists(harFile), "HAR should not be written on restart");
+            get(proxy, "/after");
+            awaitEntries(capture, 2);
+        } finally {
+            proxy.stop();
+        }
+
+        Har har = new ObjectMapper().readValue(harFile.toFile(), Har.class);
+        Assert.assertEquals(har.getLog().getEntries().size(), 2);
+        Assert.assertTrue(har.getLog().getEntries().get(1).getRequest().getUrl().endsWith("/after"));
+    }
+
+    @Test
+    public void testCapturePolicyIsApplied() throws IOException, InterruptedException {
+        CarinaBrowserUpProxy proxy = new CarinaBrowserUpProxy();
+        Path harFile = directory.resolve("policy.har");
+        CapturePolicy policy = new CapturePolicy()
+                .excludeContentTypes("text/css")
+                .maxBodySize(8)
+                .headersOnlyForStaticAssets(true);
+        StreamingHarCapture capture = proxy.startStreamingHarCapture(harFile, EnumSet.of(CaptureType.RESPONSE_CONTENT), policy);
+        proxy.start(0);
+        try {
+            get(proxy, "/style.css");
+            get(proxy, "/logo.png");
+            get(proxy, "/document");
+            awaitEntries(capture, 2);
+        } finally {
+            proxy.stop();
+        }
+
+        Har har = new ObjectMapper().readValue(harFile.toFile(), Har.class);
+        Assert.assertEquals(har.getLog().getEntries().size(), 2);
+        HarEntry image = har.getLog().getEntries().get(0);
+        Assert.assertTrue(image.getRequest().getUrl().endsWith("/logo.png"));
+        Assert.assertTrue(StringUtils.isEmpty(image.getResponse().getContent().getText()), "Content of the static asset should not be captured");
+        HarEntry document = har.getLog().getEntries().get(1);
+        Assert.assertEquals(document.getResponse().getContent().getText(),
+                "hello /d" + String.format(CapturePolicy.TRUNCATION_MARKER, 8, 15));
+    }
+
+    private void get(CarinaBrowserUpProxy proxy, String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        Proxy httpProxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.getProxy().getPort()));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection(httpProxy);
+        try (InputStream is = connection.getInputStream()) {
+            Assert.assertEquals(new String(is.readAllBytes(), StandardCharsets.UTF_8), "hello " + path);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void awaitEntries(StreamingHarCapture capture, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (capture.getEntryCount() < count && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        Assert.assertEquals(capture.getEntryCount(), count);
+    }
+}
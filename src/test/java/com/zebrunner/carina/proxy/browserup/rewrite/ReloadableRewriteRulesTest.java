@@ -0,0 +1,123 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import com.browserup.bup.util.HttpMessageInfo;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.apache.commons.lang3.tuple.Pair;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+public class ReloadableRewriteRulesTest {
+    private static final String EXAMPLE_RULES = "[{\"host\": \".*example\\\\.com.*\", \"regex\": \"cdn\", \"replacement\": \"static\","
+            + " \"headers\": [{\"method\": \"update\", \"name\": \"Cache-Control\", \"value\": \"no-cache\"}]}]";
+    private static final String OTHER_RULES = "[{\"host\": \".*other\\\\.org.*\"}]";
+
+    private Path directory;
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("rewrite-rules");
+        file = directory.resolve("rules.json");
+        Files.writeString(file, EXAMPLE_RULES);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testReadRules() throws IOException {
+        List<RewriteItem> rules = ReloadableRewriteRules.read(file);
+        Assert.assertEquals(rules.size(), 1);
+        RewriteItem item = rules.get(0);
+        Assert.assertEquals(item.getHost(), ".*example\\.com.*");
+        Assert.assertEquals(item.getRegex(), "cdn");
+        Assert.assertEquals(item.getReplacement(), "static");
+        Assert.assertEquals(item.getHeaders().get(0).getMethod(), HeaderMethod.UPDATE);
+        Assert.assertEquals(item.getHeaders().get(0).getHeader().getKey(), "Cache-Control");
+        Assert.assertEquals(item.getHeaders().get(0).getHeader().getValue(), "no-cache");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRuleWithoutHostIsRejected() throws IOException {
+        Files.writeString(file, "[{\"regex\": \"cdn\"}]");
+        ReloadableRewriteRules.read(file);
+    }
+
+    @Test
+    public void testChangedFileIsReloaded() throws IOException, InterruptedException {
+        try (ReloadableRewriteRules rules = ReloadableRewriteRules.watch(file)) {
+            Assert.assertFalse(rules.getEngine().match("http://example.com/").isEmpty());
+
+            Files.writeString(file, OTHER_RULES);
+            RewriteRuleEngine engine = awaitEngine(rules, e -> !e.match("http://other.org/").isEmpty());
+            Assert.assertTrue(engine.match("http://example.com/").isEmpty(), "Previous rules should be replaced");
+        }
+    }
+
+    @Test
+    public void testIncorrectFileKeepsPreviousRules() throws IOException, InterruptedException {
+        try (ReloadableRewriteRules rules = ReloadableRewriteRules.watch(file)) {
+            RewriteRuleEngine engine = rules.getEngine();
+            Files.writeString(file, "[{\"host\": \"(\"}]");
+            TimeUnit.SECONDS.sleep(1);
+            Assert.assertSame(rules.getEngine(), engine, "Previous rules should be kept");
+
+            Files.writeString(file, OTHER_RULES);
+            awaitEngine(rules, e -> !e.match("http://other.org/").isEmpty());
+        }
+    }
+
+    @Test
+    public void testFilterUsesUpdatedRules() {
+        ReloadableRewriteRules rules = ReloadableRewriteRules.of(List.of());
+        CustomRsFilter filter = new CustomRsFilter(rules);
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        String url = "http://other.org/";
+        HttpMessageInfo info = new HttpMessageInfo(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, url),
+                channel.pipeline().firstContext(), false, url, url);
+
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        filter.filterResponse(response, null, info);
+        Assert.assertFalse(response.headers().contains(HttpHeaderNames.CACHE_CONTROL));
+
+        rules.update(List.of(new RewriteItem(".*other\\.org.*", "", "",
+                List.of(new HeaderItem(HeaderMethod.ADD, Pair.of("Cache-Control", "no-cache"))))));
+        filter.filterResponse(response, null, info);
+        Assert.assertEquals(response.headers().get(HttpHeaderNames.CACHE_CONTROL), "no-cache");
+        channel.finishAndReleaseAll();
+    }
+
+    private static RewriteRuleEngine awaitEngine(ReloadableRewriteRules rules, Predicate<RewriteRuleEngine> condition)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        while (System.nanoTime() < deadline) {
+            RewriteRuleEngine engine = rules.getEngine();
+            if (condition.test(engine)) {
+                return engine;
+            }
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        Assert.fail("Rules are not reloaded");
+        return null;
+    }
+}
@@ -0,0 +1,137 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import com.browserup.bup.util.HttpMessageContents;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.apache.commons.lang3.tuple.Pair;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class RewriteRuleEngineTest {
+    private static final String[] HOSTS = {
+            "http://example.com/",
+            ".*example\\.com.*",
+            ".*cdn.example.com/static.*",
+            ".*\\.org.*",
+            ".*/api/v[0-9]+/.*",
+            "https://.*",
+            ".*.*",
+            "(?i).*EXAMPLE.*"
+    };
+    private static final String[] URLS = {
+            "http://example.com/",
+            "http://example.com/index.html",
+            "https://cdn.example.com/static/app.js",
+            "https://cdnxexample.com/static/app.js",
+            "http://example.org/api/v2/users",
+            "http://test.org",
+            "ftp://other.net",
+            "http://example.com/\npath",
+            ""
+    };
+
+    @Test
+    public void testMatchIsTheSameAsRegex() {
+        List<RewriteItem> rewrites = new ArrayList<>();
+        for (String host : HOSTS) {
+            rewrites.add(new RewriteItem(host, "", "", new ArrayList<>()));
+        }
+        RewriteRuleEngine engine = RewriteRuleEngine.compile(rewrites);
+        for (String url : URLS) {
+            List<String> expected = rewrites.stream()
+                    .filter(item -> url.matches(item.getHost()))
+                    .map(RewriteItem::getHost)
+                    .collect(Collectors.toList());
+            List<String> actual = engine.match(url).stream()
+                    .map(RewriteItem::getHost)
+                    .collect(Collectors.toList());
+            Assert.assertEquals(actual, expected, "Matched rules are not as expected for url: " + url);
+        }
+    }
+
+    @Test
+    public void testToLiteral() {
+        Assert.assertEquals(RewriteRuleEngine.toLiteral("example\\.com/a-b"), "example.com/a-b");
+        Assert.assertNull(RewriteRuleEngine.toLiteral("example.com"));
+        Assert.assertNull(RewriteRuleEngine.toLiteral("a\\d"));
+        Assert.assertNull(RewriteRuleEngine.toLiteral("a\\"));
+    }
+
+    @Test
+    public void testHeadersAndBodyAreRewrittenInOrder() {
+        List<HeaderItem> headers = List.of(
+                new HeaderItem(HeaderMethod.ADD, Pair.of("X-Carina", "1")),
+                new HeaderItem(HeaderMethod.REMOVE, Pair.of("Server", null)),
+                new HeaderItem(HeaderMethod.UPDATE, Pair.of("Content-Language", "en")));
+        RewriteRuleEngine engine = RewriteRuleEngine.compile(List.of(
+                new RewriteItem(".*example\\.com.*", "foo", "bar", headers),
+                new RewriteItem(".*example.*", "bar(\\d)", "baz$1", new ArrayList<>())));
+
+        FullHttpResponse response = response("foo1 foo2 qux");
+        response.headers().set(HttpHeaderNames.SERVER, "test");
+        response.headers().set(HttpHeaderNames.CONTENT_LANGUAGE, "de");
+        HttpMessageContents contents = new HttpMessageContents(response);
+        engine.apply("http://example.com/", response.headers(), contents);
+
+        Assert.assertEquals(contents.getTextContents(), "baz1 baz2 qux");
+        Assert.assertEquals(response.headers().get("X-Carina"), "1");
+        Assert.assertFalse(response.headers().contains(HttpHeaderNames.SERVER));
+        Assert.assertEquals(response.headers().get(HttpHeaderNames.CONTENT_LANGUAGE), "en");
+    }
+
+    @Test
+    public void testBodyIsNotTouchedWithoutBodyRule() {
+        RewriteRuleEngine engine = RewriteRuleEngine.compile(List.of(
+                new RewriteItem(".*example\\.com.*", "", "", List.of(new HeaderItem(HeaderMethod.ADD, Pair.of("X-Carina", "1")))),
+                new RewriteItem(".*other\\.com.*", "foo", "bar", new ArrayList<>())));
+        FullHttpResponse response = response("foo");
+        HttpMessageContents contents = new HttpMessageContents(response) {
+            @Override
+            public String getTextContents() {
+                throw new AssertionError("Body should not be read");
+            }
+        };
+        engine.apply("http://example.com/", response.headers(), contents);
+        Assert.assertEquals(response.headers().get("X-Carina"), "1");
+    }
+
+    @Test
+    public void testRulesAreProfiled() {
+        RewriteRuleEngine engine = RewriteRuleEngine.compile(List.of(
+                new RewriteItem(".*example\\.com.*", "foo", "bar", new ArrayList<>()),
+                new RewriteItem("https?://(www\\.)?other\\.com/.*", "", "", new ArrayList<>())));
+
+        FullHttpResponse response = response("foo1 foo2 qux");
+        engine.apply("http://example.com/", response.headers(), new HttpMessageContents(response));
+        engine.apply("http://example.com/", response.headers(), new HttpMessageContents(response));
+        engine.apply("http://test.org/", response.headers(), new HttpMessageContents(response));
+
+        List<RewriteRuleStats> statistics = engine.getStatistics();
+        Assert.assertEquals(statistics.size(), 2);
+        RewriteRuleStats body = statistics.get(0);
+        Assert.assertEquals(body.getMatches(), 2);
+        // the second time the body is already rewritten
+        Assert.assertEquals(body.getCharsScanned(), 26);
+        Assert.assertEquals(body.getCharsReplaced(), 6);
+        Assert.assertTrue(body.getNanos() > 0);
+        RewriteRuleStats host = statistics.get(1);
+        Assert.assertEquals(host.getMatches(), 0);
+        Assert.assertTrue(host.getNanos() > 0, "Time of the host regex should be recorded");
+    }
+
+    private static FullHttpResponse response(String body) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
+        return response;
+    }
+}
@@ -0,0 +1,106 @@
+package com.zebrunner.carina.proxy.browserup.rewrite;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.littleshoot.proxy.HttpFilters;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StreamingRewriteFilterTest {
+
+    @Test
+    public void testReplacementsSpanningChunks() {
+        String[][] replacements = { { "aab", "X" }, { "cdn.example.com", "cdn.example.org" }, { "Xa", "" } };
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        String[] parts = { "a", "aa", "aab", "b", "cdn.example.com", "cdn.exam", "X", " " };
+        for (int i = 0; i < 2000; i++) {
+            text.append(parts[random.nextInt(parts.length)]);
+        }
+        String expected = text.toString();
+        for (String[] replacement : replacements) {
+            expected = expected.replace(replacement[0], replacement[1]);
+        }
+
+        for (int maxChunk : new int[] { 1, 2, 7, 64, 100_000 }) {
+            ByteBufReplacer replacer = new ByteBufReplacer();
+            for (String[] replacement : replacements) {
+                replacer.add(replacement[0].getBytes(StandardCharsets.UTF_8), replacement[1].getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            StringBuilder actual = new StringBuilder();
+            for (int i = 0; i < bytes.length; ) {
+                int length = Math.min(bytes.length - i, 1 + random.nextInt(maxChunk));
+                actual.append(replacer.process(Unpooled.wrappedBuffer(bytes, i, length)).toString(StandardCharsets.UTF_8));
+                i += length;
+            }
+            actual.append(replacer.finish().toString(StandardCharsets.UTF_8));
+            Assert.assertEquals(actual.toString(), expected, "Rewritten text is not as expected for chunks up to " + maxChunk);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRegexBodyRuleIsRejected() {
+        new StreamingRewriteFilter(List.of(new RewriteItem(".*", "cdn[0-9]", "cdn", new ArrayList<>())));
+    }
+
+    @Test
+    public void testResponseIsRewrittenChunkByChunk() {
+        StreamingRewriteFilter filter = new StreamingRewriteFilter(List.of(
+                new RewriteItem(".*example\\.com.*", "cdn\\.example\\.com", "$0.cache", new ArrayList<>())));
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://example.com/app.js");
+        request.headers().set(HttpHeaderNames.HOST, "example.com");
+        request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        HttpFilters filters = filter.filterRequest(request, ctx);
+
+        Assert.assertNull(filters.clientToProxyRequest(request));
+        Assert.assertEquals(request.headers().get(HttpHeaderNames.ACCEPT_ENCODING), "identity");
+
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/javascript");
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 100);
+        filters.serverToProxyResponse(response);
+        Assert.assertTrue(HttpUtil.isTransferEncodingChunked(response));
+        Assert.assertFalse(response.headers().contains(HttpHeaderNames.CONTENT_LENGTH));
+
+        StringBuilder body = new StringBuilder();
+        body.append(content(filters.serverToProxyResponse(new DefaultHttpContent(buffer("load('https://cdn.exa")))));
+        body.append(content(filters.serverToProxyResponse(new DefaultHttpContent(buffer("mple.com/a.js');")))));
+        HttpContent last = (HttpContent) filters.serverToProxyResponse(new DefaultLastHttpContent(buffer(" // cdn.example")));
+        Assert.assertTrue(last instanceof LastHttpContent);
+        body.append(content(last));
+        Assert.assertEquals(body.toString(), "load('https://cdn.example.com.cache/a.js'); // cdn.example");
+        channel.finishAndReleaseAll();
+    }
+
+    private static ByteBuf buffer(String text) {
+        return Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+    }
+
+    private static String content(Object httpObject) {
+        return ((HttpContent) httpObject).content().toString(StandardCharsets.UTF_8);
+    }
+}
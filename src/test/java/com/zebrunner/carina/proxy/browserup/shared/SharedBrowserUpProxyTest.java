@@ -0,0 +1,149 @@
+package com.zebrunner.carina.proxy.browserup.shared;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zebrunner.carina.proxy.ProxyConfig;
+import com.zebrunner.carina.proxy.ProxyPool;
+import com.zebrunner.carina.proxy.ProxyUtils;
+import com.zebrunner.carina.utils.R;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+
+public class SharedBrowserUpProxyTest {
+    private static final String SESSION_HEADER = "x-carina-session";
+
+    private HttpServer httpServer;
+    private String url;
+
+    @BeforeClass
+    public void beforeClass() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpServer.createContext("/", exchange -> {
+            String session = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+            byte[] body = String.valueOf(session).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        httpServer.start();
+        url = "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/";
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void afterClass() {
+        httpServer.stop(0);
+    }
+
+    @Test
+    public void testSessionsAreIdentifiedByListenerPort() throws IOException {
+        SharedBrowserUpProxy first = new SharedBrowserUpProxy();
+        SharedBrowserUpProxy second = new SharedBrowserUpProxy();
+        first.addRequestFilter((request, contents, messageInfo) -> {
+            request.headers().set(SESSION_HEADER, "first");
+            return null;
+        });
+        second.addRequestFilter((request, contents, messageInfo) -> {
+            request.headers().set(SESSION_HEADER, "second");
+            return null;
+        });
+        try {
+            int firstPort = first.start(0).getPort();
+            int secondPort = second.start(0).getPort();
+            Assert.assertNotEquals(firstPort, secondPort, "Sessions should have dedicated listener ports");
+            Assert.assertEquals(first.getServer().getSessionCount(), 2);
+
+            Assert.assertEquals(request(firstPort, null), "first");
+            Assert.assertEquals(request(secondPort, null), "second");
+            Assert.assertEquals(request(firstPort, null), "first");
+        } finally {
+            first.stop();
+            second.stop();
+        }
+        Assert.assertFalse(SharedBrowserUpProxyServer.getInstance().isStarted(),
+                "Shared server should be stopped after the last session");
+    }
+
+    @Test
+    public void testSessionsAreIdentifiedByProxyAuthUsername() throws IOException {
+        SharedBrowserUpProxy first = new SharedBrowserUpProxy(SharedBrowserUpProxy.Mode.PROXY_AUTH);
+        SharedBrowserUpProxy second = new SharedBrowserUpProxy(SharedBrowserUpProxy.Mode.PROXY_AUTH);
+        first.addRequestFilter((request, contents, messageInfo) -> {
+            request.headers().set(SESSION_HEADER, "first");
+            return null;
+        });
+        second.newHar();
+        try {
+            int port = first.start(0).getPort();
+            Assert.assertEquals(second.start(0).getPort().intValue(), port, "Sessions should use the port of the shared server");
+
+            Assert.assertEquals(request(port, first.getUsername()), "first");
+            Assert.assertEquals(request(port, second.getUsername()), "null");
+            Assert.assertEquals(second.getHar().getLog().getEntries().size(), 1, "Request should be captured by the second session only");
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void testRequestWithoutSessionIsChallenged() throws IOException {
+        SharedBrowserUpProxy session = new SharedBrowserUpProxy(SharedBrowserUpProxy.Mode.PROXY_AUTH);
+        try {
+            int port = session.start(0).getPort();
+            Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(proxy);
+            try {
+                Assert.assertEquals(connection.getResponseCode(), 407);
+                Assert.assertTrue(connection.getHeaderField("Proxy-Authenticate").startsWith("Basic "),
+                        "Proxy-Authenticate challenge should be sent");
+            } finally {
+                connection.disconnect();
+            }
+            Assert.assertEquals(request(port, session.getUsername()), "null");
+        } finally {
+            session.stop();
+        }
+    }
+
+    @Test
+    public void testProxyAuthSessionIsNotUsedForSeleniumProxy() {
+        String proxyType = R.CONFIG.get("proxy_type");
+        R.CONFIG.put("proxy_type", "DYNAMIC", true);
+        ProxyPool.setRule(() -> Optional.of(new SharedBrowserUpProxy(SharedBrowserUpProxy.Mode.PROXY_AUTH)), true);
+        try {
+            Assert.assertThrows(IllegalStateException.class, ProxyUtils::getSeleniumProxy);
+        } finally {
+            ProxyPool.stopProxy();
+            ProxyPool.clearThreadRule();
+            R.CONFIG.put("proxy_type", proxyType, true);
+            ProxyConfig.invalidate();
+        }
+    }
+
+    private String request(int proxyPort, String username) throws IOException {
+        Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(InetAddress.getLoopbackAddress(), proxyPort));
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(proxy);
+        if (username != null) {
+            String credentials = Base64.getEncoder().encodeToString((username + ":").getBytes(StandardCharsets.UTF_8));
+            connection.setRequestProperty("Proxy-Authorization", "Basic " + credentials);
+        }
+        try (InputStream stream = connection.getInputStream()) {
+            Assert.assertEquals(connection.getResponseCode(), 200);
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
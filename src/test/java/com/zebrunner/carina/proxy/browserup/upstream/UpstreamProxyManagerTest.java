@@ -0,0 +1,103 @@
+package com.zebrunner.carina.proxy.browserup.upstream;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zebrunner.carina.proxy.browserup.CarinaBrowserUpProxy;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class UpstreamProxyManagerTest {
+
+    @Test
+    public void testParse() {
+        UpstreamProxyManager manager = UpstreamProxyManager.parse("egress1:3128, user:p@ss:w@egress2:8080");
+        List<UpstreamProxy> upstreams = manager.getUpstreams();
+        Assert.assertEquals(upstreams.size(), 2);
+        Assert.assertEquals(upstreams.get(0).getHost(), "egress1");
+        Assert.assertEquals(upstreams.get(0).getPort(), 3128);
+        Assert.assertNull(upstreams.get(0).getUsername());
+        Assert.assertEquals(upstreams.get(1).getHost(), "egress2");
+        Assert.assertEquals(upstreams.get(1).getUsername(), "user");
+        Assert.assertEquals(upstreams.get(1).getPassword(), "p@ss:w");
+        Assert.assertThrows(IllegalArgumentException.class, () -> UpstreamProxyManager.parse("egress1"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> UpstreamProxyManager.parse(" , "));
+    }
+
+    @Test
+    public void testLeastLoadedHealthyProxyIsSelectedFirst() {
+        UpstreamProxy slow = new UpstreamProxy("slow", 3128);
+        UpstreamProxy fast = new UpstreamProxy("fast", 3128);
+        UpstreamProxy down = new UpstreamProxy("down", 3128);
+        UpstreamProxyManager manager = new UpstreamProxyManager(List.of(down, slow, fast));
+
+        slow.onConnected(TimeUnit.MILLISECONDS.toNanos(100));
+        fast.onConnected(TimeUnit.MILLISECONDS.toNanos(10));
+        down.onFailure();
+        Assert.assertFalse(down.isHealthy());
+        Assert.assertEquals(manager.select(), List.of(fast, slow, down));
+
+        // fast proxy is loaded: 11 connections * 10 ms > 1 connection * 100 ms
+        for (int i = 0; i < 10; i++) {
+            fast.onConnected(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        slow.onDisconnected();
+        Assert.assertEquals(manager.select(), List.of(slow, fast, down));
+    }
+
+    @Test
+    public void testRequestsFailOverToHealthyProxy() throws IOException {
+        HttpServer upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        upstream.createContext("/", exchange -> {
+            byte[] body = ("via upstream " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        upstream.start();
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        UpstreamProxy down = new UpstreamProxy("127.0.0.1", closedPort);
+        UpstreamProxy alive = new UpstreamProxy("127.0.0.1", upstream.getAddress().getPort());
+        UpstreamProxyManager manager = new UpstreamProxyManager(List.of(down, alive));
+
+        CarinaBrowserUpProxy proxy = new CarinaBrowserUpProxy();
+        proxy.useUpstreamProxies(manager);
+        proxy.start(0);
+        try {
+            Assert.assertEquals(get(proxy, "http://127.0.0.1:1/first"), "via upstream /first");
+            Assert.assertFalse(down.isHealthy(), "Failed proxy should be unhealthy");
+            Assert.assertEquals(get(proxy, "http://127.0.0.1:1/second"), "via upstream /second");
+        } finally {
+            proxy.stop();
+            upstream.stop(0);
+        }
+        Assert.assertEquals(down.getFailureCount(), 1, "Unhealthy proxy should not be tried again during backoff");
+        Assert.assertTrue(alive.getConnectionCount() >= 1);
+        Assert.assertEquals(alive.getFailureCount(), 0);
+    }
+
+    private static String get(CarinaBrowserUpProxy proxy, String url) throws IOException {
+        Proxy httpProxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.getProxy().getPort()));
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(httpProxy);
+        try (InputStream is = connection.getInputStream()) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
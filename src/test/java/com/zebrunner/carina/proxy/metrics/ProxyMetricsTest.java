@@ -0,0 +1,66 @@
+package com.zebrunner.carina.proxy.metrics;
+
+import com.zebrunner.carina.proxy.ProxyPool;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class ProxyMetricsTest {
+
+    @Test
+    public void testLatencyHistogramPercentiles() {
+        LatencyHistogram histogram = ProxyMetrics.histogram("test.latency");
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+
+        LatencySnapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(snapshot.getCount(), 100);
+        Assert.assertEquals(snapshot.getMax(), TimeUnit.SECONDS.toNanos(1));
+        // percentiles are accurate within the factor of two
+        Assert.assertTrue(snapshot.getP50() >= TimeUnit.MILLISECONDS.toNanos(1) && snapshot.getP50() < TimeUnit.MILLISECONDS.toNanos(2),
+                "Unexpected p50: " + snapshot.getP50());
+        Assert.assertTrue(snapshot.getP99() < TimeUnit.MILLISECONDS.toNanos(2), "Unexpected p99: " + snapshot.getP99());
+    }
+
+    @Test
+    public void testListenerReceivesCounters() {
+        List<String> names = new CopyOnWriteArrayList<>();
+        IProxyMetricsListener listener = new IProxyMetricsListener() {
+            @Override
+            public void onCounter(String name, long delta) {
+                names.add(name);
+            }
+        };
+        ProxyMetrics.addListener(listener);
+        try {
+            ProxyMetrics.counter("test.counter").add(2);
+        } finally {
+            ProxyMetrics.removeListener(listener);
+        }
+        Assert.assertEquals(names, List.of("test.counter"));
+        Assert.assertEquals(ProxyMetrics.getCounters().get("test.counter").longValue(), 2);
+    }
+
+    @Test
+    public void testMetricsAreExposedViaJmx() throws Exception {
+        // pool registers its gauges on initialization
+        ProxyPool.getOwnerId();
+        ProxyMetrics.counter("test.jmx").increment();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ProxyMetrics.OBJECT_NAME);
+        TabularData counters = (TabularData) server.getAttribute(name, "Counters");
+        Assert.assertNotNull(counters.get(new Object[] { "test.jmx" }), "Counter should be exposed via JMX");
+        TabularData gauges = (TabularData) server.getAttribute(name, "Gauges");
+        Assert.assertNotNull(gauges.get(new Object[] { ProxyMetrics.PROXY_ACTIVE }), "Pool gauge should be exposed via JMX");
+    }
+}